@@ -216,6 +216,12 @@ public class ApiFeModule extends AbstractModule {
     return new LocalImageStore(config.getLocalStore(), config.getDatastore());
   }
 
+  @Provides
+  @QuotaEscrowShards
+  public int getQuotaEscrowShards() {
+    return this.configuration.getQuotaEscrowShards();
+  }
+
   @Provides
   @Singleton
   public MaintenanceConfig getMaintenanceConfig() {
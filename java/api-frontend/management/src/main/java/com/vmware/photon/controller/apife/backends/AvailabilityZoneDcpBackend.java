@@ -57,6 +57,7 @@ public class AvailabilityZoneDcpBackend implements AvailabilityZoneBackend {
   public AvailabilityZoneDcpBackend(ApiFeDcpRestClient dcpClient, TaskBackend taskBackend) {
     this.dcpClient = dcpClient;
     this.taskBackend = taskBackend;
+    this.dcpClient.enableDocumentCaching(AvailabilityZoneServiceFactory.SELF_LINK);
     this.dcpClient.start();
   }
 
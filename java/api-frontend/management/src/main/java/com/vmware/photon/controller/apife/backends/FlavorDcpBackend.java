@@ -69,6 +69,7 @@ public class FlavorDcpBackend implements FlavorBackend {
     this.vmBackend = vmBackend;
     this.diskBackend = diskBackend;
     this.tombstoneBackend = tombstoneBackend;
+    this.dcpClient.enableDocumentCaching(FlavorServiceFactory.SELF_LINK);
     this.dcpClient.start();
   }
 
@@ -20,6 +20,7 @@ import com.vmware.photon.controller.api.ResourceTicketCreateSpec;
 import com.vmware.photon.controller.api.common.entities.base.TagEntity;
 import com.vmware.photon.controller.api.common.exceptions.external.ErrorCode;
 import com.vmware.photon.controller.api.common.exceptions.external.ExternalException;
+import com.vmware.photon.controller.apife.QuotaEscrowShards;
 import com.vmware.photon.controller.apife.backends.clients.ApiFeDcpRestClient;
 import com.vmware.photon.controller.apife.entities.QuotaLineItemEntity;
 import com.vmware.photon.controller.apife.entities.ResourceTicketEntity;
@@ -29,6 +30,8 @@ import com.vmware.photon.controller.apife.exceptions.external.NameTakenException
 import com.vmware.photon.controller.apife.exceptions.external.QuotaException;
 import com.vmware.photon.controller.apife.exceptions.external.ResourceTicketNotFoundException;
 import com.vmware.photon.controller.apife.lib.QuotaCost;
+import com.vmware.photon.controller.cloudstore.dcp.entity.ResourceTicketEscrowService;
+import com.vmware.photon.controller.cloudstore.dcp.entity.ResourceTicketEscrowServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.ResourceTicketService;
 import com.vmware.photon.controller.cloudstore.dcp.entity.ResourceTicketServiceFactory;
 import com.vmware.photon.controller.common.dcp.ServiceUtils;
@@ -48,7 +51,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
 
 /**
  * ResourceTicketBackend is performing resource ticket operations (create etc.) as instructed by API calls.
@@ -60,14 +66,28 @@ public class ResourceTicketDcpBackend implements ResourceTicketBackend {
   private final ApiFeDcpRestClient dcpClient;
   private final TenantBackend tenantBackend;
   private final TaskBackend taskBackend;
+  private final int quotaEscrowShards;
 
+  /**
+   * Creates the backend. With escrow enabled quota is consumed from one of the escrow documents of the ticket, see
+   * {@link ResourceTicketEscrowService}, so concurrent consumers do not all patch the resource ticket. The usage of
+   * the ticket then includes the quota held in escrow.
+   *
+   * @param dcpClient
+   * @param tenantBackend
+   * @param taskBackend
+   * @param quotaEscrowShards number of escrow documents per resource ticket, 0 to consume quota directly from the
+   *                          resource ticket
+   */
   @Inject
   public ResourceTicketDcpBackend(ApiFeDcpRestClient dcpClient,
                                   TenantBackend tenantBackend,
-                                  TaskBackend taskBackend) {
+                                  TaskBackend taskBackend,
+                                  @QuotaEscrowShards int quotaEscrowShards) {
     this.dcpClient = dcpClient;
     this.tenantBackend = tenantBackend;
     this.taskBackend = taskBackend;
+    this.quotaEscrowShards = quotaEscrowShards;
 
     dcpClient.start();
   }
@@ -101,19 +121,16 @@ public class ResourceTicketDcpBackend implements ResourceTicketBackend {
       patch.cost.put(costItem.getKey(), costItem);
     }
 
+    if (quotaEscrowShards > 0) {
+      consumeQuotaFromEscrow(resourceTicketId, patch.cost);
+      return;
+    }
+
     try {
       patchResourceTicketService(resourceTicketId, patch);
     } catch (DcpRuntimeException e) {
       if (e.getCause() instanceof BadRequestException) {
-        ResourceTicketService.QuotaErrorResponse quotaErrorResponse =
-            e.getCompletedOperation().getBody(ResourceTicketService.QuotaErrorResponse.class);
-        throw new QuotaException(
-            new QuotaLineItemEntity(quotaErrorResponse.limit.getKey(),
-                quotaErrorResponse.limit.getValue(), quotaErrorResponse.limit.getUnit()),
-            new QuotaLineItemEntity(quotaErrorResponse.usage.getKey(),
-                quotaErrorResponse.usage.getValue(), quotaErrorResponse.usage.getUnit()),
-            new QuotaLineItemEntity(quotaErrorResponse.newUsage.getKey(),
-                quotaErrorResponse.newUsage.getValue(), quotaErrorResponse.newUsage.getUnit()));
+        throw toQuotaException(e);
       }
     }
   }
@@ -139,6 +156,14 @@ public class ResourceTicketDcpBackend implements ResourceTicketBackend {
       patch.cost.put(costItem.getKey(), costItem);
     }
 
+    if (quotaEscrowShards > 0) {
+      ResourceTicketEscrowService.Patch escrowPatch = new ResourceTicketEscrowService.Patch();
+      escrowPatch.patchtype = ResourceTicketEscrowService.Patch.PatchType.USAGE_RETURN;
+      escrowPatch.cost = patch.cost;
+      patchEscrowService(resourceTicketId, selectEscrowShard(), escrowPatch);
+      return;
+    }
+
     patchResourceTicketService(resourceTicketId, patch);
   }
 
@@ -257,6 +282,7 @@ public class ResourceTicketDcpBackend implements ResourceTicketBackend {
     dcpClient.delete(
         ResourceTicketServiceFactory.SELF_LINK + "/" + resourceTicketId,
         new ResourceTicketService.State());
+    deleteEscrow(resourceTicketId);
   }
 
   @Override
@@ -369,6 +395,118 @@ public class ResourceTicketDcpBackend implements ResourceTicketBackend {
     }
   }
 
+  private void consumeQuotaFromEscrow(String resourceTicketId, Map<String, QuotaLineItem> cost)
+      throws QuotaException, ResourceTicketNotFoundException {
+    ResourceTicketEscrowService.Patch patch = new ResourceTicketEscrowService.Patch();
+    patch.patchtype = ResourceTicketEscrowService.Patch.PatchType.USAGE_CONSUME;
+    patch.cost = cost;
+
+    int shard = selectEscrowShard();
+    try {
+      patchEscrowService(resourceTicketId, shard, patch);
+      return;
+    } catch (DcpRuntimeException e) {
+      if (!(e.getCause() instanceof BadRequestException)) {
+        throw e;
+      }
+    }
+
+    // other shards may hold the quota that this one is missing, hand
+    // all escrow back to the ticket and try once more.
+    releaseEscrow(resourceTicketId);
+    try {
+      patchEscrowService(resourceTicketId, shard, patch);
+    } catch (DcpRuntimeException e) {
+      if (e.getCause() instanceof BadRequestException) {
+        throw toQuotaException(e);
+      }
+
+      throw e;
+    }
+  }
+
+  private void releaseEscrow(String resourceTicketId) {
+    ResourceTicketEscrowService.Patch patch = new ResourceTicketEscrowService.Patch();
+    patch.patchtype = ResourceTicketEscrowService.Patch.PatchType.ESCROW_RELEASE;
+
+    Map<String, ResourceTicketEscrowService.Patch> patches = new HashMap<>();
+    for (int shard = 0; shard < quotaEscrowShards; shard++) {
+      patches.put(ResourceTicketEscrowService.getSelfLink(resourceTicketId, shard), patch);
+    }
+
+    try {
+      // shards which were never used do not exist, their failures are ignored.
+      dcpClient.patch(patches, quotaEscrowShards);
+    } catch (TimeoutException | InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void deleteEscrow(String resourceTicketId) {
+    if (quotaEscrowShards == 0) {
+      return;
+    }
+
+    List<String> escrowLinks = new ArrayList<>();
+    for (int shard = 0; shard < quotaEscrowShards; shard++) {
+      escrowLinks.add(ResourceTicketEscrowService.getSelfLink(resourceTicketId, shard));
+    }
+
+    try {
+      // shards which were never used do not exist, their failures are ignored. escrow documents
+      // missed here delete themselves once they find their resource ticket deleted.
+      dcpClient.delete(escrowLinks, quotaEscrowShards);
+    } catch (TimeoutException | InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void patchEscrowService(String resourceTicketId, int shard, ResourceTicketEscrowService.Patch patch)
+      throws ResourceTicketNotFoundException {
+    String escrowLink = ResourceTicketEscrowService.getSelfLink(resourceTicketId, shard);
+    try {
+      dcpClient.patch(escrowLink, patch);
+      return;
+    } catch (DocumentNotFoundException e) {
+      logger.info("Creating escrow {} of resource ticket {}", escrowLink, resourceTicketId);
+    }
+
+    // check the ticket exists before creating an escrow for it.
+    getResourceTicketStateById(resourceTicketId);
+
+    ResourceTicketEscrowService.State escrow = new ResourceTicketEscrowService.State();
+    escrow.resourceTicketId = resourceTicketId;
+    escrow.documentSelfLink = ServiceUtils.getIDFromDocumentSelfLink(escrowLink);
+    try {
+      dcpClient.post(ResourceTicketEscrowServiceFactory.SELF_LINK, escrow);
+    } catch (DcpRuntimeException e) {
+      // a concurrent request created the escrow first.
+      logger.info("Escrow {} was already created", escrowLink);
+    }
+
+    try {
+      dcpClient.patch(escrowLink, patch);
+    } catch (DocumentNotFoundException e) {
+      throw new ResourceTicketNotFoundException(resourceTicketId);
+    }
+  }
+
+  private int selectEscrowShard() {
+    return ThreadLocalRandom.current().nextInt(quotaEscrowShards);
+  }
+
+  private QuotaException toQuotaException(DcpRuntimeException e) {
+    ResourceTicketService.QuotaErrorResponse quotaErrorResponse =
+        e.getCompletedOperation().getBody(ResourceTicketService.QuotaErrorResponse.class);
+    return new QuotaException(
+        new QuotaLineItemEntity(quotaErrorResponse.limit.getKey(),
+            quotaErrorResponse.limit.getValue(), quotaErrorResponse.limit.getUnit()),
+        new QuotaLineItemEntity(quotaErrorResponse.usage.getKey(),
+            quotaErrorResponse.usage.getValue(), quotaErrorResponse.usage.getUnit()),
+        new QuotaLineItemEntity(quotaErrorResponse.newUsage.getKey(),
+            quotaErrorResponse.newUsage.getValue(), quotaErrorResponse.newUsage.getUnit()));
+  }
+
   private List<ResourceTicketService.State> filterTicketDocuments(
       Optional<String> tenantId,
       Optional<String> parentId,
@@ -29,6 +29,8 @@ import com.vmware.photon.controller.apife.entities.TaskEntity;
 import com.vmware.photon.controller.apife.entities.base.InfrastructureEntity;
 import com.vmware.photon.controller.apife.exceptions.external.InvalidQueryParamsException;
 import com.vmware.photon.controller.apife.utils.DataTypeConversionUtils;
+import com.vmware.photon.controller.cloudstore.dcp.entity.TaskArchiveService;
+import com.vmware.photon.controller.cloudstore.dcp.entity.TaskArchiveServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.TaskService;
 import com.vmware.photon.controller.cloudstore.dcp.entity.TaskServiceFactory;
 import com.vmware.photon.controller.common.dcp.ServiceUtils;
@@ -52,8 +54,10 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Common task operations using DCP cloud store.
@@ -385,10 +389,13 @@ public class TaskDcpBackend implements TaskBackend, StepBackend {
       termsBuilder.put("state", state.get().toUpperCase());
     }
 
-    ServiceDocumentQueryResult queryResult = dcpClient.queryDocuments(TaskService.State.class, termsBuilder.build(),
+    ImmutableMap<String, String> terms = termsBuilder.build();
+    ServiceDocumentQueryResult queryResult = dcpClient.queryDocuments(TaskService.State.class, terms,
         pageSize, true);
 
-    return DataTypeConversionUtils.xenonQueryResultToResourceList(TaskService.State.class, queryResult).getItems();
+    List<TaskService.State> taskDocuments =
+        DataTypeConversionUtils.xenonQueryResultToResourceList(TaskService.State.class, queryResult).getItems();
+    return addArchivedTaskDocuments(taskDocuments, terms, pageSize);
   }
 
   private List<TaskService.State> getTaskDocumentsInProject(
@@ -406,7 +413,48 @@ public class TaskDcpBackend implements TaskBackend, StepBackend {
     }
 
     // Will consume pageSize in later CR.
-    return dcpClient.queryDocuments(TaskService.State.class, termsBuilder.build());
+    ImmutableMap<String, String> terms = termsBuilder.build();
+    List<TaskService.State> taskDocuments = dcpClient.queryDocuments(TaskService.State.class, terms);
+    return addArchivedTaskDocuments(new ArrayList<>(taskDocuments), terms, Optional.<Integer>absent());
+  }
+
+  /**
+   * Adds the archived tasks matching the terms to the tasks found in the task index, up to the page size. The
+   * archive indexes the fields tasks are listed by, so finished tasks keep showing up after they are archived.
+   *
+   * @param taskDocuments
+   * @param terms
+   * @param pageSize
+   * @return
+   */
+  private List<TaskService.State> addArchivedTaskDocuments(List<TaskService.State> taskDocuments,
+                                                           ImmutableMap<String, String> terms,
+                                                           Optional<Integer> pageSize) {
+    if (pageSize.isPresent() && taskDocuments.size() >= pageSize.get()) {
+      return taskDocuments;
+    }
+
+    Optional<Integer> archivePageSize = pageSize.isPresent()
+        ? Optional.of(pageSize.get() - taskDocuments.size())
+        : Optional.<Integer>absent();
+    ServiceDocumentQueryResult queryResult = dcpClient.queryDocuments(TaskArchiveService.State.class, terms,
+        archivePageSize, true);
+
+    Set<String> taskLinks = new HashSet<>();
+    for (TaskService.State taskDocument : taskDocuments) {
+      taskLinks.add(taskDocument.documentSelfLink);
+    }
+
+    for (TaskArchiveService.State archive : DataTypeConversionUtils
+        .xenonQueryResultToResourceList(TaskArchiveService.State.class, queryResult).getItems()) {
+      TaskService.State task = restoreArchivedTask(archive);
+      // a task whose delete failed after it was archived is in both.
+      if (taskLinks.add(task.documentSelfLink)) {
+        taskDocuments.add(task);
+      }
+    }
+
+    return taskDocuments;
   }
 
   @Override
@@ -581,7 +629,7 @@ public class TaskDcpBackend implements TaskBackend, StepBackend {
     try {
       result = dcpClient.get(TaskServiceFactory.SELF_LINK + "/" + taskId);
     } catch (DocumentNotFoundException documentNotFoundException) {
-      return null;
+      return getArchivedTaskStateById(taskId);
     }
 
     if (result == null) {
@@ -591,6 +639,31 @@ public class TaskDcpBackend implements TaskBackend, StepBackend {
     return result.getBody(TaskService.State.class);
   }
 
+  private TaskService.State getArchivedTaskStateById(String taskId) {
+    com.vmware.xenon.common.Operation result;
+    try {
+      result = dcpClient.get(TaskArchiveServiceFactory.SELF_LINK + "/" + taskId);
+    } catch (DocumentNotFoundException documentNotFoundException) {
+      return null;
+    }
+
+    if (result == null) {
+      return null;
+    }
+
+    return restoreArchivedTask(result.getBody(TaskArchiveService.State.class));
+  }
+
+  private TaskService.State restoreArchivedTask(TaskArchiveService.State archive) {
+    try {
+      return TaskArchiveService.restore(archive);
+    } catch (IOException e) {
+      logger.error("Error restoring archived task {}", archive.documentSelfLink, e);
+      throw new IllegalArgumentException(String.format("Error restoring archived task %s: %s",
+          archive.documentSelfLink, e.getMessage()));
+    }
+  }
+
   private TaskEntity convertToTaskEntity(TaskService.State taskState) {
     TaskEntity taskEntity = new TaskEntity();
     taskEntity.setId(ServiceUtils.getIDFromDocumentSelfLink(taskState.documentSelfLink));
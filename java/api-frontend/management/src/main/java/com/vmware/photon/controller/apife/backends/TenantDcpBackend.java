@@ -261,18 +261,18 @@ public class TenantDcpBackend implements TenantBackend {
     return dcpClient.queryDocuments(TenantService.State.class, termsBuilder.build());
   }
 
-  private List<ProjectService.State> filterProjectByTenant(String tenantId) {
+  private List<CompactView> filterProjectByTenant(String tenantId) {
     final ImmutableMap.Builder<String, String> termsBuilder = new ImmutableMap.Builder<>();
     termsBuilder.put("tenantId", tenantId);
 
-    return dcpClient.queryDocuments(ProjectService.State.class, termsBuilder.build());
+    return dcpClient.queryDocuments(ProjectService.State.class, termsBuilder.build(), CompactView.class);
   }
 
-  private List<ResourceTicketService.State> filterResourceTicketByTenant(String tenantId) {
+  private List<CompactView> filterResourceTicketByTenant(String tenantId) {
     final ImmutableMap.Builder<String, String> termsBuilder = new ImmutableMap.Builder<>();
     termsBuilder.put("tenantId", tenantId);
 
-    return dcpClient.queryDocuments(ResourceTicketService.State.class, termsBuilder.build());
+    return dcpClient.queryDocuments(ResourceTicketService.State.class, termsBuilder.build(), CompactView.class);
   }
 
   private List<TenantService.State> findByName(String name) {
@@ -296,12 +296,12 @@ public class TenantDcpBackend implements TenantBackend {
     List<BaseCompact> tickets = new ArrayList<>();
     Set<String> tags = new HashSet<>();
 
-    for (ProjectService.State project : filterProjectByTenant(tenantEntity.getId())) {
+    for (CompactView project : filterProjectByTenant(tenantEntity.getId())) {
       String id = ServiceUtils.getIDFromDocumentSelfLink(project.documentSelfLink);
       projects.add(BaseCompact.create(id, project.name));
     }
 
-    for (ResourceTicketService.State ticket : filterResourceTicketByTenant(tenantEntity.getId())) {
+    for (CompactView ticket : filterResourceTicketByTenant(tenantEntity.getId())) {
       String id = ServiceUtils.getIDFromDocumentSelfLink(ticket.documentSelfLink);
       tickets.add(BaseCompact.create(id, ticket.name));
     }
@@ -341,4 +341,12 @@ public class TenantDcpBackend implements TenantBackend {
 
     return deployment.getAuth().getSecurityGroups();
   }
+
+  /**
+   * Projection of the project and resource ticket documents listed in the tenant representation.
+   */
+  private static class CompactView {
+    public String documentSelfLink;
+    public String name;
+  }
 }
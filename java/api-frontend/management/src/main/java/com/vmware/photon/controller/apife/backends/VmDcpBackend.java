@@ -576,11 +576,10 @@ public class VmDcpBackend implements VmBackend {
 
   @Override
   public int countVmsOnHost(HostEntity hostEntity) throws ExternalException {
-    List<Vm> vms = getAllVmsOnHost(hostEntity.getId());
-    if (vms != null) {
-      return vms.size();
-    }
-    return 0;
+    // only the number of VMs is needed, so skip building the API representation of each VM.
+    List<VmLinkView> vms = dcpClient.queryDocuments(VmService.State.class,
+        ImmutableMap.of("host", hostEntity.getAddress()), VmLinkView.class);
+    return vms.size();
   }
 
   @Override
@@ -1073,4 +1072,11 @@ public class VmDcpBackend implements VmBackend {
 
     return isoEntity;
   }
+
+  /**
+   * Projection of the VM documents which are only counted.
+   */
+  private static class VmLinkView {
+    public String documentSelfLink;
+  }
 }
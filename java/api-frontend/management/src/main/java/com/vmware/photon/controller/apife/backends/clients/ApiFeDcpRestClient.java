@@ -16,6 +16,7 @@ package com.vmware.photon.controller.apife.backends.clients;
 import com.vmware.photon.controller.apife.BackendTaskExecutor;
 import com.vmware.photon.controller.common.CloudStoreServerSet;
 import com.vmware.photon.controller.common.dcp.DcpRestClient;
+import com.vmware.photon.controller.common.dcp.QueryDocumentIterator;
 import com.vmware.photon.controller.common.dcp.exceptions.BadRequestException;
 import com.vmware.photon.controller.common.dcp.exceptions.DcpRuntimeException;
 import com.vmware.photon.controller.common.dcp.exceptions.DocumentNotFoundException;
@@ -139,6 +140,21 @@ public class ApiFeDcpRestClient extends DcpRestClient {
     }
   }
 
+  @Override
+  public <T extends ServiceDocument, V> List<V> queryDocuments(Class<T> documentType,
+                                                               ImmutableMap<String, String> terms,
+                                                               Class<V> viewType) {
+    try {
+      return super.queryDocuments(documentType, terms, viewType);
+    } catch (DocumentNotFoundException documentNotFoundException) {
+      throw new DcpRuntimeException(documentNotFoundException);
+    } catch (BadRequestException badRequestException) {
+      throw new DcpRuntimeException(badRequestException);
+    } catch (TimeoutException | InterruptedException exception) {
+      throw new RuntimeException(exception);
+    }
+  }
+
   @Override
   public <T extends ServiceDocument> ServiceDocumentQueryResult queryDocuments(Class<T> documentType,
                                                                                ImmutableMap<String, String> terms,
@@ -165,6 +181,19 @@ public class ApiFeDcpRestClient extends DcpRestClient {
     }
   }
 
+  @Override
+  public <T extends ServiceDocument> QueryDocumentIterator<T> queryDocumentsIterator(Class<T> documentType,
+                                                                                    ImmutableMap<String, String> terms,
+                                                                                    int pageSize) {
+    try {
+      return super.queryDocumentsIterator(documentType, terms, pageSize);
+    } catch (DocumentNotFoundException | BadRequestException e) {
+      throw new DcpRuntimeException(e);
+    } catch (TimeoutException | InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   @Override
   public <T extends ServiceDocument> List<String> queryDocumentsForLinks(Class<T> documentType,
                                                                          ImmutableMap<String, String> terms) {
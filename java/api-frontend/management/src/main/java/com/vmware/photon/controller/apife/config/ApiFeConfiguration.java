@@ -37,6 +37,14 @@ public class ApiFeConfiguration extends Configuration {
   @JsonProperty("background_workers_queue_size")
   private int backgroundWorkersQueueSize = 512;
 
+  /**
+   * Number of escrow documents per resource ticket that quota is consumed from,
+   * 0 consumes quota directly from the resource ticket.
+   */
+  @Range(min = 0, max = 64)
+  @JsonProperty("quota_escrow_shards")
+  private int quotaEscrowShards = 0;
+
   @JsonProperty
   private boolean useDcpBackend = true;
 
@@ -86,6 +94,10 @@ public class ApiFeConfiguration extends Configuration {
     return backgroundWorkersQueueSize;
   }
 
+  public int getQuotaEscrowShards() {
+    return quotaEscrowShards;
+  }
+
   public ZookeeperConfig getZookeeper() {
     return zookeeper;
   }
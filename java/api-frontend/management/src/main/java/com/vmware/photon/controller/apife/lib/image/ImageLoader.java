@@ -49,6 +49,7 @@ public class ImageLoader {
   private static final Logger logger = LoggerFactory.getLogger(ImageLoader.class);
   private static final DataField VMDK_SIGNATURE_FIELD = new DataField(0, 3);
   private static final String VMDK_FILE_SIGNATURE = "KDM";
+  private static final int STREAM_BUFFER_SIZE = 256 * 1024;
   private static final ObjectMapper mapper = new ObjectMapper();
   private final ImageStore imageStore;
 
@@ -90,8 +91,9 @@ public class ImageLoader {
   public Result loadImage(ImageEntity imageEntity, InputStream inputStream)
       throws IOException, InternalException, VmdkFormatException, ExternalException {
 
-    // Detect file type. Stream mark support is required.
-    inputStream = new BufferedInputStream(inputStream);
+    // Detect file type. Stream mark support is required. The buffer is large enough for the disk reader to
+    // consume whole grains without going back to the request stream for each of them.
+    inputStream = new BufferedInputStream(inputStream, STREAM_BUFFER_SIZE);
     boolean isVmdkFile = isVmdkFile(inputStream);
     boolean isTarFile = isVmdkFile ? false : isTarFile(inputStream);
 
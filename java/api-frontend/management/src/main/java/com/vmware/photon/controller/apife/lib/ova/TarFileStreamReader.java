@@ -27,6 +27,7 @@ import java.util.Iterator;
  */
 public class TarFileStreamReader implements Iterable<TarFileStreamReader.TarFile> {
   public static final int TAR_FILE_GRANULARITY = 512;
+  private static final int SKIP_BUFFER_SIZE = 128 * TAR_FILE_GRANULARITY;
   private static final Logger logger = LoggerFactory.getLogger(TarFileStreamReader.class);
   private static final String TAR_SIGNATURE = "ustar";
   private static final DataField NAME_FIELD = new DataField(0, 100);
@@ -116,15 +117,21 @@ public class TarFileStreamReader implements Iterable<TarFileStreamReader.TarFile
         long totalByteLength = ((byteLength + TAR_FILE_GRANULARITY - 1) / TAR_FILE_GRANULARITY) * TAR_FILE_GRANULARITY;
 
         // Skip until the end of the fragment. Raise error if unexpected end of archive is reached: the stream was
-        // cut-short or the header was corrupted.
+        // cut-short or the header was corrupted. Streams that cannot skip are read in blocks instead.
+        byte[] skipBuffer = null;
         while (bytesOffset < totalByteLength) {
           bytesOffset += inputStream.skip(totalByteLength - bytesOffset);
 
           if (bytesOffset < totalByteLength) {
-            if (inputStream.read() < 0) {
+            if (skipBuffer == null) {
+              skipBuffer = new byte[SKIP_BUFFER_SIZE];
+            }
+            int bytesRead = inputStream.read(skipBuffer, 0,
+                (int) Math.min(skipBuffer.length, totalByteLength - bytesOffset));
+            if (bytesRead < 0) {
               throw new IOException("Unexpected end of file.");
             }
-            bytesOffset += 1;
+            bytesOffset += bytesRead;
           }
         }
       }
@@ -13,6 +13,7 @@
 
 package com.vmware.photon.controller.apife.backends;
 
+import com.vmware.photon.controller.apife.QuotaEscrowShards;
 import com.vmware.photon.controller.apife.backends.clients.ApiFeDcpRestClient;
 import com.vmware.photon.controller.cloudstore.dcp.CloudStoreDcpHost;
 import com.vmware.photon.controller.common.dcp.BasicServiceHost;
@@ -71,4 +72,10 @@ public class DcpBackendTestModule extends AbstractModule {
     //that there are 4 cores present in the machine executing the tests.
     return new ApiFeDcpRestClient(serverSet, Executors.newFixedThreadPool(128));
   }
+
+  @Provides
+  @QuotaEscrowShards
+  int getQuotaEscrowShards() {
+    return 0;
+  }
 }
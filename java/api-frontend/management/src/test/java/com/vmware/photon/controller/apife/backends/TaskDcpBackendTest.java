@@ -35,6 +35,10 @@ import com.vmware.photon.controller.apife.entities.VmEntity;
 import com.vmware.photon.controller.apife.exceptions.external.InvalidQueryParamsException;
 import com.vmware.photon.controller.apife.exceptions.external.NameTakenException;
 import com.vmware.photon.controller.apife.exceptions.external.TooManyRequestsException;
+import com.vmware.photon.controller.cloudstore.dcp.entity.TaskArchiveService;
+import com.vmware.photon.controller.cloudstore.dcp.entity.TaskArchiveServiceFactory;
+import com.vmware.photon.controller.cloudstore.dcp.entity.TaskService;
+import com.vmware.photon.controller.cloudstore.dcp.entity.TaskServiceFactory;
 import com.vmware.photon.controller.common.dcp.BasicServiceHost;
 import com.vmware.photon.controller.common.dcp.ServiceHostUtils;
 
@@ -464,6 +468,47 @@ public class TaskDcpBackendTest {
       taskBackend.findById(UUID.randomUUID().toString());
     }
 
+    @Test
+    public void testFindArchivedTaskById() throws Throwable {
+      TaskEntity task = taskBackend.createCompletedTask(vmEntity, Operation.CREATE_VM);
+      String taskLink = TaskServiceFactory.SELF_LINK + "/" + task.getId();
+      TaskService.State taskState = dcpClient.get(taskLink).getBody(TaskService.State.class);
+      dcpClient.post(TaskArchiveServiceFactory.SELF_LINK, TaskArchiveService.archive(taskState));
+      dcpClient.delete(taskLink, new TaskService.State());
+
+      TaskEntity foundTask = taskBackend.findById(task.getId());
+      assertThat(foundTask.getId(), is(task.getId()));
+      assertThat(foundTask.getEntityId(), is(vmEntity.getId()));
+      assertThat(foundTask.getState(), is(TaskEntity.State.COMPLETED));
+    }
+
+    @Test
+    public void testFilterArchivedTasks() throws Throwable {
+      VmEntity vmEntity = new VmEntity();
+      vmEntity.setId(UUID.randomUUID().toString());
+      TaskEntity archivedTask = taskBackend.createCompletedTask(vmEntity, Operation.CREATE_VM);
+      String taskLink = TaskServiceFactory.SELF_LINK + "/" + archivedTask.getId();
+      TaskService.State taskState = dcpClient.get(taskLink).getBody(TaskService.State.class);
+      dcpClient.post(TaskArchiveServiceFactory.SELF_LINK, TaskArchiveService.archive(taskState));
+      dcpClient.delete(taskLink, new TaskService.State());
+      TaskEntity task = taskBackend.createQueuedTask(vmEntity, Operation.STOP_VM);
+
+      List<Task> tasks = taskBackend.filter(Optional.of(vmEntity.getId()), Optional.of(Vm.KIND),
+          Optional.<String>absent(), Optional.<Integer>absent());
+      assertThat(tasks.size(), is(2));
+
+      tasks = taskBackend.filter(Optional.of(vmEntity.getId()), Optional.of(Vm.KIND),
+          Optional.of(TaskEntity.State.COMPLETED.toString()), Optional.<Integer>absent());
+      assertThat(tasks.size(), is(1));
+      assertThat(tasks.get(0).getId(), is(archivedTask.getId()));
+
+      // the tasks of the index fill the page first.
+      tasks = taskBackend.filter(Optional.of(vmEntity.getId()), Optional.of(Vm.KIND),
+          Optional.<String>absent(), Optional.of(1));
+      assertThat(tasks.size(), is(1));
+      assertThat(tasks.get(0).getId(), is(task.getId()));
+    }
+
     @Test
     public void testGetById() {
       TaskEntity task = taskBackend.createQueuedTask(vmEntity, Operation.CREATE_VM);
@@ -38,6 +38,7 @@ import com.vmware.photon.controller.cloudstore.dcp.entity.DatastoreService;
 import com.vmware.photon.controller.cloudstore.dcp.entity.DatastoreServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.HostService;
 import com.vmware.photon.controller.cloudstore.dcp.entity.HostServiceFactory;
+import com.vmware.photon.controller.common.dcp.BulkOperationResult;
 import com.vmware.photon.controller.common.dcp.DcpRestClient;
 import com.vmware.photon.controller.common.dcp.exceptions.DcpException;
 import com.vmware.photon.controller.common.dcp.exceptions.DcpRuntimeException;
@@ -67,6 +68,7 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -80,6 +82,12 @@ import java.util.Map;
 public class ChairmanService implements Chairman.Iface {
 
   private static final Logger logger = LoggerFactory.getLogger(ChairmanService.class);
+
+  /**
+   * Maximum number of cloud store operations in flight while updating datastore documents.
+   */
+  private static final int DCP_BULK_WINDOW_SIZE = 10;
+
   private final HierarchyUtils hierarchyUtils;
   private final DataDictionary configDictionary;
   private final DataDictionary missingDictionary;
@@ -175,6 +183,7 @@ public class ChairmanService implements Chairman.Iface {
    */
   void setDatastoreState(List<Datastore> datastores, List<String> imageDatastores) throws Throwable {
     // Create datastore documents.
+    List<DatastoreService.State> datastoreStates = new ArrayList<>(datastores.size());
     for (Datastore datastore: datastores) {
       DatastoreService.State datastoreState = new DatastoreService.State();
       datastoreState.documentSelfLink = datastore.getId();
@@ -183,19 +192,37 @@ public class ChairmanService implements Chairman.Iface {
       datastoreState.type = datastore.getType().toString();
       datastoreState.tags = datastore.getTags();
       datastoreState.isImageDatastore = false;
-      try {
-        dcpRestClient.post(DatastoreServiceFactory.SELF_LINK, datastoreState);
-      } catch (DcpException | DcpRuntimeException ex) {
-        logger.debug("Ignoring datastore document creation failure", ex);
+      datastoreStates.add(datastoreState);
+    }
+
+    if (!datastoreStates.isEmpty()) {
+      List<BulkOperationResult> results =
+          dcpRestClient.post(DatastoreServiceFactory.SELF_LINK, datastoreStates, DCP_BULK_WINDOW_SIZE);
+      for (BulkOperationResult result : results) {
+        Throwable failure = result.getFailure();
+        if (failure instanceof DcpException || failure instanceof DcpRuntimeException) {
+          logger.debug("Ignoring datastore document creation failure", failure);
+        } else if (failure != null) {
+          throw failure;
+        }
       }
     }
 
     // Set isImageDatastore flag to true.
+    Map<String, DatastoreService.State> datastorePatches = new LinkedHashMap<>();
     for (String datastoreId: imageDatastores) {
       String link = DatastoreServiceFactory.getDocumentLink(datastoreId);
       DatastoreService.State datastoreState = new DatastoreService.State();
       datastoreState.isImageDatastore = true;
-      dcpRestClient.patch(link, datastoreState);
+      datastorePatches.put(link, datastoreState);
+    }
+
+    if (!datastorePatches.isEmpty()) {
+      for (BulkOperationResult result : dcpRestClient.patch(datastorePatches, DCP_BULK_WINDOW_SIZE).values()) {
+        if (!result.isSuccess()) {
+          throw result.getFailure();
+        }
+      }
     }
   }
 
@@ -62,9 +62,9 @@ import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mock;
@@ -299,31 +299,29 @@ public class ChairmanServiceTest extends PowerMockTestCase {
     // Verify that patch gets called with "READY" state.
     ArgumentCaptor<String> arg1 = ArgumentCaptor.forClass(String.class);
     ArgumentCaptor<ServiceDocument> arg2 = ArgumentCaptor.forClass(ServiceDocument.class);
-    verify(dcpRestClient, times(3)).patch(arg1.capture(), arg2.capture());
-    assertThat(arg1.getAllValues().get(0), is(link));
-    HostService.State newState = (HostService.State) (arg2.getAllValues().get(0));
+    verify(dcpRestClient).patch(arg1.capture(), arg2.capture());
+    assertThat(arg1.getValue(), is(link));
+    HostService.State newState = (HostService.State) (arg2.getValue());
     assertThat(newState.agentState, is(AgentState.ACTIVE));
     assertThat(newState.reportedDatastores, containsInAnyOrder("ds1", "ds2"));
     assertThat(newState.reportedNetworks, containsInAnyOrder("nw1", "nw2"));
     assertThat(newState.reportedImageDatastores, containsInAnyOrder("ds1", "ds2"));
 
     // Verify that the isImageDatastore flag gets set on ds1 and ds2.
-    assertThat(arg1.getAllValues().get(1), is(dsLink1));
-    DatastoreService.State newDsState = (DatastoreService.State) (arg2.getAllValues().get(1));
-    assertThat(newDsState.isImageDatastore, is(true));
-    assertThat(arg1.getAllValues().get(2), is(dsLink2));
-    newDsState = (DatastoreService.State) (arg2.getAllValues().get(2));
-    assertThat(newDsState.isImageDatastore, is(true));
+    ArgumentCaptor<Map> patchArg = ArgumentCaptor.forClass(Map.class);
+    verify(dcpRestClient).patch(patchArg.capture(), anyInt());
+    Map<String, ServiceDocument> datastorePatches = patchArg.getValue();
+    assertThat(datastorePatches.keySet(), contains(dsLink1, dsLink2));
+    assertThat(((DatastoreService.State) datastorePatches.get(dsLink1)).isImageDatastore, is(true));
+    assertThat(((DatastoreService.State) datastorePatches.get(dsLink2)).isImageDatastore, is(true));
 
     // Verify that chairman attempted to create datastore documents.
-    arg1 = ArgumentCaptor.forClass(String.class);
-    arg2 = ArgumentCaptor.forClass(ServiceDocument.class);
-    verify(dcpRestClient, times(2)).post(arg1.capture(), arg2.capture());
-    DatastoreService.State actualDs1 = (DatastoreService.State) (arg2.getAllValues().get(0));
-    DatastoreService.State actualDs2 = (DatastoreService.State) (arg2.getAllValues().get(1));
-    assertThat(arg1.getAllValues(), contains(DatastoreServiceFactory.SELF_LINK, DatastoreServiceFactory.SELF_LINK));
-    verifyDatastore(ds1, actualDs1);
-    verifyDatastore(ds2, actualDs2);
+    ArgumentCaptor<List> postArg = ArgumentCaptor.forClass(List.class);
+    verify(dcpRestClient).post(eq(DatastoreServiceFactory.SELF_LINK), postArg.capture(), anyInt());
+    List<ServiceDocument> datastoreStates = postArg.getValue();
+    assertThat(datastoreStates.size(), is(2));
+    verifyDatastore(ds1, (DatastoreService.State) datastoreStates.get(0));
+    verifyDatastore(ds2, (DatastoreService.State) datastoreStates.get(1));
   }
 
   void verifyDatastore(DatastoreService.State expected, DatastoreService.State actual) {
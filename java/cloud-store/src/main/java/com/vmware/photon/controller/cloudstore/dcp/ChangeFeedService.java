@@ -0,0 +1,338 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.cloudstore.dcp;
+
+import com.vmware.photon.controller.common.dcp.InitializationUtils;
+import com.vmware.photon.controller.common.dcp.ServiceUriPaths;
+import com.vmware.photon.controller.common.dcp.ServiceUtils;
+import com.vmware.photon.controller.common.dcp.ValidationUtils;
+import com.vmware.photon.controller.common.dcp.validation.DefaultInteger;
+import com.vmware.photon.controller.common.dcp.validation.DefaultLong;
+import com.vmware.photon.controller.common.dcp.validation.NotBlank;
+import com.vmware.photon.controller.common.dcp.validation.Range;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentDescription;
+import com.vmware.xenon.common.ServiceDocumentQueryResult;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class ChangeFeedService returns the changes of the documents of a kind in the order in which they happened, so
+ * consumers can follow cloud store without re-running their queries.
+ * <p>
+ * A consumer pulls batches of events with the cursor returned by the previous batch, which makes the feed
+ * resumable and keeps at most one batch per request buffered in cloud store: a slow consumer only falls behind,
+ * it never makes the feed buffer more. Each event carries the latest version of a changed document, so several
+ * updates of a document between two batches are reported as one update. A document created and updated between two
+ * batches is reported as an update, consumers should therefore apply updates of unknown documents as creates.
+ * </p>
+ * <p>
+ * Events are read from the local document index of the node serving the request, so consumers should keep
+ * requesting their batches from the same node. An update can reach that index after newer updates when it was
+ * replicated late or stamped by a node whose clock is behind, and the cursor would skip it. Events are therefore
+ * only returned once they are older than the settle time of the request, which has to cover replication delays and
+ * clock skew between the nodes.
+ * </p>
+ */
+public class ChangeFeedService extends StatelessService {
+
+  public static final String SELF_LINK = ServiceUriPaths.CLOUDSTORE_ROOT + "/change-feed";
+
+  public static final int DEFAULT_MAX_EVENTS = 100;
+
+  public static final int MAX_EVENTS = 1000;
+
+  /**
+   * Default time after which an update is assumed to be in the local document index. (10 seconds)
+   */
+  public static final long DEFAULT_SETTLE_TIME_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  private static final String DOCUMENT_UPDATE_TIME_MICROS = "documentUpdateTimeMicros";
+
+  private static final String DOCUMENT_UPDATE_ACTION = "documentUpdateAction";
+
+  private static final Comparator<Event> EVENT_ORDER = Comparator
+      .comparingLong((Event event) -> event.documentUpdateTimeMicros)
+      .thenComparing(event -> event.documentSelfLink);
+
+  public ChangeFeedService() {
+    super(Request.class);
+  }
+
+  @Override
+  public void handlePost(Operation postOperation) {
+    Request request;
+    try {
+      request = postOperation.getBody(Request.class);
+      InitializationUtils.initialize(request);
+      ValidationUtils.validateState(request);
+    } catch (IllegalStateException t) {
+      ServiceUtils.failOperationAsBadRequest(this, postOperation, t);
+      return;
+    } catch (Throwable t) {
+      ServiceUtils.logSevere(this, t);
+      postOperation.fail(t);
+      return;
+    }
+
+    long settledTimeMicros = Utils.getNowMicrosUtc() - TimeUnit.MILLISECONDS.toMicros(request.settleTimeMillis);
+    sendRequest(Operation
+        .createPost(UriUtils.buildUri(getHost(), ServiceUriPaths.CORE_LOCAL_QUERY_TASKS))
+        .setBody(buildQuery(request, settledTimeMicros))
+        .setCompletion((queryOperation, failure) -> {
+          if (null != failure) {
+            postOperation.fail(failure);
+            return;
+          }
+
+          ServiceDocumentQueryResult results = queryOperation.getBody(QueryTask.class).results;
+          if (results == null || results.nextPageLink == null) {
+            postOperation.setBody(buildResponse(request, null, settledTimeMicros)).complete();
+            return;
+          }
+
+          getPage(postOperation, request, results.nextPageLink, settledTimeMicros);
+        }));
+  }
+
+  private void getPage(Operation postOperation, Request request, String pageLink, long settledTimeMicros) {
+    sendRequest(Operation
+        .createGet(UriUtils.buildUri(getHost(), pageLink))
+        .setCompletion((pageOperation, failure) -> {
+          if (null != failure) {
+            postOperation.fail(failure);
+            return;
+          }
+
+          try {
+            ServiceDocumentQueryResult results = pageOperation.getBody(QueryTask.class).results;
+            postOperation.setBody(buildResponse(request, results, settledTimeMicros)).complete();
+          } catch (Throwable t) {
+            ServiceUtils.logSevere(this, t);
+            postOperation.fail(t);
+          }
+        }));
+  }
+
+  private QueryTask buildQuery(Request request, long settledTimeMicros) {
+    QueryTask.QuerySpecification querySpec = new QueryTask.QuerySpecification();
+    querySpec.query.addBooleanClause(new QueryTask.Query()
+        .setTermPropertyName(ServiceDocument.FIELD_NAME_KIND)
+        .setTermMatchValue(request.documentKind));
+
+    for (Map.Entry<String, String> term : request.terms.entrySet()) {
+      querySpec.query.addBooleanClause(new QueryTask.Query()
+          .setTermPropertyName(term.getKey())
+          .setTermMatchValue(term.getValue()));
+    }
+
+    if (request.cursor != null) {
+      // documents updated at the time of the cursor may not have been returned yet.
+      querySpec.query.addBooleanClause(new QueryTask.Query()
+          .setTermPropertyName(DOCUMENT_UPDATE_TIME_MICROS)
+          .setNumericRange(QueryTask.NumericRange.createGreaterThanRange(request.cursor.updateTimeMicros - 1)));
+    }
+
+    // updates which have not settled yet are left for a later batch.
+    querySpec.query.addBooleanClause(new QueryTask.Query()
+        .setTermPropertyName(DOCUMENT_UPDATE_TIME_MICROS)
+        .setNumericRange(QueryTask.NumericRange.createLessThanRange(settledTimeMicros + 1)));
+
+    querySpec.sortTerm = new QueryTask.QueryTerm();
+    querySpec.sortTerm.propertyName = DOCUMENT_UPDATE_TIME_MICROS;
+    querySpec.sortTerm.propertyType = ServiceDocumentDescription.TypeName.LONG;
+    querySpec.sortOrder = QueryTask.QuerySpecification.SortOrder.ASC;
+    querySpec.options = EnumSet.of(
+        QueryTask.QuerySpecification.QueryOption.EXPAND_CONTENT,
+        QueryTask.QuerySpecification.QueryOption.INCLUDE_DELETED,
+        QueryTask.QuerySpecification.QueryOption.SORT);
+
+    // the page also has to cover the events at the time of the cursor which were already returned.
+    querySpec.resultLimit = getPageLimit(request);
+    return QueryTask.create(querySpec).setDirect(true);
+  }
+
+  @VisibleForTesting
+  static Response buildResponse(Request request, ServiceDocumentQueryResult results, long settledTimeMicros) {
+    Response response = new Response();
+    response.nextCursor = request.cursor;
+    if (results == null || results.documents == null || results.documents.isEmpty()) {
+      return response;
+    }
+
+    List<Event> events = new ArrayList<>();
+    for (Object document : results.documents.values()) {
+      Event event = toEvent(document);
+      if (isAfter(event, request.cursor) && event.documentUpdateTimeMicros <= settledTimeMicros) {
+        events.add(event);
+      }
+    }
+
+    events.sort(EVENT_ORDER);
+    boolean pageFull = results.documents.size() >= getPageLimit(request);
+    if (pageFull && !events.isEmpty()) {
+      // the page may have cut through the events of its last update time, which are returned by the next batch.
+      long lastUpdateTimeMicros = events.get(events.size() - 1).documentUpdateTimeMicros;
+      List<Event> complete = new ArrayList<>();
+      for (Event event : events) {
+        if (event.documentUpdateTimeMicros < lastUpdateTimeMicros) {
+          complete.add(event);
+        }
+      }
+
+      if (!complete.isEmpty()) {
+        events = complete;
+      }
+    }
+
+    boolean trimmed = events.size() > request.maxEvents;
+    if (trimmed) {
+      events = new ArrayList<>(events.subList(0, request.maxEvents));
+    }
+
+    response.events = events;
+    response.hasMore = trimmed || pageFull;
+    if (!events.isEmpty()) {
+      Event last = events.get(events.size() - 1);
+      response.nextCursor = new Cursor();
+      response.nextCursor.updateTimeMicros = last.documentUpdateTimeMicros;
+      response.nextCursor.documentSelfLink = last.documentSelfLink;
+      response.nextCursor.documentVersion = last.documentVersion;
+    }
+
+    return response;
+  }
+
+  private static int getPageLimit(Request request) {
+    return 2 * request.maxEvents;
+  }
+
+  private static Event toEvent(Object document) {
+    Event event = new Event();
+    event.documentSelfLink = Utils.getJsonMapValue(document, ServiceDocument.FIELD_NAME_SELF_LINK, String.class);
+    event.documentVersion = Utils.getJsonMapValue(document, ServiceDocument.FIELD_NAME_VERSION, Long.class);
+    event.documentUpdateTimeMicros = Utils.getJsonMapValue(document, DOCUMENT_UPDATE_TIME_MICROS, Long.class);
+    event.document = document;
+
+    String action = Utils.getJsonMapValue(document, DOCUMENT_UPDATE_ACTION, String.class);
+    if (Operation.Action.DELETE.name().equals(action)) {
+      event.type = Event.Type.DELETE;
+    } else if (event.documentVersion != null && event.documentVersion == 0) {
+      event.type = Event.Type.CREATE;
+    } else {
+      event.type = Event.Type.UPDATE;
+    }
+
+    return event;
+  }
+
+  private static boolean isAfter(Event event, Cursor cursor) {
+    if (cursor == null || event.documentUpdateTimeMicros > cursor.updateTimeMicros) {
+      return true;
+    }
+
+    return event.documentUpdateTimeMicros == cursor.updateTimeMicros
+        && cursor.documentSelfLink != null
+        && event.documentSelfLink.compareTo(cursor.documentSelfLink) > 0;
+  }
+
+  /**
+   * Class encapsulating the position of a consumer in the change feed.
+   */
+  public static class Cursor {
+
+    public long updateTimeMicros;
+
+    public String documentSelfLink;
+
+    public Long documentVersion;
+  }
+
+  /**
+   * Class encapsulating a change of a document.
+   */
+  public static class Event {
+
+    public Type type;
+
+    public String documentSelfLink;
+
+    public Long documentVersion;
+
+    public long documentUpdateTimeMicros;
+
+    // the latest version of the document, as JSON
+    public Object document;
+
+    /**
+     * Defines the kind of change.
+     */
+    public enum Type {
+      CREATE,
+      UPDATE,
+      DELETE
+    }
+  }
+
+  /**
+   * Class encapsulating a request for the next batch of events.
+   */
+  public static class Request extends ServiceDocument {
+
+    @NotBlank
+    public String documentKind;
+
+    // optional term filters on the fields of the documents
+    public Map<String, String> terms = new HashMap<>();
+
+    // the cursor of the previous batch, null to start with the oldest document
+    public Cursor cursor;
+
+    @DefaultInteger(value = DEFAULT_MAX_EVENTS)
+    @Range(min = 1, max = MAX_EVENTS)
+    public Integer maxEvents;
+
+    // the time for which an update is held back, it has to cover replication delays and clock skew
+    @DefaultLong(value = DEFAULT_SETTLE_TIME_MILLIS)
+    @Range(min = 0, max = Long.MAX_VALUE)
+    public Long settleTimeMillis;
+  }
+
+  /**
+   * Class encapsulating a batch of events.
+   */
+  public static class Response extends ServiceDocument {
+
+    public List<Event> events = new ArrayList<>();
+
+    // the cursor to request the next batch with
+    public Cursor nextCursor;
+
+    // true if more events were available than returned
+    public boolean hasMore;
+  }
+}
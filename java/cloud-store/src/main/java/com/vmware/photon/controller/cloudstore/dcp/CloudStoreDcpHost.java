@@ -29,15 +29,21 @@ import com.vmware.photon.controller.cloudstore.dcp.entity.ImageServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.NetworkServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.PortGroupServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.ProjectServiceFactory;
+import com.vmware.photon.controller.cloudstore.dcp.entity.ResourceTicketEscrowServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.ResourceTicketServiceFactory;
+import com.vmware.photon.controller.cloudstore.dcp.entity.TaskArchiveServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.TaskServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.TenantServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.TombstoneServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.VmServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.task.EntityLockCleanerFactoryService;
+import com.vmware.photon.controller.cloudstore.dcp.task.EntityLockCleanerService;
 import com.vmware.photon.controller.cloudstore.dcp.task.FlavorDeleteServiceFactory;
+import com.vmware.photon.controller.cloudstore.dcp.task.TaskArchiverFactoryService;
 import com.vmware.photon.controller.cloudstore.dcp.task.TombstoneCleanerFactoryService;
+import com.vmware.photon.controller.cloudstore.dcp.task.TombstoneCleanerService;
 import com.vmware.photon.controller.cloudstore.dcp.task.trigger.EntityLockCleanerTriggerBuilder;
+import com.vmware.photon.controller.cloudstore.dcp.task.trigger.TaskArchiverTriggerBuilder;
 import com.vmware.photon.controller.cloudstore.dcp.task.trigger.TombstoneCleanerTriggerBuilder;
 import com.vmware.photon.controller.common.dcp.DcpHostInfoProvider;
 import com.vmware.photon.controller.common.dcp.ServiceHostUtils;
@@ -70,10 +76,19 @@ public class CloudStoreDcpHost
       new TombstoneCleanerTriggerBuilder(
           TombstoneCleanerTriggerBuilder.DEFAULT_TRIGGER_INTERVAL_MILLIS,
           TombstoneCleanerTriggerBuilder.DEFAULT_TASK_EXPIRATION_AGE_MILLIS,
-          TombstoneCleanerTriggerBuilder.DEFAULT_TOMBSTONE_EXPIRATION_AGE_MILLIS),
+          TombstoneCleanerTriggerBuilder.DEFAULT_TOMBSTONE_EXPIRATION_AGE_MILLIS,
+          TombstoneCleanerTriggerBuilder.DEFAULT_SWEEP_ALL_PAGES,
+          TombstoneCleanerService.DEFAULT_MAX_DELETES_PER_SECOND),
       new EntityLockCleanerTriggerBuilder(
           EntityLockCleanerTriggerBuilder.DEFAULT_TRIGGER_INTERVAL_MILLIS,
-          EntityLockCleanerTriggerBuilder.DEFAULT_TASK_EXPIRATION_AGE_MILLIS)
+          EntityLockCleanerTriggerBuilder.DEFAULT_TASK_EXPIRATION_AGE_MILLIS,
+          EntityLockCleanerTriggerBuilder.DEFAULT_SWEEP_ALL_PAGES,
+          EntityLockCleanerService.DEFAULT_MAX_DELETES_PER_SECOND),
+      new TaskArchiverTriggerBuilder(
+          TaskArchiverTriggerBuilder.DEFAULT_TRIGGER_INTERVAL_MILLIS,
+          TaskArchiverTriggerBuilder.DEFAULT_TASK_EXPIRATION_AGE_MILLIS,
+          TaskArchiverTriggerBuilder.DEFAULT_RETENTION_AGE_MILLIS,
+          TaskArchiverTriggerBuilder.DEFAULT_MAX_HOT_TASKS)
   };
 
   public static final Class[] FACTORY_SERVICES = {
@@ -86,11 +101,13 @@ public class CloudStoreDcpHost
       DeploymentServiceFactory.class,
       PortGroupServiceFactory.class,
       TaskServiceFactory.class,
+      TaskArchiveServiceFactory.class,
       FlavorDeleteServiceFactory.class,
       EntityLockServiceFactory.class,
       ProjectServiceFactory.class,
       TenantServiceFactory.class,
       ResourceTicketServiceFactory.class,
+      ResourceTicketEscrowServiceFactory.class,
       VmServiceFactory.class,
       DiskServiceFactory.class,
       AttachedDiskServiceFactory.class,
@@ -102,7 +119,8 @@ public class CloudStoreDcpHost
       // Tasks
       EntityLockCleanerFactoryService.class,
       TaskTriggerFactoryService.class,
-      TombstoneCleanerFactoryService.class
+      TombstoneCleanerFactoryService.class,
+      TaskArchiverFactoryService.class
   };
 
   private BuildInfo buildInfo;
@@ -135,6 +153,7 @@ public class CloudStoreDcpHost
 
     // Start all special services
     ServiceHostUtils.startService(this, StatusService.class);
+    ServiceHostUtils.startService(this, ChangeFeedService.class);
     startTaskTriggerServices();
 
     return this;
@@ -153,12 +172,15 @@ public class CloudStoreDcpHost
         && checkServiceAvailable(DeploymentServiceFactory.SELF_LINK)
         && checkServiceAvailable(PortGroupServiceFactory.SELF_LINK)
         && checkServiceAvailable(TaskServiceFactory.SELF_LINK)
+        && checkServiceAvailable(TaskArchiveServiceFactory.SELF_LINK)
         && checkServiceAvailable(FlavorDeleteServiceFactory.SELF_LINK)
         && checkServiceAvailable(EntityLockServiceFactory.SELF_LINK)
         && checkServiceAvailable(ProjectServiceFactory.SELF_LINK)
         && checkServiceAvailable(TenantServiceFactory.SELF_LINK)
         && checkServiceAvailable(ResourceTicketServiceFactory.SELF_LINK)
+        && checkServiceAvailable(ResourceTicketEscrowServiceFactory.SELF_LINK)
         && checkServiceAvailable(StatusService.SELF_LINK)
+        && checkServiceAvailable(ChangeFeedService.SELF_LINK)
         && checkServiceAvailable(VmServiceFactory.SELF_LINK)
         && checkServiceAvailable(DiskServiceFactory.SELF_LINK)
         && checkServiceAvailable(AttachedDiskServiceFactory.SELF_LINK)
@@ -170,13 +192,16 @@ public class CloudStoreDcpHost
         //tasks
         && checkServiceAvailable(EntityLockCleanerFactoryService.SELF_LINK)
         && checkServiceAvailable(TombstoneCleanerFactoryService.SELF_LINK)
+        && checkServiceAvailable(TaskArchiverFactoryService.SELF_LINK)
 
         // triggers
         && checkServiceAvailable(TaskTriggerFactoryService.SELF_LINK)
         && checkServiceAvailable(
         TaskTriggerFactoryService.SELF_LINK + EntityLockCleanerTriggerBuilder.TRIGGER_SELF_LINK)
         && checkServiceAvailable(
-        TaskTriggerFactoryService.SELF_LINK + TombstoneCleanerTriggerBuilder.TRIGGER_SELF_LINK);
+        TaskTriggerFactoryService.SELF_LINK + TombstoneCleanerTriggerBuilder.TRIGGER_SELF_LINK)
+        && checkServiceAvailable(
+        TaskTriggerFactoryService.SELF_LINK + TaskArchiverTriggerBuilder.TRIGGER_SELF_LINK);
   }
 
   @Override
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.cloudstore.dcp.entity;
+
+import com.vmware.photon.controller.api.QuotaLineItem;
+import com.vmware.photon.controller.api.QuotaUnit;
+
+/**
+ * Class NormalizedQuota converts quota values to and from a fixed-point representation.
+ * <p>
+ * A normalized value counts thousandths of the base unit, bytes for GB, MB, KB and B and items for COUNT, so
+ * fractional costs such as 0.025 COUNT are charged exactly. As for the quota arithmetic before, 1 KB is the same as
+ * 1024 B or COUNT. Usage and limits are added and compared as longs so the result does not depend on the order in
+ * which costs were consumed. The range of a long covers about 8 PB, a value or sum outside of it fails with an
+ * IllegalStateException instead of saturating or wrapping.
+ * </p>
+ */
+final class NormalizedQuota {
+
+  /**
+   * Number of fixed-point steps per base unit.
+   */
+  static final long SCALE = 1000L;
+
+  private static final long BYTES_PER_KB = 1024L;
+  private static final long BYTES_PER_MB = BYTES_PER_KB * 1024L;
+  private static final long BYTES_PER_GB = BYTES_PER_MB * 1024L;
+
+  // Long.MAX_VALUE + 1 is exactly representable as a double, Long.MAX_VALUE is not.
+  private static final double NORMALIZED_RANGE = -(double) Long.MIN_VALUE;
+
+  private NormalizedQuota() {
+  }
+
+  /**
+   * Returns the normalized value of a quota line item.
+   *
+   * @param item
+   * @return
+   */
+  static long normalize(QuotaLineItem item) {
+    double value = item.getValue() * getBaseUnits(item.getUnit()) * SCALE;
+    if (Double.isNaN(value) || value >= NORMALIZED_RANGE || value < -NORMALIZED_RANGE) {
+      throw new IllegalStateException(String.format("Quota value %s is out of range", item));
+    }
+
+    return Math.round(value);
+  }
+
+  /**
+   * Converts a normalized value to a quota line item in the given unit.
+   *
+   * @param key
+   * @param normalized
+   * @param unit
+   * @return
+   */
+  static QuotaLineItem toQuotaLineItem(String key, long normalized, QuotaUnit unit) {
+    return new QuotaLineItem(key, (double) normalized / (getBaseUnits(unit) * SCALE), unit);
+  }
+
+  /**
+   * Adds two normalized values.
+   *
+   * @param value1
+   * @param value2
+   * @return
+   */
+  static long add(long value1, long value2) {
+    try {
+      return Math.addExact(value1, value2);
+    } catch (ArithmeticException e) {
+      throw new IllegalStateException("Quota value is out of range", e);
+    }
+  }
+
+  /**
+   * Subtracts a normalized value from another.
+   *
+   * @param value1
+   * @param value2
+   * @return
+   */
+  static long subtract(long value1, long value2) {
+    try {
+      return Math.subtractExact(value1, value2);
+    } catch (ArithmeticException e) {
+      throw new IllegalStateException("Quota value is out of range", e);
+    }
+  }
+
+  /**
+   * Multiplies a normalized value.
+   *
+   * @param value
+   * @param factor
+   * @return
+   */
+  static long multiply(long value, long factor) {
+    try {
+      return Math.multiplyExact(value, factor);
+    } catch (ArithmeticException e) {
+      throw new IllegalStateException("Quota value is out of range", e);
+    }
+  }
+
+  private static long getBaseUnits(QuotaUnit unit) {
+    switch (unit) {
+      case GB:
+        return BYTES_PER_GB;
+      case MB:
+        return BYTES_PER_MB;
+      case KB:
+        return BYTES_PER_KB;
+      case B:
+      case COUNT:
+      default:
+        return 1L;
+    }
+  }
+}
@@ -0,0 +1,539 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.cloudstore.dcp.entity;
+
+import com.vmware.photon.controller.api.QuotaLineItem;
+import com.vmware.photon.controller.api.QuotaUnit;
+import com.vmware.photon.controller.common.dcp.InitializationUtils;
+import com.vmware.photon.controller.common.dcp.ServiceUtils;
+import com.vmware.photon.controller.common.dcp.ValidationUtils;
+import com.vmware.photon.controller.common.dcp.validation.Immutable;
+import com.vmware.photon.controller.common.dcp.validation.NotBlank;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.StatefulService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.NodeSelectorService;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class ResourceTicketEscrowService holds a share of the quota of a resource ticket.
+ * <p>
+ * Every escrow document is owned independently of the resource ticket, so consumers spread over several escrow
+ * documents of a ticket do not serialize on the owner of the ticket. Quota is granted to the escrow by consuming it
+ * from the resource ticket, so the usage of the ticket always covers the actual usage plus all quota held in escrow
+ * and the limits of the ticket are never exceeded. A consume which cannot be served from the escrow requests the
+ * missing quota, plus enough for a few more requests of the same size, from the ticket. Returned quota stays in
+ * escrow and is given back to the ticket once the escrow has been idle for a maintenance interval, or when a
+ * consumer asks for it after a quota failure.
+ * </p>
+ * <p>
+ * The resource ticket records the quota it granted to each escrow document. An idle escrow periodically reconciles
+ * its own record of the grants with the one of the ticket, so a grant whose escrow update was lost goes back to the
+ * ticket. An escrow whose resource ticket was deleted deletes itself.
+ * </p>
+ */
+public class ResourceTicketEscrowService extends StatefulService {
+
+  /**
+   * Number of requests of the same cost that a grant from the resource ticket covers.
+   */
+  public static final int GRANT_MULTIPLIER = 4;
+
+  /**
+   * Default value for the maintenance interval. (30 seconds)
+   */
+  protected static final long DEFAULT_MAINTENANCE_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  /**
+   * Default value for the interval at which an idle escrow reconciles its grants with the resource ticket.
+   * (10 minutes)
+   */
+  protected static final long DEFAULT_RECONCILE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  private static final long OWNER_SELECTION_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  public ResourceTicketEscrowService() {
+    super(State.class);
+    super.toggleOption(ServiceOption.PERSISTENCE, true);
+    super.toggleOption(ServiceOption.REPLICATION, true);
+    super.toggleOption(ServiceOption.OWNER_SELECTION, true);
+    super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+    super.toggleOption(ServiceOption.PERIODIC_MAINTENANCE, true);
+    super.setMaintenanceIntervalMicros(TimeUnit.MILLISECONDS.toMicros(DEFAULT_MAINTENANCE_INTERVAL_MILLIS));
+  }
+
+  @Override
+  public void handleStart(Operation startOperation) {
+    ServiceUtils.logInfo(this, "Starting service %s", getSelfLink());
+    try {
+      State startState = startOperation.getBody(State.class);
+      InitializationUtils.initialize(startState);
+      validateState(startState);
+      startOperation.complete();
+    } catch (IllegalStateException t) {
+      ServiceUtils.failOperationAsBadRequest(this, startOperation, t);
+    } catch (Throwable t) {
+      ServiceUtils.logSevere(this, t);
+      startOperation.fail(t);
+    }
+  }
+
+  @Override
+  public void handlePatch(Operation patchOperation) {
+    try {
+      State currentState = getState(patchOperation);
+      Patch patch = patchOperation.getBody(Patch.class);
+
+      switch (patch.patchtype) {
+        case USAGE_CONSUME:
+          consumeQuota(patchOperation, patch, currentState);
+          break;
+        case USAGE_RETURN:
+          returnUsage(patch, currentState);
+          patchOperation.complete();
+          break;
+        case ESCROW_RELEASE:
+          releaseEscrow(patchOperation, currentState);
+          break;
+        case ESCROW_RECONCILE:
+          reconcileEscrow(patchOperation, currentState);
+          break;
+        default:
+          String message =
+              String.format("PatchType {%s} in patchOperation {%s}", patch.patchtype, patchOperation);
+          throw new UnsupportedOperationException(message);
+      }
+    } catch (IllegalStateException t) {
+      ServiceUtils.failOperationAsBadRequest(this, patchOperation, t);
+    } catch (Throwable t) {
+      ServiceUtils.logSevere(this, t);
+      patchOperation.fail(t);
+    }
+  }
+
+  /**
+   * Gives the escrowed quota back to the resource ticket once the escrow has been idle for a whole maintenance
+   * interval, and reconciles the grants of an idle escrow with the resource ticket. Only the owner of the escrow
+   * does this.
+   */
+  @Override
+  public void handleMaintenance(Operation post) {
+    post.complete();
+
+    Operation.CompletionHandler handler = (Operation op, Throwable failure) -> {
+      if (null != failure) {
+        ServiceUtils.logSevere(this, failure);
+        return;
+      }
+
+      NodeSelectorService.SelectOwnerResponse rsp = op.getBody(NodeSelectorService.SelectOwnerResponse.class);
+      if (!getHost().getId().equals(rsp.ownerNodeId)) {
+        return;
+      }
+
+      sendRequest(Operation
+          .createGet(this, getSelfLink())
+          .setCompletion((getOperation, getFailure) -> {
+            if (null != getFailure) {
+              ServiceUtils.logSevere(this, getFailure);
+              return;
+            }
+
+            State state = getOperation.getBody(State.class);
+            if (!isIdle(state)) {
+              return;
+            }
+
+            if (hasEscrow(state)) {
+              Patch patch = new Patch();
+              patch.patchtype = Patch.PatchType.ESCROW_RELEASE;
+              sendRequest(Operation.createPatch(this, getSelfLink()).setBody(patch));
+            }
+
+            if (isReconcileDue(state)) {
+              Patch patch = new Patch();
+              patch.patchtype = Patch.PatchType.ESCROW_RECONCILE;
+              sendRequest(Operation.createPatch(this, getSelfLink()).setBody(patch));
+            }
+          }));
+    };
+
+    Operation selectOwnerOp = Operation
+        .createPost(null)
+        .setExpiration(ServiceUtils.computeExpirationTime(OWNER_SELECTION_TIMEOUT_MILLIS))
+        .setCompletion(handler);
+    getHost().selectOwner(null, getSelfLink(), selectOwnerOp);
+  }
+
+  private void consumeQuota(Operation patchOperation, Patch patch, State currentState) {
+    // a patch is only completed once the grant from the resource ticket
+    // is known, so later patches of this escrow wait for it.
+    Map<String, Long> cost = new HashMap<>();
+    Map<String, Long> shortfall = new HashMap<>();
+    for (Map.Entry<String, QuotaLineItem> entry : patch.cost.entrySet()) {
+      long normalizedCost = NormalizedQuota.normalize(entry.getValue());
+      long escrow = currentState.escrowMap.getOrDefault(entry.getKey(), 0L);
+      cost.put(entry.getKey(), normalizedCost);
+      if (escrow < normalizedCost) {
+        shortfall.put(entry.getKey(), NormalizedQuota.subtract(normalizedCost, escrow));
+      }
+    }
+
+    if (shortfall.isEmpty()) {
+      takeFromEscrow(patchOperation, currentState, cost);
+      return;
+    }
+
+    requestGrant(patchOperation, patch, currentState, cost, shortfall, GRANT_MULTIPLIER);
+  }
+
+  private void requestGrant(Operation patchOperation, Patch patch, State currentState, Map<String, Long> cost,
+                            Map<String, Long> shortfall, int multiplier) {
+    Map<String, Long> grant = new HashMap<>();
+    ResourceTicketService.Patch ticketPatch = new ResourceTicketService.Patch();
+    ticketPatch.patchtype = ResourceTicketService.Patch.PatchType.USAGE_CONSUME;
+    ticketPatch.escrowId = getEscrowId();
+    for (Map.Entry<String, Long> entry : shortfall.entrySet()) {
+      long amount = NormalizedQuota.add(entry.getValue(),
+          NormalizedQuota.multiply(cost.get(entry.getKey()), multiplier - 1));
+      QuotaUnit unit = patch.cost.get(entry.getKey()).getUnit();
+      grant.put(entry.getKey(), amount);
+      ticketPatch.cost.put(entry.getKey(), NormalizedQuota.toQuotaLineItem(entry.getKey(), amount, unit));
+    }
+
+    sendRequest(Operation
+        .createPatch(this, getResourceTicketLink(currentState))
+        .setBody(ticketPatch)
+        .setCompletion((ticketOperation, failure) -> {
+          if (null == failure) {
+            try {
+              for (Map.Entry<String, Long> entry : grant.entrySet()) {
+                addToEscrow(currentState, entry.getKey(), entry.getValue(), patch.cost.get(entry.getKey()).getUnit());
+                currentState.grantMap.put(entry.getKey(),
+                    NormalizedQuota.add(currentState.grantMap.getOrDefault(entry.getKey(), 0L), entry.getValue()));
+              }
+
+              takeFromEscrow(patchOperation, currentState, cost);
+            } catch (Throwable t) {
+              // the grant goes back to the ticket when the escrow is reconciled.
+              ServiceUtils.logSevere(this, t);
+              patchOperation.fail(t);
+            }
+            return;
+          }
+
+          if (ticketOperation.getStatusCode() == Operation.STATUS_CODE_BAD_REQUEST && multiplier > 1) {
+            // the ticket may still have enough quota for this request alone.
+            requestGrant(patchOperation, patch, currentState, cost, shortfall, 1);
+            return;
+          }
+
+          ResourceTicketService.QuotaErrorResponse quotaErrorResponse = getQuotaErrorResponse(ticketOperation);
+          if (quotaErrorResponse != null) {
+            ServiceUtils.failOperationAsBadRequest(this, patchOperation,
+                new ResourceTicketService.QuotaException(quotaErrorResponse), quotaErrorResponse);
+            return;
+          }
+
+          ServiceUtils.logSevere(this, failure);
+          patchOperation.fail(failure);
+        }));
+  }
+
+  private void takeFromEscrow(Operation patchOperation, State currentState, Map<String, Long> cost) {
+    for (Map.Entry<String, Long> entry : cost.entrySet()) {
+      currentState.escrowMap.put(entry.getKey(),
+          NormalizedQuota.subtract(currentState.escrowMap.getOrDefault(entry.getKey(), 0L), entry.getValue()));
+    }
+
+    currentState.lastConsumeTimeMicros = Utils.getNowMicrosUtc();
+    validateState(currentState);
+    patchOperation.complete();
+  }
+
+  private void returnUsage(Patch patch, State currentState) {
+    // the returned quota is still consumed in the resource ticket,
+    // it is kept in escrow until the escrow is released.
+    for (Map.Entry<String, QuotaLineItem> entry : patch.cost.entrySet()) {
+      addToEscrow(currentState, entry.getKey(), NormalizedQuota.normalize(entry.getValue()),
+          entry.getValue().getUnit());
+    }
+
+    validateState(currentState);
+  }
+
+  private void releaseEscrow(Operation patchOperation, State currentState) {
+    if (!hasEscrow(currentState)) {
+      patchOperation.complete();
+      return;
+    }
+
+    ResourceTicketService.Patch ticketPatch = new ResourceTicketService.Patch();
+    ticketPatch.patchtype = ResourceTicketService.Patch.PatchType.USAGE_RETURN;
+    ticketPatch.escrowId = getEscrowId();
+    for (Map.Entry<String, Long> entry : currentState.escrowMap.entrySet()) {
+      if (entry.getValue() != 0L) {
+        ticketPatch.cost.put(entry.getKey(), NormalizedQuota.toQuotaLineItem(entry.getKey(), entry.getValue(),
+            currentState.unitMap.getOrDefault(entry.getKey(), QuotaUnit.COUNT)));
+      }
+    }
+
+    sendRequest(Operation
+        .createPatch(this, getResourceTicketLink(currentState))
+        .setBody(ticketPatch)
+        .setCompletion((ticketOperation, failure) -> {
+          if (null != failure) {
+            if (ticketOperation.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND) {
+              // the escrow of a deleted resource ticket has nothing to go back to.
+              patchOperation.complete();
+              deleteEscrow(currentState);
+              return;
+            }
+
+            ServiceUtils.logSevere(this, failure);
+            patchOperation.fail(failure);
+            return;
+          }
+
+          try {
+            for (Map.Entry<String, Long> entry : currentState.escrowMap.entrySet()) {
+              currentState.grantMap.put(entry.getKey(), NormalizedQuota.subtract(
+                  currentState.grantMap.getOrDefault(entry.getKey(), 0L), entry.getValue()));
+            }
+
+            currentState.escrowMap.clear();
+            validateState(currentState);
+            patchOperation.complete();
+            ServiceUtils.logInfo(this, "Released escrow %s to %s", ticketPatch.cost.keySet(),
+                getResourceTicketLink(currentState));
+          } catch (Throwable t) {
+            ServiceUtils.logSevere(this, t);
+            patchOperation.fail(t);
+          }
+        }));
+  }
+
+  private void reconcileEscrow(Operation patchOperation, State currentState) {
+    // patches of this escrow are serialized, so no grant of this escrow
+    // is in flight while the grants are compared with the ticket.
+    sendRequest(Operation
+        .createGet(this, getResourceTicketLink(currentState))
+        .setCompletion((getOperation, failure) -> {
+          if (null != failure) {
+            if (getOperation.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND) {
+              patchOperation.complete();
+              deleteEscrow(currentState);
+              return;
+            }
+
+            ServiceUtils.logSevere(this, failure);
+            patchOperation.fail(failure);
+            return;
+          }
+
+          try {
+            ResourceTicketService.State ticket = getOperation.getBody(ResourceTicketService.State.class);
+            returnLeakedGrants(patchOperation, currentState, ticket);
+          } catch (Throwable t) {
+            ServiceUtils.logSevere(this, t);
+            patchOperation.fail(t);
+          }
+        }));
+  }
+
+  private void returnLeakedGrants(Operation patchOperation, State currentState,
+                                  ResourceTicketService.State ticket) {
+    String escrowId = getEscrowId();
+    String grantKeyPrefix = ResourceTicketService.getEscrowGrantKey(escrowId, "");
+    Set<String> keys = new HashSet<>(currentState.grantMap.keySet());
+    for (String grantKey : ticket.escrowGrantMap.keySet()) {
+      if (grantKey.startsWith(grantKeyPrefix)) {
+        keys.add(grantKey.substring(grantKeyPrefix.length()));
+      }
+    }
+
+    ResourceTicketService.Patch ticketPatch = new ResourceTicketService.Patch();
+    ticketPatch.patchtype = ResourceTicketService.Patch.PatchType.USAGE_RETURN;
+    ticketPatch.escrowId = escrowId;
+    for (String key : keys) {
+      long ticketGrant = ticket.escrowGrantMap.getOrDefault(ResourceTicketService.getEscrowGrantKey(escrowId, key), 0L);
+      long leaked = NormalizedQuota.subtract(ticketGrant, currentState.grantMap.getOrDefault(key, 0L));
+      if (leaked > 0L) {
+        // the ticket granted quota whose escrow update was lost.
+        ticketPatch.cost.put(key, NormalizedQuota.toQuotaLineItem(key, leaked,
+            currentState.unitMap.getOrDefault(key, QuotaUnit.COUNT)));
+      } else if (leaked < 0L) {
+        // the ticket already took back quota whose release from the escrow was lost.
+        currentState.escrowMap.put(key, NormalizedQuota.add(currentState.escrowMap.getOrDefault(key, 0L), leaked));
+        currentState.grantMap.put(key, ticketGrant);
+      }
+    }
+
+    currentState.lastReconcileTimeMicros = Utils.getNowMicrosUtc();
+    if (ticketPatch.cost.isEmpty()) {
+      validateState(currentState);
+      patchOperation.complete();
+      return;
+    }
+
+    sendRequest(Operation
+        .createPatch(this, getResourceTicketLink(currentState))
+        .setBody(ticketPatch)
+        .setCompletion((ticketOperation, failure) -> {
+          if (null != failure) {
+            ServiceUtils.logSevere(this, failure);
+            patchOperation.fail(failure);
+            return;
+          }
+
+          validateState(currentState);
+          patchOperation.complete();
+          ServiceUtils.logInfo(this, "Returned leaked grants %s to %s", ticketPatch.cost.keySet(),
+              getResourceTicketLink(currentState));
+        }));
+  }
+
+  private void deleteEscrow(State currentState) {
+    ServiceUtils.logInfo(this, "Deleting escrow of deleted resource ticket %s", getResourceTicketLink(currentState));
+    sendRequest(Operation
+        .createDelete(this, getSelfLink())
+        .setBody(new ServiceDocument())
+        .setCompletion((deleteOperation, failure) -> {
+          if (null != failure) {
+            ServiceUtils.logSevere(this, failure);
+          }
+        }));
+  }
+
+  private void addToEscrow(State currentState, String key, long amount, QuotaUnit unit) {
+    currentState.escrowMap.put(key, NormalizedQuota.add(currentState.escrowMap.getOrDefault(key, 0L), amount));
+    currentState.unitMap.putIfAbsent(key, unit);
+  }
+
+  private boolean isIdle(State state) {
+    return state.lastConsumeTimeMicros == null
+        || Utils.getNowMicrosUtc() - state.lastConsumeTimeMicros > getMaintenanceIntervalMicros();
+  }
+
+  private boolean isReconcileDue(State state) {
+    return state.lastReconcileTimeMicros == null
+        || Utils.getNowMicrosUtc() - state.lastReconcileTimeMicros
+        > TimeUnit.MILLISECONDS.toMicros(DEFAULT_RECONCILE_INTERVAL_MILLIS);
+  }
+
+  private boolean hasEscrow(State state) {
+    for (Long escrow : state.escrowMap.values()) {
+      if (escrow != 0L) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private String getEscrowId() {
+    return ServiceUtils.getIDFromDocumentSelfLink(getSelfLink());
+  }
+
+  private String getResourceTicketLink(State state) {
+    return UriUtils.buildUriPath(ResourceTicketServiceFactory.SELF_LINK, state.resourceTicketId);
+  }
+
+  private ResourceTicketService.QuotaErrorResponse getQuotaErrorResponse(Operation ticketOperation) {
+    try {
+      ResourceTicketService.QuotaErrorResponse response =
+          ticketOperation.getBody(ResourceTicketService.QuotaErrorResponse.class);
+      if (ResourceTicketService.QuotaErrorResponse.KIND.equals(response.documentKind)) {
+        return response;
+      }
+    } catch (Throwable t) {
+      ServiceUtils.logSevere(this, t);
+    }
+
+    return null;
+  }
+
+  /**
+   * Validate the service state for coherence.
+   *
+   * @param currentState
+   */
+  protected void validateState(State currentState) {
+    ValidationUtils.validateState(currentState);
+  }
+
+  /**
+   * Returns the self link of the escrow document of a resource ticket shard.
+   *
+   * @param resourceTicketId
+   * @param shard
+   * @return
+   */
+  public static String getSelfLink(String resourceTicketId, int shard) {
+    return UriUtils.buildUriPath(ResourceTicketEscrowServiceFactory.SELF_LINK, resourceTicketId + "-" + shard);
+  }
+
+  /**
+   * Class encapsulating patch data for ResourceTicketEscrow.
+   */
+  public static class Patch extends ServiceDocument {
+
+    public PatchType patchtype = PatchType.NONE;
+
+    public Map<String, QuotaLineItem> cost = new HashMap<>();
+
+    /**
+     * Defines the purpose of the patch.
+     */
+    public enum PatchType {
+      NONE,
+      USAGE_CONSUME,
+      USAGE_RETURN,
+      ESCROW_RELEASE,
+      ESCROW_RECONCILE
+    }
+  }
+
+  /**
+   * Durable service state data. Class encapsulating the data for ResourceTicketEscrow.
+   */
+  public static class State extends ServiceDocument {
+
+    @NotBlank
+    @Immutable
+    public String resourceTicketId;
+
+    // quota granted by the resource ticket which is not consumed yet,
+    // normalized as described in NormalizedQuota
+    public Map<String, Long> escrowMap = new HashMap<>();
+
+    // the unit in which the escrow of a key is returned to the resource ticket
+    public Map<String, QuotaUnit> unitMap = new HashMap<>();
+
+    // net quota granted by the resource ticket as recorded by this escrow,
+    // reconciled with the escrow grant map of the ticket
+    public Map<String, Long> grantMap = new HashMap<>();
+
+    public Long lastConsumeTimeMicros;
+
+    public Long lastReconcileTimeMicros;
+  }
+}
@@ -25,10 +25,8 @@ import com.vmware.xenon.common.ServiceErrorResponse;
 import com.vmware.xenon.common.StatefulService;
 import com.vmware.xenon.common.Utils;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -37,10 +35,6 @@ import java.util.Set;
  */
 public class ResourceTicketService extends StatefulService {
 
-  private static final double BYTES_PER_KB = 1024.0;
-  private static final double BYTES_PER_MB = BYTES_PER_KB * 1024.0;
-  private static final double BYTES_PER_GB = BYTES_PER_MB * 1024.0;
-
   public ResourceTicketService() {
     super(State.class);
     super.toggleOption(ServiceOption.PERSISTENCE, true);
@@ -100,148 +94,77 @@ public class ResourceTicketService extends StatefulService {
 
   private void consumeQuota(Patch patch, State currentState)
       throws QuotaException {
-    // first, whip through the cost's actualCostKeys and
-    // compute the new usage. then, if usage is ok, commit
-    // the new usage values and then update rawUsage
-    List<QuotaLineItem> newUsage = new ArrayList<>();
-    for (String key : patch.cost.keySet()) {
-      if (!currentState.usageMap.containsKey(key)) {
-        // make sure usage map has appropriate entries, its only initialized
-        // with keys from the limit set
-        currentState.usageMap.put(key,
-            new QuotaLineItem(key, 0.0, patch.cost.get(key).getUnit()));
+    // first, whip through the cost's keys and compute the new
+    // normalized usage. nothing is allocated unless the usage
+    // is committed or the quota is exceeded
+    long[] newUsage = new long[patch.cost.size()];
+    int index = 0;
+    for (Map.Entry<String, QuotaLineItem> cost : patch.cost.entrySet()) {
+      QuotaLineItem usage = currentState.usageMap.get(cost.getKey());
+      long normalizedUsage = (usage == null ? 0L : NormalizedQuota.normalize(usage));
+      newUsage[index] = NormalizedQuota.add(normalizedUsage, NormalizedQuota.normalize(cost.getValue()));
+
+      // only enforce limits if the usage entry is covered by limits
+      QuotaLineItem limit = currentState.limitMap.get(cost.getKey());
+      if (limit != null && NormalizedQuota.normalize(limit) < newUsage[index]) {
+        QuotaUnit unit = getUsageUnit(usage, cost.getValue());
+        throw new QuotaException(new QuotaErrorResponse(
+            limit,
+            NormalizedQuota.toQuotaLineItem(cost.getKey(), normalizedUsage, unit),
+            NormalizedQuota.toQuotaLineItem(cost.getKey(), newUsage[index], unit)));
       }
 
-      // capture current usage into a new object
-      QuotaLineItem qli = new QuotaLineItem(key,
-          currentState.usageMap.get(key).getValue(),
-          currentState.usageMap.get(key).getUnit());
-      QuotaLineItem computedUsage = add(qli, patch.cost.get(key));
-      newUsage.add(computedUsage);
+      index++;
     }
 
-    // now compare newUsage against limits. if usage > limit, then return false with no
-    // side effects. otherwise, apply the new usage values, then blindly update rawUsage
-    for (QuotaLineItem qli : newUsage) {
-      if (!currentState.limitMap.containsKey(qli.getKey())) {
-        // only enforce limits is the usage entry is covered by
-        // limits
-        continue;
-      }
-
-      // test to see if the limit is less than the computed
-      // new usage. if it is, then abort
-      if (compare(currentState.limitMap.get(qli.getKey()), qli) < 0) {
-        throw new QuotaException(new QuotaErrorResponse(
-            currentState.limitMap.get(qli.getKey()),
-            currentState.usageMap.get(qli.getKey()), qli));
-      }
+    // if we made it this far, commit the new usage. usage entries which
+    // are not covered by limits are created in the unit of the cost
+    index = 0;
+    for (Map.Entry<String, QuotaLineItem> cost : patch.cost.entrySet()) {
+      QuotaLineItem usage = currentState.usageMap.get(cost.getKey());
+      currentState.usageMap.put(cost.getKey(),
+          NormalizedQuota.toQuotaLineItem(cost.getKey(), newUsage[index++], getUsageUnit(usage, cost.getValue())));
     }
 
-    // if we made it this far, commit the new usage
-    for (QuotaLineItem qli : newUsage) {
-      currentState.usageMap.put(qli.getKey(), qli);
-    }
+    updateEscrowGrants(patch, currentState, 1L);
   }
 
   private void returnUsage(Patch patch, State currentState) {
     // return the cost usage. this undoes the
     // quota consumption that occurs during consumeQuota
 
-    for (String key : patch.cost.keySet()) {
-      currentState.usageMap.put(key, subtract(currentState.usageMap.get(key), patch.cost.get(key)));
+    for (Map.Entry<String, QuotaLineItem> cost : patch.cost.entrySet()) {
+      QuotaLineItem usage = currentState.usageMap.get(cost.getKey());
+      long normalizedUsage = (usage == null ? 0L : NormalizedQuota.normalize(usage));
+      currentState.usageMap.put(cost.getKey(), NormalizedQuota.toQuotaLineItem(cost.getKey(),
+          NormalizedQuota.subtract(normalizedUsage, NormalizedQuota.normalize(cost.getValue())),
+          getUsageUnit(usage, cost.getValue())));
     }
-  }
 
-  /**
-   * Returns a QuotaLineItem whose value is this + val. The unit in the result are the same as
-   * the unit in "this". That is to say if "this" is in KB and "val" is in MB, the result is in KB.
-   * <p>
-   * The unit for B and COUNT represent the normalized value. This means that 1 KB is
-   * the same as 1024 B or COUNT.
-   * </p>
-   * <p>
-   * Note: it is expected that callers make sensible calls and ensure that if appropriate,
-   * the key's are identical.
-   * </p>
-   *
-   * @param val1 - the value to be added to
-   * @param val2 - the value to be added
-   * @return this + val, unit of the response is identical to this.getUnit();
-   */
-  private QuotaLineItem add(QuotaLineItem val1, QuotaLineItem val2) {
-    return operate(OpCode.ADD, val1, val2);
+    updateEscrowGrants(patch, currentState, -1L);
   }
 
-  /**
-   * Returns a QuotaLineItem whose value is this - val. The unit in the result are the same as
-   * the unit in "this". That is to say if "this" is in KB and "val" is in MB, the result is in KB.
-   * <p>
-   * The unit for B and COUNT represent the normalized value. This means that 1 KB is
-   * the same as 1024 B or COUNT.
-   * </p>
-   * <p>
-   * Note: it is expected that callers make sensible calls and ensure that if appropriate,
-   * the key's are identical.
-   * </p>
-   *
-   * @param val1 - the value to be subtracted from
-   * @param val2 - the value to be subtracted
-   * @return this - val, unit of the response is identical to this.getUnit();
-   */
-  private QuotaLineItem subtract(QuotaLineItem val1, QuotaLineItem val2) {
-    return operate(OpCode.SUB, val1, val2);
-  }
-
-  private QuotaLineItem operate(OpCode op, QuotaLineItem val1, QuotaLineItem val2) {
-    double normalizedResult;
-    double normalizedVal;
-    double normalizedThis;
-
-    // normalize the values based on the specified unit
-    normalizedVal = normalize(val2);
-    normalizedThis = normalize(val1);
-    normalizedResult = 0.0;
-
-    switch (op) {
-      case ADD:
-        normalizedResult = normalizedThis + normalizedVal;
-        break;
-
-      case SUB:
-        normalizedResult = normalizedThis - normalizedVal;
-        break;
+  private void updateEscrowGrants(Patch patch, State currentState, long sign) {
+    // usage consumed or returned on behalf of an escrow document is also
+    // recorded per escrow, so the escrow can reconcile its grants with it
+    if (patch.escrowId == null) {
+      return;
+    }
 
+    for (Map.Entry<String, QuotaLineItem> cost : patch.cost.entrySet()) {
+      String grantKey = getEscrowGrantKey(patch.escrowId, cost.getKey());
+      long grant = NormalizedQuota.add(currentState.escrowGrantMap.getOrDefault(grantKey, 0L),
+          NormalizedQuota.multiply(NormalizedQuota.normalize(cost.getValue()), sign));
+      if (grant == 0L) {
+        currentState.escrowGrantMap.remove(grantKey);
+      } else {
+        currentState.escrowGrantMap.put(grantKey, grant);
+      }
     }
-    // convert unit to the unit specified by this. the precise
-    // behavior is to return this <op> val converted into the unit
-    // specified by this.getUnit()
-    return convert(val1.getKey(), normalizedResult, val1.getUnit());
   }
 
-  private QuotaLineItem convert(String key, double val, QuotaUnit unit) {
-    double converted = val;
-
-    // todo(markl): determine rounding, maybe 4 decimal digits? maybe a function of the unit?
-    // todo(markl): possibly violate left hand side if B magnitude is less than target unit.
-    switch (unit) {
-      case GB:
-        converted = val / BYTES_PER_GB;
-        break;
-      case MB:
-        converted = val / BYTES_PER_MB;
-        break;
-      case KB:
-        converted = val / BYTES_PER_KB;
-        break;
-      case B:
-        converted = val;
-        break;
-      case COUNT:
-        converted = val;
-        break;
-    }
-    return new QuotaLineItem(key, converted, unit);
+  private QuotaUnit getUsageUnit(QuotaLineItem usage, QuotaLineItem cost) {
+    return (usage == null ? cost.getUnit() : usage.getUnit());
   }
 
   /**
@@ -260,50 +183,18 @@ public class ResourceTicketService extends StatefulService {
    * @return -1 this is less than val, 0 if equal, +1 if this is greater than val
    */
   public int compare(QuotaLineItem val1, QuotaLineItem val2) {
-    double normalizedResult;
-    double normalizedVal;
-    double normalizedThis;
-    int rv;
-
-    // normalize the values based on the specified unit
-    normalizedVal = normalize(val2);
-    normalizedThis = normalize(val1);
-
-    // compare this to val
-    normalizedResult = normalizedThis - normalizedVal;
-
-    if (normalizedResult < 0) {
-      rv = -1;
-    } else if (normalizedResult == 0) {
-      rv = 0;
-    } else {
-      rv = 1;
-    }
-
-    return rv;
+    return Long.signum(Long.compare(NormalizedQuota.normalize(val1), NormalizedQuota.normalize(val2)));
   }
 
-  private double normalize(QuotaLineItem val) {
-    double normalized = val.getValue();
-
-    switch (val.getUnit()) {
-      case GB:
-        normalized = val.getValue() * BYTES_PER_GB;
-        break;
-      case MB:
-        normalized = val.getValue() * BYTES_PER_MB;
-        break;
-      case KB:
-        normalized = val.getValue() * BYTES_PER_KB;
-        break;
-      case B:
-        normalized = val.getValue();
-        break;
-      case COUNT:
-        normalized = val.getValue();
-        break;
-    }
-    return normalized;
+  /**
+   * Returns the key under which the quota granted to an escrow document is recorded in the escrow grant map.
+   *
+   * @param escrowId
+   * @param key
+   * @return
+   */
+  public static String getEscrowGrantKey(String escrowId, String key) {
+    return escrowId + "/" + key;
   }
 
   /**
@@ -315,8 +206,6 @@ public class ResourceTicketService extends StatefulService {
     ValidationUtils.validateState(currentState);
   }
 
-  private enum OpCode {ADD, SUB}
-
   /**
    * Gets thrown when resource creation cannot proceed because there was not enough quota allocated to accommodate it.
    */
@@ -370,6 +259,9 @@ public class ResourceTicketService extends StatefulService {
 
     public Map<String, QuotaLineItem> cost = new HashMap<>();
 
+    // set when quota is granted to or returned from an escrow document
+    public String escrowId;
+
     /**
      * Defines the purpose of the patch.
      */
@@ -405,5 +297,9 @@ public class ResourceTicketService extends StatefulService {
     public Map<String, QuotaLineItem> limitMap = new HashMap<>();
 
     public Map<String, QuotaLineItem> usageMap = new HashMap<>();
+
+    // normalized quota held by escrow documents of this ticket, keyed
+    // by getEscrowGrantKey. it is part of the usage in usageMap
+    public Map<String, Long> escrowGrantMap = new HashMap<>();
   }
 }
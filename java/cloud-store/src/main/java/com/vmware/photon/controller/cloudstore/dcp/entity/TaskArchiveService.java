@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.cloudstore.dcp.entity;
+
+import com.vmware.photon.controller.common.dcp.InitializationUtils;
+import com.vmware.photon.controller.common.dcp.ServiceUtils;
+import com.vmware.photon.controller.common.dcp.ValidationUtils;
+import com.vmware.photon.controller.common.dcp.validation.Immutable;
+import com.vmware.photon.controller.common.dcp.validation.NotBlank;
+import com.vmware.photon.controller.common.dcp.validation.NotNull;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentDescription;
+import com.vmware.xenon.common.StatefulService;
+import com.vmware.xenon.common.Utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Class TaskArchiveService is used for data persistence of archived tasks.
+ * <p>
+ * Finished tasks are moved here from {@link TaskService} by the task archiver, so the task index only holds
+ * recent tasks. An archive is written once and never patched, it keeps the fields tasks are looked up by and
+ * the compressed JSON of the complete task, which is stored but not indexed.
+ * </p>
+ */
+public class TaskArchiveService extends StatefulService {
+
+  public TaskArchiveService() {
+    super(State.class);
+    super.toggleOption(ServiceOption.PERSISTENCE, true);
+    super.toggleOption(ServiceOption.REPLICATION, true);
+    super.toggleOption(ServiceOption.OWNER_SELECTION, true);
+    super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+  }
+
+  @Override
+  public void handleStart(Operation startOperation) {
+    ServiceUtils.logInfo(this, "Starting service %s", getSelfLink());
+    try {
+      State startState = startOperation.getBody(State.class);
+      InitializationUtils.initialize(startState);
+      validateState(startState);
+      startOperation.complete();
+    } catch (IllegalStateException t) {
+      ServiceUtils.failOperationAsBadRequest(this, startOperation, t);
+    } catch (Throwable t) {
+      ServiceUtils.logSevere(this, t);
+      startOperation.fail(t);
+    }
+  }
+
+  @Override
+  public ServiceDocument getDocumentTemplate() {
+    ServiceDocument template = super.getDocumentTemplate();
+
+    // the compressed task is only read back, indexing it would defeat the archive.
+    ServiceDocumentDescription.PropertyDescription pdCompressedTask = template
+        .documentDescription.propertyDescriptions
+        .get(State.FIELD_NAME_COMPRESSED_TASK);
+    pdCompressedTask.indexingOptions = EnumSet
+        .of(ServiceDocumentDescription.PropertyIndexingOption.STORE_ONLY);
+
+    return template;
+  }
+
+  /**
+   * Validate the service state for coherence.
+   *
+   * @param currentState
+   */
+  protected void validateState(State currentState) {
+    ValidationUtils.validateState(currentState);
+  }
+
+  /**
+   * Builds the archive of a task, the archive has the id of the task.
+   *
+   * @param task
+   * @return
+   * @throws IOException
+   */
+  public static State archive(TaskService.State task) throws IOException {
+    State archive = new State();
+    archive.documentSelfLink = ServiceUtils.getIDFromDocumentSelfLink(task.documentSelfLink);
+    archive.entityId = task.entityId;
+    archive.entityKind = task.entityKind;
+    archive.projectId = task.projectId;
+    archive.state = task.state;
+    archive.endTime = task.endTime;
+    archive.archivedTimeMicros = Utils.getNowMicrosUtc();
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8)) {
+      writer.write(Utils.toJson(task));
+    }
+
+    archive.compressedTask = Base64.getEncoder().encodeToString(bytes.toByteArray());
+    return archive;
+  }
+
+  /**
+   * Restores the archived task.
+   *
+   * @param archive
+   * @return
+   * @throws IOException
+   */
+  public static TaskService.State restore(State archive) throws IOException {
+    byte[] bytes = Base64.getDecoder().decode(archive.compressedTask);
+    StringBuilder json = new StringBuilder();
+    try (Reader reader = new InputStreamReader(
+        new GZIPInputStream(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8)) {
+      char[] buffer = new char[4096];
+      int read;
+      while ((read = reader.read(buffer)) != -1) {
+        json.append(buffer, 0, read);
+      }
+    }
+
+    return Utils.fromJson(json.toString(), TaskService.State.class);
+  }
+
+  /**
+   * Durable service state data. Class encapsulating the data for archived tasks.
+   */
+  public static class State extends ServiceDocument {
+
+    public static final String FIELD_NAME_COMPRESSED_TASK = "compressedTask";
+
+    @Immutable
+    public String entityId;
+
+    @Immutable
+    public String entityKind;
+
+    @Immutable
+    public String projectId;
+
+    @NotNull
+    @Immutable
+    public TaskService.State.TaskState state;
+
+    @Immutable
+    public Date endTime;
+
+    @Immutable
+    public Long archivedTimeMicros;
+
+    // base64 encoded gzip of the task JSON
+    @NotBlank
+    @Immutable
+    public String compressedTask;
+  }
+}
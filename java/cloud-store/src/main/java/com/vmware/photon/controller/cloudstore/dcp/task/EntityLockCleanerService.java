@@ -19,12 +19,15 @@ import com.vmware.photon.controller.cloudstore.dcp.entity.TaskService;
 import com.vmware.photon.controller.cloudstore.dcp.entity.TaskServiceFactory;
 import com.vmware.photon.controller.common.dcp.InitializationUtils;
 import com.vmware.photon.controller.common.dcp.PatchUtils;
+import com.vmware.photon.controller.common.dcp.RateLimitedOperationJoin;
 import com.vmware.photon.controller.common.dcp.ServiceUtils;
+import com.vmware.photon.controller.common.dcp.TokenBucketRateLimiter;
 import com.vmware.photon.controller.common.dcp.ValidationUtils;
 import com.vmware.photon.controller.common.dcp.validation.DefaultBoolean;
 import com.vmware.photon.controller.common.dcp.validation.DefaultInteger;
 import com.vmware.photon.controller.common.dcp.validation.DefaultLong;
 import com.vmware.photon.controller.common.dcp.validation.DefaultTaskState;
+import com.vmware.photon.controller.common.dcp.validation.Positive;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.OperationJoin;
 import com.vmware.xenon.common.OperationSequence;
@@ -39,22 +42,33 @@ import com.vmware.xenon.services.common.ServiceUriPaths;
 import static com.vmware.xenon.common.OperationJoin.JoinedCompletionHandler;
 import static com.vmware.xenon.common.OperationJoin.create;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class implementing service to remove dangling entity locks from the cloud store.
  * Service will query entity locks with pagination and only process the first page to limit load on the network.
+ * In sweep mode the service processes all pages instead, with a bounded number of concurrent deletes at a limited
+ * rate, and checkpoints the next page in its state so that a new owner resumes the sweep.
  */
 public class EntityLockCleanerService extends StatefulService {
 
   public static final Integer DEFAULT_PAGE_LIMIT = 1000;
   public static final long DEFAULT_DELETE_WATERMARK_TIME_MILLIS = 5 * 60 * 1000L;
+  public static final int DEFAULT_MAX_CONCURRENT_DELETES = 16;
+  public static final int DEFAULT_MAX_DELETES_PER_SECOND = 100;
+  public static final int MAX_SWEEP_RESTARTS = 3;
+  public static final int MAX_BACKLOG_COUNT = 10000;
   private static final String DOCUMENT_UPDATE_TIME_MICROS = "documentUpdateTimeMicros";
 
+  private TokenBucketRateLimiter deleteRateLimiter;
+
   public EntityLockCleanerService() {
     super(State.class);
     super.toggleOption(ServiceOption.PERSISTENCE, true);
@@ -158,6 +172,11 @@ public class EntityLockCleanerService extends StatefulService {
     try {
       switch (current.taskState.stage) {
         case STARTED:
+          if (current.sweepAllPages) {
+            processSweep(current);
+            break;
+          }
+
           final State finishPatch = new State();
           processUnreleasedEntityLocks(finishPatch, current);
           break;
@@ -232,6 +251,237 @@ public class EntityLockCleanerService extends StatefulService {
         .sendWith(this);
   }
 
+  /**
+   * Processes the checkpointed page of the sweep, starting the query first if there is no checkpoint yet.
+   *
+   * @param current
+   */
+  private void processSweep(final State current) {
+    if (current.sweepStartTimeMicros == null) {
+      countEntityLocks(current);
+    } else if (current.nextPageLink == null) {
+      startSweepQuery(current, buildSweepPatch(current));
+    } else {
+      sweepPage(current);
+    }
+  }
+
+  private void countEntityLocks(final State current) {
+    // only the first MAX_BACKLOG_COUNT links are fetched, a larger backlog
+    // is reported as MAX_BACKLOG_COUNT and counted down as pages are swept.
+    QueryTask countQuery = buildEntityLockQuery(current);
+    countQuery.querySpec.options = EnumSet.noneOf(QueryTask.QuerySpecification.QueryOption.class);
+    countQuery.querySpec.resultLimit = MAX_BACKLOG_COUNT;
+
+    Operation countOperation = Operation
+        .createPost(UriUtils.buildUri(getHost(), ServiceUriPaths.CORE_LOCAL_QUERY_TASKS))
+        .setBody(countQuery)
+        .setCompletion((op, failure) -> {
+          if (failure != null) {
+            failTask(failure);
+            return;
+          }
+
+          ServiceDocumentQueryResult results = op.getBody(QueryTask.class).results;
+          if (results == null || results.nextPageLink == null) {
+            startCountedSweep(current, 0L);
+            return;
+          }
+
+          Operation getPage = Operation
+              .createGet(UriUtils.buildUri(getHost(), results.nextPageLink))
+              .setCompletion((pageOperation, pageFailure) -> {
+                if (pageFailure != null) {
+                  failTask(pageFailure);
+                  return;
+                }
+
+                ServiceDocumentQueryResult page = pageOperation.getBody(QueryTask.class).results;
+                startCountedSweep(current,
+                    (long) (page == null || page.documentLinks == null ? 0 : page.documentLinks.size()));
+              });
+
+          sendRequest(getPage);
+        });
+
+    sendRequest(countOperation);
+  }
+
+  private void startCountedSweep(final State current, long backlog) {
+    State checkpoint = buildSweepPatch(current);
+    checkpoint.sweepStartTimeMicros = Utils.getNowMicrosUtc();
+    checkpoint.remainingBacklog = backlog;
+    ServiceUtils.logInfo(this, "Sweeping %s%d entity locks", backlog >= MAX_BACKLOG_COUNT ? "at least " : "", backlog);
+    startSweepQuery(current, checkpoint);
+  }
+
+  private void startSweepQuery(final State current, final State checkpoint) {
+    Operation queryOperation = Operation
+        .createPost(UriUtils.buildUri(getHost(), ServiceUriPaths.CORE_LOCAL_QUERY_TASKS))
+        .setBody(buildEntityLockQuery(current))
+        .setCompletion((op, failure) -> {
+          if (failure != null) {
+            failTask(failure);
+            return;
+          }
+
+          ServiceDocumentQueryResult results = op.getBody(QueryTask.class).results;
+          if (results == null || results.nextPageLink == null) {
+            ServiceUtils.logInfo(this, "No entityLocks found.");
+            finishTask(checkpoint);
+            return;
+          }
+
+          checkpoint.nextPageLink = results.nextPageLink;
+          sendSelfPatch(checkpoint);
+        });
+
+    sendRequest(queryOperation);
+  }
+
+  private void sweepPage(final State current) {
+    Operation getPage = Operation
+        .createGet(UriUtils.buildUri(getHost(), current.nextPageLink))
+        .setCompletion((op, failure) -> {
+          if (failure != null) {
+            // pages live on the node which ran the query and expire, restart
+            // the query after an owner change. deleted locks are not found again.
+            restartSweep(current, failure);
+            return;
+          }
+
+          try {
+            QueryTask page = op.getBody(QueryTask.class);
+            List<EntityLockService.State> entityLockList = parseEntityLockQueryResults(page);
+            sweepEntityLocks(current, entityLockList, page.results == null ? null : page.results.nextPageLink);
+          } catch (Throwable t) {
+            failTask(t);
+          }
+        });
+
+    sendRequest(getPage);
+  }
+
+  private void restartSweep(final State current, Throwable failure) {
+    if (current.sweepRestarts >= MAX_SWEEP_RESTARTS) {
+      failTask(failure);
+      return;
+    }
+
+    ServiceUtils.logWarning(this, "Restarting sweep after failing to get page %s: %s", current.nextPageLink,
+        failure.getMessage());
+    State checkpoint = buildSweepPatch(current);
+    checkpoint.sweepRestarts = current.sweepRestarts + 1;
+    startSweepQuery(current, checkpoint);
+  }
+
+  private void sweepEntityLocks(final State current, List<EntityLockService.State> entityLockList,
+                                String nextPageLink) {
+    Map<Long, EntityLockService.State> entityLocksByOperation = new HashMap<>();
+    List<Operation> getTaskOperations = new ArrayList<>(entityLockList.size());
+    for (EntityLockService.State entityLock : entityLockList) {
+      Operation getTaskOperation = Operation
+          .createGet(UriUtils.buildUri(getHost(), TaskServiceFactory.SELF_LINK + "/" + entityLock.taskId))
+          .setReferer(UriUtils.buildUri(getHost(), getSelfLink()));
+
+      entityLocksByOperation.put(getTaskOperation.getId(), entityLock);
+      getTaskOperations.add(getTaskOperation);
+    }
+
+    RateLimitedOperationJoin
+        .create(this, getTaskOperations, current.maxConcurrentDeletes, null)
+        .send((ops, failures) -> {
+          List<Operation> deleteOperations = new ArrayList<>();
+          for (Operation op : ops.values()) {
+            if (!isDanglingEntityLock(op, failures)) {
+              continue;
+            }
+
+            Operation deleteOperation = Operation
+                .createDelete(UriUtils.buildUri(getHost(), entityLocksByOperation.get(op.getId()).documentSelfLink))
+                .setBody(new ServiceDocument())
+                .setReferer(UriUtils.buildUri(getHost(), getSelfLink()));
+
+            deleteOperations.add(deleteOperation);
+          }
+
+          RateLimitedOperationJoin
+              .create(this, deleteOperations, current.maxConcurrentDeletes, getDeleteRateLimiter(current))
+              .send((deleteOps, deleteFailures) -> {
+                try {
+                  int deleted = countDeleted(deleteOps, deleteFailures);
+                  checkpointSweep(current, entityLockList.size(), deleteOperations.size(), deleted, nextPageLink);
+                } catch (Throwable t) {
+                  failTask(t);
+                }
+              });
+        });
+  }
+
+  private boolean isDanglingEntityLock(Operation getTaskOperation, Map<Long, Throwable> failures) {
+    if (failures != null && failures.containsKey(getTaskOperation.getId())) {
+      // a lock whose task does not exist anymore is dangling as well.
+      return getTaskOperation.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND;
+    }
+
+    TaskService.State task = getTaskOperation.getBody(TaskService.State.class);
+    return task.state != TaskService.State.TaskState.QUEUED && task.state != TaskService.State.TaskState.STARTED;
+  }
+
+  private int countDeleted(Map<Long, Operation> ops, Map<Long, Throwable> failures) throws Throwable {
+    int deleted = ops.size();
+    if (failures != null) {
+      for (Map.Entry<Long, Throwable> failure : failures.entrySet()) {
+        if (ops.get(failure.getKey()).getStatusCode() != Operation.STATUS_CODE_NOT_FOUND) {
+          throw failure.getValue();
+        }
+
+        // deleted concurrently, e.g. by a run of the trigger.
+        deleted--;
+      }
+    }
+
+    return deleted;
+  }
+
+  private void checkpointSweep(final State current, int examined, int dangling, int deleted, String nextPageLink) {
+    State checkpoint = buildSweepPatch(current);
+    checkpoint.nextPageLink = nextPageLink;
+    checkpoint.sweptPages = current.sweptPages + 1;
+    checkpoint.danglingEntityLocks = current.danglingEntityLocks + dangling;
+    checkpoint.deletedEntityLocks = current.deletedEntityLocks + deleted;
+    checkpoint.remainingBacklog = Math.max(0L, current.remainingBacklog - examined);
+
+    long elapsedMicros = Math.max(1L, Utils.getNowMicrosUtc() - current.sweepStartTimeMicros);
+    checkpoint.deleteThroughput = checkpoint.deletedEntityLocks * (double) TimeUnit.SECONDS.toMicros(1) / elapsedMicros;
+
+    ServiceUtils.logInfo(this, "Swept page %d: deleted %d entityLocks, %.1f deletes/s, %d entityLocks remaining",
+        checkpoint.sweptPages, checkpoint.deletedEntityLocks, checkpoint.deleteThroughput,
+        checkpoint.remainingBacklog);
+
+    if (nextPageLink == null) {
+      finishTask(checkpoint);
+      return;
+    }
+
+    sendSelfPatch(checkpoint);
+  }
+
+  private State buildSweepPatch(final State current) {
+    State checkpoint = buildPatch(TaskState.TaskStage.STARTED, null);
+    checkpoint.sweepStartTimeMicros = current.sweepStartTimeMicros;
+    checkpoint.remainingBacklog = current.remainingBacklog;
+    return checkpoint;
+  }
+
+  private TokenBucketRateLimiter getDeleteRateLimiter(final State current) {
+    if (deleteRateLimiter == null || deleteRateLimiter.getPermitsPerSecond() != current.maxDeletesPerSecond) {
+      deleteRateLimiter = new TokenBucketRateLimiter(current.maxDeletesPerSecond);
+    }
+
+    return deleteRateLimiter;
+  }
+
   private QueryTask buildEntityLockQuery(final State current) {
     Long durationInMicros = Utils.getNowMicrosUtc() - current.entityLockDeleteWatermarkTimeInMicros;
 
@@ -461,5 +711,57 @@ public class EntityLockCleanerService extends StatefulService {
     @DefaultLong(value = DEFAULT_DELETE_WATERMARK_TIME_MILLIS)
     public Long entityLockDeleteWatermarkTimeInMicros;
 
+    /**
+     * Flag that makes the service process all pages of entity locks instead of only the first one.
+     */
+    @DefaultBoolean(value = false)
+    public Boolean sweepAllPages;
+
+    /**
+     * Maximum number of operations in flight while sweeping.
+     */
+    @DefaultInteger(value = DEFAULT_MAX_CONCURRENT_DELETES)
+    @Positive
+    public Integer maxConcurrentDeletes;
+
+    /**
+     * Maximum number of deletes per second while sweeping.
+     */
+    @DefaultInteger(value = DEFAULT_MAX_DELETES_PER_SECOND)
+    @Positive
+    public Integer maxDeletesPerSecond;
+
+    /**
+     * Link of the next page to sweep, checkpointed after every page.
+     */
+    public String nextPageLink;
+
+    /**
+     * Time at which the sweep started. (microseconds)
+     */
+    public Long sweepStartTimeMicros;
+
+    /**
+     * The number of pages swept.
+     */
+    @DefaultInteger(value = 0)
+    public Integer sweptPages;
+
+    /**
+     * The number of times the sweep query was restarted because the checkpointed page was gone.
+     */
+    @DefaultInteger(value = 0)
+    public Integer sweepRestarts;
+
+    /**
+     * The number of entity locks which are left to examine, counted up to MAX_BACKLOG_COUNT.
+     */
+    public Long remainingBacklog;
+
+    /**
+     * The average number of entity locks deleted per second since the sweep started.
+     */
+    public Double deleteThroughput;
+
   }
 }
@@ -0,0 +1,607 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.cloudstore.dcp.task;
+
+import com.vmware.photon.controller.cloudstore.dcp.entity.TaskArchiveService;
+import com.vmware.photon.controller.cloudstore.dcp.entity.TaskArchiveServiceFactory;
+import com.vmware.photon.controller.cloudstore.dcp.entity.TaskService;
+import com.vmware.photon.controller.common.dcp.InitializationUtils;
+import com.vmware.photon.controller.common.dcp.PatchUtils;
+import com.vmware.photon.controller.common.dcp.RateLimitedOperationJoin;
+import com.vmware.photon.controller.common.dcp.ServiceUtils;
+import com.vmware.photon.controller.common.dcp.ValidationUtils;
+import com.vmware.photon.controller.common.dcp.validation.DefaultBoolean;
+import com.vmware.photon.controller.common.dcp.validation.DefaultInteger;
+import com.vmware.photon.controller.common.dcp.validation.DefaultTaskState;
+import com.vmware.photon.controller.common.dcp.validation.Immutable;
+import com.vmware.photon.controller.common.dcp.validation.NotNull;
+import com.vmware.photon.controller.common.dcp.validation.Positive;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentDescription;
+import com.vmware.xenon.common.ServiceDocumentQueryResult;
+import com.vmware.xenon.common.StatefulService;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.LuceneQueryTaskFactoryService;
+import com.vmware.xenon.services.common.QueryTask;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class implementing service to move finished tasks from the task index into the task archive.
+ * <p>
+ * Finished tasks are archived once they are older than the retention age, and the oldest finished tasks are
+ * archived early while the number of tasks in the index exceeds its cap. The service archives the tasks batch
+ * by batch, oldest first, and writes each archive before it deletes the task, so a task which failed to move is
+ * archived by the next run.
+ * </p>
+ */
+public class TaskArchiverService extends StatefulService {
+
+  public static final int DEFAULT_BATCH_SIZE = 100;
+  public static final int DEFAULT_MAX_CONCURRENT_OPERATIONS = 16;
+
+  private static final String DOCUMENT_UPDATE_TIME_MICROS = "documentUpdateTimeMicros";
+
+  public TaskArchiverService() {
+    super(State.class);
+    super.toggleOption(ServiceOption.PERSISTENCE, true);
+    super.toggleOption(ServiceOption.REPLICATION, true);
+    super.toggleOption(ServiceOption.OWNER_SELECTION, true);
+    super.toggleOption(ServiceOption.INSTRUMENTATION, true);
+  }
+
+  @Override
+  public void handleStart(Operation startOperation) {
+    ServiceUtils.logInfo(this, "Starting Service %s", getSelfLink());
+    State s = startOperation.getBody(State.class);
+    try {
+      initializeState(s);
+      validateState(s);
+      startOperation.setBody(s).complete();
+    } catch (IllegalStateException t) {
+      ServiceUtils.logSevere(this, t);
+      ServiceUtils.failOperationAsBadRequest(this, startOperation, t);
+    } catch (Throwable t) {
+      ServiceUtils.logSevere(this, t);
+      startOperation.fail(t);
+    }
+
+    processStart(s);
+  }
+
+  @Override
+  public void handlePatch(Operation patchOperation) {
+    State currentState = getState(patchOperation);
+    ServiceUtils.logInfo(this, "Patching service %s", getSelfLink());
+
+    try {
+      State patchState = patchOperation.getBody(State.class);
+      validatePatch(currentState, patchState);
+      PatchUtils.patchState(currentState, patchState);
+      validateState(currentState);
+      patchOperation.complete();
+    } catch (Throwable t) {
+      ServiceUtils.logSevere(this, t);
+      patchOperation.fail(t);
+    }
+
+    processPatch(currentState);
+  }
+
+  /**
+   * Initialize state with defaults.
+   *
+   * @param current
+   */
+  private void initializeState(State current) {
+    InitializationUtils.initialize(current);
+
+    if (current.documentExpirationTimeMicros <= 0) {
+      current.documentExpirationTimeMicros =
+          ServiceUtils.computeExpirationTime(ServiceUtils.DEFAULT_DOC_EXPIRATION_TIME);
+    }
+  }
+
+  /**
+   * Validate service state coherence.
+   *
+   * @param current
+   */
+  private void validateState(State current) {
+    ValidationUtils.validateState(current);
+  }
+
+  /**
+   * This method checks a patch object for validity against a document state object.
+   *
+   * @param current Supplies the start state object.
+   * @param patch   Supplies the patch state object.
+   */
+  private void validatePatch(State current, State patch) {
+    ValidationUtils.validatePatch(current, patch);
+    ValidationUtils.validateTaskStageProgression(current.taskState, patch.taskState);
+  }
+
+  /**
+   * Does any additional processing after the start operation has been completed.
+   *
+   * @param current
+   */
+  private void processStart(final State current) {
+    try {
+      if (!isFinalStage(current)) {
+        sendStageProgressPatch(current, current.taskState.stage);
+      }
+    } catch (Throwable e) {
+      failTask(e);
+    }
+  }
+
+  /**
+   * Does any additional processing after the patch operation has been completed.
+   *
+   * @param current
+   */
+  private void processPatch(final State current) {
+    try {
+      switch (current.taskState.stage) {
+        case STARTED:
+          this.countHotTasks(current);
+          break;
+
+        case FAILED:
+        case FINISHED:
+        case CANCELLED:
+          break;
+
+        default:
+          this.failTask(
+              new IllegalStateException(
+                  String.format("Un-expected stage: %s", current.taskState.stage))
+          );
+      }
+    } catch (Throwable e) {
+      failTask(e);
+    }
+  }
+
+  /**
+   * Counts the tasks in the index to find out how many have to be archived to stay within the cap. At most one
+   * batch beyond the cap is counted, a larger excess is archived by the following batches which count again.
+   *
+   * @param current
+   */
+  private void countHotTasks(final State current) {
+    QueryTask.QuerySpecification spec = new QueryTask.QuerySpecification();
+    spec.query.addBooleanClause(buildKindClause());
+    spec.resultLimit = current.maxHotTasks + current.batchSize;
+
+    Operation countOperation = Operation
+        .createPost(UriUtils.buildUri(getHost(), LuceneQueryTaskFactoryService.SELF_LINK))
+        .setBody(QueryTask.create(spec).setDirect(true))
+        .setCompletion((op, failure) -> {
+          if (failure != null) {
+            failTask(failure);
+            return;
+          }
+
+          ServiceDocumentQueryResult results = op.getBody(QueryTask.class).results;
+          if (results == null || results.nextPageLink == null) {
+            queryOldestFinishedTasks(current, 0);
+            return;
+          }
+
+          // only the links of the first page are loaded.
+          sendRequest(Operation
+              .createGet(UriUtils.buildUri(getHost(), results.nextPageLink))
+              .setCompletion((pageOperation, pageFailure) -> {
+                if (pageFailure != null) {
+                  failTask(pageFailure);
+                  return;
+                }
+
+                ServiceDocumentQueryResult page = pageOperation.getBody(QueryTask.class).results;
+                int hotTasks = (page == null || page.documentLinks == null ? 0 : page.documentLinks.size());
+                queryOldestFinishedTasks(current, hotTasks);
+              }));
+        });
+
+    this.sendRequest(countOperation);
+  }
+
+  /**
+   * Retrieves the next batch of finished tasks, oldest first.
+   *
+   * @param current
+   * @param hotTasks
+   */
+  private void queryOldestFinishedTasks(final State current, int hotTasks) {
+    Operation queryOperation = Operation
+        .createPost(UriUtils.buildUri(getHost(), LuceneQueryTaskFactoryService.SELF_LINK))
+        .setBody(buildFinishedTaskQuery(current))
+        .setCompletion((op, failure) -> {
+          if (failure != null) {
+            failTask(failure);
+            return;
+          }
+
+          ServiceDocumentQueryResult results = op.getBody(QueryTask.class).results;
+          if (results == null || results.nextPageLink == null) {
+            finishTask(current, hotTasks);
+            return;
+          }
+
+          getFinishedTaskPage(current, hotTasks, results.nextPageLink);
+        });
+
+    this.sendRequest(queryOperation);
+  }
+
+  private void getFinishedTaskPage(final State current, int hotTasks, String pageLink) {
+    Operation getPage = Operation
+        .createGet(UriUtils.buildUri(getHost(), pageLink))
+        .setCompletion((op, failure) -> {
+          if (failure != null) {
+            failTask(failure);
+            return;
+          }
+
+          try {
+            List<TaskService.State> tasks = parseTaskQueryResults(op.getBody(QueryTask.class));
+            selectTasks(current, hotTasks, tasks);
+          } catch (Throwable t) {
+            failTask(t);
+          }
+        });
+
+    this.sendRequest(getPage);
+  }
+
+  /**
+   * Selects the tasks of the batch which are past the retention age or exceed the cap of the index.
+   *
+   * @param current
+   * @param hotTasks
+   * @param tasks    the finished tasks, oldest first
+   */
+  private void selectTasks(final State current, int hotTasks, List<TaskService.State> tasks) throws Throwable {
+    long retentionCutoffMicros = Utils.getNowMicrosUtc() - TimeUnit.MILLISECONDS.toMicros(current.retentionAgeMillis);
+    int excessTasks = hotTasks - current.maxHotTasks;
+
+    List<TaskService.State> expiredTasks = new ArrayList<>();
+    List<TaskService.State> overflowTasks = new ArrayList<>();
+    for (TaskService.State task : tasks) {
+      if (task.documentUpdateTimeMicros < retentionCutoffMicros) {
+        expiredTasks.add(task);
+      } else if (expiredTasks.size() + overflowTasks.size() < excessTasks) {
+        overflowTasks.add(task);
+      } else {
+        break;
+      }
+    }
+
+    if (expiredTasks.isEmpty() && overflowTasks.isEmpty()) {
+      finishTask(current, hotTasks);
+      return;
+    }
+
+    List<TaskService.State> selectedTasks = new ArrayList<>(expiredTasks);
+    selectedTasks.addAll(overflowTasks);
+    archiveTasks(current, selectedTasks, expiredTasks.size(), overflowTasks.size());
+  }
+
+  /**
+   * Writes the archives of the tasks.
+   *
+   * @param current
+   * @param tasks
+   * @param expiredTasks
+   * @param overflowTasks
+   */
+  private void archiveTasks(final State current, List<TaskService.State> tasks, int expiredTasks,
+                            int overflowTasks) throws Throwable {
+    List<Operation> posts = new ArrayList<>(tasks.size());
+    for (TaskService.State task : tasks) {
+      posts.add(Operation
+          .createPost(UriUtils.buildUri(getHost(), TaskArchiveServiceFactory.SELF_LINK))
+          .setBody(TaskArchiveService.archive(task))
+          .setReferer(UriUtils.buildUri(getHost(), getSelfLink())));
+    }
+
+    RateLimitedOperationJoin
+        .create(this, posts, current.maxConcurrentOperations, null)
+        .send((ops, failures) -> {
+          List<String> archivedTaskLinks = new ArrayList<>(tasks.size());
+          for (int i = 0; i < tasks.size(); i++) {
+            Operation post = posts.get(i);
+            Throwable failure = (failures == null ? null : failures.get(post.getId()));
+            if (failure != null && post.getStatusCode() != Operation.STATUS_CODE_CONFLICT) {
+              // the task stays in the index and is archived by the next run.
+              ServiceUtils.logWarning(this, "Failed to archive task %s: %s", tasks.get(i).documentSelfLink,
+                  failure.getMessage());
+              continue;
+            }
+
+            // a conflict means that a previous run archived the task but failed to delete it.
+            archivedTaskLinks.add(tasks.get(i).documentSelfLink);
+          }
+
+          if (archivedTaskLinks.isEmpty()) {
+            failTask(failures.values().iterator().next());
+            return;
+          }
+
+          deleteTasks(current, archivedTaskLinks, expiredTasks, overflowTasks);
+        });
+  }
+
+  /**
+   * Deletes the archived tasks from the index.
+   *
+   * @param current
+   * @param taskLinks
+   * @param expiredTasks
+   * @param overflowTasks
+   */
+  private void deleteTasks(final State current, List<String> taskLinks, int expiredTasks, int overflowTasks) {
+    List<Operation> deletes = new ArrayList<>(taskLinks.size());
+    for (String taskLink : taskLinks) {
+      deletes.add(Operation
+          .createDelete(UriUtils.buildUri(getHost(), taskLink))
+          .setBody("{}")
+          .setReferer(UriUtils.buildUri(getHost(), getSelfLink())));
+    }
+
+    RateLimitedOperationJoin
+        .create(this, deletes, current.maxConcurrentOperations, null)
+        .send((ops, failures) -> {
+          int deletedTasks = deletes.size();
+          if (failures != null) {
+            for (Map.Entry<Long, Throwable> failure : failures.entrySet()) {
+              if (ops.get(failure.getKey()).getStatusCode() != Operation.STATUS_CODE_NOT_FOUND) {
+                failTask(failure.getValue());
+                return;
+              }
+
+              deletedTasks--;
+            }
+          }
+
+          State patch = buildPatch(TaskState.TaskStage.STARTED, null);
+          patch.archivedTasks = current.archivedTasks + deletedTasks;
+          patch.expiredTasks = current.expiredTasks + expiredTasks;
+          patch.overflowTasks = current.overflowTasks + overflowTasks;
+          patch.archivedBatches = current.archivedBatches + 1;
+          ServiceUtils.logInfo(this, "Archived batch %d: %d tasks archived", patch.archivedBatches,
+              patch.archivedTasks);
+
+          // the next batch is selected by a new query since the archived tasks have left the index.
+          sendSelfPatch(patch);
+        });
+  }
+
+  private List<TaskService.State> parseTaskQueryResults(QueryTask result) {
+    List<TaskService.State> tasks = new ArrayList<>();
+    if (result.results == null || result.results.documents == null) {
+      return tasks;
+    }
+
+    for (Object document : result.results.documents.values()) {
+      tasks.add(Utils.fromJson(document, TaskService.State.class));
+    }
+
+    // the documents of a page are not returned in the order of the sort term.
+    tasks.sort((t1, t2) -> Long.compare(t1.documentUpdateTimeMicros, t2.documentUpdateTimeMicros));
+    return tasks;
+  }
+
+  /**
+   * Builds the query to retrieve the finished tasks, oldest first. Finished tasks are no longer updated so their
+   * update time is their end time.
+   *
+   * @param current
+   * @return
+   */
+  private QueryTask buildFinishedTaskQuery(final State current) {
+    QueryTask.Query stateClause = new QueryTask.Query();
+    for (TaskService.State.TaskState finishedState : EnumSet.of(
+        TaskService.State.TaskState.COMPLETED, TaskService.State.TaskState.ERROR)) {
+      QueryTask.Query clause = new QueryTask.Query()
+          .setTermPropertyName("state")
+          .setTermMatchValue(finishedState.toString());
+      clause.occurance = QueryTask.Query.Occurance.SHOULD_OCCUR;
+      stateClause.addBooleanClause(clause);
+    }
+
+    QueryTask.QuerySpecification spec = new QueryTask.QuerySpecification();
+    spec.query
+        .addBooleanClause(buildKindClause())
+        .addBooleanClause(stateClause);
+
+    spec.sortTerm = new QueryTask.QueryTerm();
+    spec.sortTerm.propertyName = DOCUMENT_UPDATE_TIME_MICROS;
+    spec.sortTerm.propertyType = ServiceDocumentDescription.TypeName.LONG;
+    spec.sortOrder = QueryTask.QuerySpecification.SortOrder.ASC;
+    spec.options = EnumSet.of(
+        QueryTask.QuerySpecification.QueryOption.EXPAND_CONTENT,
+        QueryTask.QuerySpecification.QueryOption.SORT);
+    spec.resultLimit = current.batchSize;
+
+    return QueryTask.create(spec).setDirect(true);
+  }
+
+  private QueryTask.Query buildKindClause() {
+    return new QueryTask.Query()
+        .setTermPropertyName(ServiceDocument.FIELD_NAME_KIND)
+        .setTermMatchValue(Utils.buildKind(TaskService.State.class));
+  }
+
+  /**
+   * Determines if the task is in a final state.
+   *
+   * @param s
+   * @return
+   */
+  private boolean isFinalStage(State s) {
+    return s.taskState.stage == TaskState.TaskStage.FINISHED ||
+        s.taskState.stage == TaskState.TaskStage.FAILED ||
+        s.taskState.stage == TaskState.TaskStage.CANCELLED;
+  }
+
+  private void finishTask(final State current, int hotTasks) {
+    ServiceUtils.logInfo(this, "Archived %d tasks, %d tasks left in the index", current.archivedTasks, hotTasks);
+    State patch = buildPatch(TaskState.TaskStage.FINISHED, null);
+    patch.hotTasks = hotTasks;
+    this.sendSelfPatch(patch);
+  }
+
+  /**
+   * Moves the service into the FAILED state.
+   *
+   * @param e
+   */
+  private void failTask(Throwable e) {
+    ServiceUtils.logSevere(this, e);
+    this.sendSelfPatch(buildPatch(TaskState.TaskStage.FAILED, e));
+  }
+
+  /**
+   * Send a patch message to ourselves to update the execution stage.
+   *
+   * @param stage
+   */
+  private void sendStageProgressPatch(State current, TaskState.TaskStage stage) {
+    if (current.isSelfProgressionDisabled) {
+      return;
+    }
+
+    this.sendSelfPatch(buildPatch(stage, null));
+  }
+
+  /**
+   * Send a patch message to ourselves to update the execution stage.
+   *
+   * @param state
+   */
+  private void sendSelfPatch(State state) {
+    Operation patch = Operation
+        .createPatch(UriUtils.buildUri(getHost(), getSelfLink()))
+        .setBody(state);
+    this.sendRequest(patch);
+  }
+
+  /**
+   * Build a state object that can be used to submit a stage progress
+   * self patch.
+   *
+   * @param stage
+   * @param e
+   * @return
+   */
+  private State buildPatch(TaskState.TaskStage stage, Throwable e) {
+    State s = new State();
+    s.taskState = new TaskState();
+    s.taskState.stage = stage;
+
+    if (e != null) {
+      s.taskState.failure = Utils.toServiceErrorResponse(e);
+    }
+
+    return s;
+  }
+
+  /**
+   * Durable service state data.
+   */
+  public static class State extends ServiceDocument {
+
+    /**
+     * Service execution stage.
+     */
+    @DefaultTaskState(value = TaskState.TaskStage.STARTED)
+    public TaskState taskState;
+
+    /**
+     * Flag that controls if we should self patch to make forward progress.
+     */
+    @DefaultBoolean(value = false)
+    public Boolean isSelfProgressionDisabled;
+
+    /**
+     * Age after which finished tasks are archived. (milliseconds)
+     */
+    @Immutable
+    @NotNull
+    @Positive
+    public Long retentionAgeMillis;
+
+    /**
+     * Maximum number of tasks to keep in the index, finished tasks beyond it are archived early.
+     */
+    @Immutable
+    @NotNull
+    @Positive
+    public Integer maxHotTasks;
+
+    /**
+     * Maximum number of tasks archived per batch.
+     */
+    @DefaultInteger(value = DEFAULT_BATCH_SIZE)
+    @Positive
+    public Integer batchSize;
+
+    /**
+     * Maximum number of operations in flight while archiving.
+     */
+    @DefaultInteger(value = DEFAULT_MAX_CONCURRENT_OPERATIONS)
+    @Positive
+    public Integer maxConcurrentOperations;
+
+    /**
+     * The number of tasks archived because they were past the retention age.
+     */
+    @DefaultInteger(value = 0)
+    public Integer expiredTasks;
+
+    /**
+     * The number of tasks archived because the index exceeded its cap.
+     */
+    @DefaultInteger(value = 0)
+    public Integer overflowTasks;
+
+    /**
+     * The number of tasks that were archived and deleted successfully.
+     */
+    @DefaultInteger(value = 0)
+    public Integer archivedTasks;
+
+    /**
+     * The number of batches archived.
+     */
+    @DefaultInteger(value = 0)
+    public Integer archivedBatches;
+
+    /**
+     * The number of tasks left in the index, counted up to maxHotTasks + batchSize.
+     */
+    public Integer hotTasks;
+  }
+}
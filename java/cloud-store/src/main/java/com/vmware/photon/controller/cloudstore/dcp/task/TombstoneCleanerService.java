@@ -17,8 +17,10 @@ import com.vmware.photon.controller.cloudstore.dcp.entity.TaskService;
 import com.vmware.photon.controller.cloudstore.dcp.entity.TombstoneService;
 import com.vmware.photon.controller.common.dcp.InitializationUtils;
 import com.vmware.photon.controller.common.dcp.PatchUtils;
+import com.vmware.photon.controller.common.dcp.RateLimitedOperationJoin;
 import com.vmware.photon.controller.common.dcp.ServiceUriPaths;
 import com.vmware.photon.controller.common.dcp.ServiceUtils;
+import com.vmware.photon.controller.common.dcp.TokenBucketRateLimiter;
 import com.vmware.photon.controller.common.dcp.ValidationUtils;
 import com.vmware.photon.controller.common.dcp.validation.DefaultBoolean;
 import com.vmware.photon.controller.common.dcp.validation.DefaultInteger;
@@ -29,6 +31,7 @@ import com.vmware.photon.controller.common.dcp.validation.Positive;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.OperationJoin;
 import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentQueryResult;
 import com.vmware.xenon.common.StatefulService;
 import com.vmware.xenon.common.TaskState;
 import com.vmware.xenon.common.UriUtils;
@@ -38,6 +41,7 @@ import com.vmware.xenon.services.common.NodeGroupBroadcastResponse;
 import com.vmware.xenon.services.common.QueryTask;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashSet;
@@ -45,11 +49,24 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class implementing service to remove stale tombstones and associated tasks from the cloud store.
+ * In sweep mode the service processes the stale tombstones page by page, with a bounded number of concurrent
+ * operations and a limited delete rate, and checkpoints the next page in its state so that a new owner resumes
+ * the sweep.
  */
 public class TombstoneCleanerService extends StatefulService {
+
+  public static final int DEFAULT_PAGE_LIMIT = 1000;
+  public static final int DEFAULT_MAX_CONCURRENT_DELETES = 16;
+  public static final int DEFAULT_MAX_DELETES_PER_SECOND = 100;
+  public static final int MAX_SWEEP_RESTARTS = 3;
+  public static final int MAX_BACKLOG_COUNT = 10000;
+
+  private TokenBucketRateLimiter deleteRateLimiter;
+
   public TombstoneCleanerService() {
     super(State.class);
     super.toggleOption(ServiceOption.PERSISTENCE, true);
@@ -165,6 +182,11 @@ public class TombstoneCleanerService extends StatefulService {
     try {
       switch (current.taskState.stage) {
         case STARTED:
+          if (current.sweepAllPages) {
+            this.processSweep(current);
+            break;
+          }
+
           final State finishPatch = new State();
           this.queryStaleTombstones(current, finishPatch);
           break;
@@ -366,6 +388,288 @@ public class TombstoneCleanerService extends StatefulService {
     join.sendWith(this);
   }
 
+  /**
+   * Processes the checkpointed page of the sweep, starting the query first if there is no checkpoint yet.
+   *
+   * @param current
+   */
+  private void processSweep(final State current) {
+    if (current.sweepStartTimeMicros == null) {
+      countStaleTombstones(current);
+    } else if (current.nextPageLink == null) {
+      startSweepQuery(current, buildSweepPatch(current));
+    } else {
+      sweepPage(current);
+    }
+  }
+
+  private void countStaleTombstones(final State current) {
+    // only the first MAX_BACKLOG_COUNT links are fetched, a larger backlog
+    // is reported as MAX_BACKLOG_COUNT and counted down as pages are swept.
+    QueryTask countQuery = buildTombstoneQuery(current);
+    countQuery.querySpec.options = EnumSet.noneOf(QueryTask.QuerySpecification.QueryOption.class);
+    countQuery.querySpec.resultLimit = MAX_BACKLOG_COUNT;
+
+    Operation countOperation = Operation
+        .createPost(UriUtils.buildUri(getHost(), LuceneQueryTaskFactoryService.SELF_LINK))
+        .setBody(countQuery)
+        .setCompletion((op, failure) -> {
+          if (failure != null) {
+            failTask(failure);
+            return;
+          }
+
+          ServiceDocumentQueryResult results = op.getBody(QueryTask.class).results;
+          if (results == null || results.nextPageLink == null) {
+            startCountedSweep(current, 0L);
+            return;
+          }
+
+          Operation getPage = Operation
+              .createGet(UriUtils.buildUri(getHost(), results.nextPageLink))
+              .setCompletion((pageOperation, pageFailure) -> {
+                if (pageFailure != null) {
+                  failTask(pageFailure);
+                  return;
+                }
+
+                ServiceDocumentQueryResult page = pageOperation.getBody(QueryTask.class).results;
+                startCountedSweep(current,
+                    (long) (page == null || page.documentLinks == null ? 0 : page.documentLinks.size()));
+              });
+
+          this.sendRequest(getPage);
+        });
+
+    this.sendRequest(countOperation);
+  }
+
+  private void startCountedSweep(final State current, long backlog) {
+    State checkpoint = buildSweepPatch(current);
+    checkpoint.sweepStartTimeMicros = Utils.getNowMicrosUtc();
+    checkpoint.remainingBacklog = backlog;
+    ServiceUtils.logInfo(this, "Sweeping %s%d stale tombstones",
+        backlog >= MAX_BACKLOG_COUNT ? "at least " : "", backlog);
+    startSweepQuery(current, checkpoint);
+  }
+
+  private void startSweepQuery(final State current, final State checkpoint) {
+    QueryTask query = buildTombstoneQuery(current);
+    query.querySpec.resultLimit = DEFAULT_PAGE_LIMIT;
+
+    Operation queryOperation = Operation
+        .createPost(UriUtils.buildUri(getHost(), LuceneQueryTaskFactoryService.SELF_LINK))
+        .setBody(query)
+        .setCompletion((op, failure) -> {
+          if (failure != null) {
+            failTask(failure);
+            return;
+          }
+
+          ServiceDocumentQueryResult results = op.getBody(QueryTask.class).results;
+          if (results == null || results.nextPageLink == null) {
+            ServiceUtils.logInfo(this, "No stale tombstones found.");
+            finishTask(checkpoint);
+            return;
+          }
+
+          checkpoint.nextPageLink = results.nextPageLink;
+          sendSelfPatch(checkpoint);
+        });
+
+    this.sendRequest(queryOperation);
+  }
+
+  private void sweepPage(final State current) {
+    Operation getPage = Operation
+        .createGet(UriUtils.buildUri(getHost(), current.nextPageLink))
+        .setCompletion((op, failure) -> {
+          if (failure != null) {
+            // pages live on the node which ran the query and expire, restart the
+            // query after an owner change. deleted tombstones are not found again.
+            restartSweep(current, failure);
+            return;
+          }
+
+          try {
+            QueryTask page = op.getBody(QueryTask.class);
+            List<TombstoneService.State> tombstoneList = parseTombstoneQueryResults(page);
+            sweepStaleTasks(current, tombstoneList, page.results == null ? null : page.results.nextPageLink);
+          } catch (Throwable t) {
+            failTask(t);
+          }
+        });
+
+    this.sendRequest(getPage);
+  }
+
+  private void restartSweep(final State current, Throwable failure) {
+    if (current.sweepRestarts >= MAX_SWEEP_RESTARTS) {
+      failTask(failure);
+      return;
+    }
+
+    ServiceUtils.logWarning(this, "Restarting sweep after failing to get page %s: %s", current.nextPageLink,
+        failure.getMessage());
+    State checkpoint = buildSweepPatch(current);
+    checkpoint.sweepRestarts = current.sweepRestarts + 1;
+    startSweepQuery(current, checkpoint);
+  }
+
+  private void sweepStaleTasks(final State current, List<TombstoneService.State> tombstoneList,
+                               String nextPageLink) {
+    URI queryUri = UriUtils.buildBroadcastRequestUri(
+        UriUtils.buildUri(getHost(), com.vmware.xenon.services.common.ServiceUriPaths.CORE_LOCAL_QUERY_TASKS),
+        ServiceUriPaths.DEFAULT_NODE_SELECTOR);
+
+    List<Operation> posts = new ArrayList<>(tombstoneList.size());
+    for (TombstoneService.State tombstone : tombstoneList) {
+      Operation post = Operation
+          .createPost(queryUri)
+          .setBody(buildTaskQuery(tombstone))
+          .setReferer(UriUtils.buildUri(getHost(), getSelfLink()))
+          .forceRemote();
+
+      posts.add(post);
+    }
+
+    RateLimitedOperationJoin
+        .create(this, posts, current.maxConcurrentDeletes, null)
+        .send((ops, failures) -> {
+          if (failures != null && !failures.isEmpty()) {
+            failTask(failures.values().iterator().next());
+            return;
+          }
+
+          try {
+            Set<String> taskSet = new HashSet<>();
+            for (Operation op : ops.values()) {
+              NodeGroupBroadcastResponse query = op.getBody(NodeGroupBroadcastResponse.class);
+              if (!query.failures.isEmpty()) {
+                failTask(new RuntimeException("Failures in broadcast query for stale tasks."));
+                return;
+              }
+
+              for (String json : query.jsonResponses.values()) {
+                QueryTask queryTask = Utils.fromJson(json, QueryTask.class);
+                if (queryTask != null && queryTask.results != null) {
+                  taskSet.addAll(queryTask.results.documentLinks);
+                }
+              }
+            }
+
+            sweepDeletes(current, tombstoneList, taskSet, nextPageLink);
+          } catch (Throwable t) {
+            failTask(t);
+          }
+        });
+  }
+
+  private void sweepDeletes(final State current, List<TombstoneService.State> tombstoneList, Set<String> taskSet,
+                            String nextPageLink) {
+    List<Operation> taskDeletes = new ArrayList<>(taskSet.size());
+    for (String taskLink : taskSet) {
+      taskDeletes.add(buildSweepDelete(taskLink));
+    }
+
+    List<Operation> tombstoneDeletes = new ArrayList<>(tombstoneList.size());
+    for (TombstoneService.State tombstone : tombstoneList) {
+      tombstoneDeletes.add(buildSweepDelete(tombstone.documentSelfLink));
+    }
+
+    // tombstones are only deleted once their tasks are gone, so a failed
+    // page is found again by the next run.
+    RateLimitedOperationJoin
+        .create(this, taskDeletes, current.maxConcurrentDeletes, getDeleteRateLimiter(current))
+        .send((taskOps, taskFailures) -> {
+          int deletedTasks;
+          try {
+            deletedTasks = countDeleted(taskOps, taskFailures);
+          } catch (Throwable t) {
+            failTask(t);
+            return;
+          }
+
+          RateLimitedOperationJoin
+              .create(this, tombstoneDeletes, current.maxConcurrentDeletes, getDeleteRateLimiter(current))
+              .send((tombstoneOps, tombstoneFailures) -> {
+                try {
+                  int deletedTombstones = countDeleted(tombstoneOps, tombstoneFailures);
+                  checkpointSweep(current, tombstoneList.size(), taskSet.size(), deletedTombstones, deletedTasks,
+                      nextPageLink);
+                } catch (Throwable t) {
+                  failTask(t);
+                }
+              });
+        });
+  }
+
+  private Operation buildSweepDelete(String documentSelfLink) {
+    return Operation
+        .createDelete(UriUtils.buildUri(getHost(), documentSelfLink))
+        .setBody("{}")
+        .setReferer(UriUtils.buildUri(getHost(), getSelfLink()))
+        .forceRemote();
+  }
+
+  private int countDeleted(Map<Long, Operation> ops, Map<Long, Throwable> failures) throws Throwable {
+    int deleted = ops.size();
+    if (failures != null) {
+      for (Map.Entry<Long, Throwable> failure : failures.entrySet()) {
+        if (ops.get(failure.getKey()).getStatusCode() != Operation.STATUS_CODE_NOT_FOUND) {
+          throw failure.getValue();
+        }
+
+        // deleted concurrently, e.g. by a run of the trigger.
+        deleted--;
+      }
+    }
+
+    return deleted;
+  }
+
+  private void checkpointSweep(final State current, int staleTombstones, int staleTasks, int deletedTombstones,
+                               int deletedTasks, String nextPageLink) {
+    State checkpoint = buildSweepPatch(current);
+    checkpoint.nextPageLink = nextPageLink;
+    checkpoint.sweptPages = current.sweptPages + 1;
+    checkpoint.staleTombstones = current.staleTombstones + staleTombstones;
+    checkpoint.staleTasks = current.staleTasks + staleTasks;
+    checkpoint.deletedTombstones = current.deletedTombstones + deletedTombstones;
+    checkpoint.deletedTasks = current.deletedTasks + deletedTasks;
+    checkpoint.remainingBacklog = Math.max(0L, current.remainingBacklog - staleTombstones);
+
+    long elapsedMicros = Math.max(1L, Utils.getNowMicrosUtc() - current.sweepStartTimeMicros);
+    checkpoint.deleteThroughput = (checkpoint.deletedTombstones + checkpoint.deletedTasks)
+        * (double) TimeUnit.SECONDS.toMicros(1) / elapsedMicros;
+
+    ServiceUtils.logInfo(this, "Swept page %d: deleted %d tombstones and %d tasks, %.1f deletes/s, " +
+            "%d tombstones remaining", checkpoint.sweptPages, checkpoint.deletedTombstones, checkpoint.deletedTasks,
+        checkpoint.deleteThroughput, checkpoint.remainingBacklog);
+
+    if (nextPageLink == null) {
+      finishTask(checkpoint);
+      return;
+    }
+
+    sendSelfPatch(checkpoint);
+  }
+
+  private State buildSweepPatch(final State current) {
+    State checkpoint = buildPatch(TaskState.TaskStage.STARTED, null);
+    checkpoint.sweepStartTimeMicros = current.sweepStartTimeMicros;
+    checkpoint.remainingBacklog = current.remainingBacklog;
+    return checkpoint;
+  }
+
+  private TokenBucketRateLimiter getDeleteRateLimiter(final State current) {
+    if (deleteRateLimiter == null || deleteRateLimiter.getPermitsPerSecond() != current.maxDeletesPerSecond) {
+      deleteRateLimiter = new TokenBucketRateLimiter(current.maxDeletesPerSecond);
+    }
+
+    return deleteRateLimiter;
+  }
+
   private List<TombstoneService.State> parseTombstoneQueryResults(QueryTask result) {
     ServiceUtils.logInfo(TombstoneCleanerService.this, "Tombstone query: %s", Utils.toJson(result));
 
@@ -557,5 +861,57 @@ public class TombstoneCleanerService extends StatefulService {
      */
     @DefaultInteger(value = 0)
     public Integer deletedTasks;
+
+    /**
+     * Flag that makes the service sweep the stale tombstones page by page.
+     */
+    @DefaultBoolean(value = false)
+    public Boolean sweepAllPages;
+
+    /**
+     * Maximum number of operations in flight while sweeping.
+     */
+    @DefaultInteger(value = DEFAULT_MAX_CONCURRENT_DELETES)
+    @Positive
+    public Integer maxConcurrentDeletes;
+
+    /**
+     * Maximum number of deletes per second while sweeping.
+     */
+    @DefaultInteger(value = DEFAULT_MAX_DELETES_PER_SECOND)
+    @Positive
+    public Integer maxDeletesPerSecond;
+
+    /**
+     * Link of the next page to sweep, checkpointed after every page.
+     */
+    public String nextPageLink;
+
+    /**
+     * Time at which the sweep started. (microseconds)
+     */
+    public Long sweepStartTimeMicros;
+
+    /**
+     * The number of pages swept.
+     */
+    @DefaultInteger(value = 0)
+    public Integer sweptPages;
+
+    /**
+     * The number of times the sweep query was restarted because the checkpointed page was gone.
+     */
+    @DefaultInteger(value = 0)
+    public Integer sweepRestarts;
+
+    /**
+     * The number of stale tombstones which are left to process, counted up to MAX_BACKLOG_COUNT.
+     */
+    public Long remainingBacklog;
+
+    /**
+     * The average number of tombstones and tasks deleted per second since the sweep started.
+     */
+    public Double deleteThroughput;
   }
 }
@@ -42,6 +42,11 @@ public class EntityLockCleanerTriggerBuilder implements TaskStateBuilder {
    */
   public static final long DEFAULT_TASK_EXPIRATION_AGE_MILLIS = DEFAULT_TRIGGER_INTERVAL_MILLIS * 5;
 
+  /**
+   * Default for sweeping all pages of entity locks in every run.
+   */
+  public static final boolean DEFAULT_SWEEP_ALL_PAGES = true;
+
   /**
    * Interval at which to trigger the lock cleanup in milliseconds.
    */
@@ -52,6 +57,16 @@ public class EntityLockCleanerTriggerBuilder implements TaskStateBuilder {
    */
   private final Long taskExpirationAgeMillis;
 
+  /**
+   * Whether the EntityLockCleanerService tasks sweep all pages of entity locks.
+   */
+  private final Boolean sweepAllPages;
+
+  /**
+   * Maximum number of deletes per second while sweeping.
+   */
+  private final Integer maxDeletesPerSecond;
+
   /**
    * Constructor.
    *
@@ -59,8 +74,24 @@ public class EntityLockCleanerTriggerBuilder implements TaskStateBuilder {
    * @param taskExpirationAge (in milliseconds)
    */
   public EntityLockCleanerTriggerBuilder(Long triggerInterval, Long taskExpirationAge) {
+    this(triggerInterval, taskExpirationAge, DEFAULT_SWEEP_ALL_PAGES,
+        EntityLockCleanerService.DEFAULT_MAX_DELETES_PER_SECOND);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param triggerInterval     (in milliseconds)
+   * @param taskExpirationAge   (in milliseconds)
+   * @param sweepAllPages
+   * @param maxDeletesPerSecond
+   */
+  public EntityLockCleanerTriggerBuilder(Long triggerInterval, Long taskExpirationAge, Boolean sweepAllPages,
+                                         Integer maxDeletesPerSecond) {
     this.triggerIntervalMillis = triggerInterval;
     this.taskExpirationAgeMillis = taskExpirationAge;
+    this.sweepAllPages = sweepAllPages;
+    this.maxDeletesPerSecond = maxDeletesPerSecond;
   }
 
   @Override
@@ -69,11 +100,19 @@ public class EntityLockCleanerTriggerBuilder implements TaskStateBuilder {
 
     state.taskExpirationAgeMillis = this.taskExpirationAgeMillis.intValue();
     state.triggerIntervalMillis = this.triggerIntervalMillis.intValue();
-    state.serializedTriggerState = Utils.toJson(new EntityLockCleanerService.State());
+    state.serializedTriggerState = buildStartState();
     state.triggerStateClassName = EntityLockCleanerService.State.class.getName();
     state.factoryServiceLink = EntityLockCleanerFactoryService.SELF_LINK;
     state.documentSelfLink = TRIGGER_SELF_LINK;
 
     return state;
   }
+
+  private String buildStartState() {
+    EntityLockCleanerService.State state = new EntityLockCleanerService.State();
+    state.sweepAllPages = this.sweepAllPages;
+    state.maxDeletesPerSecond = this.maxDeletesPerSecond;
+
+    return Utils.toJson(state);
+  }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+
+package com.vmware.photon.controller.cloudstore.dcp.task.trigger;
+
+import com.vmware.photon.controller.cloudstore.dcp.task.TaskArchiverFactoryService;
+import com.vmware.photon.controller.cloudstore.dcp.task.TaskArchiverService;
+import com.vmware.photon.controller.common.dcp.scheduler.TaskStateBuilder;
+import com.vmware.photon.controller.common.dcp.scheduler.TaskTriggerService;
+import com.vmware.xenon.common.Utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builder that generates the states for a TaskTriggerService meant to periodically trigger
+ * TaskArchiverService instances.
+ */
+public class TaskArchiverTriggerBuilder implements TaskStateBuilder {
+
+  /**
+   * Link for the trigger service.
+   */
+  public static final String TRIGGER_SELF_LINK = "/task-archiver";
+
+  /**
+   * Default interval for task archiver service. (1h)
+   */
+  public static final long DEFAULT_TRIGGER_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  /**
+   * Default age after which to expire a task.
+   */
+  public static final long DEFAULT_TASK_EXPIRATION_AGE_MILLIS = DEFAULT_TRIGGER_INTERVAL_MILLIS * 5;
+
+  /**
+   * Default age after which to archive a finished task. (7 days)
+   */
+  public static final long DEFAULT_RETENTION_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  /**
+   * Default maximum number of tasks in the index.
+   */
+  public static final int DEFAULT_MAX_HOT_TASKS = 100000;
+
+  /**
+   * Time interval to trigger the task archiver.
+   */
+  private final Long triggerIntervalMillis;
+
+  /**
+   * Age to expire the TaskArchiver tasks after.
+   */
+  private final Long taskExpirationAgeMillis;
+
+  /**
+   * Age at which finished tasks are archived.
+   */
+  private final Long retentionAgeMillis;
+
+  /**
+   * Maximum number of tasks in the index.
+   */
+  private final Integer maxHotTasks;
+
+  /**
+   * Constructor.
+   *
+   * @param triggerInterval   (in milliseconds)
+   * @param taskExpirationAge (in milliseconds)
+   * @param retentionAge      (in milliseconds)
+   * @param maxHotTasks
+   */
+  public TaskArchiverTriggerBuilder(Long triggerInterval, Long taskExpirationAge, Long retentionAge,
+                                    Integer maxHotTasks) {
+    this.triggerIntervalMillis = triggerInterval;
+    this.taskExpirationAgeMillis = taskExpirationAge;
+    this.retentionAgeMillis = retentionAge;
+    this.maxHotTasks = maxHotTasks;
+  }
+
+  @Override
+  public TaskTriggerService.State build() {
+    TaskTriggerService.State state = new TaskTriggerService.State();
+    state.triggerIntervalMillis = this.triggerIntervalMillis.intValue();
+    state.taskExpirationAgeMillis = this.taskExpirationAgeMillis.intValue();
+
+    state.serializedTriggerState = buildStartState();
+    state.triggerStateClassName = TaskArchiverService.State.class.getName();
+    state.factoryServiceLink = TaskArchiverFactoryService.SELF_LINK;
+    state.documentSelfLink = TRIGGER_SELF_LINK;
+    return state;
+  }
+
+  private String buildStartState() {
+    TaskArchiverService.State state = new TaskArchiverService.State();
+    state.retentionAgeMillis = this.retentionAgeMillis;
+    state.maxHotTasks = this.maxHotTasks;
+
+    return Utils.toJson(state);
+  }
+}
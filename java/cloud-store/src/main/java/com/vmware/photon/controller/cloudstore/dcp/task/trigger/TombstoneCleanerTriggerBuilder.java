@@ -47,6 +47,11 @@ public class TombstoneCleanerTriggerBuilder implements TaskStateBuilder {
    */
   public static final long DEFAULT_TOMBSTONE_EXPIRATION_AGE_MILLIS = TimeUnit.HOURS.toMillis(24);
 
+  /**
+   * Default for sweeping all pages of stale tombstones in every run.
+   */
+  public static final boolean DEFAULT_SWEEP_ALL_PAGES = true;
+
   /**
    * Time interval to trigger the tombstone cleaner.
    */
@@ -62,6 +67,16 @@ public class TombstoneCleanerTriggerBuilder implements TaskStateBuilder {
    */
   private final Long tombstoneExpirationAgeMillis;
 
+  /**
+   * Whether the TombstoneCleaner tasks sweep all pages of stale tombstones.
+   */
+  private final Boolean sweepAllPages;
+
+  /**
+   * Maximum number of deletes per second while sweeping.
+   */
+  private final Integer maxDeletesPerSecond;
+
   /**
    * Constructor.
    *
@@ -70,9 +85,26 @@ public class TombstoneCleanerTriggerBuilder implements TaskStateBuilder {
    * @param tombstronExpirationAge  (in milliseconds)
    */
   public TombstoneCleanerTriggerBuilder(Long triggerInterval, Long taskExpirationAge, Long tombstronExpirationAge) {
+    this(triggerInterval, taskExpirationAge, tombstronExpirationAge, DEFAULT_SWEEP_ALL_PAGES,
+        TombstoneCleanerService.DEFAULT_MAX_DELETES_PER_SECOND);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param triggerInterval         (in milliseconds)
+   * @param taskExpirationAge       (in milliseconds)
+   * @param tombstronExpirationAge  (in milliseconds)
+   * @param sweepAllPages
+   * @param maxDeletesPerSecond
+   */
+  public TombstoneCleanerTriggerBuilder(Long triggerInterval, Long taskExpirationAge, Long tombstronExpirationAge,
+                                        Boolean sweepAllPages, Integer maxDeletesPerSecond) {
     this.triggerIntervalMillis = triggerInterval;
     this.taskExpirationAgeMillis = taskExpirationAge;
     this.tombstoneExpirationAgeMillis = tombstronExpirationAge;
+    this.sweepAllPages = sweepAllPages;
+    this.maxDeletesPerSecond = maxDeletesPerSecond;
   }
 
   @Override
@@ -91,6 +123,8 @@ public class TombstoneCleanerTriggerBuilder implements TaskStateBuilder {
   private String buildStartState() {
     TombstoneCleanerService.State state = new TombstoneCleanerService.State();
     state.tombstoneExpirationAgeMillis = this.tombstoneExpirationAgeMillis;
+    state.sweepAllPages = this.sweepAllPages;
+    state.maxDeletesPerSecond = this.maxDeletesPerSecond;
 
     return Utils.toJson(state);
   }
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.cloudstore.dcp;
+
+import com.vmware.photon.controller.cloudstore.dcp.entity.TenantService;
+import com.vmware.photon.controller.cloudstore.dcp.entity.TenantServiceFactory;
+import com.vmware.photon.controller.common.dcp.BasicServiceHost;
+import com.vmware.photon.controller.common.dcp.DcpRestClient;
+import com.vmware.photon.controller.common.dcp.exceptions.BadRequestException;
+import com.vmware.photon.controller.common.thrift.StaticServerSet;
+import com.vmware.xenon.common.ServiceDocumentQueryResult;
+import com.vmware.xenon.common.Utils;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests {@link ChangeFeedService}.
+ */
+public class ChangeFeedServiceTest {
+
+  private DcpRestClient dcpRestClient;
+  private BasicServiceHost host;
+
+  /**
+   * Dummy test case to make Intellij recognize this as a test class.
+   */
+  @Test
+  private void dummy() {
+  }
+
+  private ChangeFeedService.Response getEvents(ChangeFeedService.Cursor cursor, int maxEvents) throws Throwable {
+    ChangeFeedService.Request request = new ChangeFeedService.Request();
+    request.documentKind = Utils.buildKind(TenantService.State.class);
+    request.cursor = cursor;
+    request.maxEvents = maxEvents;
+    request.settleTimeMillis = 0L;
+    return dcpRestClient.post(ChangeFeedService.SELF_LINK, request).getBody(ChangeFeedService.Response.class);
+  }
+
+  private String createTenant() throws Throwable {
+    TenantService.State tenant = new TenantService.State();
+    tenant.name = UUID.randomUUID().toString();
+    return dcpRestClient.post(TenantServiceFactory.SELF_LINK, tenant)
+        .getBody(TenantService.State.class).documentSelfLink;
+  }
+
+  /**
+   * Tests for the handlePost method.
+   */
+  public class HandlePostTest {
+
+    @BeforeMethod
+    public void setUp() throws Throwable {
+      host = BasicServiceHost.create();
+      host.startServiceSynchronously(new TenantServiceFactory(), null);
+      host.startServiceSynchronously(new ChangeFeedService(), null, ChangeFeedService.SELF_LINK);
+
+      StaticServerSet serverSet = new StaticServerSet(
+          new InetSocketAddress(host.getPreferredAddress(), host.getPort()));
+      dcpRestClient = new DcpRestClient(serverSet, Executors.newFixedThreadPool(1));
+      dcpRestClient.start();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Throwable {
+      if (host != null) {
+        BasicServiceHost.destroy(host);
+      }
+
+      dcpRestClient.stop();
+    }
+
+    @Test
+    public void testEmptyFeed() throws Throwable {
+      ChangeFeedService.Response response = getEvents(null, 10);
+      assertThat(response.events.isEmpty(), is(true));
+      assertThat(response.hasMore, is(false));
+    }
+
+    @Test
+    public void testResumeWithCursor() throws Throwable {
+      List<String> tenantLinks = new ArrayList<>();
+      for (int i = 0; i < 5; i++) {
+        tenantLinks.add(createTenant());
+      }
+
+      List<String> eventLinks = new ArrayList<>();
+      ChangeFeedService.Cursor cursor = null;
+      ChangeFeedService.Response response;
+      do {
+        response = getEvents(cursor, 2);
+        assertThat(response.events.size() <= 2, is(true));
+        for (ChangeFeedService.Event event : response.events) {
+          assertThat(event.type, is(ChangeFeedService.Event.Type.CREATE));
+          eventLinks.add(event.documentSelfLink);
+        }
+
+        cursor = response.nextCursor;
+      } while (response.hasMore);
+
+      assertThat(eventLinks, is(tenantLinks));
+
+      response = getEvents(cursor, 2);
+      assertThat(response.events.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testDeleteEvent() throws Throwable {
+      String tenantLink = createTenant();
+      ChangeFeedService.Cursor cursor = getEvents(null, 10).nextCursor;
+
+      dcpRestClient.delete(tenantLink, new TenantService.State());
+      ChangeFeedService.Response response = getEvents(cursor, 10);
+      assertThat(response.events.size(), is(1));
+      assertThat(response.events.get(0).type, is(ChangeFeedService.Event.Type.DELETE));
+      assertThat(response.events.get(0).documentSelfLink, is(tenantLink));
+    }
+
+    @Test(expectedExceptions = BadRequestException.class)
+    public void testInvalidRequest() throws Throwable {
+      getEvents(null, ChangeFeedService.MAX_EVENTS + 1);
+    }
+  }
+
+  /**
+   * Tests for the buildResponse method.
+   */
+  public class BuildResponseTest {
+
+    private ChangeFeedService.Request request;
+
+    @BeforeMethod
+    public void setUp() {
+      request = new ChangeFeedService.Request();
+      request.documentKind = Utils.buildKind(TenantService.State.class);
+      request.maxEvents = 10;
+    }
+
+    @Test
+    public void testOlderUpdateReplicatedAfterNewerUpdate() {
+      TenantService.State older = buildTenant("/tenants/older", 1000L);
+      TenantService.State newer = buildTenant("/tenants/newer", 2000L);
+
+      // the older update has not reached the local index yet, the newer one has not settled.
+      ChangeFeedService.Response response = ChangeFeedService.buildResponse(request, buildResults(newer), 1500L);
+      assertThat(response.events.isEmpty(), is(true));
+      assertThat(response.nextCursor, nullValue());
+
+      // the older update arrives late, both are returned once they have settled.
+      request.cursor = response.nextCursor;
+      response = ChangeFeedService.buildResponse(request, buildResults(newer, older), 2500L);
+      assertThat(response.events.size(), is(2));
+      assertThat(response.events.get(0).documentSelfLink, is(older.documentSelfLink));
+      assertThat(response.events.get(1).documentSelfLink, is(newer.documentSelfLink));
+      assertThat(response.nextCursor.updateTimeMicros, is(2000L));
+    }
+
+    @Test
+    public void testSettledUpdatesBeforeUnsettledUpdates() {
+      TenantService.State settled = buildTenant("/tenants/settled", 1000L);
+      TenantService.State unsettled = buildTenant("/tenants/unsettled", 2000L);
+
+      ChangeFeedService.Response response =
+          ChangeFeedService.buildResponse(request, buildResults(settled, unsettled), 1500L);
+      assertThat(response.events.size(), is(1));
+      assertThat(response.events.get(0).documentSelfLink, is(settled.documentSelfLink));
+      assertThat(response.nextCursor.updateTimeMicros, is(1000L));
+      assertThat(response.hasMore, is(false));
+    }
+
+    private TenantService.State buildTenant(String selfLink, long updateTimeMicros) {
+      TenantService.State tenant = new TenantService.State();
+      tenant.name = selfLink;
+      tenant.documentSelfLink = selfLink;
+      tenant.documentVersion = 1;
+      tenant.documentUpdateTimeMicros = updateTimeMicros;
+      return tenant;
+    }
+
+    private ServiceDocumentQueryResult buildResults(TenantService.State... tenants) {
+      ServiceDocumentQueryResult results = new ServiceDocumentQueryResult();
+      results.documents = new LinkedHashMap<>();
+      for (TenantService.State tenant : tenants) {
+        results.documents.put(tenant.documentSelfLink, tenant);
+      }
+
+      return results;
+    }
+  }
+}
@@ -29,7 +29,9 @@ import com.vmware.photon.controller.cloudstore.dcp.entity.ImageServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.NetworkServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.PortGroupServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.ProjectServiceFactory;
+import com.vmware.photon.controller.cloudstore.dcp.entity.ResourceTicketEscrowServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.ResourceTicketServiceFactory;
+import com.vmware.photon.controller.cloudstore.dcp.entity.TaskArchiveServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.TaskServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.TenantServiceFactory;
 import com.vmware.photon.controller.cloudstore.dcp.entity.TombstoneServiceFactory;
@@ -38,8 +40,10 @@ import com.vmware.photon.controller.cloudstore.dcp.helpers.TestHelper;
 import com.vmware.photon.controller.cloudstore.dcp.helpers.UpgradeHelper;
 import com.vmware.photon.controller.cloudstore.dcp.task.EntityLockCleanerFactoryService;
 import com.vmware.photon.controller.cloudstore.dcp.task.FlavorDeleteServiceFactory;
+import com.vmware.photon.controller.cloudstore.dcp.task.TaskArchiverFactoryService;
 import com.vmware.photon.controller.cloudstore.dcp.task.TombstoneCleanerFactoryService;
 import com.vmware.photon.controller.cloudstore.dcp.task.trigger.EntityLockCleanerTriggerBuilder;
+import com.vmware.photon.controller.cloudstore.dcp.task.trigger.TaskArchiverTriggerBuilder;
 import com.vmware.photon.controller.cloudstore.dcp.task.trigger.TombstoneCleanerTriggerBuilder;
 import com.vmware.photon.controller.common.config.BadConfigException;
 import com.vmware.photon.controller.common.config.ConfigBuilder;
@@ -92,12 +96,15 @@ public class CloudStoreDcpHostTest {
       DeploymentServiceFactory.SELF_LINK,
       PortGroupServiceFactory.SELF_LINK,
       TaskServiceFactory.SELF_LINK,
+      TaskArchiveServiceFactory.SELF_LINK,
       FlavorDeleteServiceFactory.SELF_LINK,
       EntityLockServiceFactory.SELF_LINK,
       ProjectServiceFactory.SELF_LINK,
       TenantServiceFactory.SELF_LINK,
       ResourceTicketServiceFactory.SELF_LINK,
+      ResourceTicketEscrowServiceFactory.SELF_LINK,
       StatusService.SELF_LINK,
+      ChangeFeedService.SELF_LINK,
       VmServiceFactory.SELF_LINK,
       DiskServiceFactory.SELF_LINK,
       AttachedDiskServiceFactory.SELF_LINK,
@@ -109,10 +116,12 @@ public class CloudStoreDcpHostTest {
       TaskTriggerFactoryService.SELF_LINK,
       TaskTriggerFactoryService.SELF_LINK + EntityLockCleanerTriggerBuilder.TRIGGER_SELF_LINK,
       TaskTriggerFactoryService.SELF_LINK + TombstoneCleanerTriggerBuilder.TRIGGER_SELF_LINK,
+      TaskTriggerFactoryService.SELF_LINK + TaskArchiverTriggerBuilder.TRIGGER_SELF_LINK,
 
       // tasks
       EntityLockCleanerFactoryService.SELF_LINK,
-      TombstoneCleanerFactoryService.SELF_LINK
+      TombstoneCleanerFactoryService.SELF_LINK,
+      TaskArchiverFactoryService.SELF_LINK
   };
 
   /**
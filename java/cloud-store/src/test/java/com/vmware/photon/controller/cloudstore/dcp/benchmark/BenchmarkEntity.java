@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.cloudstore.dcp.benchmark;
+
+import com.vmware.photon.controller.api.HostState;
+import com.vmware.photon.controller.api.QuotaLineItem;
+import com.vmware.photon.controller.api.QuotaUnit;
+import com.vmware.photon.controller.api.UsageTag;
+import com.vmware.photon.controller.api.VmState;
+import com.vmware.photon.controller.cloudstore.dcp.entity.HostService;
+import com.vmware.photon.controller.cloudstore.dcp.entity.ResourceTicketService;
+import com.vmware.photon.controller.cloudstore.dcp.entity.TaskService;
+import com.vmware.photon.controller.cloudstore.dcp.entity.VmService;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.services.common.QueryTask;
+
+import java.util.Collections;
+import java.util.Date;
+
+/**
+ * Defines the benchmarked entities and the documents the benchmark creates and patches.
+ */
+public enum BenchmarkEntity {
+
+  VM("vms", VmService.State.class) {
+    @Override
+    public Service createService() {
+      return new VmService();
+    }
+
+    @Override
+    public ServiceDocument buildStartState(int index) {
+      VmService.State state = new VmService.State();
+      state.name = "vm-" + index;
+      state.flavorId = "flavor-id";
+      state.imageId = "image-id";
+      state.projectId = "project-" + (index % PROJECT_COUNT);
+      state.vmState = VmState.CREATING;
+      return state;
+    }
+
+    @Override
+    public ServiceDocument buildPatch(int index) {
+      VmService.State patch = new VmService.State();
+      patch.vmState = (index % 2 == 0 ? VmState.STARTED : VmState.STOPPED);
+      return patch;
+    }
+
+    @Override
+    public QueryTask.Query buildQueryClause(int index) {
+      return new QueryTask.Query()
+          .setTermPropertyName("projectId")
+          .setTermMatchValue("project-" + (index % PROJECT_COUNT));
+    }
+  },
+
+  TASK("tasks", TaskService.State.class) {
+    @Override
+    public Service createService() {
+      return new TaskService();
+    }
+
+    @Override
+    public ServiceDocument buildStartState(int index) {
+      TaskService.State state = new TaskService.State();
+      state.entityId = "entity-" + index;
+      state.entityKind = "vm";
+      state.projectId = "project-" + (index % PROJECT_COUNT);
+      state.state = TaskService.State.TaskState.QUEUED;
+      state.queuedTime = new Date();
+      return state;
+    }
+
+    @Override
+    public ServiceDocument buildPatch(int index) {
+      TaskService.State patch = new TaskService.State();
+      patch.state = TaskService.State.TaskState.STARTED;
+      patch.startedTime = new Date();
+      return patch;
+    }
+
+    @Override
+    public QueryTask.Query buildQueryClause(int index) {
+      return new QueryTask.Query()
+          .setTermPropertyName("projectId")
+          .setTermMatchValue("project-" + (index % PROJECT_COUNT));
+    }
+  },
+
+  RESOURCE_TICKET("resource-tickets", ResourceTicketService.State.class) {
+    @Override
+    public Service createService() {
+      return new ResourceTicketService();
+    }
+
+    @Override
+    public ServiceDocument buildStartState(int index) {
+      ResourceTicketService.State state = new ResourceTicketService.State();
+      state.name = "ticket-" + index;
+      state.tenantId = "tenant-id";
+      return state;
+    }
+
+    @Override
+    public ServiceDocument buildPatch(int index) {
+      ResourceTicketService.Patch patch = new ResourceTicketService.Patch();
+      patch.patchtype = ResourceTicketService.Patch.PatchType.USAGE_CONSUME;
+      patch.cost.put("vm.count", new QuotaLineItem("vm.count", 1, QuotaUnit.COUNT));
+      return patch;
+    }
+
+    @Override
+    public QueryTask.Query buildQueryClause(int index) {
+      return new QueryTask.Query()
+          .setTermPropertyName("tenantId")
+          .setTermMatchValue("tenant-id");
+    }
+  },
+
+  HOST("hosts", HostService.State.class) {
+    @Override
+    public Service createService() {
+      return new HostService();
+    }
+
+    @Override
+    public ServiceDocument buildStartState(int index) {
+      HostService.State state = new HostService.State();
+      state.state = HostState.READY;
+      state.hostAddress = "10.0." + (index / 250) + "." + (index % 250);
+      state.userName = "root";
+      state.password = "password";
+      state.usageTags = Collections.singleton(UsageTag.CLOUD.name());
+      return state;
+    }
+
+    @Override
+    public ServiceDocument buildPatch(int index) {
+      HostService.State patch = new HostService.State();
+      patch.state = (index % 2 == 0 ? HostState.MAINTENANCE : HostState.READY);
+      return patch;
+    }
+
+    @Override
+    public QueryTask.Query buildQueryClause(int index) {
+      return new QueryTask.Query()
+          .setTermPropertyName(HostService.State.USAGE_TAGS_KEY)
+          .setTermMatchValue(UsageTag.CLOUD.name());
+    }
+  };
+
+  /**
+   * Number of projects the documents are spread over, the broadcast queries select one project.
+   */
+  public static final int PROJECT_COUNT = 10;
+
+  private final String pathSegment;
+
+  private final Class<? extends ServiceDocument> stateClass;
+
+  BenchmarkEntity(String pathSegment, Class<? extends ServiceDocument> stateClass) {
+    this.pathSegment = pathSegment;
+    this.stateClass = stateClass;
+  }
+
+  public String getPathSegment() {
+    return pathSegment;
+  }
+
+  public Class<? extends ServiceDocument> getStateClass() {
+    return stateClass;
+  }
+
+  public abstract Service createService();
+
+  public abstract ServiceDocument buildStartState(int index);
+
+  public abstract ServiceDocument buildPatch(int index);
+
+  public abstract QueryTask.Query buildQueryClause(int index);
+}
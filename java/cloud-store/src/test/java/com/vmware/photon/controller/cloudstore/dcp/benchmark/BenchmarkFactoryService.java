@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.cloudstore.dcp.benchmark;
+
+import com.vmware.photon.controller.common.dcp.ServiceUriPaths;
+import com.vmware.xenon.common.FactoryService;
+import com.vmware.xenon.common.Service;
+
+/**
+ * Class BenchmarkFactoryService creates the services of a benchmarked entity with the options of a
+ * {@link ReplicationProfile}, so the profiles can be compared side by side on the same hosts.
+ */
+public class BenchmarkFactoryService extends FactoryService {
+
+  private final BenchmarkEntity entity;
+
+  private final ReplicationProfile profile;
+
+  public BenchmarkFactoryService(BenchmarkEntity entity, ReplicationProfile profile) {
+    super(entity.getStateClass());
+    super.setPeerNodeSelectorPath(ServiceUriPaths.DEFAULT_CLOUD_STORE_NODE_SELECTOR);
+    this.entity = entity;
+    this.profile = profile;
+  }
+
+  @Override
+  public Service createServiceInstance() throws Throwable {
+    Service service = entity.createService();
+    profile.apply(service);
+    return service;
+  }
+}
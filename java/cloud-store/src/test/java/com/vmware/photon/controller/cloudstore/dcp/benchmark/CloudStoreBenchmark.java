@@ -0,0 +1,301 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.cloudstore.dcp.benchmark;
+
+import com.vmware.photon.controller.cloudstore.dcp.CloudStoreDcpHost;
+import com.vmware.photon.controller.cloudstore.dcp.helpers.TestEnvironment;
+import com.vmware.photon.controller.common.dcp.OperationLatch;
+import com.vmware.photon.controller.common.dcp.ServiceHostUtils;
+import com.vmware.photon.controller.common.dcp.ServiceUriPaths;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.NodeGroupService;
+import com.vmware.xenon.services.common.QueryTask;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Class CloudStoreBenchmark runs a mix of operations against the entities of an in-process multi-node cloud store
+ * and records the latency of every operation.
+ * <p>
+ * The entities are served by {@link BenchmarkFactoryService}s started on all hosts of the environment under
+ * {@link #ROOT_PATH}, one per entity and {@link ReplicationProfile}, so every profile is measured against the same
+ * node group. Requests are spread round-robin over the hosts, like clients using all cloud store endpoints.
+ * </p>
+ */
+public class CloudStoreBenchmark {
+
+  public static final String ROOT_PATH = "/benchmark";
+
+  private static final long FACTORY_AVAILABILITY_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private static final String REFERER_PATH = ROOT_PATH + "/client";
+
+  private final TestEnvironment environment;
+
+  private final Config config;
+
+  private final Random random;
+
+  public CloudStoreBenchmark(TestEnvironment environment, Config config) {
+    this.environment = environment;
+    this.config = config;
+    this.random = new Random(config.randomSeed);
+  }
+
+  /**
+   * Runs the configured operations with the entities of a profile.
+   *
+   * @param profile
+   * @return the latencies of the operations, grouped by entity and operation type
+   * @throws Throwable
+   */
+  public LatencyRecorder run(ReplicationProfile profile) throws Throwable {
+    setMembershipQuorum(profile.getMembershipQuorum(environment.getHosts().length));
+    Map<BenchmarkEntity, String> factoryLinks = startFactories(profile);
+    Map<BenchmarkEntity, List<String>> documentLinks = seedDocuments(factoryLinks);
+
+    CloudStoreDcpHost[] hosts = environment.getHosts();
+    LatencyRecorder recorder = new LatencyRecorder();
+    Semaphore inFlight = new Semaphore(config.concurrency);
+    CountDownLatch completed = new CountDownLatch(config.operations);
+
+    recorder.start();
+    for (int i = 0; i < config.operations; i++) {
+      inFlight.acquire();
+
+      OperationType type = nextOperationType();
+      BenchmarkEntity entity = config.entities.get(random.nextInt(config.entities.size()));
+      CloudStoreDcpHost host = hosts[i % hosts.length];
+      Operation operation = buildOperation(host, type, entity, factoryLinks.get(entity), documentLinks.get(entity), i);
+
+      String name = entity + " " + type;
+      long startNanos = System.nanoTime();
+      operation.setCompletion((completedOp, failure) -> {
+        recorder.record(name, System.nanoTime() - startNanos, failure == null);
+        if (failure == null && type == OperationType.CREATE) {
+          documentLinks.get(entity).add(completedOp.getBody(entity.getStateClass()).documentSelfLink);
+        }
+
+        inFlight.release();
+        completed.countDown();
+      });
+
+      host.sendRequest(operation);
+    }
+
+    if (!completed.await(config.timeoutMillis, TimeUnit.MILLISECONDS)) {
+      throw new TimeoutException(String.format("%d operations did not complete", completed.getCount()));
+    }
+
+    recorder.stop();
+    return recorder;
+  }
+
+  private void setMembershipQuorum(int membershipQuorum) throws Throwable {
+    // the quorum is set on every host, so a run does not depend on the quorum left by the previous profile.
+    for (CloudStoreDcpHost host : environment.getHosts()) {
+      Operation patch = Operation
+          .createPatch(UriUtils.buildUri(host, com.vmware.xenon.services.common.ServiceUriPaths.DEFAULT_NODE_GROUP))
+          .setBody(NodeGroupService.UpdateQuorumRequest.create(false).setMembershipQuorum(membershipQuorum));
+      ServiceHostUtils.sendRequestAndWait(host, patch, REFERER_PATH);
+    }
+  }
+
+  private Map<BenchmarkEntity, String> startFactories(ReplicationProfile profile) throws Throwable {
+    Map<BenchmarkEntity, String> factoryLinks = new EnumMap<>(BenchmarkEntity.class);
+    for (BenchmarkEntity entity : config.entities) {
+      String factoryLink = UriUtils.buildUriPath(ROOT_PATH, profile.name().toLowerCase(), entity.getPathSegment());
+      for (CloudStoreDcpHost host : environment.getHosts()) {
+        Operation post = Operation.createPost(UriUtils.buildUri(host, factoryLink));
+        OperationLatch syncPost = new OperationLatch(post);
+        host.startService(post, new BenchmarkFactoryService(entity, profile));
+        syncPost.awaitOperationCompletion();
+      }
+
+      for (CloudStoreDcpHost host : environment.getHosts()) {
+        ServiceHostUtils.waitForServiceAvailability(host, FACTORY_AVAILABILITY_TIMEOUT_MILLIS, factoryLink);
+      }
+
+      factoryLinks.put(entity, factoryLink);
+    }
+
+    return factoryLinks;
+  }
+
+  private Map<BenchmarkEntity, List<String>> seedDocuments(Map<BenchmarkEntity, String> factoryLinks)
+      throws Throwable {
+    Map<BenchmarkEntity, List<String>> documentLinks = new EnumMap<>(BenchmarkEntity.class);
+    for (Map.Entry<BenchmarkEntity, String> factoryLink : factoryLinks.entrySet()) {
+      BenchmarkEntity entity = factoryLink.getKey();
+      List<String> links = Collections.synchronizedList(new ArrayList<>());
+      for (int i = 0; i < config.seedDocuments; i++) {
+        Operation post = environment.sendPostAndWait(factoryLink.getValue(), entity.buildStartState(i));
+        links.add(post.getBody(entity.getStateClass()).documentSelfLink);
+      }
+
+      documentLinks.put(entity, links);
+    }
+
+    return documentLinks;
+  }
+
+  private OperationType nextOperationType() {
+    int value = random.nextInt(config.getTotalWeight());
+    for (Map.Entry<OperationType, Integer> weight : config.mix.entrySet()) {
+      value -= weight.getValue();
+      if (value < 0) {
+        return weight.getKey();
+      }
+    }
+
+    throw new IllegalStateException("Empty operation mix");
+  }
+
+  private Operation buildOperation(CloudStoreDcpHost host, OperationType type, BenchmarkEntity entity,
+                                   String factoryLink, List<String> documentLinks, int index) {
+    Operation operation;
+    switch (type) {
+      case CREATE:
+        operation = Operation
+            .createPost(UriUtils.buildUri(host, factoryLink))
+            .setBody(entity.buildStartState(config.seedDocuments + index));
+        break;
+      case PATCH:
+        operation = Operation
+            .createPatch(UriUtils.buildUri(host, randomLink(documentLinks)))
+            .setBody(entity.buildPatch(index));
+        break;
+      case GET:
+        operation = Operation
+            .createGet(UriUtils.buildUri(host, randomLink(documentLinks)));
+        break;
+      case QUERY:
+        operation = Operation
+            .createPost(UriUtils.buildBroadcastRequestUri(
+                UriUtils.buildUri(host, ServiceUriPaths.CORE_LOCAL_QUERY_TASKS),
+                ServiceUriPaths.DEFAULT_NODE_SELECTOR))
+            .setBody(buildQuery(entity, index));
+        break;
+      default:
+        throw new IllegalStateException("Unknown operation type " + type);
+    }
+
+    return operation.setReferer(UriUtils.buildUri(host, REFERER_PATH));
+  }
+
+  private String randomLink(List<String> documentLinks) {
+    synchronized (documentLinks) {
+      return documentLinks.get(random.nextInt(documentLinks.size()));
+    }
+  }
+
+  private QueryTask buildQuery(BenchmarkEntity entity, int index) {
+    QueryTask.QuerySpecification spec = new QueryTask.QuerySpecification();
+    spec.query
+        .addBooleanClause(new QueryTask.Query()
+            .setTermPropertyName(ServiceDocument.FIELD_NAME_KIND)
+            .setTermMatchValue(Utils.buildKind(entity.getStateClass())))
+        .addBooleanClause(entity.buildQueryClause(index));
+
+    return QueryTask.create(spec).setDirect(true);
+  }
+
+  /**
+   * Defines the benchmarked operations.
+   */
+  public enum OperationType {
+    CREATE,
+    PATCH,
+    GET,
+    QUERY
+  }
+
+  /**
+   * Class encapsulating the configuration of a benchmark run. The defaults can be overridden with system
+   * properties, e.g. -Dbenchmark.mix=CREATE:10,PATCH:40,GET:50
+   */
+  public static class Config {
+
+    public static final String PROPERTY_PREFIX = "benchmark.";
+
+    // number of operations of a run
+    public int operations = Integer.getInteger(PROPERTY_PREFIX + "operations", 2000);
+
+    // maximum number of operations in flight
+    public int concurrency = Integer.getInteger(PROPERTY_PREFIX + "concurrency", 32);
+
+    // number of documents per entity created before the run
+    public int seedDocuments = Integer.getInteger(PROPERTY_PREFIX + "seedDocuments", 100);
+
+    public long timeoutMillis = Long.getLong(PROPERTY_PREFIX + "timeoutMillis", TimeUnit.MINUTES.toMillis(10));
+
+    public long randomSeed = Long.getLong(PROPERTY_PREFIX + "randomSeed", 0L);
+
+    public List<BenchmarkEntity> entities = parseEntities(
+        System.getProperty(PROPERTY_PREFIX + "entities", "VM,TASK,RESOURCE_TICKET,HOST"));
+
+    public Map<OperationType, Integer> mix = parseMix(
+        System.getProperty(PROPERTY_PREFIX + "mix", "CREATE:20,PATCH:30,GET:40,QUERY:10"));
+
+    public int getTotalWeight() {
+      int totalWeight = 0;
+      for (int weight : mix.values()) {
+        totalWeight += weight;
+      }
+
+      return totalWeight;
+    }
+
+    public String describe() {
+      return String.format("%d operations, %d in flight, %d seed documents, entities %s, mix %s",
+          operations, concurrency, seedDocuments, entities, mix);
+    }
+
+    private static List<BenchmarkEntity> parseEntities(String value) {
+      List<BenchmarkEntity> entities = new ArrayList<>();
+      for (String entity : value.split(",")) {
+        entities.add(BenchmarkEntity.valueOf(entity.trim().toUpperCase()));
+      }
+
+      return entities;
+    }
+
+    private static Map<OperationType, Integer> parseMix(String value) {
+      Map<OperationType, Integer> mix = new LinkedHashMap<>();
+      for (String entry : value.split(",")) {
+        String[] weight = entry.split(":");
+        if (weight.length != 2) {
+          throw new IllegalArgumentException("Invalid operation weight " + entry);
+        }
+
+        mix.put(OperationType.valueOf(weight[0].trim().toUpperCase()), Integer.parseInt(weight[1].trim()));
+      }
+
+      return mix;
+    }
+  }
+}
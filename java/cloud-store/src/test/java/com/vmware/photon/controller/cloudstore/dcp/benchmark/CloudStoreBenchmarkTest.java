@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.cloudstore.dcp.benchmark;
+
+import com.vmware.photon.controller.cloudstore.dcp.helpers.TestEnvironment;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Throughput benchmark of a multi-node cloud store. The benchmark is not part of the regular test run, it is run
+ * with "gradle :cloud-store:benchmark" and configured with the system properties of
+ * {@link CloudStoreBenchmark.Config} plus benchmark.hostCounts and benchmark.profiles.
+ */
+public class CloudStoreBenchmarkTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(CloudStoreBenchmarkTest.class);
+
+  private TestEnvironment environment;
+
+  @AfterMethod
+  public void tearDown() throws Throwable {
+    if (environment != null) {
+      environment.stop();
+      environment = null;
+    }
+  }
+
+  /**
+   * Runs every profile on the same node group, so the reports of the profiles can be compared.
+   *
+   * @param hostCount
+   * @throws Throwable
+   */
+  @Test(groups = "benchmark", dataProvider = "HostCounts")
+  public void testThroughput(int hostCount) throws Throwable {
+    environment = TestEnvironment.create(hostCount);
+    CloudStoreBenchmark.Config config = new CloudStoreBenchmark.Config();
+    CloudStoreBenchmark benchmark = new CloudStoreBenchmark(environment, config);
+
+    for (ReplicationProfile profile : getProfiles()) {
+      LatencyRecorder recorder = benchmark.run(profile);
+      logger.info("{}", recorder.report(
+          String.format("%d hosts, profile %s, quorum %d: %s", hostCount, profile,
+              profile.getMembershipQuorum(hostCount), config.describe())));
+      assertThat(recorder.getFailures(), is(0));
+    }
+  }
+
+  @DataProvider(name = "HostCounts")
+  public Object[][] getHostCounts() {
+    String[] hostCounts = System.getProperty(CloudStoreBenchmark.Config.PROPERTY_PREFIX + "hostCounts", "3,5")
+        .split(",");
+    Object[][] data = new Object[hostCounts.length][];
+    for (int i = 0; i < hostCounts.length; i++) {
+      data[i] = new Object[]{Integer.parseInt(hostCounts[i].trim())};
+    }
+
+    return data;
+  }
+
+  private List<ReplicationProfile> getProfiles() {
+    List<ReplicationProfile> profiles = new ArrayList<>();
+    for (String profile : System.getProperty(CloudStoreBenchmark.Config.PROPERTY_PREFIX + "profiles",
+        "AS_CONFIGURED,ENFORCE_QUORUM,NO_QUORUM,LOCAL").split(",")) {
+      profiles.add(ReplicationProfile.valueOf(profile.trim().toUpperCase()));
+    }
+
+    return profiles;
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.cloudstore.dcp.benchmark;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class LatencyRecorder collects the latencies of the operations of a benchmark run, grouped by a name, and
+ * reports the throughput and latency percentiles of each group.
+ */
+public class LatencyRecorder {
+
+  private final Map<String, Samples> samples = new TreeMap<>();
+
+  private long startNanos;
+
+  private long stopNanos;
+
+  public synchronized void start() {
+    startNanos = System.nanoTime();
+  }
+
+  public synchronized void stop() {
+    stopNanos = System.nanoTime();
+  }
+
+  /**
+   * Records the latency of a completed operation.
+   *
+   * @param name
+   * @param latencyNanos
+   * @param succeeded
+   */
+  public synchronized void record(String name, long latencyNanos, boolean succeeded) {
+    Samples group = samples.get(name);
+    if (group == null) {
+      group = new Samples();
+      samples.put(name, group);
+    }
+
+    if (succeeded) {
+      group.add(latencyNanos);
+    } else {
+      group.failures++;
+    }
+  }
+
+  public synchronized int getCount(String name) {
+    Samples group = samples.get(name);
+    return group == null ? 0 : group.count;
+  }
+
+  public synchronized int getFailures() {
+    int failures = 0;
+    for (Samples group : samples.values()) {
+      failures += group.failures;
+    }
+
+    return failures;
+  }
+
+  /**
+   * Returns the throughput of a group over the duration of the run. (operations per second)
+   *
+   * @param name
+   * @return
+   */
+  public synchronized double getThroughput(String name) {
+    long elapsedNanos = Math.max(1L, stopNanos - startNanos);
+    return getCount(name) * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+  }
+
+  /**
+   * Returns a latency percentile of a group using the nearest-rank method. (milliseconds)
+   *
+   * @param name
+   * @param percentile between 0 and 100
+   * @return
+   */
+  public synchronized double getPercentile(String name, double percentile) {
+    Samples group = samples.get(name);
+    if (group == null || group.count == 0) {
+      return 0;
+    }
+
+    long[] sorted = Arrays.copyOf(group.latencies, group.count);
+    Arrays.sort(sorted);
+    int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+    long latencyNanos = sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+    return latencyNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  /**
+   * Formats a table with one line per group.
+   *
+   * @param title
+   * @return
+   */
+  public synchronized String report(String title) {
+    StringBuilder report = new StringBuilder(title).append(System.lineSeparator());
+    report.append(String.format("%-28s %8s %8s %10s %9s %9s %9s %9s%n",
+        "operation", "count", "failed", "ops/s", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+    for (Map.Entry<String, Samples> group : samples.entrySet()) {
+      String name = group.getKey();
+      report.append(String.format("%-28s %8d %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n",
+          name, group.getValue().count, group.getValue().failures, getThroughput(name),
+          getPercentile(name, 50), getPercentile(name, 90), getPercentile(name, 99), getPercentile(name, 100)));
+    }
+
+    return report.toString();
+  }
+
+  /**
+   * Latencies of the successful operations of a group and the number of failed ones.
+   */
+  private static class Samples {
+
+    private long[] latencies = new long[1024];
+
+    private int count;
+
+    private int failures;
+
+    private void add(long latencyNanos) {
+      if (count == latencies.length) {
+        latencies = Arrays.copyOf(latencies, 2 * latencies.length);
+      }
+
+      latencies[count++] = latencyNanos;
+    }
+  }
+}
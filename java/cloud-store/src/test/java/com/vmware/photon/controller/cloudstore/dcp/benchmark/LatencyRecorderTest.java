@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.cloudstore.dcp.benchmark;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests {@link LatencyRecorder}.
+ */
+public class LatencyRecorderTest {
+
+  private LatencyRecorder recorder;
+
+  @BeforeMethod
+  public void setUp() {
+    recorder = new LatencyRecorder();
+    recorder.start();
+    for (int i = 1; i <= 100; i++) {
+      recorder.record("VM GET", TimeUnit.MILLISECONDS.toNanos(i), true);
+    }
+
+    recorder.record("VM GET", TimeUnit.MILLISECONDS.toNanos(1000), false);
+    recorder.stop();
+  }
+
+  @Test
+  public void testPercentiles() {
+    assertThat(recorder.getPercentile("VM GET", 50), is(50.0));
+    assertThat(recorder.getPercentile("VM GET", 99), is(99.0));
+    assertThat(recorder.getPercentile("VM GET", 100), is(100.0));
+    assertThat(recorder.getPercentile("VM PATCH", 50), is(0.0));
+  }
+
+  @Test
+  public void testCounts() {
+    assertThat(recorder.getCount("VM GET"), is(100));
+    assertThat(recorder.getFailures(), is(1));
+    assertThat(recorder.getThroughput("VM GET"), greaterThan(0.0));
+  }
+
+  @Test
+  public void testReport() {
+    String report = recorder.report("title");
+    assertThat(report, containsString("title"));
+    assertThat(report, containsString("VM GET"));
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.cloudstore.dcp.benchmark;
+
+import com.vmware.xenon.common.Service;
+
+/**
+ * Defines the service options the benchmarked entities run with and the membership quorum of the node group.
+ */
+public enum ReplicationProfile {
+
+  /**
+   * The options the entity services set themselves.
+   */
+  AS_CONFIGURED,
+
+  /**
+   * Updates are committed once a majority of the node group accepted them.
+   */
+  ENFORCE_QUORUM,
+
+  /**
+   * Updates are replicated without waiting for a quorum.
+   */
+  NO_QUORUM,
+
+  /**
+   * Documents are neither owned nor replicated, which is the lower bound of the cost of an operation.
+   */
+  LOCAL;
+
+  /**
+   * Applies the profile to a service instance before it is started.
+   *
+   * @param service
+   */
+  public void apply(Service service) {
+    switch (this) {
+      case AS_CONFIGURED:
+        break;
+      case ENFORCE_QUORUM:
+        service.toggleOption(Service.ServiceOption.ENFORCE_QUORUM, true);
+        break;
+      case NO_QUORUM:
+        service.toggleOption(Service.ServiceOption.ENFORCE_QUORUM, false);
+        break;
+      case LOCAL:
+        service.toggleOption(Service.ServiceOption.ENFORCE_QUORUM, false);
+        service.toggleOption(Service.ServiceOption.OWNER_SELECTION, false);
+        service.toggleOption(Service.ServiceOption.REPLICATION, false);
+        break;
+      default:
+        throw new IllegalStateException("Unknown profile " + this);
+    }
+  }
+
+  /**
+   * Returns the membership quorum the node group runs with for the profile.
+   *
+   * @param hostCount the number of hosts of the node group
+   * @return a majority of the hosts when quorum is enforced, 1 otherwise
+   */
+  public int getMembershipQuorum(int hostCount) {
+    return this == ENFORCE_QUORUM ? hostCount / 2 + 1 : 1;
+  }
+}
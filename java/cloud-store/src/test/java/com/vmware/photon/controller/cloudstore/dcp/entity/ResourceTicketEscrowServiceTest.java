@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.cloudstore.dcp.entity;
+
+import com.vmware.photon.controller.api.QuotaLineItem;
+import com.vmware.photon.controller.api.QuotaUnit;
+import com.vmware.photon.controller.common.dcp.BasicServiceHost;
+import com.vmware.photon.controller.common.dcp.DcpRestClient;
+import com.vmware.photon.controller.common.dcp.ServiceUtils;
+import com.vmware.photon.controller.common.dcp.exceptions.BadRequestException;
+import com.vmware.photon.controller.common.thrift.StaticServerSet;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.testng.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests {@link ResourceTicketEscrowService}.
+ */
+public class ResourceTicketEscrowServiceTest {
+
+  private DcpRestClient dcpRestClient;
+  private BasicServiceHost host;
+  private String resourceTicketLink;
+  private String escrowLink;
+
+  /**
+   * Dummy test case to make Intellij recognize this as a test class.
+   */
+  @Test
+  private void dummy() {
+  }
+
+  private ResourceTicketEscrowService.Patch buildPatch(ResourceTicketEscrowService.Patch.PatchType patchType,
+                                                       double cost) {
+    ResourceTicketEscrowService.Patch patch = new ResourceTicketEscrowService.Patch();
+    patch.patchtype = patchType;
+    patch.cost = new HashMap<>();
+    patch.cost.put("key1", new QuotaLineItem("key1", cost, QuotaUnit.COUNT));
+    return patch;
+  }
+
+  private double getTicketUsage() throws Throwable {
+    ResourceTicketService.State ticket =
+        dcpRestClient.get(resourceTicketLink).getBody(ResourceTicketService.State.class);
+    return ticket.usageMap.get("key1").getValue();
+  }
+
+  private long getTicketGrant() throws Throwable {
+    ResourceTicketService.State ticket =
+        dcpRestClient.get(resourceTicketLink).getBody(ResourceTicketService.State.class);
+    return ticket.escrowGrantMap.getOrDefault(ResourceTicketService.getEscrowGrantKey(
+        ServiceUtils.getIDFromDocumentSelfLink(escrowLink), "key1"), 0L);
+  }
+
+  private long getEscrow() throws Throwable {
+    ResourceTicketEscrowService.State escrow =
+        dcpRestClient.get(escrowLink).getBody(ResourceTicketEscrowService.State.class);
+    return escrow.escrowMap.getOrDefault("key1", 0L);
+  }
+
+  /**
+   * Tests for the constructors.
+   */
+  public class InitializationTest {
+
+    @Test
+    public void testServiceOptions() {
+      EnumSet<Service.ServiceOption> expected = EnumSet.of(
+          Service.ServiceOption.PERSISTENCE,
+          Service.ServiceOption.REPLICATION,
+          Service.ServiceOption.OWNER_SELECTION,
+          Service.ServiceOption.INSTRUMENTATION,
+          Service.ServiceOption.PERIODIC_MAINTENANCE);
+      assertThat(new ResourceTicketEscrowService().getOptions(), is(expected));
+    }
+  }
+
+  /**
+   * Tests for the handlePatch method.
+   */
+  public class HandlePatchTest {
+
+    @BeforeMethod
+    public void setUp() throws Throwable {
+      host = BasicServiceHost.create(BasicServiceHost.BIND_ADDRESS,
+          BasicServiceHost.BIND_PORT,
+          null,
+          ResourceTicketEscrowServiceFactory.SELF_LINK,
+          10, 10);
+      host.startServiceSynchronously(new ResourceTicketServiceFactory(), null);
+      host.startServiceSynchronously(new ResourceTicketEscrowServiceFactory(), null);
+
+      StaticServerSet serverSet = new StaticServerSet(
+          new InetSocketAddress(host.getPreferredAddress(), host.getPort()));
+      dcpRestClient = new DcpRestClient(serverSet, Executors.newFixedThreadPool(1));
+      dcpRestClient.start();
+
+      ResourceTicketService.State ticket = new ResourceTicketService.State();
+      ticket.name = UUID.randomUUID().toString();
+      ticket.tenantId = UUID.randomUUID().toString();
+      ticket.limitMap.put("key1", new QuotaLineItem("key1", 10.0, QuotaUnit.COUNT));
+      resourceTicketLink = dcpRestClient.post(ResourceTicketServiceFactory.SELF_LINK, ticket)
+          .getBody(ResourceTicketService.State.class).documentSelfLink;
+
+      String resourceTicketId = ServiceUtils.getIDFromDocumentSelfLink(resourceTicketLink);
+      ResourceTicketEscrowService.State escrow = new ResourceTicketEscrowService.State();
+      escrow.resourceTicketId = resourceTicketId;
+      escrow.documentSelfLink = resourceTicketId + "-0";
+      escrowLink = dcpRestClient.post(ResourceTicketEscrowServiceFactory.SELF_LINK, escrow)
+          .getBody(ResourceTicketEscrowService.State.class).documentSelfLink;
+      assertThat(escrowLink, is(ResourceTicketEscrowService.getSelfLink(resourceTicketId, 0)));
+    }
+
+    @AfterMethod
+    public void tearDown() throws Throwable {
+      if (host != null) {
+        BasicServiceHost.destroy(host);
+      }
+
+      dcpRestClient.stop();
+    }
+
+    @Test
+    public void testConsumeGrantsFromTicket() throws Throwable {
+      dcpRestClient.patch(escrowLink, buildPatch(ResourceTicketEscrowService.Patch.PatchType.USAGE_CONSUME, 1.0));
+      assertThat(getTicketUsage(), is((double) ResourceTicketEscrowService.GRANT_MULTIPLIER));
+      assertThat(getEscrow(), is((ResourceTicketEscrowService.GRANT_MULTIPLIER - 1) * NormalizedQuota.SCALE));
+
+      dcpRestClient.patch(escrowLink, buildPatch(ResourceTicketEscrowService.Patch.PatchType.USAGE_CONSUME, 1.0));
+      assertThat(getTicketUsage(), is((double) ResourceTicketEscrowService.GRANT_MULTIPLIER));
+      assertThat(getEscrow(), is((ResourceTicketEscrowService.GRANT_MULTIPLIER - 2) * NormalizedQuota.SCALE));
+    }
+
+    @Test
+    public void testConsumeNearLimitGrantsExactShortfall() throws Throwable {
+      dcpRestClient.patch(escrowLink, buildPatch(ResourceTicketEscrowService.Patch.PatchType.USAGE_CONSUME, 6.0));
+      assertThat(getTicketUsage(), is(6.0));
+      assertThat(getEscrow(), is(0L));
+    }
+
+    @Test
+    public void testConsumeAboveLimits() throws Throwable {
+      try {
+        dcpRestClient.patch(escrowLink, buildPatch(ResourceTicketEscrowService.Patch.PatchType.USAGE_CONSUME, 11.0));
+        fail("escrow consume above limits should have failed");
+      } catch (BadRequestException e) {
+        ResourceTicketService.QuotaErrorResponse quotaErrorResponse =
+            e.getCompletedOperation().getBody(ResourceTicketService.QuotaErrorResponse.class);
+        assertThat(quotaErrorResponse.limit.getValue(), is(10.0));
+        assertThat(quotaErrorResponse.newUsage.getValue(), is(11.0));
+      }
+
+      assertThat(getEscrow(), is(0L));
+    }
+
+    @Test
+    public void testReturnAndRelease() throws Throwable {
+      dcpRestClient.patch(escrowLink, buildPatch(ResourceTicketEscrowService.Patch.PatchType.USAGE_CONSUME, 2.0));
+      dcpRestClient.patch(escrowLink, buildPatch(ResourceTicketEscrowService.Patch.PatchType.USAGE_RETURN, 2.0));
+      assertThat(getTicketUsage(), is(2.0 * ResourceTicketEscrowService.GRANT_MULTIPLIER));
+      assertThat(getEscrow(), is(2 * ResourceTicketEscrowService.GRANT_MULTIPLIER * NormalizedQuota.SCALE));
+
+      dcpRestClient.patch(escrowLink, buildPatch(ResourceTicketEscrowService.Patch.PatchType.ESCROW_RELEASE, 0.0));
+      assertThat(getTicketUsage(), is(0.0));
+      assertThat(getEscrow(), is(0L));
+    }
+
+    @Test
+    public void testConsumeRecordsGrantInTicket() throws Throwable {
+      dcpRestClient.patch(escrowLink, buildPatch(ResourceTicketEscrowService.Patch.PatchType.USAGE_CONSUME, 1.0));
+      assertThat(getTicketGrant(), is(ResourceTicketEscrowService.GRANT_MULTIPLIER * NormalizedQuota.SCALE));
+
+      dcpRestClient.patch(escrowLink, buildPatch(ResourceTicketEscrowService.Patch.PatchType.ESCROW_RELEASE, 0.0));
+      assertThat(getTicketGrant(), is(NormalizedQuota.SCALE));
+    }
+
+    @Test
+    public void testReconcileKeepsConsistentGrants() throws Throwable {
+      dcpRestClient.patch(escrowLink, buildPatch(ResourceTicketEscrowService.Patch.PatchType.USAGE_CONSUME, 1.0));
+      dcpRestClient.patch(escrowLink, buildPatch(ResourceTicketEscrowService.Patch.PatchType.ESCROW_RECONCILE, 0.0));
+      assertThat(getTicketUsage(), is((double) ResourceTicketEscrowService.GRANT_MULTIPLIER));
+      assertThat(getEscrow(), is((ResourceTicketEscrowService.GRANT_MULTIPLIER - 1) * NormalizedQuota.SCALE));
+    }
+
+    @Test
+    public void testReconcileReturnsLeakedGrant() throws Throwable {
+      // a grant taken from the ticket whose escrow update never committed.
+      ResourceTicketService.Patch ticketPatch = new ResourceTicketService.Patch();
+      ticketPatch.patchtype = ResourceTicketService.Patch.PatchType.USAGE_CONSUME;
+      ticketPatch.escrowId = ServiceUtils.getIDFromDocumentSelfLink(escrowLink);
+      ticketPatch.cost.put("key1", new QuotaLineItem("key1", 3.0, QuotaUnit.COUNT));
+      dcpRestClient.patch(resourceTicketLink, ticketPatch);
+      assertThat(getTicketUsage(), is(3.0));
+
+      dcpRestClient.patch(escrowLink, buildPatch(ResourceTicketEscrowService.Patch.PatchType.ESCROW_RECONCILE, 0.0));
+      assertThat(getTicketUsage(), is(0.0));
+      assertThat(getTicketGrant(), is(0L));
+      assertThat(getEscrow(), is(0L));
+    }
+  }
+}
@@ -26,6 +26,7 @@ import com.vmware.xenon.common.ServiceErrorResponse;
 
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
@@ -370,5 +371,127 @@ public class ResourceTicketServiceTest {
       assertThat(patchedState.usageMap.get("key1").getValue(), is(0.0));
       assertThat(patchedState.usageMap.get("key2").getValue(), is(0.0));
     }
+
+    /**
+     * Test usage in mixed units adds up exactly to the limit.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testConsumeMixedUnits() throws Throwable {
+      QuotaLineItem limitItem = new QuotaLineItem("storage", 1.0, QuotaUnit.GB);
+      testState.limitMap.put(limitItem.getKey(), limitItem);
+      Operation result = dcpRestClient.post(ResourceTicketServiceFactory.SELF_LINK, testState);
+      ResourceTicketService.State createdState = result.getBody(ResourceTicketService.State.class);
+
+      ResourceTicketService.Patch patch = new ResourceTicketService.Patch();
+      patch.patchtype = ResourceTicketService.Patch.PatchType.USAGE_CONSUME;
+      patch.cost = new HashMap<>();
+      patch.cost.put("storage", new QuotaLineItem("storage", 0.125, QuotaUnit.GB));
+
+      for (int i = 0; i < 6; i++) {
+        dcpRestClient.patch(createdState.documentSelfLink, patch);
+      }
+
+      patch.cost.put("storage", new QuotaLineItem("storage", 256.0, QuotaUnit.MB));
+      dcpRestClient.patch(createdState.documentSelfLink, patch);
+
+      Operation found = dcpRestClient.get(createdState.documentSelfLink);
+      ResourceTicketService.State patchedState = found.getBody(ResourceTicketService.State.class);
+      assertThat(patchedState.usageMap.get("storage").getValue(), is(1.0));
+      assertThat(patchedState.usageMap.get("storage").getUnit(), is(QuotaUnit.GB));
+
+      patch.cost.put("storage", new QuotaLineItem("storage", 1.0, QuotaUnit.KB));
+      try {
+        dcpRestClient.patch(createdState.documentSelfLink, patch);
+        fail("resource ticket consume above limits should have failed");
+      } catch (BadRequestException e) {
+        ResourceTicketService.QuotaErrorResponse quotaErrorResponse =
+            e.getCompletedOperation().getBody(ResourceTicketService.QuotaErrorResponse.class);
+        assertThat(quotaErrorResponse.usage.getValue(), is(1.0));
+      }
+    }
+
+    /**
+     * Test usage out of the range of the normalized quota fails instead of wrapping.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testConsumeOutOfRange() throws Throwable {
+      Operation result = dcpRestClient.post(ResourceTicketServiceFactory.SELF_LINK, testState);
+      ResourceTicketService.State createdState = result.getBody(ResourceTicketService.State.class);
+
+      ResourceTicketService.Patch patch = new ResourceTicketService.Patch();
+      patch.patchtype = ResourceTicketService.Patch.PatchType.USAGE_CONSUME;
+      patch.cost = new HashMap<>();
+      patch.cost.put("storage", new QuotaLineItem("storage", 5.0 * 1024 * 1024, QuotaUnit.GB));
+      dcpRestClient.patch(createdState.documentSelfLink, patch);
+
+      try {
+        dcpRestClient.patch(createdState.documentSelfLink, patch);
+        fail("resource ticket consume out of range should have failed");
+      } catch (BadRequestException e) {
+        assertThat(e.getMessage(), containsString("out of range"));
+      }
+
+      Operation found = dcpRestClient.get(createdState.documentSelfLink);
+      ResourceTicketService.State patchedState = found.getBody(ResourceTicketService.State.class);
+      assertThat(patchedState.usageMap.get("storage").getValue(), is(5.0 * 1024 * 1024));
+    }
+
+    /**
+     * Test fractional COUNT costs, as the vm.cost of the shipped flavors, are consumed and returned exactly.
+     *
+     * @throws Throwable
+     */
+    @Test(dataProvider = "FractionalCosts")
+    public void testConsumeAndReturnFractionalCount(double cost, int count, double limit) throws Throwable {
+      QuotaLineItem limitItem = new QuotaLineItem("vm.cost", limit, QuotaUnit.COUNT);
+      testState.limitMap.put(limitItem.getKey(), limitItem);
+      Operation result = dcpRestClient.post(ResourceTicketServiceFactory.SELF_LINK, testState);
+      ResourceTicketService.State createdState = result.getBody(ResourceTicketService.State.class);
+
+      ResourceTicketService.Patch patch = new ResourceTicketService.Patch();
+      patch.patchtype = ResourceTicketService.Patch.PatchType.USAGE_CONSUME;
+      patch.cost = new HashMap<>();
+      patch.cost.put("vm.cost", new QuotaLineItem("vm.cost", cost, QuotaUnit.COUNT));
+      dcpRestClient.patch(createdState.documentSelfLink, patch);
+
+      Operation found = dcpRestClient.get(createdState.documentSelfLink);
+      ResourceTicketService.State patchedState = found.getBody(ResourceTicketService.State.class);
+      assertThat(patchedState.usageMap.get("vm.cost").getValue(), is(cost));
+
+      for (int i = 1; i < count; i++) {
+        dcpRestClient.patch(createdState.documentSelfLink, patch);
+      }
+
+      try {
+        dcpRestClient.patch(createdState.documentSelfLink, patch);
+        fail("resource ticket consume above limits should have failed");
+      } catch (BadRequestException e) {
+        ResourceTicketService.QuotaErrorResponse quotaErrorResponse =
+            e.getCompletedOperation().getBody(ResourceTicketService.QuotaErrorResponse.class);
+        assertThat(quotaErrorResponse.usage.getValue(), is(limit));
+      }
+
+      patch.patchtype = ResourceTicketService.Patch.PatchType.USAGE_RETURN;
+      for (int i = 0; i < count; i++) {
+        dcpRestClient.patch(createdState.documentSelfLink, patch);
+      }
+
+      found = dcpRestClient.get(createdState.documentSelfLink);
+      patchedState = found.getBody(ResourceTicketService.State.class);
+      assertThat(patchedState.usageMap.get("vm.cost").getValue(), is(0.0));
+    }
+
+    @DataProvider(name = "FractionalCosts")
+    public Object[][] getFractionalCosts() {
+      return new Object[][]{
+          {0.025, 40, 1.0},
+          {1.5, 2, 3.0},
+          {1.8, 3, 5.4},
+      };
+    }
   }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.cloudstore.dcp.entity;
+
+import com.vmware.photon.controller.api.Operation;
+import com.vmware.photon.controller.common.dcp.BasicServiceHost;
+import com.vmware.photon.controller.common.dcp.exceptions.BadRequestException;
+import com.vmware.xenon.common.Service;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+
+/**
+ * Tests {@link TaskArchiveService}.
+ */
+public class TaskArchiveServiceTest {
+
+  private BasicServiceHost host;
+  private TaskArchiveService service;
+
+  private TaskService.State buildTask() {
+    TaskService.State task = new TaskService.State();
+    task.documentSelfLink = TaskServiceFactory.SELF_LINK + "/task-id";
+    task.entityId = "entity-id";
+    task.entityKind = "vm";
+    task.state = TaskService.State.TaskState.COMPLETED;
+    task.operation = Operation.CREATE_VM;
+    task.endTime = new Date();
+    task.steps = new ArrayList<>();
+
+    TaskService.State.Step step = new TaskService.State.Step();
+    step.sequence = 0;
+    step.state = TaskService.State.StepState.COMPLETED;
+    step.operation = Operation.CREATE_VM;
+    task.steps.add(step);
+    return task;
+  }
+
+  /**
+   * Dummy test case to make Intellij recognize this as a test class.
+   */
+  @Test(enabled = false)
+  private void dummy() {
+  }
+
+  /**
+   * Tests for the constructors.
+   */
+  public class InitializationTest {
+    @BeforeMethod
+    public void setUp() {
+      service = new TaskArchiveService();
+    }
+
+    /**
+     * Test that the service starts with the expected options.
+     */
+    @Test
+    public void testServiceOptions() {
+      EnumSet<Service.ServiceOption> expected = EnumSet.of(
+          Service.ServiceOption.PERSISTENCE,
+          Service.ServiceOption.REPLICATION,
+          Service.ServiceOption.OWNER_SELECTION,
+          Service.ServiceOption.INSTRUMENTATION);
+      assertThat(service.getOptions(), is(expected));
+    }
+  }
+
+  /**
+   * Tests for archiving and restoring tasks.
+   */
+  public class ArchiveTest {
+
+    @Test
+    public void testArchiveAndRestore() throws Throwable {
+      TaskService.State task = buildTask();
+      TaskArchiveService.State archive = TaskArchiveService.archive(task);
+      assertThat(archive.documentSelfLink, is("task-id"));
+      assertThat(archive.entityId, is(task.entityId));
+      assertThat(archive.state, is(task.state));
+
+      TaskService.State restored = TaskArchiveService.restore(archive);
+      assertThat(restored.documentSelfLink, is(task.documentSelfLink));
+      assertThat(restored.operation, is(task.operation));
+      assertThat(restored.endTime, is(task.endTime));
+      assertThat(restored.steps.size(), is(1));
+      assertThat(restored.steps.get(0).state, is(TaskService.State.StepState.COMPLETED));
+    }
+  }
+
+  /**
+   * Tests for the handleStart method.
+   */
+  public class HandleStartTest {
+
+    @BeforeMethod
+    public void setUp() throws Throwable {
+      service = new TaskArchiveService();
+      host = BasicServiceHost.create();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Throwable {
+      if (host != null) {
+        BasicServiceHost.destroy(host);
+      }
+
+      service = null;
+    }
+
+    @Test
+    public void testStartState() throws Throwable {
+      TaskArchiveService.State startState = TaskArchiveService.archive(buildTask());
+      startState.documentSelfLink = null;
+      host.startServiceSynchronously(service, startState);
+
+      TaskArchiveService.State savedState = host.getServiceState(TaskArchiveService.State.class);
+      assertThat(savedState.compressedTask, is(startState.compressedTask));
+      assertThat(TaskArchiveService.restore(savedState).entityId, is("entity-id"));
+    }
+
+    @Test(expectedExceptions = BadRequestException.class)
+    public void testMissingCompressedTask() throws Throwable {
+      TaskArchiveService.State startState = TaskArchiveService.archive(buildTask());
+      startState.documentSelfLink = null;
+      startState.compressedTask = null;
+      host.startServiceSynchronously(service, startState);
+    }
+  }
+}
@@ -167,7 +167,12 @@ public class EntityLockCleanerServiceTest {
           {"taskState", state},
           {"isSelfProgressionDisabled", false},
           {"danglingEntityLocks", 0},
-          {"deletedEntityLocks", 0}
+          {"deletedEntityLocks", 0},
+          {"sweepAllPages", false},
+          {"maxConcurrentDeletes", EntityLockCleanerService.DEFAULT_MAX_CONCURRENT_DELETES},
+          {"maxDeletesPerSecond", EntityLockCleanerService.DEFAULT_MAX_DELETES_PER_SECOND},
+          {"sweptPages", 0},
+          {"sweepRestarts", 0}
       };
     }
 
@@ -350,6 +355,34 @@ public class EntityLockCleanerServiceTest {
       freeTestEnvironment(machine);
     }
 
+    /**
+     * Tests that sweep mode deletes the dangling entity locks of all pages.
+     *
+     * @throws Throwable
+     */
+    @Test(dataProvider = "hostCount")
+    public void testSweepAllPages(int hostCount) throws Throwable {
+      int totalEntityLocks = EntityLockCleanerService.DEFAULT_PAGE_LIMIT + 2;
+      int danglingEntityLocks = EntityLockCleanerService.DEFAULT_PAGE_LIMIT + 1;
+      machine = TestEnvironment.create(hostCount);
+      seedTestEnvironment(machine, totalEntityLocks, danglingEntityLocks);
+
+      request.entityLockDeleteWatermarkTimeInMicros = 0L;
+      request.sweepAllPages = true;
+      request.maxDeletesPerSecond = 1000;
+      EntityLockCleanerService.State response = machine.callServiceAndWaitForState(
+          EntityLockCleanerFactoryService.SELF_LINK,
+          request,
+          EntityLockCleanerService.State.class,
+          (EntityLockCleanerService.State state) -> state.taskState.stage == TaskState.TaskStage.FINISHED);
+
+      assertThat(response.danglingEntityLocks, is(danglingEntityLocks));
+      assertThat(response.deletedEntityLocks, is(danglingEntityLocks));
+      assertThat(response.sweptPages, is(2));
+      assertThat(response.remainingBacklog, is(0L));
+      assertThat(response.deleteThroughput > 0, is(true));
+    }
+
     private void freeTestEnvironment(TestEnvironment machine) throws Throwable {
       for (String selfLink : testSelfLinks) {
         machine.deleteService(selfLink);
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.cloudstore.dcp.task;
+
+import com.vmware.photon.controller.cloudstore.dcp.entity.TaskArchiveServiceFactory;
+import com.vmware.photon.controller.cloudstore.dcp.entity.TaskService;
+import com.vmware.photon.controller.cloudstore.dcp.entity.TaskServiceFactory;
+import com.vmware.photon.controller.cloudstore.dcp.helpers.TestEnvironment;
+import com.vmware.photon.controller.common.dcp.BasicServiceHost;
+import com.vmware.photon.controller.common.dcp.ServiceHostUtils;
+import com.vmware.photon.controller.common.dcp.exceptions.BadRequestException;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceDocumentQueryResult;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.Utils;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.lang.reflect.Field;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests {@link TaskArchiverService}.
+ */
+public class TaskArchiverServiceTest {
+
+  private BasicServiceHost host;
+  private TaskArchiverService service;
+
+  private static final long SLEEP_TIME_MILLIS = 1;
+  private static final long MAX_ITERATIONS = 60000;
+
+  private TaskArchiverService.State buildValidStartupState() {
+    TaskArchiverService.State state = new TaskArchiverService.State();
+    state.isSelfProgressionDisabled = true;
+    state.retentionAgeMillis = TimeUnit.HOURS.toMillis(1);
+    state.maxHotTasks = 1000;
+    return state;
+  }
+
+  /**
+   * Dummy test case to make Intellij recognize this as a test class.
+   */
+  @Test(enabled = false)
+  private void dummy() {
+  }
+
+  /**
+   * Tests for the constructors.
+   */
+  public class InitializationTest {
+
+    @BeforeMethod
+    public void setUp() throws Throwable {
+      service = new TaskArchiverService();
+    }
+
+    /**
+     * Test that the service starts with the expected capabilities.
+     */
+    @Test
+    public void testServiceOptions() {
+      // Factory capability is implicitly added as part of the factory constructor.
+      EnumSet<Service.ServiceOption> expected = EnumSet.of(
+          Service.ServiceOption.PERSISTENCE,
+          Service.ServiceOption.REPLICATION,
+          Service.ServiceOption.OWNER_SELECTION,
+          Service.ServiceOption.INSTRUMENTATION);
+      assertThat(service.getOptions(), is(expected));
+    }
+  }
+
+  /**
+   * Tests for the handleStart method.
+   */
+  public class HandleStartTest {
+    @BeforeMethod
+    public void setUp() throws Throwable {
+      service = new TaskArchiverService();
+      host = BasicServiceHost.create();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Throwable {
+      if (host != null) {
+        BasicServiceHost.destroy(host);
+      }
+
+      service = null;
+    }
+
+    @Test(dataProvider = "PositiveFields",
+        expectedExceptions = BadRequestException.class,
+        expectedExceptionsMessageRegExp = ".* must be greater than zero")
+    public void testPositiveFields(String fieldName, Object value) throws Throwable {
+      TaskArchiverService.State startState = buildValidStartupState();
+
+      Field fieldObj = startState.getClass().getField(fieldName);
+      fieldObj.set(startState, value);
+
+      host.startServiceSynchronously(service, startState);
+    }
+
+    @DataProvider(name = "PositiveFields")
+    public Object[][] getPositiveFieldsParams() {
+      return new Object[][]{
+          {"retentionAgeMillis", 0L},
+          {"maxHotTasks", 0},
+          {"batchSize", 0},
+          {"maxConcurrentOperations", -1}
+      };
+    }
+
+    @Test(dataProvider = "AutoInitializedFields")
+    public void testAutoInitializedFields(String fieldName, Object value) throws Throwable {
+      TaskArchiverService.State startState = buildValidStartupState();
+      Field fieldObj = startState.getClass().getField(fieldName);
+      fieldObj.set(startState, null);
+
+      Operation startOp = host.startServiceSynchronously(service, startState);
+      assertThat(startOp.getStatusCode(), is(200));
+
+      TaskArchiverService.State savedState = host.getServiceState(TaskArchiverService.State.class);
+      if (fieldObj.getType().equals(TaskState.class)) {
+        assertThat(Utils.toJson(fieldObj.get(savedState)), is(Utils.toJson(value)));
+      } else {
+        assertThat(fieldObj.get(savedState), is(value));
+      }
+    }
+
+    @DataProvider(name = "AutoInitializedFields")
+    public Object[][] getAutoInitializedFieldsParams() {
+      TaskState state = new TaskState();
+      state.stage = TaskState.TaskStage.STARTED;
+
+      return new Object[][]{
+          {"taskState", state},
+          {"isSelfProgressionDisabled", false},
+          {"batchSize", TaskArchiverService.DEFAULT_BATCH_SIZE},
+          {"maxConcurrentOperations", TaskArchiverService.DEFAULT_MAX_CONCURRENT_OPERATIONS},
+          {"expiredTasks", 0},
+          {"overflowTasks", 0},
+          {"archivedTasks", 0},
+          {"archivedBatches", 0}
+      };
+    }
+  }
+
+  /**
+   * Tests archiving tasks end to end.
+   */
+  public class EndToEndTest {
+
+    private TestEnvironment machine;
+    private TaskArchiverService.State request;
+
+    @BeforeMethod
+    public void setUp() throws Throwable {
+      request = buildValidStartupState();
+      request.isSelfProgressionDisabled = false;
+      request.batchSize = 3;
+    }
+
+    @AfterMethod
+    public void tearDown() throws Throwable {
+      if (machine != null) {
+        machine.stop();
+      }
+    }
+
+    @Test
+    public void testArchiveExpiredTasks() throws Throwable {
+      machine = TestEnvironment.create(1);
+      seedTestEnvironment(machine, 5, 2);
+
+      // every finished task is past the retention age.
+      Thread.sleep(10);
+      request.retentionAgeMillis = 1L;
+
+      TaskArchiverService.State response = machine.callServiceAndWaitForState(
+          TaskArchiverFactoryService.SELF_LINK,
+          request,
+          TaskArchiverService.State.class,
+          (TaskArchiverService.State state) -> state.taskState.stage == TaskState.TaskStage.FINISHED);
+
+      assertThat(response.archivedTasks, is(5));
+      assertThat(response.expiredTasks, is(5));
+      assertThat(response.overflowTasks, is(0));
+      assertThat(response.archivedBatches, is(2));
+      assertThat(response.hotTasks, is(2));
+
+      waitForReplication(machine, 2, TaskServiceFactory.SELF_LINK);
+      waitForReplication(machine, 5, TaskArchiveServiceFactory.SELF_LINK);
+    }
+
+    @Test
+    public void testArchiveOverflowTasks() throws Throwable {
+      machine = TestEnvironment.create(1);
+      seedTestEnvironment(machine, 5, 2);
+      request.maxHotTasks = 3;
+
+      TaskArchiverService.State response = machine.callServiceAndWaitForState(
+          TaskArchiverFactoryService.SELF_LINK,
+          request,
+          TaskArchiverService.State.class,
+          (TaskArchiverService.State state) -> state.taskState.stage == TaskState.TaskStage.FINISHED);
+
+      // only finished tasks are archived.
+      assertThat(response.archivedTasks, is(4));
+      assertThat(response.expiredTasks, is(0));
+      assertThat(response.overflowTasks, is(4));
+      assertThat(response.hotTasks, is(3));
+
+      waitForReplication(machine, 3, TaskServiceFactory.SELF_LINK);
+      waitForReplication(machine, 4, TaskArchiveServiceFactory.SELF_LINK);
+    }
+
+    @Test
+    public void testNothingToArchive() throws Throwable {
+      machine = TestEnvironment.create(1);
+      seedTestEnvironment(machine, 2, 2);
+
+      TaskArchiverService.State response = machine.callServiceAndWaitForState(
+          TaskArchiverFactoryService.SELF_LINK,
+          request,
+          TaskArchiverService.State.class,
+          (TaskArchiverService.State state) -> state.taskState.stage == TaskState.TaskStage.FINISHED);
+
+      assertThat(response.archivedTasks, is(0));
+      assertThat(response.hotTasks, is(4));
+    }
+
+    private void seedTestEnvironment(TestEnvironment env, int finishedTasks, int runningTasks) throws Throwable {
+      for (int i = 0; i < finishedTasks + runningTasks; i++) {
+        TaskService.State task = new TaskService.State();
+        task.entityId = "entity-id" + i;
+        task.entityKind = "entity-kind";
+        task.state = (i < finishedTasks ? TaskService.State.TaskState.COMPLETED : TaskService.State.TaskState.STARTED);
+        env.sendPostAndWait(TaskServiceFactory.SELF_LINK, task);
+      }
+
+      waitForReplication(env, finishedTasks + runningTasks, TaskServiceFactory.SELF_LINK);
+    }
+
+    private void waitForReplication(TestEnvironment env, int count, String serviceLink) throws Throwable {
+      for (ServiceHost host : env.getHosts()) {
+        ServiceHostUtils.waitForServiceState(
+            ServiceDocumentQueryResult.class,
+            serviceLink,
+            (ServiceDocumentQueryResult result) -> result.documentCount == count,
+            host, SLEEP_TIME_MILLIS, MAX_ITERATIONS,
+            null);
+      }
+    }
+  }
+}
@@ -197,7 +197,12 @@ public class TombstoneCleanerServiceTest {
           {"staleTombstones", 0},
           {"staleTasks", 0},
           {"deletedTombstones", 0},
-          {"deletedTasks", 0}
+          {"deletedTasks", 0},
+          {"sweepAllPages", false},
+          {"maxConcurrentDeletes", TombstoneCleanerService.DEFAULT_MAX_CONCURRENT_DELETES},
+          {"maxDeletesPerSecond", TombstoneCleanerService.DEFAULT_MAX_DELETES_PER_SECOND},
+          {"sweptPages", 0},
+          {"sweepRestarts", 0}
       };
     }
 
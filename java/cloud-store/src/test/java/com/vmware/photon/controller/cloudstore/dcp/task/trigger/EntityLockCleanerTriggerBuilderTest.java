@@ -16,6 +16,7 @@ package com.vmware.photon.controller.cloudstore.dcp.task.trigger;
 import com.vmware.photon.controller.cloudstore.dcp.task.EntityLockCleanerFactoryService;
 import com.vmware.photon.controller.cloudstore.dcp.task.EntityLockCleanerService;
 import com.vmware.photon.controller.common.dcp.scheduler.TaskTriggerService;
+import com.vmware.xenon.common.Utils;
 
 import org.hamcrest.Matchers;
 import org.testng.annotations.BeforeMethod;
@@ -67,6 +68,27 @@ public class EntityLockCleanerTriggerBuilderTest {
 
       assertThat(state.triggerStateClassName, is(EntityLockCleanerService.State.class.getName()));
       assertThat(state.factoryServiceLink, Matchers.is(EntityLockCleanerFactoryService.SELF_LINK));
+
+      EntityLockCleanerService.State triggerState =
+          Utils.fromJson(state.serializedTriggerState, EntityLockCleanerService.State.class);
+      assertThat(triggerState.sweepAllPages, is(EntityLockCleanerTriggerBuilder.DEFAULT_SWEEP_ALL_PAGES));
+      assertThat(triggerState.maxDeletesPerSecond, is(EntityLockCleanerService.DEFAULT_MAX_DELETES_PER_SECOND));
+    }
+
+    /**
+     * Tests that the sweep options are passed to the tasks.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testSweepOptions() throws Throwable {
+      builder = new EntityLockCleanerTriggerBuilder(triggerInterval, taskExpirationAge, false, 10);
+      TaskTriggerService.State state = builder.build();
+
+      EntityLockCleanerService.State triggerState =
+          Utils.fromJson(state.serializedTriggerState, EntityLockCleanerService.State.class);
+      assertThat(triggerState.sweepAllPages, is(false));
+      assertThat(triggerState.maxDeletesPerSecond, is(10));
     }
   }
 }
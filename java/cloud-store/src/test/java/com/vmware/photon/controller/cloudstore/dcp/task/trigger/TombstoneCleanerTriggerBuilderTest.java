@@ -76,6 +76,25 @@ public class TombstoneCleanerTriggerBuilderTest {
       Type stateType = Class.forName(state.triggerStateClassName);
       TombstoneCleanerService.State triggerState = Utils.fromJson(state.serializedTriggerState, stateType);
       assertThat(triggerState.tombstoneExpirationAgeMillis, is(tombstoneExpirationAge));
+      assertThat(triggerState.sweepAllPages, is(TombstoneCleanerTriggerBuilder.DEFAULT_SWEEP_ALL_PAGES));
+      assertThat(triggerState.maxDeletesPerSecond, is(TombstoneCleanerService.DEFAULT_MAX_DELETES_PER_SECOND));
+    }
+
+    /**
+     * Tests that the sweep options are passed to the tasks.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testSweepOptions() throws Throwable {
+      builder = new TombstoneCleanerTriggerBuilder(triggerInterval, taskExpirationAge, tombstoneExpirationAge,
+          false, 10);
+      TaskTriggerService.State state = builder.build();
+
+      TombstoneCleanerService.State triggerState =
+          Utils.fromJson(state.serializedTriggerState, TombstoneCleanerService.State.class);
+      assertThat(triggerState.sweepAllPages, is(false));
+      assertThat(triggerState.maxDeletesPerSecond, is(10));
     }
   }
 }
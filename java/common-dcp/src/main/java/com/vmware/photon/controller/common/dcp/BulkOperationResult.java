@@ -0,0 +1,52 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.common.dcp;
+
+import com.vmware.xenon.common.Operation;
+
+/**
+ * Class BulkOperationResult holds the outcome of a single operation sent as part of a bulk request.
+ *
+ * A failed operation does not fail the bulk request, the exception which the corresponding single
+ * document call would have thrown is returned instead.
+ */
+public class BulkOperationResult {
+
+  private final Operation operation;
+
+  private final Throwable failure;
+
+  public BulkOperationResult(Operation operation, Throwable failure) {
+    this.operation = operation;
+    this.failure = failure;
+  }
+
+  /**
+   * Returns the completed operation. This is set for failed operations too unless the operation
+   * failed on the client side.
+   *
+   * @return
+   */
+  public Operation getOperation() {
+    return operation;
+  }
+
+  public Throwable getFailure() {
+    return failure;
+  }
+
+  public boolean isSuccess() {
+    return failure == null;
+  }
+}
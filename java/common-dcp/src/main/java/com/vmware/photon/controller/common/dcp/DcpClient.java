@@ -58,6 +58,15 @@ public interface DcpClient {
   Operation patch(String serviceSelfLink, ServiceDocument body)
       throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException;
 
+  List<BulkOperationResult> post(String serviceSelfLink, List<? extends ServiceDocument> bodies, int windowSize)
+      throws TimeoutException, InterruptedException;
+
+  Map<String, BulkOperationResult> patch(Map<String, ? extends ServiceDocument> bodies, int windowSize)
+      throws TimeoutException, InterruptedException;
+
+  Map<String, BulkOperationResult> delete(Collection<String> documentSelfLinks, int windowSize)
+      throws TimeoutException, InterruptedException;
+
   Operation query(QueryTask.QuerySpecification spec, boolean isDirect)
       throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException;
 
@@ -68,6 +77,11 @@ public interface DcpClient {
                                                      ImmutableMap<String, String> terms)
       throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException;
 
+  <T extends ServiceDocument, V> List<V> queryDocuments(Class<T> documentType,
+                                                        ImmutableMap<String, String> terms,
+                                                        Class<V> viewType)
+      throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException;
+
   <T extends ServiceDocument> ServiceDocumentQueryResult queryDocuments(Class<T> documentType,
                                                                         ImmutableMap<String, String> terms,
                                                                         Optional<Integer> pageSize,
@@ -77,6 +91,11 @@ public interface DcpClient {
   ServiceDocumentQueryResult queryDocumentPage(String pageLink)
       throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException;
 
+  <T extends ServiceDocument> QueryDocumentIterator<T> queryDocumentsIterator(Class<T> documentType,
+                                                                             ImmutableMap<String, String> terms,
+                                                                             int pageSize)
+      throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException;
+
   <T extends ServiceDocument> List<String> queryDocumentsForLinks(Class<T> documentType,
                                                                   ImmutableMap<String, String> terms)
       throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException;
@@ -23,10 +23,10 @@ import com.vmware.xenon.common.OperationJoin;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceDocumentQueryResult;
 import com.vmware.xenon.common.ServiceErrorResponse;
-import com.vmware.xenon.common.TaskState;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.common.http.netty.NettyHttpServiceClient;
+import com.vmware.xenon.services.common.NodeGroupService;
 import com.vmware.xenon.services.common.QueryTask;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -43,16 +43,21 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * REST client to access DCP services.
@@ -70,13 +75,20 @@ public class DcpRestClient implements DcpClient {
   private static final long PATCH_OPERATION_EXPIRATION_MICROS = TimeUnit.SECONDS.toMicros(60);
   private long patchOperationExpirationMicros = PATCH_OPERATION_EXPIRATION_MICROS;
   private static final long DEFAULT_OPERATION_LATCH_TIMEOUT_MICROS = TimeUnit.SECONDS.toMicros(90);
-  private static final long SERVICE_DOCUMENT_STATUS_CHECK_INTERVAL_MILLIS = 100L;
-  private long serviceDocumentStatusCheckIntervalMillis = SERVICE_DOCUMENT_STATUS_CHECK_INTERVAL_MILLIS;
+  private static final long BULK_OPERATION_MAX_EXPIRATION_MICROS = TimeUnit.MINUTES.toMicros(10);
+  private static final long BULK_OPERATION_MAX_LATCH_TIMEOUT_MICROS =
+      BULK_OPERATION_MAX_EXPIRATION_MICROS + TimeUnit.SECONDS.toMicros(30);
   private static final Logger logger = LoggerFactory.getLogger(DcpRestClient.class);
   private NettyHttpServiceClient client;
   private ServerSet serverSet;
   private URI localHostUri;
   private InetAddress localHostInetAddress;
+  private volatile InetSocketAddress localInetSocketAddress;
+  private DocumentOwnerSelector documentOwnerSelector;
+  private final DocumentCache documentCache = new DocumentCache();
+  private final ReadCoalescer readCoalescer = new ReadCoalescer();
+  private boolean ownerRoutingEnabled = true;
+  private final AtomicBoolean membershipRefreshInProgress = new AtomicBoolean(false);
 
   @Inject
   public DcpRestClient(ServerSet serverSet, ExecutorService executor) {
@@ -96,6 +108,21 @@ public class DcpRestClient implements DcpClient {
 
     this.localHostUri = OperationUtils.getLocalHostUri();
     this.localHostInetAddress = OperationUtils.getLocalHostInetAddress();
+    this.documentOwnerSelector = new DocumentOwnerSelector();
+
+    // the local server lookup is cached and only recomputed when the server set changes.
+    updateLocalInetSocketAddress();
+    this.serverSet.addChangeListener(new ServerSet.ChangeListener() {
+      @Override
+      public void onServerAdded(InetSocketAddress address) {
+        onServerSetChanged();
+      }
+
+      @Override
+      public void onServerRemoved(InetSocketAddress address) {
+        onServerSetChanged();
+      }
+    });
   }
 
   public void start() {
@@ -121,13 +148,33 @@ public class DcpRestClient implements DcpClient {
         .setReferer(this.localHostUri)
         .setContextId(LoggingUtils.getRequestId());
 
-    return send(postOperation);
+    readCoalescer.recordWrite();
+    try {
+      return send(postOperation);
+    } finally {
+      readCoalescer.recordWrite();
+    }
   }
 
   @Override
   public Operation get(String documentSelfLink)
       throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
-    URI serviceUri = getServiceUri(documentSelfLink);
+    if (documentCache.isCacheable(documentSelfLink)) {
+      return getThroughCache(documentSelfLink);
+    }
+
+    return getFromService(documentSelfLink);
+  }
+
+  private Operation getFromService(String documentSelfLink)
+      throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
+    // concurrent GETs of the same document share a single request.
+    return readCoalescer.read("GET " + documentSelfLink, () -> sendGet(documentSelfLink));
+  }
+
+  private Operation sendGet(String documentSelfLink)
+      throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
+    URI serviceUri = getOwnerServiceUri(documentSelfLink);
 
     Operation getOperation = Operation
         .createGet(serviceUri)
@@ -137,7 +184,7 @@ public class DcpRestClient implements DcpClient {
         .setReferer(this.localHostUri)
         .setContextId(LoggingUtils.getRequestId());
 
-    return send(getOperation);
+    return sendToOwner(documentSelfLink, getOperation);
   }
 
   @Override
@@ -191,7 +238,7 @@ public class DcpRestClient implements DcpClient {
   @Override
   public Operation delete(String documentSelfLink, ServiceDocument body)
       throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
-    URI serviceUri = getServiceUri(documentSelfLink);
+    URI serviceUri = getOwnerServiceUri(documentSelfLink);
 
     Operation deleteOperation = Operation
         .createDelete(serviceUri)
@@ -202,13 +249,57 @@ public class DcpRestClient implements DcpClient {
         .setContextId(LoggingUtils.getRequestId())
         .setBody(body);
 
-    return send(deleteOperation);
+    documentCache.invalidate(documentSelfLink);
+    readCoalescer.recordWrite();
+    try {
+      return sendToOwner(documentSelfLink, deleteOperation);
+    } finally {
+      documentCache.invalidate(documentSelfLink);
+      readCoalescer.recordWrite();
+    }
   }
 
   @Override
   public Operation postToBroadcastQueryService(QueryTask.QuerySpecification spec)
       throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
 
+    // concurrent identical broadcast queries share a single request. The specification is only
+    // serialized to compare it when another query with the same hash is in flight.
+    return readCoalescer.read("QUERY " + hashQuerySpec(spec), () -> Utils.toJson(spec),
+        () -> sendBroadcastQuery(spec));
+  }
+
+  /**
+   * Hashes the clauses of the query specification without serializing it. Specifications which differ
+   * in fields not covered here share the hash, they are told apart by the read coalescer.
+   *
+   * @param spec
+   * @return
+   */
+  private static int hashQuerySpec(QueryTask.QuerySpecification spec) {
+    return Objects.hash(hashQuery(spec.query), spec.options, spec.resultLimit);
+  }
+
+  private static int hashQuery(QueryTask.Query query) {
+    if (query == null) {
+      return 0;
+    }
+
+    int hash = Objects.hash(query.occurance,
+        query.term == null ? null : query.term.propertyName,
+        query.term == null ? null : query.term.matchValue);
+    if (query.booleanClauses != null) {
+      for (QueryTask.Query clause : query.booleanClauses) {
+        hash = 31 * hash + hashQuery(clause);
+      }
+    }
+
+    return hash;
+  }
+
+  private Operation sendBroadcastQuery(QueryTask.QuerySpecification spec)
+      throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
+
     URI serviceUri = UriUtils.buildBroadcastRequestUri(
         getServiceUri(ServiceUriPaths.CORE_LOCAL_QUERY_TASKS),
         ServiceUriPaths.DEFAULT_NODE_SELECTOR);
@@ -230,7 +321,7 @@ public class DcpRestClient implements DcpClient {
   @Override
   public Operation patch(String serviceSelfLink, ServiceDocument body)
       throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
-    URI serviceUri = getServiceUri(serviceSelfLink);
+    URI serviceUri = getOwnerServiceUri(serviceSelfLink);
 
     Operation patchOperation = Operation
         .createPatch(serviceUri)
@@ -241,7 +332,125 @@ public class DcpRestClient implements DcpClient {
         .setReferer(this.localHostUri)
         .setContextId(LoggingUtils.getRequestId());
 
-    return send(patchOperation);
+    documentCache.invalidate(serviceSelfLink);
+    readCoalescer.recordWrite();
+    try {
+      return sendToOwner(serviceSelfLink, patchOperation);
+    } finally {
+      documentCache.invalidate(serviceSelfLink);
+      readCoalescer.recordWrite();
+    }
+  }
+
+  /**
+   * Creates documents by sending one POST per body. At most windowSize operations are in flight at
+   * any time, and the next operation is only sent when one of them completes.
+   *
+   * @param serviceSelfLink
+   * @param bodies
+   * @param windowSize
+   * @return the outcome of each operation in the order of the bodies
+   * @throws TimeoutException
+   * @throws InterruptedException
+   */
+  @Override
+  public List<BulkOperationResult> post(String serviceSelfLink, List<? extends ServiceDocument> bodies, int windowSize)
+      throws TimeoutException, InterruptedException {
+    checkBulkArguments(bodies, windowSize);
+
+    long expirationMicros = getBulkTimeoutMicros(bodies.size(), windowSize, getPostOperationExpirationMicros(),
+        BULK_OPERATION_MAX_EXPIRATION_MICROS);
+    List<Operation> operations = new ArrayList<>(bodies.size());
+    for (ServiceDocument body : bodies) {
+      URI serviceUri = getServiceUri(serviceSelfLink);
+
+      Operation postOperation = Operation
+          .createPost(serviceUri)
+          .setUri(serviceUri)
+          .setExpiration(Utils.getNowMicrosUtc() + expirationMicros)
+          .setBody(body)
+          .setReferer(this.localHostUri)
+          .setContextId(LoggingUtils.getRequestId());
+
+      operations.add(postOperation);
+    }
+
+    readCoalescer.recordWrite();
+    try {
+      return sendBulk(operations, windowSize);
+    } finally {
+      readCoalescer.recordWrite();
+    }
+  }
+
+  /**
+   * Patches documents with bounded concurrency, see {@link #post(String, List, int)}.
+   *
+   * @param bodies patch bodies keyed by document self link
+   * @param windowSize
+   * @return the outcome of each operation keyed by document self link
+   * @throws TimeoutException
+   * @throws InterruptedException
+   */
+  @Override
+  public Map<String, BulkOperationResult> patch(Map<String, ? extends ServiceDocument> bodies, int windowSize)
+      throws TimeoutException, InterruptedException {
+    checkBulkArguments(bodies.keySet(), windowSize);
+
+    long expirationMicros = getBulkTimeoutMicros(bodies.size(), windowSize, getPatchOperationExpirationMicros(),
+        BULK_OPERATION_MAX_EXPIRATION_MICROS);
+    List<Operation> operations = new ArrayList<>(bodies.size());
+    for (Map.Entry<String, ? extends ServiceDocument> entry : bodies.entrySet()) {
+      URI serviceUri = getOwnerServiceUri(entry.getKey());
+
+      Operation patchOperation = Operation
+          .createPatch(serviceUri)
+          .setUri(serviceUri)
+          .addPragmaDirective(Operation.PRAGMA_DIRECTIVE_NO_QUEUING)
+          .setExpiration(Utils.getNowMicrosUtc() + expirationMicros)
+          .setBody(entry.getValue())
+          .setReferer(this.localHostUri)
+          .setContextId(LoggingUtils.getRequestId());
+
+      operations.add(patchOperation);
+    }
+
+    return sendBulkToOwners(bodies.keySet(), operations, windowSize);
+  }
+
+  /**
+   * Deletes documents with bounded concurrency, see {@link #post(String, List, int)}.
+   *
+   * @param documentSelfLinks
+   * @param windowSize
+   * @return the outcome of each operation keyed by document self link
+   * @throws TimeoutException
+   * @throws InterruptedException
+   */
+  @Override
+  public Map<String, BulkOperationResult> delete(Collection<String> documentSelfLinks, int windowSize)
+      throws TimeoutException, InterruptedException {
+    checkBulkArguments(documentSelfLinks, windowSize);
+
+    long expirationMicros = getBulkTimeoutMicros(documentSelfLinks.size(), windowSize,
+        getDeleteOperationExpirationMicros(), BULK_OPERATION_MAX_EXPIRATION_MICROS);
+    List<Operation> operations = new ArrayList<>(documentSelfLinks.size());
+    for (String documentSelfLink : documentSelfLinks) {
+      URI serviceUri = getOwnerServiceUri(documentSelfLink);
+
+      Operation deleteOperation = Operation
+          .createDelete(serviceUri)
+          .setUri(serviceUri)
+          .addPragmaDirective(Operation.PRAGMA_DIRECTIVE_NO_QUEUING)
+          .setExpiration(Utils.getNowMicrosUtc() + expirationMicros)
+          .setReferer(this.localHostUri)
+          .setContextId(LoggingUtils.getRequestId())
+          .setBody(new ServiceDocument());
+
+      operations.add(deleteOperation);
+    }
+
+    return sendBulkToOwners(documentSelfLinks, operations, windowSize);
   }
 
   @Override
@@ -292,6 +501,35 @@ public class DcpRestClient implements DcpClient {
     return QueryTaskUtils.getQueryResultDocuments(documentType, result);
   }
 
+  /**
+   * Queries documents of the given type and deserializes only the fields declared by the view class,
+   * see {@link DocumentProjection}. Use this for list calls which only need a few fields of large
+   * documents.
+   *
+   * @param documentType
+   * @param terms
+   * @param viewType
+   * @return
+   * @throws BadRequestException
+   * @throws DocumentNotFoundException
+   * @throws TimeoutException
+   * @throws InterruptedException
+   */
+  @Override
+  public <T extends ServiceDocument, V> List<V> queryDocuments(Class<T> documentType,
+                                                               ImmutableMap<String, String> terms,
+                                                               Class<V> viewType)
+      throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
+    checkNotNull(documentType, "Cannot query documents with null documentType");
+    checkNotNull(viewType, "Cannot query documents with null viewType");
+
+    QueryTask.QuerySpecification spec = QueryTaskUtils.buildQuerySpec(documentType, terms);
+    spec.options = EnumSet.of(QueryTask.QuerySpecification.QueryOption.EXPAND_CONTENT);
+    Operation result = postToBroadcastQueryService(spec);
+
+    return QueryTaskUtils.getProjectedQueryResultDocuments(viewType, result);
+  }
+
   /**
    * Executes a DCP query which queries for documents of type T.
    * The query terms are optional.
@@ -329,14 +567,9 @@ public class DcpRestClient implements DcpClient {
       spec.resultLimit = pageSize.get();
     }
 
-    // Indirect call. DCP will not return the results. Instead the service URI
-    // established will be obtained here, and it will be used to get the results
-    // after the query is in FINISHED stage.
-    Operation result = query(spec, false);
-    URI queryServiceUri = QueryTaskUtils.getServiceDocumentUri(result);
-
-    // Wait for the query task to finish and then retrieve the documents
-    result = waitForTaskToFinish(queryServiceUri);
+    // Direct call. DCP completes the POST once the query task is finished, and
+    // returns the results in its body.
+    Operation result = query(spec, true);
     ServiceDocumentQueryResult queryResult = result.getBody(QueryTask.class).results;
 
     if (pageSize.isPresent() && queryResult.nextPageLink != null) {
@@ -366,9 +599,56 @@ public class DcpRestClient implements DcpClient {
     checkNotNull(pageLink, "Cannot query documents with null pageLink");
     checkArgument(!pageLink.isEmpty(), "Cannot query documents with empty pageLink");
 
-    Operation result = get(pageLink);
+    return fetchDocumentPage(pageLink).await();
+  }
+
+  /**
+   * Executes a DCP query which queries for documents of type T and returns an iterator which
+   * retrieves the result pages lazily. The next page is requested while the current one is being
+   * consumed, so at most two pages of documents are held in memory regardless of the result size.
+   *
+   * @param documentType
+   * @param terms
+   * @param pageSize
+   * @param <T>
+   * @return
+   * @throws BadRequestException
+   * @throws DocumentNotFoundException
+   * @throws TimeoutException
+   * @throws InterruptedException
+   */
+  @Override
+  public <T extends ServiceDocument> QueryDocumentIterator<T> queryDocumentsIterator(
+      Class<T> documentType,
+      ImmutableMap<String, String> terms,
+      int pageSize)
+      throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
+
+    ServiceDocumentQueryResult firstPage = queryDocuments(documentType, terms, Optional.of(pageSize), true);
+    return new QueryDocumentIterator<>(documentType, firstPage, this::fetchDocumentPage);
+  }
+
+  /**
+   * Starts retrieving the given result page and returns without waiting for it.
+   *
+   * @param pageLink
+   * @return
+   */
+  @VisibleForTesting
+  protected QueryDocumentIterator.PendingPage fetchDocumentPage(String pageLink) {
+    // page links are not owner selected, they are served by the node which ran the query.
+    URI serviceUri = getServiceUri(pageLink);
+
+    Operation getOperation = Operation
+        .createGet(serviceUri)
+        .setUri(serviceUri)
+        .addPragmaDirective(Operation.PRAGMA_DIRECTIVE_NO_QUEUING)
+        .setExpiration(Utils.getNowMicrosUtc() + getGetOperationExpirationMicros())
+        .setReferer(this.localHostUri)
+        .setContextId(LoggingUtils.getRequestId());
 
-    return result.getBody(QueryTask.class).results;
+    OperationLatch operationLatch = startOperation(getOperation);
+    return () -> awaitOperation(getOperation, operationLatch).getBody(QueryTask.class).results;
   }
 
   /**
@@ -489,11 +769,26 @@ public class DcpRestClient implements DcpClient {
   @VisibleForTesting
   protected Operation send(Operation requestedOperation)
       throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
+    return awaitOperation(requestedOperation, startOperation(requestedOperation));
+  }
+
+  /**
+   * Sends the operation without waiting for it to complete. The returned latch is passed to
+   * {@link #awaitOperation(Operation, OperationLatch)} to retrieve the result.
+   *
+   * @param requestedOperation
+   * @return
+   */
+  private OperationLatch startOperation(Operation requestedOperation) {
     logger.info("send: STARTED {}", createLogMessageWithBody(requestedOperation));
     OperationLatch operationLatch = createOperationLatch(requestedOperation);
 
     client.send(requestedOperation);
+    return operationLatch;
+  }
 
+  private Operation awaitOperation(Operation requestedOperation, OperationLatch operationLatch)
+      throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
     Operation completedOperation = null;
     try {
       completedOperation = operationLatch.awaitOperationCompletion(DEFAULT_OPERATION_LATCH_TIMEOUT_MICROS);
@@ -539,6 +834,61 @@ public class DcpRestClient implements DcpClient {
     return result;
   }
 
+  /**
+   * Sends the operations as an operation join with at most windowSize operations in flight and
+   * waits for all of them. Failures of individual operations are returned in the results.
+   *
+   * @param requestedOperations
+   * @param windowSize
+   * @return the outcome of each operation in the order of the requested operations
+   * @throws TimeoutException
+   * @throws InterruptedException
+   */
+  @VisibleForTesting
+  protected List<BulkOperationResult> sendBulk(List<Operation> requestedOperations, int windowSize)
+      throws TimeoutException, InterruptedException {
+    logger.info("send: STARTED {}", createLogMessageWithBody(requestedOperations));
+    OperationJoin operationJoin = OperationJoin.create(requestedOperations);
+    OperationJoinLatch operationJoinLatch = createOperationJoinLatch(operationJoin);
+    operationJoin.sendWith(client, windowSize);
+
+    try {
+      operationJoinLatch.await(getBulkTimeoutMicros(requestedOperations.size(), windowSize,
+          DEFAULT_OPERATION_LATCH_TIMEOUT_MICROS, BULK_OPERATION_MAX_LATCH_TIMEOUT_MICROS), TimeUnit.MICROSECONDS);
+    } catch (TimeoutException timeoutException) {
+      handleTimeoutException(operationJoin, timeoutException);
+    } catch (InterruptedException interruptedException) {
+      handleInterruptedException(operationJoin, interruptedException);
+    }
+
+    Collection<Operation> completedOperations = operationJoin.getOperations();
+    logCompletedOperations(completedOperations);
+    Map<Long, Operation> completedOperationsById = new HashMap<>(completedOperations.size());
+    for (Operation completedOperation : completedOperations) {
+      completedOperationsById.put(completedOperation.getId(), completedOperation);
+    }
+
+    Map<Long, Throwable> failures = operationJoinLatch.getFailures();
+    List<BulkOperationResult> results = new ArrayList<>(requestedOperations.size());
+    for (Operation requestedOperation : requestedOperations) {
+      Operation completedOperation = completedOperationsById.get(requestedOperation.getId());
+      Throwable failure;
+      try {
+        handleOperationResult(requestedOperation, completedOperation);
+        failure = failures == null ? null : failures.get(requestedOperation.getId());
+        if (failure != null) {
+          failure = new DcpRuntimeException(failure);
+        }
+      } catch (Throwable t) {
+        failure = t;
+      }
+
+      results.add(new BulkOperationResult(completedOperation, failure));
+    }
+
+    return results;
+  }
+
   @VisibleForTesting
   protected long getPostOperationExpirationMicros() {
     return postOperationExpirationMicros;
@@ -564,11 +914,6 @@ public class DcpRestClient implements DcpClient {
     return patchOperationExpirationMicros;
   }
 
-  @VisibleForTesting
-  protected long getServiceDocumentStatusCheckIntervalMillis() {
-    return serviceDocumentStatusCheckIntervalMillis;
-  }
-
   protected int getPort(InetSocketAddress inetSocketAddress) {
     return inetSocketAddress.getPort();
   }
@@ -585,21 +930,69 @@ public class DcpRestClient implements DcpClient {
   @VisibleForTesting
   protected URI getServiceUri(String path) {
 
-    //check if any of the hosts are available locally
-    java.util.Optional<InetSocketAddress> localInetSocketAddress =
-        this.serverSet.getServers().stream().filter(
-            (InetSocketAddress i) -> i.getAddress().equals(this.localHostInetAddress))
-            .findFirst();
-
-    InetSocketAddress selectedInetSocketAddress;
-    if (localInetSocketAddress.isPresent()) {
-      // let the dcp host decide if a network hop across hosts is required for
-      // the requested operation.
-      selectedInetSocketAddress = localInetSocketAddress.get();
-    } else {
+    InetSocketAddress selectedInetSocketAddress = this.localInetSocketAddress;
+    if (selectedInetSocketAddress == null) {
       selectedInetSocketAddress = getRandomInetSocketAddress();
     }
 
+    // when one of the hosts is available locally let the dcp host decide if a network hop
+    // across hosts is required for the requested operation.
+    return buildServiceUri(selectedInetSocketAddress, path);
+  }
+
+  /**
+   * Returns the URI of the document on the node which owns it according to the cached node group
+   * membership. Falls back to {@link #getServiceUri(String)} when the owner cannot be determined.
+   *
+   * @param documentSelfLink
+   * @return
+   */
+  @VisibleForTesting
+  protected URI getOwnerServiceUri(String documentSelfLink) {
+    if (!ownerRoutingEnabled) {
+      return getServiceUri(documentSelfLink);
+    }
+
+    if (documentOwnerSelector.isMembershipStale()) {
+      refreshNodeGroupMembership();
+    }
+
+    InetSocketAddress ownerInetSocketAddress = documentOwnerSelector.selectOwner(documentSelfLink);
+    if (ownerInetSocketAddress == null) {
+      return getServiceUri(documentSelfLink);
+    }
+
+    return buildServiceUri(ownerInetSocketAddress, documentSelfLink);
+  }
+
+  @VisibleForTesting
+  protected DocumentOwnerSelector getDocumentOwnerSelector() {
+    return documentOwnerSelector;
+  }
+
+  /**
+   * Enables the client side document cache for documents created by the given factory. Meant for
+   * read-mostly documents which are only changed through this client; changes made elsewhere become
+   * visible once the cached entry expires. Cached entries are not revalidated against the server, so
+   * documents which drive authorization, such as tenants and projects with their security groups,
+   * must not be cached.
+   *
+   * @param factoryLink
+   */
+  public void enableDocumentCaching(String factoryLink) {
+    documentCache.enable(factoryLink);
+  }
+
+  @VisibleForTesting
+  protected DocumentCache getDocumentCache() {
+    return documentCache;
+  }
+
+  public void setOwnerRoutingEnabled(boolean ownerRoutingEnabled) {
+    this.ownerRoutingEnabled = ownerRoutingEnabled;
+  }
+
+  private URI buildServiceUri(InetSocketAddress selectedInetSocketAddress, String path) {
     int port = getPort(selectedInetSocketAddress);
     String address = selectedInetSocketAddress.getAddress().getHostAddress();
 
@@ -612,6 +1005,252 @@ public class DcpRestClient implements DcpClient {
     }
   }
 
+  /**
+   * Sends an operation addressed by {@link #getOwnerServiceUri(String)} and records the owner reported
+   * in the response. A routing failure drops the cached membership so that the next request falls back
+   * to the default server selection until the membership has been refreshed.
+   */
+  private Operation sendToOwner(String documentSelfLink, Operation requestedOperation)
+      throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
+    Operation completedOperation;
+    try {
+      completedOperation = send(requestedOperation);
+    } catch (DocumentNotFoundException | BadRequestException e) {
+      throw e;
+    } catch (TimeoutException | RuntimeException e) {
+      if (ownerRoutingEnabled && isRoutingFailure(e)) {
+        documentOwnerSelector.invalidate();
+      }
+      throw e;
+    }
+
+    if (ownerRoutingEnabled && completedOperation != null) {
+      recordDocumentOwner(documentSelfLink, requestedOperation.getUri(), completedOperation);
+    }
+
+    return completedOperation;
+  }
+
+  /**
+   * Returns whether a failed request may have been sent to a node that is no longer the owner or no longer
+   * reachable: a timeout, a failure without a response, or a server side failure such as a connection or
+   * forwarding failure. Application errors such as conflicts or missing documents are answered by the owner and
+   * do not invalidate the membership.
+   */
+  @VisibleForTesting
+  protected static boolean isRoutingFailure(Throwable failure) {
+    if (failure instanceof TimeoutException) {
+      return true;
+    }
+    if (!(failure instanceof DcpRuntimeException)) {
+      return false;
+    }
+    Operation completedOperation = ((DcpRuntimeException) failure).getCompletedOperation();
+    return completedOperation == null
+        || completedOperation.getStatusCode() >= Operation.STATUS_CODE_SERVER_FAILURE_THRESHOLD;
+  }
+
+  private void recordDocumentOwner(String documentSelfLink, URI targetUri, Operation completedOperation) {
+    ServiceDocument document = getServiceDocument(completedOperation);
+    if (document != null) {
+      documentOwnerSelector.recordOwner(documentSelfLink,
+          new InetSocketAddress(targetUri.getHost(), targetUri.getPort()),
+          document.documentOwner);
+    }
+  }
+
+  /**
+   * Sends bulk operations on documents, see {@link #sendBulk(List, int)}. The cached copies of the documents
+   * are invalidated around the operations, and the owners of the documents are recorded from the results.
+   *
+   * @param documentSelfLinks the documents, in the order of the operations
+   * @param requestedOperations
+   * @param windowSize
+   * @return the outcome of each operation keyed by document self link
+   * @throws TimeoutException
+   * @throws InterruptedException
+   */
+  private Map<String, BulkOperationResult> sendBulkToOwners(Collection<String> documentSelfLinks,
+                                                            List<Operation> requestedOperations,
+                                                            int windowSize)
+      throws TimeoutException, InterruptedException {
+    for (String documentSelfLink : documentSelfLinks) {
+      documentCache.invalidate(documentSelfLink);
+    }
+    readCoalescer.recordWrite();
+
+    List<BulkOperationResult> results;
+    try {
+      results = sendBulk(requestedOperations, windowSize);
+    } finally {
+      for (String documentSelfLink : documentSelfLinks) {
+        documentCache.invalidate(documentSelfLink);
+      }
+      readCoalescer.recordWrite();
+    }
+
+    Map<String, BulkOperationResult> resultsByLink = new LinkedHashMap<>(results.size());
+    Iterator<BulkOperationResult> resultIterator = results.iterator();
+    boolean invalidateOwners = false;
+    for (String documentSelfLink : documentSelfLinks) {
+      BulkOperationResult result = resultIterator.next();
+      resultsByLink.put(documentSelfLink, result);
+
+      if (result.isSuccess() && result.getOperation() != null) {
+        if (ownerRoutingEnabled) {
+          recordDocumentOwner(documentSelfLink, result.getOperation().getUri(), result.getOperation());
+        }
+      } else if (isRoutingFailure(result.getFailure())) {
+        invalidateOwners = true;
+      }
+    }
+
+    if (ownerRoutingEnabled && invalidateOwners) {
+      documentOwnerSelector.invalidate();
+    }
+
+    return resultsByLink;
+  }
+
+  private static void checkBulkArguments(Collection<?> items, int windowSize) {
+    if (items.isEmpty()) {
+      throw new IllegalArgumentException("bulk operation requires at least one document");
+    }
+
+    if (windowSize <= 0) {
+      throw new IllegalArgumentException("windowSize must be greater than zero");
+    }
+  }
+
+  private static int getWindowCount(int operationCount, int windowSize) {
+    return 1 + (operationCount - 1) / windowSize;
+  }
+
+  /**
+   * Returns the timeout of a bulk operation. The operations are sent in windows, so the last window may
+   * only start once the previous ones completed; each window gets the timeout of a single operation,
+   * up to the given cap for the whole bulk operation.
+   *
+   * @param operationCount
+   * @param windowSize
+   * @param windowTimeoutMicros
+   * @param maxTimeoutMicros
+   * @return
+   */
+  private static long getBulkTimeoutMicros(int operationCount, int windowSize, long windowTimeoutMicros,
+                                           long maxTimeoutMicros) {
+    return Math.min(getWindowCount(operationCount, windowSize) * windowTimeoutMicros,
+        Math.max(windowTimeoutMicros, maxTimeoutMicros));
+  }
+
+  /**
+   * Serves the document from the document cache, or retrieves it and caches it on a miss.
+   */
+  private Operation getThroughCache(String documentSelfLink)
+      throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
+    String cachedJson = documentCache.get(documentSelfLink);
+    if (cachedJson != null) {
+      logger.info("send: CACHED Action={GET}, Uri={{}}", documentSelfLink);
+      return Operation
+          .createGet(getServiceUri(documentSelfLink))
+          .setReferer(this.localHostUri)
+          .setStatusCode(Operation.STATUS_CODE_OK)
+          .setContentType(Operation.MEDIA_TYPE_APPLICATION_JSON)
+          .setBody(cachedJson);
+    }
+
+    long cacheEpoch = documentCache.getEpoch();
+    Operation completedOperation;
+    try {
+      completedOperation = getFromService(documentSelfLink);
+    } catch (DocumentNotFoundException documentNotFoundException) {
+      documentCache.invalidate(documentSelfLink);
+      throw documentNotFoundException;
+    }
+
+    ServiceDocument document = getServiceDocument(completedOperation);
+    if (document != null) {
+      Object body = completedOperation.getBodyRaw();
+      documentCache.put(documentSelfLink, document.documentVersion,
+          body instanceof String ? (String) body : Utils.toJson(body), cacheEpoch);
+    }
+
+    return completedOperation;
+  }
+
+  /**
+   * Returns the ServiceDocument fields of the body of a completed operation without changing the
+   * body of the operation, or null if the body is not a document.
+   */
+  private ServiceDocument getServiceDocument(Operation completedOperation) {
+    if (completedOperation == null) {
+      return null;
+    }
+
+    Object body = completedOperation.getBodyRaw();
+    if (body instanceof ServiceDocument) {
+      return (ServiceDocument) body;
+    }
+
+    if (body instanceof String) {
+      try {
+        return Utils.fromJson((String) body, ServiceDocument.class);
+      } catch (Throwable t) {
+        logger.debug("getServiceDocument: could not parse body of {}", completedOperation.getUri(), t);
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Refreshes the cached node group membership in the background. Requests keep using the previous
+   * membership, or the default server selection, until the refresh completes.
+   */
+  private void refreshNodeGroupMembership() {
+    if (!membershipRefreshInProgress.compareAndSet(false, true)) {
+      return;
+    }
+
+    URI nodeGroupUri = getServiceUri(ServiceUriPaths.DEFAULT_NODE_GROUP);
+    Operation getOperation = Operation
+        .createGet(nodeGroupUri)
+        .setUri(nodeGroupUri)
+        .setExpiration(Utils.getNowMicrosUtc() + getGetOperationExpirationMicros())
+        .setReferer(this.localHostUri)
+        .setCompletion((completedOp, failure) -> {
+          try {
+            if (failure != null) {
+              logger.warn("refreshNodeGroupMembership: failed to get {}, {}", nodeGroupUri, failure.toString());
+              return;
+            }
+
+            documentOwnerSelector.updateMembership(
+                completedOp.getBody(NodeGroupService.NodeGroupState.class),
+                serverSet.getServers());
+          } finally {
+            membershipRefreshInProgress.set(false);
+          }
+        });
+
+    client.send(getOperation);
+  }
+
+  private void onServerSetChanged() {
+    updateLocalInetSocketAddress();
+    if (documentOwnerSelector != null) {
+      documentOwnerSelector.invalidate();
+    }
+  }
+
+  private void updateLocalInetSocketAddress() {
+    //check if any of the hosts are available locally
+    this.localInetSocketAddress = this.serverSet.getServers().stream()
+        .filter((InetSocketAddress i) -> i.getAddress().equals(this.localHostInetAddress))
+        .findFirst()
+        .orElse(null);
+  }
+
   private void logCompletedOperation(Operation completedOperation) {
     if (completedOperation.getStatusCode() == Operation.STATUS_CODE_OK) {
       switch (completedOperation.getAction()) {
@@ -720,25 +1359,4 @@ public class DcpRestClient implements DcpClient {
     }
     return stringBuilder.toString();
   }
-
-  private Operation waitForTaskToFinish(URI serviceUri)
-      throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
-
-    Operation result = null;
-    do {
-      result = get(serviceUri);
-      TaskState.TaskStage taskStage = QueryTaskUtils.getServiceState(result);
-      if (taskStage == TaskState.TaskStage.FINISHED
-          || taskStage == TaskState.TaskStage.FAILED
-          || taskStage == TaskState.TaskStage.CANCELLED) {
-
-        return result;
-      }
-
-      Thread.sleep(getServiceDocumentStatusCheckIntervalMillis());
-    } while (Utils.getNowMicrosUtc() <= result.getExpirationMicrosUtc());
-
-    throw new TimeoutException(String.format("Timeout:{%s}, TimeUnit:{%s}", result.getExpirationMicrosUtc(),
-        TimeUnit.MICROSECONDS));
-  }
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.common.dcp;
+
+import com.vmware.photon.controller.common.metrics.DefaultMetricRegistry;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class DocumentCache implements a client side read-through cache of DCP documents keyed by self link.
+ *
+ * Only documents below factory links which have been explicitly enabled are cached. Entries are
+ * evicted by size and after a fixed time to live, and an entry is only replaced by a document with
+ * the same or a higher documentVersion so that a slow response can not overwrite a newer one.
+ * Responses to reads which were in flight while a write went through the client are not cached.
+ */
+public class DocumentCache {
+
+  public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+  public static final String HITS_METRIC = name(DocumentCache.class, "hits");
+
+  public static final String MISSES_METRIC = name(DocumentCache.class, "misses");
+
+  public static final String HIT_RATIO_METRIC = name(DocumentCache.class, "hit-ratio");
+
+  private final Cache<String, CachedDocument> cache;
+
+  private final Set<String> cacheableFactoryLinks = new CopyOnWriteArraySet<>();
+
+  private final Meter hits;
+
+  private final Meter misses;
+
+  private long epoch;
+
+  public DocumentCache() {
+    this(DEFAULT_MAXIMUM_SIZE, DEFAULT_TIME_TO_LIVE_MILLIS);
+  }
+
+  public DocumentCache(int maximumSize, long timeToLiveMillis) {
+    checkArgument(maximumSize > 0, "maximumSize must be greater than zero");
+    checkArgument(timeToLiveMillis > 0, "timeToLiveMillis must be greater than zero");
+
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(timeToLiveMillis, TimeUnit.MILLISECONDS)
+        .build();
+    this.hits = DefaultMetricRegistry.REGISTRY.meter(HITS_METRIC);
+    this.misses = DefaultMetricRegistry.REGISTRY.meter(MISSES_METRIC);
+    registerHitRatioGauge();
+  }
+
+  /**
+   * Enables caching for the documents created by the given factory.
+   *
+   * @param factoryLink
+   */
+  public void enable(String factoryLink) {
+    checkNotNull(factoryLink, "factoryLink cannot be null");
+    cacheableFactoryLinks.add(factoryLink.endsWith("/") ? factoryLink : factoryLink + "/");
+  }
+
+  /**
+   * Returns true if documents with the given self link are cached.
+   *
+   * @param documentSelfLink
+   * @return
+   */
+  public boolean isCacheable(String documentSelfLink) {
+    for (String factoryLink : cacheableFactoryLinks) {
+      if (documentSelfLink.startsWith(factoryLink)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the cached JSON representation of the document or null, and records a hit or a miss.
+   *
+   * @param documentSelfLink
+   * @return
+   */
+  public String get(String documentSelfLink) {
+    CachedDocument cachedDocument = cache.getIfPresent(documentSelfLink);
+    if (cachedDocument == null) {
+      misses.mark();
+      return null;
+    }
+
+    hits.mark();
+    return cachedDocument.json;
+  }
+
+  /**
+   * Returns the current invalidation epoch. Read it before sending a request and pass it to
+   * {@link #put(String, long, String, long)} with the response.
+   *
+   * @return
+   */
+  public long getEpoch() {
+    synchronized (cache) {
+      return epoch;
+    }
+  }
+
+  /**
+   * Stores the JSON representation of the document unless a newer version is already cached or an
+   * invalidation happened since the given epoch was read.
+   *
+   * @param documentSelfLink
+   * @param documentVersion
+   * @param json
+   * @param requestEpoch
+   */
+  public void put(String documentSelfLink, long documentVersion, String json, long requestEpoch) {
+    synchronized (cache) {
+      if (requestEpoch != epoch) {
+        return;
+      }
+
+      CachedDocument cachedDocument = cache.getIfPresent(documentSelfLink);
+      if (cachedDocument == null || cachedDocument.documentVersion <= documentVersion) {
+        cache.put(documentSelfLink, new CachedDocument(documentVersion, json));
+      }
+    }
+  }
+
+  /**
+   * Drops the cached document. Called on every write issued through the client.
+   *
+   * @param documentSelfLink
+   */
+  public void invalidate(String documentSelfLink) {
+    synchronized (cache) {
+      epoch++;
+      cache.invalidate(documentSelfLink);
+    }
+  }
+
+  public void invalidateAll() {
+    synchronized (cache) {
+      epoch++;
+      cache.invalidateAll();
+    }
+  }
+
+  /**
+   * Returns the share of lookups which were served from the cache.
+   *
+   * @return
+   */
+  public static double getHitRatio() {
+    long hitCount = DefaultMetricRegistry.REGISTRY.meter(HITS_METRIC).getCount();
+    long missCount = DefaultMetricRegistry.REGISTRY.meter(MISSES_METRIC).getCount();
+    if (hitCount + missCount == 0) {
+      return 0.0;
+    }
+
+    return (double) hitCount / (hitCount + missCount);
+  }
+
+  private static void registerHitRatioGauge() {
+    synchronized (DefaultMetricRegistry.REGISTRY) {
+      if (!DefaultMetricRegistry.REGISTRY.getGauges().containsKey(HIT_RATIO_METRIC)) {
+        DefaultMetricRegistry.REGISTRY.register(HIT_RATIO_METRIC, new Gauge<Double>() {
+          @Override
+          public Double getValue() {
+            return getHitRatio();
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Cache entry holding the JSON representation and the version of a document.
+   */
+  private static class CachedDocument {
+    private final long documentVersion;
+    private final String json;
+
+    private CachedDocument(long documentVersion, String json) {
+      this.documentVersion = documentVersion;
+      this.json = json;
+    }
+  }
+}
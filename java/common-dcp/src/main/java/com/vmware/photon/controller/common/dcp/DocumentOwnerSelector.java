@@ -0,0 +1,281 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.common.dcp;
+
+import com.vmware.photon.controller.common.metrics.DefaultMetricRegistry;
+import com.vmware.xenon.services.common.NodeGroupService;
+import com.vmware.xenon.services.common.NodeState;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class DocumentOwnerSelector keeps a cached view of the DCP node group membership and uses it to
+ * pick the owner node of a document self link. Sending a request for an owner selected service
+ * straight to its owner saves the hop the receiving DCP host would otherwise need to forward it.
+ *
+ * The owner is predicted by hashing the self link against the ids of the available nodes, closest
+ * node id wins. Predictions are corrected with the documentOwner reported in responses so a link
+ * is routed to its real owner from the second request on, and all learned owners are dropped as
+ * soon as the node group membership changes.
+ */
+public class DocumentOwnerSelector {
+
+  public static final long DEFAULT_MEMBERSHIP_REFRESH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  public static final int DEFAULT_OWNER_CACHE_SIZE = 10000;
+
+  public static final String DIRECT_REQUESTS_METRIC = name(DocumentOwnerSelector.class, "direct-requests");
+
+  public static final String FORWARDED_REQUESTS_METRIC = name(DocumentOwnerSelector.class, "forwarded-requests");
+
+  public static final String FORWARDED_HOP_RATIO_METRIC = name(DocumentOwnerSelector.class, "forwarded-hop-ratio");
+
+  private static final Logger logger = LoggerFactory.getLogger(DocumentOwnerSelector.class);
+
+  private static final String HASH_ALGORITHM = "SHA-1";
+
+  private final long membershipRefreshIntervalMillis;
+
+  private final Cache<String, String> ownerCache;
+
+  private final Meter directRequests;
+
+  private final Meter forwardedRequests;
+
+  private volatile Membership membership = Membership.EMPTY;
+
+  public DocumentOwnerSelector() {
+    this(DEFAULT_MEMBERSHIP_REFRESH_INTERVAL_MILLIS, DEFAULT_OWNER_CACHE_SIZE);
+  }
+
+  public DocumentOwnerSelector(long membershipRefreshIntervalMillis, int ownerCacheSize) {
+    this.membershipRefreshIntervalMillis = membershipRefreshIntervalMillis;
+    this.ownerCache = CacheBuilder.newBuilder().maximumSize(ownerCacheSize).build();
+    this.directRequests = DefaultMetricRegistry.REGISTRY.meter(DIRECT_REQUESTS_METRIC);
+    this.forwardedRequests = DefaultMetricRegistry.REGISTRY.meter(FORWARDED_REQUESTS_METRIC);
+    registerForwardedHopRatioGauge();
+  }
+
+  /**
+   * Returns true if the cached membership is missing or older than the refresh interval.
+   *
+   * @return
+   */
+  public boolean isMembershipStale() {
+    return System.currentTimeMillis() - membership.refreshTimeMillis > membershipRefreshIntervalMillis;
+  }
+
+  /**
+   * Replaces the cached membership with the given node group state. Only available nodes which can be
+   * matched with one of the given servers are considered for routing.
+   *
+   * @param nodeGroupState
+   * @param servers
+   */
+  public void updateMembership(NodeGroupService.NodeGroupState nodeGroupState,
+                               Collection<InetSocketAddress> servers) {
+    Map<String, InetSocketAddress> nodeAddresses = new HashMap<>();
+    for (NodeState nodeState : nodeGroupState.nodes.values()) {
+      if (nodeState.status != NodeState.NodeStatus.AVAILABLE || nodeState.groupReference == null) {
+        continue;
+      }
+
+      InetSocketAddress server = findServer(nodeState.groupReference, servers);
+      if (server != null) {
+        nodeAddresses.put(nodeState.id, server);
+      }
+    }
+
+    Membership current = membership;
+    if (current.membershipUpdateTimeMicros != nodeGroupState.membershipUpdateTimeMicros
+        || !current.nodeAddresses.equals(nodeAddresses)) {
+      logger.info("Node group membership changed, {} of {} nodes routable",
+          nodeAddresses.size(), nodeGroupState.nodes.size());
+      ownerCache.invalidateAll();
+    }
+
+    membership = new Membership(nodeGroupState.membershipUpdateTimeMicros, nodeAddresses,
+        System.currentTimeMillis());
+  }
+
+  /**
+   * Drops the cached membership and all learned owners. The next request will trigger a refresh.
+   */
+  public void invalidate() {
+    membership = Membership.EMPTY;
+    ownerCache.invalidateAll();
+  }
+
+  /**
+   * Returns the address of the node which owns the given document, or null if the owner cannot be
+   * determined from the cached membership.
+   *
+   * @param documentSelfLink
+   * @return
+   */
+  public InetSocketAddress selectOwner(String documentSelfLink) {
+    Membership current = membership;
+    if (current.nodeAddresses.isEmpty()) {
+      return null;
+    }
+
+    String ownerId = ownerCache.getIfPresent(documentSelfLink);
+    if (ownerId == null || !current.nodeAddresses.containsKey(ownerId)) {
+      ownerId = computeOwner(documentSelfLink, current.nodeAddresses.keySet());
+    }
+
+    return current.nodeAddresses.get(ownerId);
+  }
+
+  /**
+   * Records the owner reported by a completed request and updates the forwarded hop metrics.
+   *
+   * @param documentSelfLink
+   * @param target the address the request was sent to
+   * @param documentOwner the owner node id reported in the response
+   */
+  public void recordOwner(String documentSelfLink, InetSocketAddress target, String documentOwner) {
+    Membership current = membership;
+    if (documentOwner == null || current.nodeAddresses.isEmpty()) {
+      return;
+    }
+
+    if (target.equals(current.nodeAddresses.get(documentOwner))) {
+      directRequests.mark();
+    } else {
+      forwardedRequests.mark();
+    }
+
+    if (current.nodeAddresses.containsKey(documentOwner)) {
+      ownerCache.put(documentSelfLink, documentOwner);
+    }
+  }
+
+  /**
+   * Returns the share of recorded requests which did not land on the owner node.
+   *
+   * @return
+   */
+  public static double getForwardedHopRatio() {
+    long direct = DefaultMetricRegistry.REGISTRY.meter(DIRECT_REQUESTS_METRIC).getCount();
+    long forwarded = DefaultMetricRegistry.REGISTRY.meter(FORWARDED_REQUESTS_METRIC).getCount();
+    if (direct + forwarded == 0) {
+      return 0.0;
+    }
+
+    return (double) forwarded / (direct + forwarded);
+  }
+
+  /**
+   * Picks the node whose hashed id is closest to the hashed key. Ties are broken by node id so that
+   * every client computes the same owner for the same membership.
+   *
+   * @param key
+   * @param nodeIds
+   * @return
+   */
+  @VisibleForTesting
+  protected static String computeOwner(String key, Collection<String> nodeIds) {
+    BigInteger keyHash = hash(key);
+    String ownerId = null;
+    BigInteger closestDistance = null;
+    for (String nodeId : nodeIds) {
+      BigInteger distance = hash(nodeId).subtract(keyHash).abs();
+      if (closestDistance == null
+          || distance.compareTo(closestDistance) < 0
+          || (distance.equals(closestDistance) && nodeId.compareTo(ownerId) < 0)) {
+        closestDistance = distance;
+        ownerId = nodeId;
+      }
+    }
+
+    return ownerId;
+  }
+
+  private static BigInteger hash(String value) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+      return new BigInteger(1, digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static InetSocketAddress findServer(URI groupReference, Collection<InetSocketAddress> servers) {
+    for (InetSocketAddress server : servers) {
+      if (server.getPort() != groupReference.getPort()) {
+        continue;
+      }
+
+      if (groupReference.getHost().equals(server.getHostString())
+          || (server.getAddress() != null
+          && groupReference.getHost().equals(server.getAddress().getHostAddress()))) {
+        return server;
+      }
+    }
+
+    return null;
+  }
+
+  private static void registerForwardedHopRatioGauge() {
+    synchronized (DefaultMetricRegistry.REGISTRY) {
+      if (!DefaultMetricRegistry.REGISTRY.getGauges().containsKey(FORWARDED_HOP_RATIO_METRIC)) {
+        DefaultMetricRegistry.REGISTRY.register(FORWARDED_HOP_RATIO_METRIC, new Gauge<Double>() {
+          @Override
+          public Double getValue() {
+            return getForwardedHopRatio();
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Immutable snapshot of the routable node group members.
+   */
+  private static class Membership {
+    private static final Membership EMPTY = new Membership(0, ImmutableMap.<String, InetSocketAddress>of(), 0);
+
+    private final long membershipUpdateTimeMicros;
+    private final Map<String, InetSocketAddress> nodeAddresses;
+    private final long refreshTimeMillis;
+
+    private Membership(long membershipUpdateTimeMicros,
+                       Map<String, InetSocketAddress> nodeAddresses,
+                       long refreshTimeMillis) {
+      this.membershipUpdateTimeMicros = membershipUpdateTimeMicros;
+      this.nodeAddresses = ImmutableMap.copyOf(nodeAddresses);
+      this.refreshTimeMillis = refreshTimeMillis;
+    }
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.common.dcp;
+
+import com.vmware.photon.controller.common.dcp.exceptions.DcpRuntimeException;
+import com.vmware.xenon.common.ServiceDocument;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class DocumentProjection deserializes the documents of a query result into a lightweight view class.
+ *
+ * The view class declares public fields named like the document fields it needs. The JSON of the
+ * query result is read as a stream, only the fields of the view are deserialized and all other
+ * fields, e.g. large lists of task steps, are skipped without materializing them.
+ *
+ * @param <V> the view class
+ */
+public class DocumentProjection<V> {
+
+  private static final ConcurrentHashMap<Class<?>, DocumentProjection<?>> PROJECTIONS = new ConcurrentHashMap<>();
+
+  private static final Gson GSON = new Gson();
+
+  private final Constructor<V> constructor;
+
+  private final Map<String, ProjectedField> fields;
+
+  private DocumentProjection(Class<V> viewType) {
+    try {
+      this.constructor = viewType.getDeclaredConstructor();
+      this.constructor.setAccessible(true);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException(viewType + " does not have a default constructor", e);
+    }
+
+    Map<String, ProjectedField> projectedFields = new HashMap<>();
+    for (Class<?> type = viewType; type != null && type != Object.class; type = type.getSuperclass()) {
+      for (Field field : type.getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers()) || projectedFields.containsKey(field.getName())) {
+          continue;
+        }
+
+        field.setAccessible(true);
+        projectedFields.put(field.getName(),
+            new ProjectedField(field, GSON.getAdapter(TypeToken.get(field.getGenericType()))));
+      }
+    }
+
+    this.fields = projectedFields;
+  }
+
+  /**
+   * Returns the projection for the given view class, computing it on first use.
+   *
+   * @param viewType
+   * @param <V>
+   * @return
+   */
+  @SuppressWarnings("unchecked")
+  public static <V> DocumentProjection<V> of(Class<V> viewType) {
+    DocumentProjection<?> projection = PROJECTIONS.get(viewType);
+    if (projection == null) {
+      projection = PROJECTIONS.computeIfAbsent(viewType, type -> new DocumentProjection<>(viewType));
+    }
+
+    return (DocumentProjection<V>) projection;
+  }
+
+  /**
+   * Reads the documents from the JSON representation of a query task.
+   *
+   * @param queryTaskJson
+   * @param ownedOnly only return the documents owned by the node which executed the query, this
+   *                  removes the duplicates of replicated documents from broadcast query results
+   * @return
+   */
+  public List<V> readQueryTask(String queryTaskJson, boolean ownedOnly) {
+    String queryTaskOwner = null;
+    List<ProjectedDocument<V>> documents = new ArrayList<>();
+
+    try (JsonReader reader = new JsonReader(new StringReader(queryTaskJson))) {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (ServiceDocument.FIELD_NAME_OWNER.equals(name) && reader.peek() == JsonToken.STRING) {
+          queryTaskOwner = reader.nextString();
+        } else if ("results".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+          readResults(reader, documents);
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+    } catch (IOException | IllegalStateException e) {
+      throw new DcpRuntimeException(e);
+    }
+
+    List<V> views = new ArrayList<>(documents.size());
+    for (ProjectedDocument<V> document : documents) {
+      if (!ownedOnly || (queryTaskOwner != null && queryTaskOwner.equals(document.documentOwner))) {
+        views.add(document.view);
+      }
+    }
+
+    return views;
+  }
+
+  private void readResults(JsonReader reader, List<ProjectedDocument<V>> documents) throws IOException {
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if ("documents".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+        reader.beginObject();
+        while (reader.hasNext()) {
+          reader.nextName();
+          documents.add(readDocument(reader));
+        }
+        reader.endObject();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+  }
+
+  private ProjectedDocument<V> readDocument(JsonReader reader) throws IOException {
+    V view;
+    try {
+      view = constructor.newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new DcpRuntimeException(e);
+    }
+
+    String documentOwner = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      ProjectedField field = fields.get(name);
+      if (ServiceDocument.FIELD_NAME_OWNER.equals(name) && reader.peek() == JsonToken.STRING) {
+        documentOwner = reader.nextString();
+        if (field != null) {
+          field.set(view, documentOwner);
+        }
+      } else if (field != null) {
+        field.set(view, field.adapter.read(reader));
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    return new ProjectedDocument<>(view, documentOwner);
+  }
+
+  /**
+   * Field of the view class together with the adapter used to read its value.
+   */
+  private static class ProjectedField {
+    private final Field field;
+    private final TypeAdapter<?> adapter;
+
+    private ProjectedField(Field field, TypeAdapter<?> adapter) {
+      this.field = field;
+      this.adapter = adapter;
+    }
+
+    private void set(Object view, Object value) {
+      try {
+        field.set(view, value);
+      } catch (IllegalAccessException | IllegalArgumentException e) {
+        throw new DcpRuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * View of a document and the owner of the document.
+   */
+  private static class ProjectedDocument<V> {
+    private final V view;
+    private final String documentOwner;
+
+    private ProjectedDocument(V view, String documentOwner) {
+      this.view = view;
+      this.documentOwner = documentOwner;
+    }
+  }
+}
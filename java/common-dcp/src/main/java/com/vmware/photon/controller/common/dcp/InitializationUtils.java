@@ -13,12 +13,7 @@
 
 package com.vmware.photon.controller.common.dcp;
 
-import com.vmware.photon.controller.common.dcp.validation.DefaultBooleanInitializer;
-import com.vmware.photon.controller.common.dcp.validation.DefaultIntegerInitializer;
-import com.vmware.photon.controller.common.dcp.validation.DefaultLongInitializer;
-import com.vmware.photon.controller.common.dcp.validation.DefaultStringInitializer;
-import com.vmware.photon.controller.common.dcp.validation.DefaultTaskStateInitializer;
-import com.vmware.photon.controller.common.dcp.validation.DefaultUuidInitializer;
+import com.vmware.photon.controller.common.dcp.validation.DocumentSchema;
 import com.vmware.xenon.common.ServiceDocument;
 
 /**
@@ -27,11 +22,6 @@ import com.vmware.xenon.common.ServiceDocument;
 public class InitializationUtils {
 
   public static void initialize(ServiceDocument startState) throws RuntimeException {
-    DefaultBooleanInitializer.initialize(startState);
-    DefaultIntegerInitializer.initialize(startState);
-    DefaultUuidInitializer.initialize(startState);
-    DefaultTaskStateInitializer.initialize(startState);
-    DefaultStringInitializer.initialize(startState);
-    DefaultLongInitializer.initialize(startState);
+    DocumentSchema.of(startState.getClass()).initialize(startState);
   }
 }
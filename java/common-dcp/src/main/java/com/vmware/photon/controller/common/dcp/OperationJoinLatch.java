@@ -30,6 +30,7 @@ public class OperationJoinLatch {
 
   private CountDownLatch latch;
   private OperationJoin join;
+  private volatile Map<Long, Throwable> failures;
 
   public OperationJoinLatch(OperationJoin join) {
     this.latch = new CountDownLatch(1);
@@ -48,9 +49,20 @@ public class OperationJoinLatch {
     }
   }
 
+  /**
+   * Returns the failures of the joined operations keyed by operation id, or null if no operation
+   * failed. Only valid after {@link #await()} returned.
+   *
+   * @return
+   */
+  public Map<Long, Throwable> getFailures() {
+    return failures;
+  }
+
   private void prepareOperationJoin() {
     this.join.setCompletion(
         (Map<Long, Operation> ops, Map<Long, Throwable> failures) -> {
+          this.failures = failures;
           latch.countDown();
         });
   }
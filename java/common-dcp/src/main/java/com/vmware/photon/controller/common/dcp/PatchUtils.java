@@ -13,43 +13,15 @@
 
 package com.vmware.photon.controller.common.dcp;
 
-import com.vmware.photon.controller.common.dcp.validation.Immutable;
+import com.vmware.photon.controller.common.dcp.validation.DocumentSchema;
 import com.vmware.xenon.common.ServiceDocument;
 
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-
 /**
  * This class implements utilities for DCP patching actions.
  */
 public class PatchUtils {
 
   public static <T extends ServiceDocument> void patchState(T currentState, T patchState) {
-    try {
-      Field[] patchStateDeclaredFields = patchState.getClass().getDeclaredFields();
-      for (Field patchStateField : patchStateDeclaredFields) {
-        if (Modifier.isStatic(patchStateField.getModifiers())) {
-          continue;
-        }
-        boolean immutableField = false;
-        Annotation[] declaredAnnotations = patchStateField.getDeclaredAnnotations();
-        for (Annotation annotation : declaredAnnotations) {
-          if (annotation.annotationType() == Immutable.class) {
-            immutableField = true;
-            break;
-          }
-        }
-
-        if (!immutableField && null != patchStateField.get(patchState)) {
-          Field currentStateField = currentState.getClass().getField(patchStateField.getName());
-          currentStateField.set(currentState, patchStateField.get(patchState));
-        }
-      }
-    } catch (IllegalStateException e) {
-      throw e;
-    } catch (Throwable t) {
-      throw new RuntimeException(t);
-    }
+    DocumentSchema.of(patchState.getClass()).patchState(currentState, patchState);
   }
 }
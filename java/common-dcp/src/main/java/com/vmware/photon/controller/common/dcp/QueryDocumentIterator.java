@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.common.dcp;
+
+import com.vmware.photon.controller.common.dcp.exceptions.BadRequestException;
+import com.vmware.photon.controller.common.dcp.exceptions.DcpRuntimeException;
+import com.vmware.photon.controller.common.dcp.exceptions.DocumentNotFoundException;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentQueryResult;
+import com.vmware.xenon.common.Utils;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Class QueryDocumentIterator walks the pages of a paginated DCP query and returns the documents
+ * one at a time, deserialized into the requested type.
+ *
+ * At most two pages are held in memory: the page being consumed and the next page, which is
+ * requested as soon as the current page is handed out so that it is retrieved while the caller is
+ * processing the current one.
+ *
+ * Errors retrieving a page are reported as {@link DcpRuntimeException} for DCP errors and as
+ * {@link RuntimeException} for timeouts and interrupts, since {@link Iterator} cannot throw checked
+ * exceptions.
+ *
+ * @param <T>
+ */
+public class QueryDocumentIterator<T extends ServiceDocument> implements Iterator<T> {
+
+  private final Class<T> documentType;
+
+  private final PageFetcher pageFetcher;
+
+  private Map<String, Object> currentDocuments;
+
+  private Iterator<String> currentDocumentLinks;
+
+  private PendingPage nextPage;
+
+  private T nextDocument;
+
+  public QueryDocumentIterator(Class<T> documentType,
+                               ServiceDocumentQueryResult firstPage,
+                               PageFetcher pageFetcher) {
+    checkNotNull(documentType, "Cannot iterate documents with null documentType");
+    checkNotNull(firstPage, "Cannot iterate documents with null firstPage");
+    checkNotNull(pageFetcher, "Cannot iterate documents with null pageFetcher");
+
+    this.documentType = documentType;
+    this.pageFetcher = pageFetcher;
+    setCurrentPage(firstPage);
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (nextDocument == null) {
+      if (currentDocumentLinks.hasNext()) {
+        String documentLink = currentDocumentLinks.next();
+        Object document = currentDocuments.get(documentLink);
+        if (document != null) {
+          nextDocument = Utils.fromJson(document, documentType);
+        }
+      } else if (nextPage != null) {
+        PendingPage pendingPage = nextPage;
+        nextPage = null;
+        setCurrentPage(awaitPage(pendingPage));
+      } else {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    T document = nextDocument;
+    nextDocument = null;
+    return document;
+  }
+
+  /**
+   * Returns a sequential stream over the remaining documents.
+   *
+   * @return
+   */
+  public Stream<T> stream() {
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  private void setCurrentPage(ServiceDocumentQueryResult page) {
+    if (page.documentLinks != null && page.documents != null) {
+      currentDocuments = page.documents;
+      currentDocumentLinks = page.documentLinks.iterator();
+    } else {
+      currentDocuments = Collections.emptyMap();
+      currentDocumentLinks = Collections.emptyIterator();
+    }
+
+    if (page.nextPageLink != null) {
+      nextPage = pageFetcher.fetch(page.nextPageLink);
+    }
+  }
+
+  private ServiceDocumentQueryResult awaitPage(PendingPage pendingPage) {
+    try {
+      return pendingPage.await();
+    } catch (DocumentNotFoundException | BadRequestException e) {
+      throw new DcpRuntimeException(e);
+    } catch (TimeoutException e) {
+      throw new RuntimeException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Starts the retrieval of a result page without blocking the caller.
+   */
+  public interface PageFetcher {
+    PendingPage fetch(String pageLink);
+  }
+
+  /**
+   * A result page retrieval which is in flight.
+   */
+  public interface PendingPage {
+    ServiceDocumentQueryResult await()
+        throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException;
+  }
+}
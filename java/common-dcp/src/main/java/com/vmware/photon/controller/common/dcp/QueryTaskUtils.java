@@ -192,6 +192,41 @@ public class QueryTaskUtils {
     return documents;
   }
 
+  /**
+   * Get the documents from a query result projected into a view class, see {@link DocumentProjection}.
+   *
+   * @param viewType
+   * @param queryResult
+   * @return
+   */
+  public static <V> List<V> getProjectedQueryResultDocuments(Class<V> viewType, Operation queryResult) {
+    NodeGroupBroadcastResponse queryResponse = queryResult.getBody(NodeGroupBroadcastResponse.class);
+    return getProjectedBroadcastQueryDocuments(viewType, queryResponse);
+  }
+
+  /**
+   * Get the documents from a broadcast response projected into a view class. Only the fields declared
+   * by the view class are deserialized.
+   *
+   * @param viewType
+   * @param response
+   * @return
+   */
+  public static <V> List<V> getProjectedBroadcastQueryDocuments(Class<V> viewType,
+                                                                NodeGroupBroadcastResponse response) {
+    if (!response.failures.isEmpty()) {
+      throw new DcpRuntimeException("Failures detected in query task response: " + Utils.toJsonHtml(response));
+    }
+
+    DocumentProjection<V> projection = DocumentProjection.of(viewType);
+    List<V> documents = new ArrayList<>();
+    for (String jsonResponse : response.jsonResponses.values()) {
+      documents.addAll(projection.readQueryTask(jsonResponse, true));
+    }
+
+    return documents;
+  }
+
   /**
    * Gets the document links from a broadcast response.
    *
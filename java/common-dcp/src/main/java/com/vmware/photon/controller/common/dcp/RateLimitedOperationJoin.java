@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.common.dcp;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.OperationJoin;
+import com.vmware.xenon.common.Service;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class RateLimitedOperationJoin sends operations from a service in batches of bounded size.
+ * <p>
+ * A batch is only sent once the previous batch completed and the rate limiter, if any, has permits for all of
+ * its operations. The completion handler is called once with the operations and failures of all batches, like
+ * the completion handler of an {@link OperationJoin}.
+ * </p>
+ */
+public class RateLimitedOperationJoin {
+
+  private final Service sender;
+
+  private final List<Operation> operations;
+
+  private final int batchSize;
+
+  private final TokenBucketRateLimiter rateLimiter;
+
+  private final Map<Long, Operation> completedOperations = new HashMap<>();
+
+  private final Map<Long, Throwable> failures = new HashMap<>();
+
+  private OperationJoin.JoinedCompletionHandler completion;
+
+  private int nextIndex;
+
+  private RateLimitedOperationJoin(Service sender, List<Operation> operations, int batchSize,
+                                   TokenBucketRateLimiter rateLimiter) {
+    checkArgument(batchSize > 0, "batchSize must be positive");
+    this.sender = sender;
+    this.operations = new ArrayList<>(operations);
+    this.batchSize = batchSize;
+    this.rateLimiter = rateLimiter;
+  }
+
+  /**
+   * Creates a join for the given operations.
+   *
+   * @param sender      the service sending the operations
+   * @param operations
+   * @param batchSize   maximum number of operations in flight
+   * @param rateLimiter limits the rate at which operations are sent, null for no limit
+   * @return
+   */
+  public static RateLimitedOperationJoin create(Service sender, List<Operation> operations, int batchSize,
+                                                TokenBucketRateLimiter rateLimiter) {
+    return new RateLimitedOperationJoin(sender, operations, batchSize, rateLimiter);
+  }
+
+  /**
+   * Sends the operations and calls the handler once all of them completed. The failures passed to the handler
+   * are null when all operations succeeded.
+   *
+   * @param completion
+   */
+  public void send(OperationJoin.JoinedCompletionHandler completion) {
+    this.completion = completion;
+    sendNextBatch();
+  }
+
+  private void sendNextBatch() {
+    if (nextIndex >= operations.size()) {
+      completion.handle(completedOperations, failures.isEmpty() ? null : failures);
+      return;
+    }
+
+    List<Operation> batch = operations.subList(nextIndex, Math.min(nextIndex + batchSize, operations.size()));
+    nextIndex += batch.size();
+
+    long delayMicros = (rateLimiter == null ? 0L : rateLimiter.reserve(batch.size()));
+    if (delayMicros > 0) {
+      sender.getHost().schedule(() -> sendBatch(batch), delayMicros, TimeUnit.MICROSECONDS);
+    } else {
+      sendBatch(batch);
+    }
+  }
+
+  private void sendBatch(List<Operation> batch) {
+    OperationJoin join = OperationJoin.create(batch);
+    join.setCompletion((ops, batchFailures) -> {
+      completedOperations.putAll(ops);
+      if (batchFailures != null) {
+        failures.putAll(batchFailures);
+      }
+
+      sendNextBatch();
+    });
+    join.sendWith(sender);
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.common.dcp;
+
+import com.vmware.photon.controller.common.dcp.exceptions.BadRequestException;
+import com.vmware.photon.controller.common.dcp.exceptions.DocumentNotFoundException;
+import com.vmware.photon.controller.common.metrics.DefaultMetricRegistry;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Utils;
+
+import com.codahale.metrics.Meter;
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Class ReadCoalescer lets concurrent identical reads share a single in-flight DCP operation.
+ *
+ * The first caller for a key sends the operation, callers arriving while it is in flight wait for
+ * it and receive their own copy of the completed operation, or the same exception. Reads never join
+ * an operation which was sent before a write went through the same client, so a caller always sees
+ * the writes which completed before it started reading.
+ *
+ * The caller which sends the operation does not pay for the sharing: the result is only serialized
+ * when other callers joined, and reads identified by an expensive identity, e.g. a query
+ * specification, only compute it when a second read arrives with the same cheap key. A caller which
+ * waits longer than the await timeout for the shared read sends its own.
+ */
+public class ReadCoalescer {
+
+  public static final String COALESCED_READS_METRIC = name(ReadCoalescer.class, "coalesced-reads");
+
+  /**
+   * Longer than the expiration of the operations sent by {@link DcpRestClient}, so only a read
+   * which never completes makes the callers waiting for it send their own.
+   */
+  public static final long DEFAULT_AWAIT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(3);
+
+  private final ConcurrentHashMap<String, SharedRead> inFlightReads = new ConcurrentHashMap<>();
+
+  private final AtomicLong writeEpoch = new AtomicLong();
+
+  private final Meter coalescedReads;
+
+  private final long awaitTimeoutMillis;
+
+  public ReadCoalescer() {
+    this(DEFAULT_AWAIT_TIMEOUT_MILLIS);
+  }
+
+  public ReadCoalescer(long awaitTimeoutMillis) {
+    checkArgument(awaitTimeoutMillis > 0, "awaitTimeoutMillis needs to be greater than 0");
+    this.coalescedReads = DefaultMetricRegistry.REGISTRY.meter(COALESCED_READS_METRIC);
+    this.awaitTimeoutMillis = awaitTimeoutMillis;
+  }
+
+  /**
+   * Records that a write is being sent or has completed. Reads started afterwards no longer join
+   * operations which are already in flight.
+   */
+  public void recordWrite() {
+    writeEpoch.incrementAndGet();
+  }
+
+  /**
+   * Executes the read, or waits for an identical read which is already in flight.
+   *
+   * @param key identifies the read, e.g. the action and the document self link
+   * @param read sends the operation and waits for it
+   * @return
+   * @throws BadRequestException
+   * @throws DocumentNotFoundException
+   * @throws TimeoutException
+   * @throws InterruptedException
+   */
+  public Operation read(String key, Read read)
+      throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
+    return read(key, null, read);
+  }
+
+  /**
+   * Executes the read, or waits for an identical read which is already in flight. Reads with the
+   * same key are only shared when their identities are equal too.
+   *
+   * @param key cheap approximation of the read, reads with different identities may share it
+   * @param identity computes the exact identity of the read, only called when another read with
+   *                 the same key is in flight; null when the key is exact
+   * @param read sends the operation and waits for it
+   * @return
+   * @throws BadRequestException
+   * @throws DocumentNotFoundException
+   * @throws TimeoutException
+   * @throws InterruptedException
+   */
+  public Operation read(String key, Supplier<String> identity, Read read)
+      throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
+    String epochKey = writeEpoch.get() + ":" + key;
+    SharedRead sharedRead = new SharedRead(identity);
+    SharedRead inFlightRead = inFlightReads.putIfAbsent(epochKey, sharedRead);
+    if (inFlightRead != null) {
+      if (!inFlightRead.matches(identity) || !inFlightRead.join()) {
+        // a different read with the same key, or one which just completed.
+        return read.execute();
+      }
+
+      coalescedReads.mark();
+      return inFlightRead.await(read, awaitTimeoutMillis);
+    }
+
+    try {
+      Operation completedOperation = read.execute();
+      inFlightReads.remove(epochKey, sharedRead);
+      sharedRead.complete(completedOperation, null);
+      return completedOperation;
+    } catch (Throwable t) {
+      inFlightReads.remove(epochKey, sharedRead);
+      sharedRead.complete(null, t);
+      throw t;
+    }
+  }
+
+  /**
+   * Sends a read operation and waits for its completion.
+   */
+  public interface Read {
+    Operation execute()
+        throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException;
+  }
+
+  /**
+   * Result of an in-flight read shared by all callers waiting for it.
+   */
+  private static class SharedRead {
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final Supplier<String> identitySupplier;
+    private String identity;
+    private int followers;
+    private boolean completed;
+    private Operation.Action action;
+    private URI uri;
+    private int statusCode;
+    private String contentType;
+    private String body;
+    private Throwable failure;
+
+    private SharedRead(Supplier<String> identitySupplier) {
+      this.identitySupplier = identitySupplier;
+    }
+
+    private synchronized boolean matches(Supplier<String> otherIdentity) {
+      if (identitySupplier == null || otherIdentity == null) {
+        return identitySupplier == null && otherIdentity == null;
+      }
+
+      if (identity == null) {
+        identity = identitySupplier.get();
+      }
+
+      return identity.equals(otherIdentity.get());
+    }
+
+    /**
+     * Registers a caller waiting for the read.
+     *
+     * @return false if the read already completed without keeping its result
+     */
+    private synchronized boolean join() {
+      if (completed) {
+        return false;
+      }
+
+      followers++;
+      return true;
+    }
+
+    private synchronized void complete(Operation completedOperation, Throwable failure) {
+      // the result is only copied for the callers which joined the read.
+      if (completedOperation != null && followers > 0) {
+        Object rawBody = completedOperation.getBodyRaw();
+        this.action = completedOperation.getAction();
+        this.uri = completedOperation.getUri();
+        this.statusCode = completedOperation.getStatusCode();
+        this.contentType = completedOperation.getContentType();
+        this.body = rawBody == null || rawBody instanceof String ? (String) rawBody : Utils.toJson(rawBody);
+      }
+
+      this.failure = failure;
+      this.completed = true;
+      latch.countDown();
+    }
+
+    private Operation await(Read read, long timeoutMillis)
+        throws BadRequestException, DocumentNotFoundException, TimeoutException, InterruptedException {
+      if (!latch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+        // the shared read did not complete in time, do not wait for it any longer.
+        return read.execute();
+      }
+
+      if (failure instanceof InterruptedException) {
+        // the thread which sent the read was interrupted, this caller was not.
+        return read.execute();
+      } else if (failure instanceof BadRequestException) {
+        throw (BadRequestException) failure;
+      } else if (failure instanceof DocumentNotFoundException) {
+        throw (DocumentNotFoundException) failure;
+      } else if (failure instanceof TimeoutException) {
+        throw (TimeoutException) failure;
+      } else if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      } else if (failure instanceof Error) {
+        throw (Error) failure;
+      } else if (failure != null) {
+        throw new RuntimeException(failure);
+      }
+
+      if (uri == null) {
+        // the read completed without an operation, e.g. when the client converted a failure.
+        return null;
+      }
+
+      // every caller gets its own operation since getBody may replace the body of the operation.
+      Operation operation = Operation
+          .createGet(uri)
+          .setAction(action)
+          .setStatusCode(statusCode);
+      if (contentType != null) {
+        operation.setContentType(contentType);
+      }
+
+      return body == null ? operation : operation.setBody(body);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.common.dcp;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class TokenBucketRateLimiter limits the rate of background work without blocking the calling thread.
+ * <p>
+ * The bucket holds at most one second worth of permits. Instead of waiting for permits the caller reserves
+ * them and is told how long to delay the work, so the limiter can be used from service handlers which must
+ * not block, e.g. by scheduling the work with {@link com.vmware.xenon.common.ServiceHost#schedule}.
+ * </p>
+ */
+public class TokenBucketRateLimiter {
+
+  private final double permitsPerSecond;
+
+  private final Ticker ticker;
+
+  private double availablePermits;
+
+  private long lastRefillNanos;
+
+  public TokenBucketRateLimiter(double permitsPerSecond) {
+    this(permitsPerSecond, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  TokenBucketRateLimiter(double permitsPerSecond, Ticker ticker) {
+    checkArgument(permitsPerSecond > 0, "permitsPerSecond must be positive");
+    this.permitsPerSecond = permitsPerSecond;
+    this.ticker = ticker;
+    this.availablePermits = permitsPerSecond;
+    this.lastRefillNanos = ticker.read();
+  }
+
+  /**
+   * Reserves permits and returns the delay after which the work they cover may start. Permits which are not
+   * available yet are borrowed from the future, so later reservations are delayed accordingly.
+   *
+   * @param permits
+   * @return delay in microseconds, 0 if the work may start right away
+   */
+  public synchronized long reserve(int permits) {
+    checkArgument(permits >= 0, "permits must not be negative");
+    long now = ticker.read();
+    availablePermits = Math.min(permitsPerSecond,
+        availablePermits + (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+    lastRefillNanos = now;
+
+    availablePermits -= permits;
+    if (availablePermits >= 0) {
+      return 0L;
+    }
+
+    return (long) Math.ceil(-availablePermits * TimeUnit.SECONDS.toMicros(1) / permitsPerSecond);
+  }
+
+  public double getPermitsPerSecond() {
+    return permitsPerSecond;
+  }
+}
@@ -13,13 +13,7 @@
 
 package com.vmware.photon.controller.common.dcp;
 
-import com.vmware.photon.controller.common.dcp.validation.ImmutableValidator;
-import com.vmware.photon.controller.common.dcp.validation.NotBlankValidator;
-import com.vmware.photon.controller.common.dcp.validation.NotEmptyValidator;
-import com.vmware.photon.controller.common.dcp.validation.NotNullValidator;
-import com.vmware.photon.controller.common.dcp.validation.PositiveValidator;
-import com.vmware.photon.controller.common.dcp.validation.RangeValidator;
-import com.vmware.photon.controller.common.dcp.validation.WriteOnceValidator;
+import com.vmware.photon.controller.common.dcp.validation.DocumentSchema;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.StatefulService;
 import com.vmware.xenon.common.TaskState;
@@ -33,16 +27,12 @@ import static com.google.common.base.Preconditions.checkState;
 public class ValidationUtils {
 
   public static void validateState(ServiceDocument state) {
-    NotNullValidator.validate(state);
-    PositiveValidator.validate(state);
-    NotBlankValidator.validate(state);
-    NotEmptyValidator.validate(state);
-    RangeValidator.validate(state);
+    DocumentSchema.of(state.getClass()).validateState(state);
   }
 
   public static void validatePatch(ServiceDocument startState, ServiceDocument patchState) {
-    ImmutableValidator.validate(patchState);
-    WriteOnceValidator.validate(startState, patchState);
+    DocumentSchema.of(patchState.getClass()).validateImmutable(patchState);
+    DocumentSchema.of(startState.getClass()).validateWriteOnce(startState, patchState);
   }
 
   public static <T extends TaskState> void validateTaskStage(T state) {
@@ -15,9 +15,6 @@ package com.vmware.photon.controller.common.dcp.validation;
 
 import com.vmware.xenon.common.ServiceDocument;
 
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-
 /**
  * This class initializes fields with the {@link DefaultBoolean} annotation.
  */
@@ -25,20 +22,6 @@ public enum DefaultBooleanInitializer {
   INSTANCE;
 
   public static void initialize(ServiceDocument state) {
-    try {
-      Field[] declaredFields = state.getClass().getDeclaredFields();
-      for (Field field : declaredFields) {
-        if (field.get(state) == null) {
-          Annotation[] declaredAnnotations = field.getDeclaredAnnotations();
-          for (Annotation annotation : declaredAnnotations) {
-            if (annotation.annotationType() == DefaultBoolean.class) {
-              field.set(state, new Boolean(((DefaultBoolean) annotation).value()));
-            }
-          }
-        }
-      }
-    } catch (Throwable t) {
-      throw new RuntimeException(t);
-    }
+    DocumentSchema.of(state.getClass()).initialize(state, DefaultBoolean.class);
   }
 }
@@ -14,10 +14,6 @@
 package com.vmware.photon.controller.common.dcp.validation;
 
 import com.vmware.xenon.common.ServiceDocument;
-import com.vmware.xenon.common.TaskState;
-
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
 
 /**
  * This class initializes fields with the {@link DefaultTaskState} annotation.
@@ -26,22 +22,6 @@ public enum DefaultTaskStateInitializer {
   INSTANCE;
 
   public static void initialize(ServiceDocument state) throws RuntimeException {
-    try {
-      Field[] declaredFields = state.getClass().getDeclaredFields();
-      for (Field field : declaredFields) {
-        if (field.get(state) == null) {
-          Annotation[] declaredAnnotations = field.getDeclaredAnnotations();
-          for (Annotation annotation : declaredAnnotations) {
-            if (annotation.annotationType() == DefaultTaskState.class) {
-              TaskState defaultState = (TaskState) field.getType().newInstance();
-              defaultState.stage = ((DefaultTaskState) annotation).value();
-              field.set(state, defaultState);
-            }
-          }
-        }
-      }
-    } catch (Throwable t) {
-      throw new RuntimeException(t);
-    }
+    DocumentSchema.of(state.getClass()).initialize(state, DefaultTaskState.class);
   }
 }
@@ -15,10 +15,6 @@ package com.vmware.photon.controller.common.dcp.validation;
 
 import com.vmware.xenon.common.ServiceDocument;
 
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-import java.util.UUID;
-
 /**
  * This class initializes fields with the {@link DefaultUuid} annotation.
  */
@@ -26,20 +22,6 @@ public enum DefaultUuidInitializer {
   INSTANCE;
 
   public static void initialize(ServiceDocument state) {
-    try {
-      Field[] declaredFields = state.getClass().getDeclaredFields();
-      for (Field field : declaredFields) {
-        if (field.get(state) == null) {
-          Annotation[] declaredAnnotations = field.getDeclaredAnnotations();
-          for (Annotation annotation : declaredAnnotations) {
-            if (annotation.annotationType() == DefaultUuid.class) {
-              field.set(state, UUID.randomUUID().toString());
-            }
-          }
-        }
-      }
-    } catch (Throwable t) {
-      throw new RuntimeException(t);
-    }
+    DocumentSchema.of(state.getClass()).initialize(state, DefaultUuid.class);
   }
 }
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.common.dcp.validation;
+
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.TaskState;
+
+import org.apache.commons.lang3.StringUtils;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class holds the validation, initialization and patch plan of a service document class.
+ *
+ * The annotated fields of a class are looked up once by reflection and kept in lists of checks in
+ * the order in which the individual validators and initializers run, so a document is validated,
+ * initialized or patched in a single pass over the relevant fields. Error messages are only
+ * formatted when a check fails.
+ */
+public class DocumentSchema {
+
+  private static final ConcurrentHashMap<Class<?>, DocumentSchema> SCHEMAS = new ConcurrentHashMap<>();
+
+  private final List<StateCheck> notNullChecks;
+  private final List<StateCheck> positiveChecks;
+  private final List<StateCheck> notBlankChecks;
+  private final List<StateCheck> notEmptyChecks;
+  private final List<StateCheck> rangeChecks;
+  private final List<StateCheck> immutableChecks;
+  private final List<StateCheck> stateChecks;
+  private final List<Field> writeOnceFields;
+  private final List<Initializer> initializers;
+  private final List<Field> patchableFields;
+
+  private DocumentSchema(Class<?> documentClass) {
+    List<StateCheck> notNull = new ArrayList<>();
+    List<StateCheck> positive = new ArrayList<>();
+    List<StateCheck> notBlank = new ArrayList<>();
+    List<StateCheck> notEmpty = new ArrayList<>();
+    List<StateCheck> range = new ArrayList<>();
+    List<StateCheck> immutable = new ArrayList<>();
+    List<Field> writeOnce = new ArrayList<>();
+    List<Initializer> defaultBoolean = new ArrayList<>();
+    List<Initializer> defaultInteger = new ArrayList<>();
+    List<Initializer> defaultUuid = new ArrayList<>();
+    List<Initializer> defaultTaskState = new ArrayList<>();
+    List<Initializer> defaultString = new ArrayList<>();
+    List<Initializer> defaultLong = new ArrayList<>();
+    List<Field> patchable = new ArrayList<>();
+
+    for (Field field : documentClass.getDeclaredFields()) {
+      if (field.isAnnotationPresent(NotNull.class)) {
+        notNull.add(notNullCheck(field));
+      }
+
+      if (field.isAnnotationPresent(Positive.class)) {
+        positive.add(positiveCheck(field));
+      }
+
+      if (field.isAnnotationPresent(NotBlank.class)) {
+        notBlank.add(notBlankCheck(field));
+      }
+
+      if (field.isAnnotationPresent(NotEmpty.class)) {
+        notEmpty.add(notEmptyCheck(field));
+      }
+
+      Range rangeAnnotation = field.getAnnotation(Range.class);
+      if (rangeAnnotation != null) {
+        range.add(rangeCheck(field, rangeAnnotation.min(), rangeAnnotation.max()));
+      }
+
+      boolean immutableField = field.isAnnotationPresent(Immutable.class);
+      if (immutableField) {
+        immutable.add(immutableCheck(field));
+      }
+
+      if (field.isAnnotationPresent(WriteOnce.class)) {
+        writeOnce.add(field);
+      }
+
+      DefaultBoolean defaultBooleanAnnotation = field.getAnnotation(DefaultBoolean.class);
+      if (defaultBooleanAnnotation != null) {
+        Boolean value = defaultBooleanAnnotation.value();
+        defaultBoolean.add(new Initializer(field, DefaultBoolean.class, () -> value));
+      }
+
+      DefaultInteger defaultIntegerAnnotation = field.getAnnotation(DefaultInteger.class);
+      if (defaultIntegerAnnotation != null) {
+        Integer value = defaultIntegerAnnotation.value();
+        defaultInteger.add(new Initializer(field, DefaultInteger.class, () -> value));
+      }
+
+      if (field.isAnnotationPresent(DefaultUuid.class)) {
+        defaultUuid.add(new Initializer(field, DefaultUuid.class, () -> UUID.randomUUID().toString()));
+      }
+
+      DefaultTaskState defaultTaskStateAnnotation = field.getAnnotation(DefaultTaskState.class);
+      if (defaultTaskStateAnnotation != null) {
+        TaskState.TaskStage stage = defaultTaskStateAnnotation.value();
+        Class<?> taskStateClass = field.getType();
+        defaultTaskState.add(new Initializer(field, DefaultTaskState.class, () -> {
+          TaskState defaultState = (TaskState) taskStateClass.newInstance();
+          defaultState.stage = stage;
+          return defaultState;
+        }));
+      }
+
+      DefaultString defaultStringAnnotation = field.getAnnotation(DefaultString.class);
+      if (defaultStringAnnotation != null) {
+        String value = defaultStringAnnotation.value();
+        defaultString.add(new Initializer(field, DefaultString.class, () -> value));
+      }
+
+      DefaultLong defaultLongAnnotation = field.getAnnotation(DefaultLong.class);
+      if (defaultLongAnnotation != null) {
+        Long value = defaultLongAnnotation.value();
+        defaultLong.add(new Initializer(field, DefaultLong.class, () -> value));
+      }
+
+      if (!Modifier.isStatic(field.getModifiers()) && !immutableField) {
+        patchable.add(field);
+      }
+    }
+
+    this.notNullChecks = freeze(notNull);
+    this.positiveChecks = freeze(positive);
+    this.notBlankChecks = freeze(notBlank);
+    this.notEmptyChecks = freeze(notEmpty);
+    this.rangeChecks = freeze(range);
+    this.immutableChecks = freeze(immutable);
+    this.stateChecks = freeze(concat(notNull, positive, notBlank, notEmpty, range));
+    this.writeOnceFields = freeze(writeOnce);
+    this.initializers = freeze(concat(
+        defaultBoolean, defaultInteger, defaultUuid, defaultTaskState, defaultString, defaultLong));
+    this.patchableFields = freeze(patchable);
+  }
+
+  /**
+   * Returns the schema of the given service document class, computing it on first use.
+   *
+   * @param documentClass
+   * @return
+   */
+  public static DocumentSchema of(Class<? extends ServiceDocument> documentClass) {
+    DocumentSchema schema = SCHEMAS.get(documentClass);
+    if (schema == null) {
+      schema = SCHEMAS.computeIfAbsent(documentClass, DocumentSchema::new);
+    }
+
+    return schema;
+  }
+
+  /**
+   * Runs the {@link NotNull}, {@link Positive}, {@link NotBlank}, {@link NotEmpty} and {@link Range}
+   * checks in this order.
+   *
+   * @param state
+   */
+  public void validateState(ServiceDocument state) {
+    run(stateChecks, state);
+  }
+
+  public void validateNotNull(ServiceDocument state) {
+    run(notNullChecks, state);
+  }
+
+  public void validatePositive(ServiceDocument state) {
+    run(positiveChecks, state);
+  }
+
+  public void validateNotBlank(ServiceDocument state) {
+    run(notBlankChecks, state);
+  }
+
+  public void validateNotEmpty(ServiceDocument state) {
+    run(notEmptyChecks, state);
+  }
+
+  public void validateRange(ServiceDocument state) {
+    run(rangeChecks, state);
+  }
+
+  public void validateImmutable(ServiceDocument state) {
+    run(immutableChecks, state);
+  }
+
+  public void validateWriteOnce(ServiceDocument startState, ServiceDocument patchState) {
+    try {
+      for (Field field : writeOnceFields) {
+        if (null != field.get(patchState)) {
+          checkState(null == field.get(startState), "%s cannot be set or changed in a patch", field.getName());
+        }
+      }
+    } catch (IllegalStateException e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new RuntimeException(t);
+    }
+  }
+
+  /**
+   * Fills in the default values of all fields which are null.
+   *
+   * @param state
+   */
+  public void initialize(ServiceDocument state) {
+    initialize(state, null);
+  }
+
+  /**
+   * Fills in the default values of the fields with the given default annotation which are null.
+   *
+   * @param state
+   * @param annotationType
+   */
+  public void initialize(ServiceDocument state, Class<? extends Annotation> annotationType) {
+    try {
+      for (Initializer initializer : initializers) {
+        if ((annotationType == null || initializer.annotationType == annotationType)
+            && initializer.field.get(state) == null) {
+          initializer.field.set(state, initializer.defaultValue.get());
+        }
+      }
+    } catch (Throwable t) {
+      throw new RuntimeException(t);
+    }
+  }
+
+  /**
+   * Copies all non-null fields of the patch which are not {@link Immutable} to the current state.
+   *
+   * @param currentState
+   * @param patchState
+   */
+  public void patchState(ServiceDocument currentState, ServiceDocument patchState) {
+    try {
+      boolean sameClass = currentState.getClass() == patchState.getClass();
+      for (Field patchStateField : patchableFields) {
+        Object value = patchStateField.get(patchState);
+        if (null != value) {
+          Field currentStateField = sameClass
+              ? patchStateField
+              : currentState.getClass().getField(patchStateField.getName());
+          currentStateField.set(currentState, value);
+        }
+      }
+    } catch (IllegalStateException e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new RuntimeException(t);
+    }
+  }
+
+  private static void run(List<StateCheck> checks, ServiceDocument state) {
+    try {
+      for (StateCheck check : checks) {
+        check.apply(state);
+      }
+    } catch (IllegalStateException e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new RuntimeException(t);
+    }
+  }
+
+  private static StateCheck notNullCheck(Field field) {
+    String name = field.getName();
+    return state -> checkState(null != field.get(state), "%s cannot be null", name);
+  }
+
+  private static StateCheck positiveCheck(Field field) {
+    String name = field.getName();
+    return state -> {
+      Number value = (Number) field.get(state);
+      checkState(null == value || 0 < value.longValue(), "%s must be greater than zero", name);
+    };
+  }
+
+  private static StateCheck notBlankCheck(Field field) {
+    String name = field.getName();
+    boolean stringField = String.class.equals(field.getType());
+    return state -> {
+      Object value = field.get(state);
+      checkState(null != value, "%s cannot be null", name);
+      if (stringField) {
+        checkState(StringUtils.isNotBlank((String) value), "%s cannot be blank", name);
+      }
+    };
+  }
+
+  private static StateCheck notEmptyCheck(Field field) {
+    String name = field.getName();
+    boolean stringField = String.class.equals(field.getType());
+    return state -> {
+      Object value = field.get(state);
+      checkState(null != value, "%s cannot be null", name);
+      if (stringField) {
+        checkState(!((String) value).isEmpty(), "%s cannot be empty", name);
+      }
+
+      if (value instanceof Collection) {
+        checkState(!((Collection) value).isEmpty(), "%s cannot be emtpy", name);
+      }
+    };
+  }
+
+  private static StateCheck rangeCheck(Field field, long min, long max) {
+    String name = field.getName();
+    return state -> {
+      Number value = (Number) field.get(state);
+      checkState(value == null || (value.longValue() >= min && value.longValue() <= max),
+          "%s is not within range %s, %s", name, min, max);
+    };
+  }
+
+  private static StateCheck immutableCheck(Field field) {
+    String name = field.getName();
+    return state -> checkState(null == field.get(state), "%s is immutable", name);
+  }
+
+  @SafeVarargs
+  private static <T> List<T> concat(List<T>... lists) {
+    List<T> result = new ArrayList<>();
+    for (List<T> list : lists) {
+      result.addAll(list);
+    }
+
+    return result;
+  }
+
+  private static <T> List<T> freeze(List<T> list) {
+    return list.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(list));
+  }
+
+  /**
+   * Check of a single annotated field.
+   */
+  private interface StateCheck {
+    void apply(ServiceDocument state) throws IllegalAccessException;
+  }
+
+  /**
+   * Supplies the default value of a field.
+   */
+  private interface DefaultValue {
+    Object get() throws InstantiationException, IllegalAccessException;
+  }
+
+  /**
+   * Default value initializer of a single annotated field.
+   */
+  private static class Initializer {
+    private final Field field;
+    private final Class<? extends Annotation> annotationType;
+    private final DefaultValue defaultValue;
+
+    private Initializer(Field field, Class<? extends Annotation> annotationType, DefaultValue defaultValue) {
+      this.field = field;
+      this.annotationType = annotationType;
+      this.defaultValue = defaultValue;
+    }
+  }
+}
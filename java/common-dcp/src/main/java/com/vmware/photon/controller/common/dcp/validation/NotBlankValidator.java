@@ -15,12 +15,6 @@ package com.vmware.photon.controller.common.dcp.validation;
 
 import com.vmware.xenon.common.ServiceDocument;
 
-import org.apache.commons.lang3.StringUtils;
-import static com.google.common.base.Preconditions.checkState;
-
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-
 /**
  * This class implements a validator that checks if the {@link NotBlank}
  * annotation on a state object is honored.
@@ -29,24 +23,6 @@ public enum NotBlankValidator {
   INSTANCE;
 
   public static void validate(ServiceDocument state) {
-    try {
-      Field[] declaredFields = state.getClass().getDeclaredFields();
-      for (Field field : declaredFields) {
-        Annotation[] declaredAnnotations = field.getDeclaredAnnotations();
-        for (Annotation annotation : declaredAnnotations) {
-          if (annotation.annotationType() == NotBlank.class) {
-            checkState(null != field.get(state), String.format("%s cannot be null", field.getName()));
-            if (String.class.equals(field.getType())) {
-              checkState((StringUtils.isNotBlank((String) field.get(state))),
-                  String.format("%s cannot be blank", field.getName()));
-            }
-          }
-        }
-      }
-    } catch (IllegalStateException e) {
-      throw e;
-    } catch (Throwable t) {
-      throw new RuntimeException(t);
-    }
+    DocumentSchema.of(state.getClass()).validateNotBlank(state);
   }
 }
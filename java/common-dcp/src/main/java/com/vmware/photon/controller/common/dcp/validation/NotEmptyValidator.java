@@ -15,12 +15,6 @@ package com.vmware.photon.controller.common.dcp.validation;
 
 import com.vmware.xenon.common.ServiceDocument;
 
-import static com.google.common.base.Preconditions.checkState;
-
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-import java.util.Collection;
-
 /**
  * This class implements a validator that checks if the {@link NotEmpty}
  * annotation on a state object is honored.
@@ -29,29 +23,6 @@ public enum NotEmptyValidator {
   INSTANCE;
 
   public static void validate(ServiceDocument state) {
-    try {
-      Field[] declaredFields = state.getClass().getDeclaredFields();
-      for (Field field : declaredFields) {
-        Annotation[] declaredAnnotations = field.getDeclaredAnnotations();
-        for (Annotation annotation : declaredAnnotations) {
-          if (annotation.annotationType() == NotEmpty.class) {
-            checkState(null != field.get(state), String.format("%s cannot be null", field.getName()));
-            if (String.class.equals(field.getType())) {
-              checkState(!((String) field.get(state)).isEmpty(),
-                  String.format("%s cannot be empty", field.getName()));
-            }
-
-            if (field.get(state) instanceof Collection) {
-              checkState(!((Collection) field.get(state)).isEmpty(),
-                  String.format("%s cannot be emtpy", field.getName()));
-            }
-          }
-        }
-      }
-    } catch (IllegalStateException e) {
-      throw e;
-    } catch (Throwable t) {
-      throw new RuntimeException(t);
-    }
+    DocumentSchema.of(state.getClass()).validateNotEmpty(state);
   }
 }
@@ -15,11 +15,6 @@ package com.vmware.photon.controller.common.dcp.validation;
 
 import com.vmware.xenon.common.ServiceDocument;
 
-import static com.google.common.base.Preconditions.checkState;
-
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-
 /**
  * This class implements a validator that checks if the {@link NotNull}
  * annotation on a state object is honored.
@@ -28,20 +23,6 @@ public enum NotNullValidator {
   INSTANCE;
 
   public static void validate(ServiceDocument state) {
-    try {
-      Field[] declaredFields = state.getClass().getDeclaredFields();
-      for (Field field : declaredFields) {
-        Annotation[] declaredAnnotations = field.getDeclaredAnnotations();
-        for (Annotation annotation : declaredAnnotations) {
-          if (annotation.annotationType() == NotNull.class) {
-            checkState(null != field.get(state), String.format("%s cannot be null", field.getName()));
-          }
-        }
-      }
-    } catch (IllegalStateException e) {
-      throw e;
-    } catch (Throwable t) {
-      throw new RuntimeException(t);
-    }
+    DocumentSchema.of(state.getClass()).validateNotNull(state);
   }
 }
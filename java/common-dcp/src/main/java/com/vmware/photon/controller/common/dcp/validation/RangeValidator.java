@@ -15,11 +15,6 @@ package com.vmware.photon.controller.common.dcp.validation;
 
 import com.vmware.xenon.common.ServiceDocument;
 
-import static com.google.common.base.Preconditions.checkState;
-
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-
 /**
  * This class implements a validator that checks if the {@link Range}
  * annotation on a state object is honored.
@@ -28,23 +23,6 @@ public enum RangeValidator {
   INSTANCE;
 
   public static void validate(ServiceDocument state) {
-    try {
-      Field[] declaredFields = state.getClass().getDeclaredFields();
-      for (Field field : declaredFields) {
-        for (Annotation annotation : field.getDeclaredAnnotations()) {
-          if (annotation.annotationType() == Range.class) {
-            long min = ((Range) annotation).min();
-            long max = ((Range) annotation).max();
-            Number value = (Number) field.get(state);
-            checkState(value == null || (value.longValue() >= min && value.longValue() <= max),
-                String.format("%s is not within range %d, %d", field.getName(), min, max));
-          }
-        }
-      }
-    } catch (IllegalStateException e) {
-      throw e;
-    } catch (Throwable t) {
-      throw new RuntimeException(t);
-    }
+    DocumentSchema.of(state.getClass()).validateRange(state);
   }
 }
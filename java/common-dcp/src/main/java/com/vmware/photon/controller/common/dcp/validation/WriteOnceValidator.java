@@ -15,11 +15,6 @@ package com.vmware.photon.controller.common.dcp.validation;
 
 import com.vmware.xenon.common.ServiceDocument;
 
-import static com.google.common.base.Preconditions.checkState;
-
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-
 /**
  * Validates that the marked field is set once and only once in a patch state.
  */
@@ -27,25 +22,6 @@ public enum WriteOnceValidator {
   INSTANCE;
 
   public static void validate(ServiceDocument startState, ServiceDocument patchState) {
-    try {
-      Field[] declaredFields = startState.getClass().getDeclaredFields();
-      for (Field field : declaredFields) {
-        Annotation[] declaredAnnotations = field.getDeclaredAnnotations();
-        for (Annotation annotation : declaredAnnotations) {
-          if (annotation.annotationType() == WriteOnce.class) {
-            Object startValue = field.get(startState);
-            Object patchValue = field.get(patchState);
-            if (null != patchValue) {
-              checkState(null == startValue,
-                  String.format("%s cannot be set or changed in a patch", field.getName()));
-            }
-          }
-        }
-      }
-    } catch (IllegalStateException e) {
-      throw e;
-    } catch (Throwable t) {
-      throw new RuntimeException(t);
-    }
+    DocumentSchema.of(startState.getClass()).validateWriteOnce(startState, patchState);
   }
 }
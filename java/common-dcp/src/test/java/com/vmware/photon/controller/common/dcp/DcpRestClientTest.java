@@ -31,6 +31,7 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import org.apache.commons.collections.CollectionUtils;
+import org.mockito.ArgumentCaptor;
 import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
@@ -43,8 +44,11 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
@@ -53,11 +57,13 @@ import static org.testng.Assert.fail;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -523,6 +529,121 @@ public class DcpRestClientTest {
     }
   }
 
+  /**
+   * Tests for the bulk post, patch and delete operations.
+   */
+  public class BulkTest {
+
+    @BeforeMethod
+    public void setUp() throws Throwable {
+      setUpHostAndClient();
+      dcpRestClient.start();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Throwable {
+      if (host != null) {
+        host.destroy();
+      }
+
+      if (dcpRestClient != null) {
+        dcpRestClient.stop();
+      }
+    }
+
+    @Test
+    public void testBulkPostPatchAndDelete() throws Throwable {
+      List<ExampleService.ExampleServiceState> states = new ArrayList<>();
+      for (int i = 0; i < 5; i++) {
+        ExampleService.ExampleServiceState exampleServiceState = new ExampleService.ExampleServiceState();
+        exampleServiceState.name = UUID.randomUUID().toString();
+        exampleServiceState.counter = 0L;
+        states.add(exampleServiceState);
+      }
+
+      List<BulkOperationResult> postResults = dcpRestClient.post(ExampleFactoryService.SELF_LINK, states, 2);
+      assertThat(postResults.size(), is(states.size()));
+
+      Map<String, ExampleService.ExampleServiceState> patches = new LinkedHashMap<>();
+      for (int i = 0; i < postResults.size(); i++) {
+        BulkOperationResult postResult = postResults.get(i);
+        assertThat(postResult.isSuccess(), is(true));
+        ExampleService.ExampleServiceState createdState =
+            postResult.getOperation().getBody(ExampleService.ExampleServiceState.class);
+        assertThat(createdState.name, is(states.get(i).name));
+
+        ExampleService.ExampleServiceState patchState = new ExampleService.ExampleServiceState();
+        patchState.counter = 1L;
+        patches.put(createdState.documentSelfLink, patchState);
+      }
+
+      Map<String, BulkOperationResult> patchResults = dcpRestClient.patch(patches, 2);
+      assertThat(patchResults.keySet(), is(patches.keySet()));
+      for (String documentSelfLink : patches.keySet()) {
+        assertThat(patchResults.get(documentSelfLink).isSuccess(), is(true));
+        ExampleService.ExampleServiceState savedState =
+            dcpRestClient.get(documentSelfLink).getBody(ExampleService.ExampleServiceState.class);
+        assertThat(savedState.counter, is(1L));
+      }
+
+      Map<String, BulkOperationResult> deleteResults = dcpRestClient.delete(patches.keySet(), 2);
+      for (String documentSelfLink : patches.keySet()) {
+        assertThat(deleteResults.get(documentSelfLink).isSuccess(), is(true));
+        try {
+          dcpRestClient.get(documentSelfLink);
+          fail("get of a deleted document should fail");
+        } catch (DocumentNotFoundException e) {
+          // expected
+        }
+      }
+    }
+
+    @Test
+    public void testBulkPatchReturnsIndividualFailures() throws Throwable {
+      ExampleService.ExampleServiceState exampleServiceState = new ExampleService.ExampleServiceState();
+      exampleServiceState.name = UUID.randomUUID().toString();
+      exampleServiceState.counter = 0L;
+      String documentSelfLink = createDocument(exampleServiceState);
+      String missingSelfLink = ExampleFactoryService.SELF_LINK + "/" + UUID.randomUUID().toString();
+
+      ExampleService.ExampleServiceState patchState = new ExampleService.ExampleServiceState();
+      patchState.counter = 1L;
+      Map<String, ExampleService.ExampleServiceState> patches = new LinkedHashMap<>();
+      patches.put(documentSelfLink, patchState);
+      patches.put(missingSelfLink, patchState);
+
+      Map<String, BulkOperationResult> results = dcpRestClient.patch(patches, 1);
+      assertThat(results.get(documentSelfLink).isSuccess(), is(true));
+      assertThat(results.get(missingSelfLink).isSuccess(), is(false));
+      assertThat(results.get(missingSelfLink).getFailure() instanceof DocumentNotFoundException, is(true));
+    }
+
+    @Test
+    public void testBulkExpirationIsCapped() throws Throwable {
+      List<ExampleService.ExampleServiceState> states = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        ExampleService.ExampleServiceState exampleServiceState = new ExampleService.ExampleServiceState();
+        exampleServiceState.name = UUID.randomUUID().toString();
+        states.add(exampleServiceState);
+      }
+
+      // 20 windows of one operation would allow 20 minutes per operation without the cap.
+      long maxExpirationMicros = Utils.getNowMicrosUtc() + TimeUnit.MINUTES.toMicros(10) + TimeUnit.SECONDS.toMicros(1);
+      dcpRestClient.post(ExampleFactoryService.SELF_LINK, states, 1);
+
+      ArgumentCaptor<List> operations = ArgumentCaptor.forClass(List.class);
+      verify(dcpRestClient).sendBulk(operations.capture(), eq(1));
+      for (Object operation : operations.getValue()) {
+        assertThat(((Operation) operation).getExpirationMicrosUtc() <= maxExpirationMicros, is(true));
+      }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBulkDeleteWithInvalidWindowSize() throws Throwable {
+      dcpRestClient.delete(Arrays.asList(ExampleFactoryService.SELF_LINK + "/1"), 0);
+    }
+  }
+
   /**
    * Tests for the queryDocuments operation.
    */
@@ -664,8 +785,6 @@ public class DcpRestClientTest {
       final int numDocuments = 100;
       final int pageSize = 30;
 
-      doReturn(1L).when(dcpRestClient).getServiceDocumentStatusCheckIntervalMillis();
-
       Map<String, ExampleService.ExampleServiceState> exampleServiceStateMap = new HashMap<>();
       for (int i = 0; i < numDocuments; i++) {
         ExampleService.ExampleServiceState exampleServiceState = new ExampleService.ExampleServiceState();
@@ -694,6 +813,26 @@ public class DcpRestClientTest {
       }
     }
 
+    @Test
+    public void testQueryDocumentsIsDirect() throws Throwable {
+      for (int i = 0; i < 5; i++) {
+        ExampleService.ExampleServiceState exampleServiceState = new ExampleService.ExampleServiceState();
+        exampleServiceState.name = UUID.randomUUID().toString();
+        createDocument(exampleServiceState);
+      }
+
+      ServiceDocumentQueryResult queryResult = dcpRestClient.queryDocuments(
+          ExampleService.ExampleServiceState.class, null, Optional.absent(), true);
+      assertThat(queryResult.documentLinks.size(), is(5));
+
+      queryResult = dcpRestClient.queryDocuments(
+          ExampleService.ExampleServiceState.class, null, Optional.of(2), true);
+      assertThat(queryResult.documentLinks.size(), is(2));
+
+      // The results come back with the POST, the query task is never polled
+      verify(dcpRestClient, never()).get(any(URI.class));
+    }
+
     private void checkBroadcastQueryParams() throws Throwable {
       try {
         dcpRestClient.queryDocuments(null, null, null, true);
@@ -1206,4 +1345,36 @@ public class DcpRestClientTest {
       return actualLinkCount;
     }
   }
+
+  /**
+   * Tests for the failures that invalidate the cached membership.
+   */
+  public class RoutingFailureTest {
+
+    @Test(dataProvider = "StatusCodes")
+    public void testIsRoutingFailure(int statusCode, boolean isRoutingFailure) {
+      Operation completedOperation = new Operation().setStatusCode(statusCode)
+          .setBody(ServiceErrorResponse.create(new IllegalStateException("failure"), statusCode));
+      assertThat(DcpRestClient.isRoutingFailure(new DcpRuntimeException(completedOperation, completedOperation)),
+          is(isRoutingFailure));
+    }
+
+    @DataProvider(name = "StatusCodes")
+    public Object[][] getStatusCodes() {
+      return new Object[][]{
+          {Operation.STATUS_CODE_CONFLICT, false},
+          {Operation.STATUS_CODE_NOT_FOUND, false},
+          {Operation.STATUS_CODE_BAD_REQUEST, false},
+          {Operation.STATUS_CODE_SERVER_FAILURE_THRESHOLD, true},
+          {Operation.STATUS_CODE_UNAVAILABLE, true},
+      };
+    }
+
+    @Test
+    public void testIsRoutingFailureWithoutResponse() {
+      assertThat(DcpRestClient.isRoutingFailure(new TimeoutException()), is(true));
+      assertThat(DcpRestClient.isRoutingFailure(new DcpRuntimeException("failure")), is(true));
+      assertThat(DcpRestClient.isRoutingFailure(new IllegalArgumentException()), is(false));
+    }
+  }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.common.dcp;
+
+import com.vmware.photon.controller.common.metrics.DefaultMetricRegistry;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Tests {@link DocumentCache}.
+ */
+public class DocumentCacheTest {
+
+  private static final String FACTORY_LINK = "/photon/cloudstore/flavors";
+
+  private static final String DOCUMENT_SELF_LINK = FACTORY_LINK + "/flavor-1";
+
+  private DocumentCache documentCache;
+
+  /**
+   * Dummy test case to make Intellij recognize this as a test class.
+   */
+  @Test
+  private void dummy() {
+  }
+
+  /**
+   * Tests for the isCacheable method.
+   */
+  public class IsCacheableTest {
+
+    @BeforeMethod
+    public void setUp() {
+      documentCache = new DocumentCache();
+    }
+
+    @Test
+    public void testNotEnabled() {
+      assertThat(documentCache.isCacheable(DOCUMENT_SELF_LINK), is(false));
+    }
+
+    @Test
+    public void testEnabled() {
+      documentCache.enable(FACTORY_LINK);
+      assertThat(documentCache.isCacheable(DOCUMENT_SELF_LINK), is(true));
+      assertThat(documentCache.isCacheable(FACTORY_LINK + "-other/document"), is(false));
+    }
+  }
+
+  /**
+   * Tests for reading and writing cache entries.
+   */
+  public class GetAndPutTest {
+
+    @BeforeMethod
+    public void setUp() {
+      documentCache = new DocumentCache();
+      documentCache.enable(FACTORY_LINK);
+    }
+
+    @Test
+    public void testHitAndMiss() {
+      long hits = DefaultMetricRegistry.REGISTRY.meter(DocumentCache.HITS_METRIC).getCount();
+      long misses = DefaultMetricRegistry.REGISTRY.meter(DocumentCache.MISSES_METRIC).getCount();
+
+      assertThat(documentCache.get(DOCUMENT_SELF_LINK), nullValue());
+      documentCache.put(DOCUMENT_SELF_LINK, 1, "{\"v\":1}", documentCache.getEpoch());
+      assertThat(documentCache.get(DOCUMENT_SELF_LINK), is("{\"v\":1}"));
+
+      assertThat(DefaultMetricRegistry.REGISTRY.meter(DocumentCache.HITS_METRIC).getCount(), is(hits + 1));
+      assertThat(DefaultMetricRegistry.REGISTRY.meter(DocumentCache.MISSES_METRIC).getCount(), is(misses + 1));
+    }
+
+    @Test
+    public void testOlderVersionIsIgnored() {
+      documentCache.put(DOCUMENT_SELF_LINK, 2, "{\"v\":2}", documentCache.getEpoch());
+      documentCache.put(DOCUMENT_SELF_LINK, 1, "{\"v\":1}", documentCache.getEpoch());
+      assertThat(documentCache.get(DOCUMENT_SELF_LINK), is("{\"v\":2}"));
+
+      documentCache.put(DOCUMENT_SELF_LINK, 3, "{\"v\":3}", documentCache.getEpoch());
+      assertThat(documentCache.get(DOCUMENT_SELF_LINK), is("{\"v\":3}"));
+    }
+
+    @Test
+    public void testInvalidate() {
+      documentCache.put(DOCUMENT_SELF_LINK, 1, "{\"v\":1}", documentCache.getEpoch());
+      documentCache.invalidate(DOCUMENT_SELF_LINK);
+      assertThat(documentCache.get(DOCUMENT_SELF_LINK), nullValue());
+    }
+
+    @Test
+    public void testReadInFlightDuringWriteIsNotCached() {
+      long epoch = documentCache.getEpoch();
+      documentCache.invalidate(DOCUMENT_SELF_LINK);
+      documentCache.put(DOCUMENT_SELF_LINK, 1, "{\"v\":1}", epoch);
+      assertThat(documentCache.get(DOCUMENT_SELF_LINK), nullValue());
+    }
+
+    @Test
+    public void testExpiration() throws Throwable {
+      documentCache = new DocumentCache(10, 1);
+      documentCache.put(DOCUMENT_SELF_LINK, 1, "{\"v\":1}", documentCache.getEpoch());
+      Thread.sleep(10);
+      assertThat(documentCache.get(DOCUMENT_SELF_LINK), nullValue());
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.common.dcp;
+
+import com.vmware.photon.controller.common.metrics.DefaultMetricRegistry;
+import com.vmware.xenon.services.common.NodeGroupService;
+import com.vmware.xenon.services.common.NodeState;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.isOneOf;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Tests {@link DocumentOwnerSelector}.
+ */
+public class DocumentOwnerSelectorTest {
+
+  private static final String DOCUMENT_SELF_LINK = "/photon/cloudstore/vms/vm-1";
+
+  private DocumentOwnerSelector selector;
+  private List<InetSocketAddress> servers;
+
+  /**
+   * Dummy test case to make Intellij recognize this as a test class.
+   */
+  @Test
+  private void dummy() {
+  }
+
+  private NodeGroupService.NodeGroupState buildNodeGroupState(long membershipUpdateTimeMicros, String... nodeIds) {
+    NodeGroupService.NodeGroupState nodeGroupState = new NodeGroupService.NodeGroupState();
+    nodeGroupState.nodes = new HashMap<>();
+    nodeGroupState.membershipUpdateTimeMicros = membershipUpdateTimeMicros;
+    for (int i = 0; i < nodeIds.length; i++) {
+      NodeState nodeState = new NodeState();
+      nodeState.id = nodeIds[i];
+      nodeState.status = NodeState.NodeStatus.AVAILABLE;
+      nodeState.groupReference = URI.create("http://127.0.0.1:" + (19000 + i) + "/core/node-groups/default");
+      nodeGroupState.nodes.put(nodeState.id, nodeState);
+    }
+    return nodeGroupState;
+  }
+
+  /**
+   * Tests for the selectOwner method.
+   */
+  public class SelectOwnerTest {
+
+    @BeforeMethod
+    public void setUp() {
+      selector = new DocumentOwnerSelector();
+      servers = ImmutableList.of(
+          new InetSocketAddress("127.0.0.1", 19000),
+          new InetSocketAddress("127.0.0.1", 19001),
+          new InetSocketAddress("127.0.0.1", 19002));
+    }
+
+    @Test
+    public void testWithoutMembership() {
+      assertThat(selector.isMembershipStale(), is(true));
+      assertThat(selector.selectOwner(DOCUMENT_SELF_LINK), nullValue());
+    }
+
+    @Test
+    public void testPredictedOwnerIsStable() {
+      selector.updateMembership(buildNodeGroupState(1, "node-0", "node-1", "node-2"), servers);
+      assertThat(selector.isMembershipStale(), is(false));
+
+      InetSocketAddress owner = selector.selectOwner(DOCUMENT_SELF_LINK);
+      assertThat(owner, notNullValue());
+      assertThat(owner, isOneOf(servers.toArray()));
+      assertThat(selector.selectOwner(DOCUMENT_SELF_LINK), is(owner));
+    }
+
+    @Test
+    public void testUnmatchedNodesAreIgnored() {
+      selector.updateMembership(buildNodeGroupState(1, "node-0", "node-1", "node-2"),
+          ImmutableList.of(new InetSocketAddress("127.0.0.1", 19001)));
+
+      assertThat(selector.selectOwner(DOCUMENT_SELF_LINK), is(new InetSocketAddress("127.0.0.1", 19001)));
+    }
+
+    @Test
+    public void testLearnedOwnerOverridesPrediction() {
+      selector.updateMembership(buildNodeGroupState(1, "node-0", "node-1", "node-2"), servers);
+      InetSocketAddress predicted = selector.selectOwner(DOCUMENT_SELF_LINK);
+      String actualOwner = predicted.equals(servers.get(0)) ? "node-1" : "node-0";
+      InetSocketAddress actualOwnerAddress = predicted.equals(servers.get(0)) ? servers.get(1) : servers.get(0);
+
+      long forwarded = DefaultMetricRegistry.REGISTRY.meter(
+          DocumentOwnerSelector.FORWARDED_REQUESTS_METRIC).getCount();
+      selector.recordOwner(DOCUMENT_SELF_LINK, predicted, actualOwner);
+      assertThat(DefaultMetricRegistry.REGISTRY.meter(
+          DocumentOwnerSelector.FORWARDED_REQUESTS_METRIC).getCount(), is(forwarded + 1));
+      assertThat(selector.selectOwner(DOCUMENT_SELF_LINK), is(actualOwnerAddress));
+
+      long direct = DefaultMetricRegistry.REGISTRY.meter(
+          DocumentOwnerSelector.DIRECT_REQUESTS_METRIC).getCount();
+      selector.recordOwner(DOCUMENT_SELF_LINK, actualOwnerAddress, actualOwner);
+      assertThat(DefaultMetricRegistry.REGISTRY.meter(
+          DocumentOwnerSelector.DIRECT_REQUESTS_METRIC).getCount(), is(direct + 1));
+    }
+
+    @Test
+    public void testMembershipChangeDropsLearnedOwners() {
+      selector.updateMembership(buildNodeGroupState(1, "node-0", "node-1", "node-2"), servers);
+      InetSocketAddress predicted = selector.selectOwner(DOCUMENT_SELF_LINK);
+      String otherOwner = predicted.equals(servers.get(0)) ? "node-1" : "node-0";
+      selector.recordOwner(DOCUMENT_SELF_LINK, predicted, otherOwner);
+
+      selector.updateMembership(buildNodeGroupState(2, "node-0", "node-1", "node-2"), servers);
+      assertThat(selector.selectOwner(DOCUMENT_SELF_LINK), is(predicted));
+    }
+
+    @Test
+    public void testInvalidate() {
+      selector.updateMembership(buildNodeGroupState(1, "node-0", "node-1", "node-2"), servers);
+      selector.invalidate();
+
+      assertThat(selector.isMembershipStale(), is(true));
+      assertThat(selector.selectOwner(DOCUMENT_SELF_LINK), nullValue());
+    }
+  }
+
+  /**
+   * Tests for the computeOwner method.
+   */
+  public class ComputeOwnerTest {
+
+    @Test
+    public void testSingleNode() {
+      assertThat(DocumentOwnerSelector.computeOwner(DOCUMENT_SELF_LINK, ImmutableList.of("node-0")), is("node-0"));
+    }
+
+    @Test
+    public void testIndependentOfNodeOrder() {
+      String owner = DocumentOwnerSelector.computeOwner(DOCUMENT_SELF_LINK,
+          ImmutableList.of("node-0", "node-1", "node-2"));
+      assertThat(DocumentOwnerSelector.computeOwner(DOCUMENT_SELF_LINK,
+          ImmutableList.of("node-2", "node-0", "node-1")), is(owner));
+    }
+  }
+}
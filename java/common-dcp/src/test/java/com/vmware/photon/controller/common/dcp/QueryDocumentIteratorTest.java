@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.common.dcp;
+
+import com.vmware.photon.controller.common.dcp.exceptions.DcpRuntimeException;
+import com.vmware.photon.controller.common.dcp.exceptions.DocumentNotFoundException;
+import com.vmware.xenon.common.ServiceDocumentQueryResult;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.ExampleService;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+
+/**
+ * Tests {@link QueryDocumentIterator}.
+ */
+public class QueryDocumentIteratorTest {
+
+  private Map<String, ServiceDocumentQueryResult> pages;
+  private List<String> fetchedPageLinks;
+
+  /**
+   * Dummy test case to make Intellij recognize this as a test class.
+   */
+  @Test
+  private void dummy() {
+  }
+
+  private ServiceDocumentQueryResult buildPage(String nextPageLink, String... names) {
+    ServiceDocumentQueryResult page = new ServiceDocumentQueryResult();
+    page.documentLinks = new ArrayList<>();
+    page.documents = new HashMap<>();
+    page.nextPageLink = nextPageLink;
+    for (String name : names) {
+      ExampleService.ExampleServiceState state = new ExampleService.ExampleServiceState();
+      state.name = name;
+      state.documentSelfLink = "/examples/" + name;
+      page.documentLinks.add(state.documentSelfLink);
+      page.documents.put(state.documentSelfLink, Utils.toJson(state));
+    }
+    return page;
+  }
+
+  private QueryDocumentIterator.PendingPage fetch(String pageLink) {
+    fetchedPageLinks.add(pageLink);
+    return () -> {
+      ServiceDocumentQueryResult page = pages.get(pageLink);
+      if (page == null) {
+        throw new DocumentNotFoundException(null, null);
+      }
+      return page;
+    };
+  }
+
+  /**
+   * Tests for iterating over the documents.
+   */
+  public class IterationTest {
+
+    @BeforeMethod
+    public void setUp() {
+      pages = new HashMap<>();
+      fetchedPageLinks = new ArrayList<>();
+    }
+
+    @Test
+    public void testSinglePage() {
+      QueryDocumentIterator<ExampleService.ExampleServiceState> iterator = new QueryDocumentIterator<>(
+          ExampleService.ExampleServiceState.class, buildPage(null, "a", "b"), QueryDocumentIteratorTest.this::fetch);
+
+      List<String> names = iterator.stream().map(d -> d.name).collect(Collectors.toList());
+      assertThat(names, contains("a", "b"));
+      assertThat(fetchedPageLinks.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testMultiplePages() {
+      pages.put("page-2", buildPage("page-3"));
+      pages.put("page-3", buildPage(null, "c"));
+
+      QueryDocumentIterator<ExampleService.ExampleServiceState> iterator = new QueryDocumentIterator<>(
+          ExampleService.ExampleServiceState.class, buildPage("page-2", "a", "b"),
+          QueryDocumentIteratorTest.this::fetch);
+
+      // the second page is requested as soon as the first one is handed out.
+      assertThat(fetchedPageLinks, contains("page-2"));
+
+      List<String> names = iterator.stream().map(d -> d.name).collect(Collectors.toList());
+      assertThat(names, contains("a", "b", "c"));
+      assertThat(fetchedPageLinks, contains("page-2", "page-3"));
+      assertThat(iterator.hasNext(), is(false));
+    }
+
+    @Test
+    public void testEmptyResult() {
+      QueryDocumentIterator<ExampleService.ExampleServiceState> iterator = new QueryDocumentIterator<>(
+          ExampleService.ExampleServiceState.class, new ServiceDocumentQueryResult(),
+          QueryDocumentIteratorTest.this::fetch);
+
+      assertThat(iterator.hasNext(), is(false));
+    }
+
+    @Test(expectedExceptions = NoSuchElementException.class)
+    public void testNextPastEnd() {
+      QueryDocumentIterator<ExampleService.ExampleServiceState> iterator = new QueryDocumentIterator<>(
+          ExampleService.ExampleServiceState.class, buildPage(null, "a"), QueryDocumentIteratorTest.this::fetch);
+
+      iterator.next();
+      iterator.next();
+    }
+
+    @Test(expectedExceptions = DcpRuntimeException.class)
+    public void testPageRetrievalFailure() {
+      QueryDocumentIterator<ExampleService.ExampleServiceState> iterator = new QueryDocumentIterator<>(
+          ExampleService.ExampleServiceState.class, buildPage("missing-page", "a"),
+          QueryDocumentIteratorTest.this::fetch);
+
+      iterator.next();
+      iterator.hasNext();
+    }
+  }
+}
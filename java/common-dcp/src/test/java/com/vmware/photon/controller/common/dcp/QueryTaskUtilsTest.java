@@ -13,14 +13,20 @@
 
 package com.vmware.photon.controller.common.dcp;
 
+import com.vmware.photon.controller.common.dcp.exceptions.DcpRuntimeException;
 import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentQueryResult;
+import com.vmware.xenon.common.ServiceErrorResponse;
 import com.vmware.xenon.common.TaskState;
 import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.ExampleService;
+import com.vmware.xenon.services.common.NodeGroupBroadcastResponse;
 import com.vmware.xenon.services.common.QueryTask;
 
 import com.google.common.collect.ImmutableMap;
 import org.testng.annotations.Test;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
@@ -28,6 +34,12 @@ import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.Matchers.startsWith;
 import static org.testng.Assert.fail;
 
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -419,4 +431,66 @@ public class QueryTaskUtilsTest {
       QueryTaskUtils.buildQuerySpec(null, termsBuilder.build());
     }
   }
+
+  /**
+   * Tests the getProjectedBroadcastQueryDocuments method.
+   */
+  public class GetProjectedBroadcastQueryDocumentsTest {
+
+    private String buildQueryTaskJson(String queryTaskOwner, String... documentOwners) {
+      QueryTask queryTask = new QueryTask();
+      queryTask.documentOwner = queryTaskOwner;
+      queryTask.results = new ServiceDocumentQueryResult();
+      queryTask.results.documentLinks = new ArrayList<>();
+      queryTask.results.documents = new HashMap<>();
+      for (int i = 0; i < documentOwners.length; i++) {
+        ExampleService.ExampleServiceState document = new ExampleService.ExampleServiceState();
+        document.name = "document-" + i;
+        document.counter = (long) i;
+        document.documentOwner = documentOwners[i];
+        document.documentSelfLink = "/examples/document-" + i;
+        queryTask.results.documentLinks.add(document.documentSelfLink);
+        queryTask.results.documents.put(document.documentSelfLink, document);
+      }
+
+      return Utils.toJson(queryTask);
+    }
+
+    @Test
+    public void testProjectsOwnedDocuments() {
+      NodeGroupBroadcastResponse response = new NodeGroupBroadcastResponse();
+      response.failures = new HashMap<>();
+      response.jsonResponses = new HashMap<>();
+      response.jsonResponses.put(URI.create("http://node-1"), buildQueryTaskJson("node-1", "node-1", "node-2"));
+      response.jsonResponses.put(URI.create("http://node-2"), buildQueryTaskJson("node-2", "node-1", "node-2"));
+
+      List<NameView> views = QueryTaskUtils.getProjectedBroadcastQueryDocuments(NameView.class, response);
+
+      assertThat(views.size(), is(2));
+      Set<String> names = new HashSet<>();
+      for (NameView view : views) {
+        names.add(view.name);
+        assertThat(view.documentSelfLink, is("/examples/" + view.name));
+      }
+      assertThat(names, containsInAnyOrder("document-0", "document-1"));
+    }
+
+    @Test(expectedExceptions = DcpRuntimeException.class)
+    public void testFailuresAreReported() {
+      NodeGroupBroadcastResponse response = new NodeGroupBroadcastResponse();
+      response.jsonResponses = new HashMap<>();
+      response.failures = new HashMap<>();
+      response.failures.put(URI.create("http://node-1"), new ServiceErrorResponse());
+
+      QueryTaskUtils.getProjectedBroadcastQueryDocuments(NameView.class, response);
+    }
+  }
+
+  /**
+   * View with a subset of the fields of an example document.
+   */
+  public static class NameView {
+    public String documentSelfLink;
+    public String name;
+  }
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.common.dcp;
+
+import com.vmware.photon.controller.common.dcp.exceptions.DocumentNotFoundException;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.services.common.ExampleService;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.testng.Assert.fail;
+
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link ReadCoalescer}.
+ */
+public class ReadCoalescerTest {
+
+  private static final String KEY = "GET /examples/example-1";
+
+  private ReadCoalescer readCoalescer;
+  private ExecutorService executor;
+  private AtomicInteger executions;
+  private CountDownLatch readStarted;
+  private CountDownLatch releaseRead;
+
+  /**
+   * Dummy test case to make Intellij recognize this as a test class.
+   */
+  @Test
+  private void dummy() {
+  }
+
+  private Operation blockingRead() throws InterruptedException {
+    executions.incrementAndGet();
+    readStarted.countDown();
+    releaseRead.await();
+
+    return Operation
+        .createGet(URI.create("http://127.0.0.1:19000/examples/example-1"))
+        .setStatusCode(Operation.STATUS_CODE_OK)
+        .setContentType(Operation.MEDIA_TYPE_APPLICATION_JSON)
+        .setBody("{\"name\":\"example-1\"}");
+  }
+
+  private Future<Operation> submitRead(ReadCoalescer.Read read) {
+    return executor.submit(() -> {
+      try {
+        return readCoalescer.read(KEY, read);
+      } catch (Throwable t) {
+        throw new Exception(t);
+      }
+    });
+  }
+
+  /**
+   * Tests for the read method.
+   */
+  public class ReadTest {
+
+    @BeforeMethod
+    public void setUp() {
+      readCoalescer = new ReadCoalescer();
+      executor = Executors.newFixedThreadPool(2);
+      executions = new AtomicInteger();
+      readStarted = new CountDownLatch(1);
+      releaseRead = new CountDownLatch(1);
+    }
+
+    @Test
+    public void testConcurrentReadsShareOperation() throws Throwable {
+      Future<Operation> first = submitRead(ReadCoalescerTest.this::blockingRead);
+      readStarted.await(5, TimeUnit.SECONDS);
+      Future<Operation> second = submitRead(ReadCoalescerTest.this::blockingRead);
+
+      // give the second read time to join the one in flight.
+      Thread.sleep(100);
+      releaseRead.countDown();
+
+      Operation firstResult = first.get(5, TimeUnit.SECONDS);
+      Operation secondResult = second.get(5, TimeUnit.SECONDS);
+      assertThat(executions.get(), is(1));
+      assertThat(secondResult, not(sameInstance(firstResult)));
+      assertThat(secondResult.getStatusCode(), is(Operation.STATUS_CODE_OK));
+      assertThat(secondResult.getBody(ExampleService.ExampleServiceState.class).name, is("example-1"));
+      executor.shutdown();
+    }
+
+    @Test
+    public void testReadAfterWriteDoesNotJoin() throws Throwable {
+      Future<Operation> first = submitRead(ReadCoalescerTest.this::blockingRead);
+      readStarted.await(5, TimeUnit.SECONDS);
+      readCoalescer.recordWrite();
+      Future<Operation> second = submitRead(ReadCoalescerTest.this::blockingRead);
+
+      Thread.sleep(100);
+      releaseRead.countDown();
+
+      first.get(5, TimeUnit.SECONDS);
+      second.get(5, TimeUnit.SECONDS);
+      assertThat(executions.get(), is(2));
+      executor.shutdown();
+    }
+
+    @Test
+    public void testSequentialReadsAreNotShared() throws Throwable {
+      releaseRead.countDown();
+      readCoalescer.read(KEY, ReadCoalescerTest.this::blockingRead);
+      readCoalescer.read(KEY, ReadCoalescerTest.this::blockingRead);
+      assertThat(executions.get(), is(2));
+      executor.shutdown();
+    }
+
+    @Test
+    public void testFailureIsShared() throws Throwable {
+      Future<Operation> first = submitRead(() -> {
+        readStarted.countDown();
+        releaseRead.await();
+        throw new DocumentNotFoundException(null, null);
+      });
+      readStarted.await(5, TimeUnit.SECONDS);
+      Future<Operation> second = submitRead(ReadCoalescerTest.this::blockingRead);
+
+      Thread.sleep(100);
+      releaseRead.countDown();
+
+      for (Future<Operation> future : ImmutableList.of(first, second)) {
+        try {
+          future.get(5, TimeUnit.SECONDS);
+          fail("Read should have failed");
+        } catch (ExecutionException e) {
+          assertThat(e.getCause().getCause(), instanceOf(DocumentNotFoundException.class));
+        }
+      }
+      assertThat(executions.get(), is(0));
+      executor.shutdown();
+    }
+
+    @Test
+    public void testAwaitTimeoutSendsOwnRead() throws Throwable {
+      readCoalescer = new ReadCoalescer(50);
+      Future<Operation> first = submitRead(ReadCoalescerTest.this::blockingRead);
+      readStarted.await(5, TimeUnit.SECONDS);
+
+      // the shared read never completes in time, the second caller sends its own.
+      Operation secondResult = readCoalescer.read(KEY, () -> {
+        executions.incrementAndGet();
+        return Operation.createGet(URI.create("http://127.0.0.1:19000/examples/example-1"));
+      });
+      assertThat(secondResult, notNullValue());
+      assertThat(executions.get(), is(2));
+
+      releaseRead.countDown();
+      first.get(5, TimeUnit.SECONDS);
+      executor.shutdown();
+    }
+
+    @Test
+    public void testDifferentIdentitiesAreNotShared() throws Throwable {
+      Future<Operation> first = executor.submit(() -> readCoalescer.read(KEY, () -> "query-1",
+          ReadCoalescerTest.this::blockingRead));
+      readStarted.await(5, TimeUnit.SECONDS);
+      Future<Operation> second = executor.submit(() -> readCoalescer.read(KEY, () -> "query-2",
+          ReadCoalescerTest.this::blockingRead));
+
+      Thread.sleep(100);
+      releaseRead.countDown();
+
+      first.get(5, TimeUnit.SECONDS);
+      second.get(5, TimeUnit.SECONDS);
+      assertThat(executions.get(), is(2));
+      executor.shutdown();
+    }
+
+    @Test
+    public void testIdentityIsOnlyComputedForFollowers() throws Throwable {
+      AtomicInteger identities = new AtomicInteger();
+      releaseRead.countDown();
+      readCoalescer.read(KEY, () -> "query-" + identities.incrementAndGet(), ReadCoalescerTest.this::blockingRead);
+      assertThat(identities.get(), is(0));
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.common.dcp;
+
+import com.google.common.base.Ticker;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class implements tests for {@link TokenBucketRateLimiter}.
+ */
+public class TokenBucketRateLimiterTest {
+
+  private long nowNanos;
+
+  private TokenBucketRateLimiter rateLimiter;
+
+  @Test
+  private void dummy() {
+  }
+
+  @BeforeMethod
+  public void setUp() {
+    nowNanos = 0L;
+    rateLimiter = new TokenBucketRateLimiter(10.0, new Ticker() {
+      @Override
+      public long read() {
+        return nowNanos;
+      }
+    });
+  }
+
+  @Test
+  public void testReserveWithinBurst() {
+    assertThat(rateLimiter.reserve(5), is(0L));
+    assertThat(rateLimiter.reserve(5), is(0L));
+  }
+
+  @Test
+  public void testReserveBeyondBurstIsDelayed() {
+    assertThat(rateLimiter.reserve(10), is(0L));
+    assertThat(rateLimiter.reserve(5), is(TimeUnit.MILLISECONDS.toMicros(500)));
+    assertThat(rateLimiter.reserve(5), is(TimeUnit.SECONDS.toMicros(1)));
+  }
+
+  @Test
+  public void testPermitsAreRefilled() {
+    assertThat(rateLimiter.reserve(10), is(0L));
+    nowNanos += TimeUnit.MILLISECONDS.toNanos(500);
+    assertThat(rateLimiter.reserve(5), is(0L));
+    assertThat(rateLimiter.reserve(1), is(TimeUnit.MILLISECONDS.toMicros(100)));
+  }
+
+  @Test
+  public void testRefillIsCappedAtOneSecond() {
+    nowNanos += TimeUnit.SECONDS.toNanos(10);
+    assertThat(rateLimiter.reserve(10), is(0L));
+    assertThat(rateLimiter.reserve(10), is(TimeUnit.SECONDS.toMicros(1)));
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testNonPositiveRateIsRejected() {
+    new TokenBucketRateLimiter(0.0);
+  }
+}
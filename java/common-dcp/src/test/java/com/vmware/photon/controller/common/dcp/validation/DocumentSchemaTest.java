@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.common.dcp.validation;
+
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.TaskState;
+
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.testng.Assert.fail;
+
+/**
+ * This class implements tests for {@link DocumentSchema}.
+ */
+public class DocumentSchemaTest {
+
+  @Test
+  public void returnsCachedSchema() {
+    assertThat(DocumentSchema.of(AnnotatedDocument.class), sameInstance(DocumentSchema.of(AnnotatedDocument.class)));
+  }
+
+  @Test
+  public void passesOnValidDocument() {
+    DocumentSchema.of(AnnotatedDocument.class).validateState(createValidDocument());
+  }
+
+  @Test
+  public void reportsFailuresInValidatorOrder() {
+    AnnotatedDocument document = createValidDocument();
+    document.positiveValue = -1;
+    document.notNullValue = null;
+
+    try {
+      DocumentSchema.of(AnnotatedDocument.class).validateState(document);
+      fail("validateState should fail");
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage(), is("notNullValue cannot be null"));
+    }
+  }
+
+  @Test
+  public void reportsRangeFailure() {
+    AnnotatedDocument document = createValidDocument();
+    document.rangeValue = 11L;
+
+    try {
+      DocumentSchema.of(AnnotatedDocument.class).validateState(document);
+      fail("validateState should fail");
+    } catch (IllegalStateException e) {
+      assertThat(e.getMessage(), is("rangeValue is not within range 1, 10"));
+    }
+  }
+
+  @Test
+  public void initializesDefaults() {
+    AnnotatedDocument document = new AnnotatedDocument();
+    DocumentSchema.of(AnnotatedDocument.class).initialize(document);
+
+    assertThat(document.booleanValue, is(true));
+    assertThat(document.uuidValue, notNullValue());
+    assertThat(document.taskState.stage, is(TaskState.TaskStage.CREATED));
+  }
+
+  @Test
+  public void initializesSingleDefault() {
+    AnnotatedDocument document = new AnnotatedDocument();
+    DocumentSchema.of(AnnotatedDocument.class).initialize(document, DefaultBoolean.class);
+
+    assertThat(document.booleanValue, is(true));
+    assertThat(document.uuidValue == null, is(true));
+  }
+
+  @Test
+  public void patchesMutableFields() {
+    AnnotatedDocument current = createValidDocument();
+    AnnotatedDocument patch = new AnnotatedDocument();
+    patch.immutableValue = "changed";
+    patch.positiveValue = 5;
+
+    DocumentSchema.of(AnnotatedDocument.class).patchState(current, patch);
+
+    assertThat(current.immutableValue, is("immutable"));
+    assertThat(current.positiveValue, is(5));
+    assertThat(current.notNullValue, is("value"));
+  }
+
+  private AnnotatedDocument createValidDocument() {
+    AnnotatedDocument document = new AnnotatedDocument();
+    document.notNullValue = "value";
+    document.positiveValue = 1;
+    document.rangeValue = 5L;
+    document.immutableValue = "immutable";
+    return document;
+  }
+
+  /**
+   * Test ServiceDocument.
+   */
+  public static class AnnotatedDocument extends ServiceDocument {
+    @NotNull
+    public String notNullValue;
+
+    @Positive
+    public Integer positiveValue;
+
+    @Range(min = 1, max = 10)
+    public Long rangeValue;
+
+    @Immutable
+    public String immutableValue;
+
+    @DefaultBoolean(true)
+    public Boolean booleanValue;
+
+    @DefaultUuid
+    public String uuidValue;
+
+    @DefaultTaskState(TaskState.TaskStage.CREATED)
+    public TaskState taskState;
+  }
+}
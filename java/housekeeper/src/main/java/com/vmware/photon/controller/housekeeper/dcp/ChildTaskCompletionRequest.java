@@ -0,0 +1,198 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.housekeeper.dcp;
+
+import com.vmware.photon.controller.common.dcp.QueryTaskUtils;
+import com.vmware.photon.controller.common.dcp.ServiceUtils;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.OperationJoin;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceDocumentQueryResult;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.LuceneQueryTaskFactoryService;
+import com.vmware.xenon.services.common.QueryTask;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The patch a child task sends to its parent when it reaches a final stage. The parent keeps count of its
+ * completed children from these patches instead of querying for them.
+ */
+public class ChildTaskCompletionRequest {
+
+  /**
+   * Number of attempts to notify a parent before the notification is given up.
+   */
+  public static final int MAX_NOTIFICATION_ATTEMPTS = 5;
+
+  /**
+   * Delay before the first retry of a failed notification, doubled for every further retry.
+   */
+  public static final long INITIAL_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+  private static final String BYTES_TRANSFERRED_FIELD_NAME = "bytesTransferred";
+
+  private static final TaskState.TaskStage[] FINAL_STAGES = {
+      TaskState.TaskStage.FINISHED,
+      TaskState.TaskStage.FAILED,
+      TaskState.TaskStage.CANCELLED};
+
+  /**
+   * Kind of the request, used to route the patch on the parent.
+   */
+  public enum Kind {
+    CHILD_TASK_COMPLETED
+  }
+
+  public Kind kind;
+
+  /**
+   * Link of the child task.
+   */
+  public String childLink;
+
+  /**
+   * The final stage of the child task.
+   */
+  public TaskState.TaskStage stage;
+
+  /**
+   * Number of bytes transferred by the child task, if the child task transfers data.
+   */
+  public Long bytesTransferred;
+
+  /**
+   * Notifies the parent of a child task about the final stage of the child. Failed notifications are retried with
+   * a growing delay, a parent that still misses a notification finds the child with its fallback query, see
+   * {@link #sendMissed}.
+   *
+   * @param child
+   * @param parentLink
+   * @param stage
+   */
+  public static void send(final Service child, String parentLink, TaskState.TaskStage stage) {
+    send(child, parentLink, stage, null);
+  }
+
+  /**
+   * Notifies the parent of a child task about the final stage of the child and the bytes it transferred.
+   *
+   * @param child
+   * @param parentLink
+   * @param stage
+   * @param bytesTransferred
+   */
+  public static void send(final Service child, String parentLink, TaskState.TaskStage stage, Long bytesTransferred) {
+    if (parentLink == null) {
+      return;
+    }
+
+    ChildTaskCompletionRequest request = new ChildTaskCompletionRequest();
+    request.kind = Kind.CHILD_TASK_COMPLETED;
+    request.childLink = child.getSelfLink();
+    request.stage = stage;
+    request.bytesTransferred = bytesTransferred;
+
+    send(child, parentLink, request, 1);
+  }
+
+  /**
+   * Queries the children of a parent task in a final stage and notifies the parent of the children whose
+   * notification it has not received. The parent counts a child once, so a notification which arrives after the
+   * query does no harm. A failed query is only logged, the parent repeats the query.
+   *
+   * @param parent
+   * @param notifiedChildLinks links of the children whose notification the parent has received
+   * @param childClasses state classes of the children
+   */
+  public static void sendMissed(final Service parent, Set<String> notifiedChildLinks, Class... childClasses) {
+    List<Operation> queries = new ArrayList<>();
+    Map<Long, TaskState.TaskStage> queryStages = new HashMap<>();
+    for (Class childClass : childClasses) {
+      for (TaskState.TaskStage stage : FINAL_STAGES) {
+        QueryTask.QuerySpecification spec =
+            QueryTaskUtils.buildChildServiceTaskStatusQuerySpec(parent.getSelfLink(), childClass, stage);
+        spec.options = EnumSet.of(QueryTask.QuerySpecification.QueryOption.EXPAND_CONTENT);
+
+        Operation query = Operation
+            .createPost(UriUtils.buildUri(parent.getHost(), LuceneQueryTaskFactoryService.SELF_LINK))
+            .setBody(QueryTask.create(spec).setDirect(true));
+        queries.add(query);
+        queryStages.put(query.getId(), stage);
+      }
+    }
+
+    OperationJoin join = OperationJoin.create(queries);
+    join.setCompletion((ops, failures) -> {
+      if (failures != null && !failures.isEmpty()) {
+        ServiceUtils.logWarning(parent, "Failed to query completed children: %s",
+            failures.values().iterator().next().toString());
+        return;
+      }
+
+      for (Operation op : ops.values()) {
+        ServiceDocumentQueryResult results = op.getBody(QueryTask.class).results;
+        for (String childLink : results.documentLinks) {
+          if (notifiedChildLinks != null && notifiedChildLinks.contains(childLink)) {
+            continue;
+          }
+
+          ServiceUtils.logInfo(parent, "Completion of child %s was not notified", childLink);
+          ChildTaskCompletionRequest request = new ChildTaskCompletionRequest();
+          request.kind = Kind.CHILD_TASK_COMPLETED;
+          request.childLink = childLink;
+          request.stage = queryStages.get(op.getId());
+          if (results.documents != null && results.documents.containsKey(childLink)) {
+            request.bytesTransferred = Utils.getJsonMapValue(
+                results.documents.get(childLink), BYTES_TRANSFERRED_FIELD_NAME, Long.class);
+          }
+
+          send(parent, parent.getSelfLink(), request, 1);
+        }
+      }
+    });
+    join.sendWith(parent);
+  }
+
+  private static void send(final Service sender, String parentLink, ChildTaskCompletionRequest request,
+                           int attempt) {
+    sender.sendRequest(Operation
+        .createPatch(UriUtils.buildUri(sender.getHost(), parentLink))
+        .setBody(request)
+        .setCompletion((operation, throwable) -> {
+          if (throwable == null) {
+            return;
+          }
+
+          if (attempt >= MAX_NOTIFICATION_ATTEMPTS || operation.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND) {
+            ServiceUtils.logWarning(sender, "Failed to notify parent %s: %s", parentLink, throwable.toString());
+            return;
+          }
+
+          long delayMillis = INITIAL_RETRY_DELAY_MILLIS << (attempt - 1);
+          ServiceUtils.logInfo(sender, "Failed to notify parent %s, retrying in %d ms: %s", parentLink, delayMillis,
+              throwable.toString());
+          sender.getHost().schedule(() -> send(sender, parentLink, request, attempt + 1), delayMillis,
+              TimeUnit.MILLISECONDS);
+        }));
+  }
+}
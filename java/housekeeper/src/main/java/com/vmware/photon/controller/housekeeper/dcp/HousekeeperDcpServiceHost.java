@@ -53,11 +53,15 @@ public class HousekeeperDcpServiceHost
 
   protected static final String IMAGE_COPY_SCHEDULER_SERVICE =
       TaskSchedulerServiceFactory.SELF_LINK + "/image-copy";
+  protected static final String IMAGE_HOST_TO_HOST_COPY_SCHEDULER_SERVICE =
+      TaskSchedulerServiceFactory.SELF_LINK + "/image-host-to-host-copy";
   protected static final String IMAGE_DELETE_SCHEDULER_SERVICE =
       TaskSchedulerServiceFactory.SELF_LINK + "/image-delete";
 
   private static final Map<String, TaskSchedulerServiceStateBuilder> TASK_SCHEDULERS = ImmutableMap.of(
       IMAGE_COPY_SCHEDULER_SERVICE, new TaskSchedulerServiceStateBuilder(ImageCopyService.class, 10),
+      IMAGE_HOST_TO_HOST_COPY_SCHEDULER_SERVICE,
+      new TaskSchedulerServiceStateBuilder(ImageHostToHostCopyService.class, 10),
       IMAGE_DELETE_SCHEDULER_SERVICE, new TaskSchedulerServiceStateBuilder(ImageDeleteService.class, 10)
   );
 
@@ -66,6 +70,7 @@ public class HousekeeperDcpServiceHost
   private static final Class[] FACTORY_SERVICES = {
       ImageReplicatorServiceFactory.class,
       ImageCopyServiceFactory.class,
+      ImageHostToHostCopyServiceFactory.class,
 
       ImageRemoverServiceFactory.class,
       ImageCleanerTriggerServiceFactory.class,
@@ -150,6 +155,7 @@ public class HousekeeperDcpServiceHost
 
     return checkServiceAvailable(ImageReplicatorServiceFactory.SELF_LINK)
         && checkServiceAvailable(ImageCopyServiceFactory.SELF_LINK)
+        && checkServiceAvailable(ImageHostToHostCopyServiceFactory.SELF_LINK)
 
         && checkServiceAvailable(ImageRemoverServiceFactory.SELF_LINK)
         && checkServiceAvailable(ImageCleanerTriggerServiceFactory.SELF_LINK)
@@ -13,37 +13,58 @@
 
 package com.vmware.photon.controller.housekeeper.dcp;
 
+import com.vmware.photon.controller.cloudstore.dcp.entity.ImageService;
 import com.vmware.photon.controller.common.clients.HostClient;
 import com.vmware.photon.controller.common.clients.HostClientProvider;
 import com.vmware.photon.controller.common.clients.exceptions.RpcException;
 import com.vmware.photon.controller.common.dcp.OperationUtils;
+import com.vmware.photon.controller.common.dcp.CloudStoreHelper;
 import com.vmware.photon.controller.common.dcp.QueryTaskUtils;
+import com.vmware.photon.controller.common.dcp.ServiceUriPaths;
 import com.vmware.photon.controller.common.dcp.ServiceUtils;
 import com.vmware.photon.controller.common.zookeeper.ZookeeperHostMonitor;
 import com.vmware.photon.controller.host.gen.HostConfig;
 import com.vmware.photon.controller.housekeeper.zookeeper.ZookeeperHostMonitorProvider;
 import com.vmware.photon.controller.resource.gen.Datastore;
 import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.OperationProcessingChain;
+import com.vmware.xenon.common.RequestRouter;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.StatefulService;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.LuceneQueryTaskFactoryService;
+import com.vmware.xenon.services.common.NodeGroupBroadcastResponse;
 import com.vmware.xenon.services.common.QueryTask;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
 import org.apache.commons.lang3.StringUtils;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Class implementing ImageCleanerService: orchestrate the deletion of all images not present in the shared datastore
- * from all datastores in the system using the ImageDatastoreSweeperService.
+ * from all datastores in the system using the ImageDatastoreSweeperService. The ImageDatastoreSweeperService
+ * instances notify the service when they complete, they are counted with queries after a restart and queried for
+ * now and then to pick up lost notifications.
+ * <p>
+ * The datastore sweeps are started by an {@link ImageSweepScheduler} as the running ones complete. The started
+ * sweeps are part of the document, so a restarted service does not start them again.
+ * </p>
  */
 public class ImageCleanerService extends StatefulService {
   /**
@@ -51,6 +72,11 @@ public class ImageCleanerService extends StatefulService {
    */
   private static final int DEFAULT_QUERY_POLL_DELAY = 10000;
 
+  /**
+   * Multiple of queryPollDelay after which the fallback query for children with lost notifications is repeated.
+   */
+  private static final int MISSED_COMPLETION_QUERY_FACTOR = 6;
+
   /**
    * Default constructor.
    */
@@ -62,6 +88,27 @@ public class ImageCleanerService extends StatefulService {
     super.toggleOption(ServiceOption.INSTRUMENTATION, true);
   }
 
+  @Override
+  public OperationProcessingChain getOperationProcessingChain() {
+    if (super.getOperationProcessingChain() != null) {
+      return super.getOperationProcessingChain();
+    }
+
+    RequestRouter myRouter = new RequestRouter();
+    myRouter.register(
+        Action.PATCH,
+        new RequestRouter.RequestBodyMatcher<ChildTaskCompletionRequest>(
+            ChildTaskCompletionRequest.class, "kind",
+            ChildTaskCompletionRequest.Kind.CHILD_TASK_COMPLETED),
+        this::handlePatchChildTaskCompleted, "ChildTaskCompleted");
+
+    OperationProcessingChain opProcessingChain = new OperationProcessingChain(this);
+    opProcessingChain.add(myRouter);
+
+    setOperationProcessingChain(opProcessingChain);
+    return opProcessingChain;
+  }
+
   @Override
   public void handleStart(Operation start) {
     try {
@@ -76,17 +123,31 @@ public class ImageCleanerService extends StatefulService {
       }
 
       // If the service got restarted in AWAIT_COMPLETION substage, clean finishedCount
-      // and failedOrCancelledCount to avoid getting stuck
+      // and failedOrCancelledCount to avoid getting stuck and query for the child services,
+      // since their completion notifications may have been lost
       if (s.taskInfo.stage == TaskState.TaskStage.STARTED &&
           s.taskInfo.subStage == TaskState.SubStage.AWAIT_COMPLETION) {
         s.failedOrCanceledDeletes = null;
         s.finishedDeletes = null;
+        s.isPollingChildCompletion = true;
       }
 
       if (s.queryPollDelay == null) {
         s.queryPollDelay = DEFAULT_QUERY_POLL_DELAY;
       }
 
+      if (s.maxConcurrentSweeps == null) {
+        s.maxConcurrentSweeps = ImageSweepScheduler.DEFAULT_MAX_CONCURRENT_SWEEPS;
+      }
+
+      if (s.maxSweepsPerHost == null) {
+        s.maxSweepsPerHost = ImageSweepScheduler.DEFAULT_MAX_SWEEPS_PER_HOST;
+      }
+
+      if (s.maxSweepsPerStorageBackend == null) {
+        s.maxSweepsPerStorageBackend = ImageSweepScheduler.DEFAULT_MAX_SWEEPS_PER_STORAGE_BACKEND;
+      }
+
       if (s.documentExpirationTimeMicros <= 0) {
         s.documentExpirationTimeMicros = ServiceUtils.computeExpirationTime(ServiceUtils.DEFAULT_DOC_EXPIRATION_TIME);
       }
@@ -110,11 +171,18 @@ public class ImageCleanerService extends StatefulService {
       State patchState = patch.getBody(State.class);
 
       this.validatePatch(currentState, patchState);
+      boolean isEnteringAwaitCompletion = isEnteringAwaitCompletion(currentState, patchState);
       this.applyPatch(currentState, patchState);
 
       this.validateState(currentState);
+      List<ImageSweepScheduler.Sweep> sweeps = this.startPendingSweeps(currentState);
       patch.complete();
 
+      if (isEnteringAwaitCompletion && !currentState.isPollingChildCompletion) {
+        this.scheduleMissedCompletionQuery(currentState);
+      }
+
+      this.triggerImageDatastoreSweeperServices(currentState, sweeps);
       switch (currentState.taskInfo.stage) {
         case STARTED:
           this.processStartedStage(currentState, patchState);
@@ -135,6 +203,58 @@ public class ImageCleanerService extends StatefulService {
     }
   }
 
+  /**
+   * Handles the notification of a ImageDatastoreSweeperService instance that reached a final stage.
+   *
+   * @param patch
+   */
+  private void handlePatchChildTaskCompleted(Operation patch) {
+    try {
+      State currentState = getState(patch);
+      ChildTaskCompletionRequest request = patch.getBody(ChildTaskCompletionRequest.class);
+
+      if (currentState.taskInfo.stage != TaskState.TaskStage.STARTED) {
+        patch.complete();
+        return;
+      }
+
+      ServiceUtils.logInfo(this, "Datastore sweep %s completed in stage %s", request.childLink, request.stage);
+      if (currentState.completedSweeps == null) {
+        currentState.completedSweeps = new HashSet<>();
+      }
+
+      if (!currentState.completedSweeps.add(request.childLink)) {
+        ServiceUtils.logInfo(this, "Ignoring repeated completion of datastore sweep %s", request.childLink);
+        patch.complete();
+        return;
+      }
+
+      // while polling, the datastore sweeps are counted by the queries
+      if (!currentState.isPollingChildCompletion) {
+        if (request.stage == TaskState.TaskStage.FINISHED) {
+          currentState.finishedDeletes = getCount(currentState.finishedDeletes) + 1;
+        } else {
+          currentState.failedOrCanceledDeletes = getCount(currentState.failedOrCanceledDeletes) + 1;
+        }
+      }
+
+      List<ImageSweepScheduler.Sweep> sweeps = this.startPendingSweeps(currentState);
+      setState(patch, currentState);
+      patch.complete();
+
+      this.triggerImageDatastoreSweeperServices(currentState, sweeps);
+      if (!currentState.isPollingChildCompletion
+          && currentState.taskInfo.subStage == TaskState.SubStage.AWAIT_COMPLETION) {
+        this.processAwaitCompletion(currentState, new State());
+      }
+    } catch (Throwable e) {
+      ServiceUtils.logSevere(this, e);
+      if (!OperationUtils.isCompleted(patch)) {
+        patch.fail(e);
+      }
+    }
+  }
+
   /**
    * Validate the service state for coherence.
    *
@@ -167,6 +287,15 @@ public class ImageCleanerService extends StatefulService {
       checkState(current.failedOrCanceledDeletes >= 0, "failedOrCanceledDeletes needs to be >= 0");
     }
 
+    checkNotNull(current.maxConcurrentSweeps, "maxConcurrentSweeps cannot be null");
+    checkState(current.maxConcurrentSweeps > 0, "maxConcurrentSweeps must be greater than zero");
+
+    checkNotNull(current.maxSweepsPerHost, "maxSweepsPerHost cannot be null");
+    checkState(current.maxSweepsPerHost > 0, "maxSweepsPerHost must be greater than zero");
+
+    checkNotNull(current.maxSweepsPerStorageBackend, "maxSweepsPerStorageBackend cannot be null");
+    checkState(current.maxSweepsPerStorageBackend > 0, "maxSweepsPerStorageBackend must be greater than zero");
+
     switch (current.taskInfo.stage) {
       case STARTED:
         checkState(current.taskInfo.subStage != null, "Invalid stage update. subStage cannot be null");
@@ -215,6 +344,9 @@ public class ImageCleanerService extends StatefulService {
     }
 
     checkArgument(patch.imageWatermarkTime == null, "imageWatermarkTime cannot be changed.");
+    checkArgument(patch.maxConcurrentSweeps == null, "maxConcurrentSweeps cannot be changed.");
+    checkArgument(patch.maxSweepsPerHost == null, "maxSweepsPerHost cannot be changed.");
+    checkArgument(patch.maxSweepsPerStorageBackend == null, "maxSweepsPerStorageBackend cannot be changed.");
   }
 
   /**
@@ -248,6 +380,26 @@ public class ImageCleanerService extends StatefulService {
     if (patch.failedOrCanceledDeletes != null) {
       current.failedOrCanceledDeletes = patch.failedOrCanceledDeletes;
     }
+
+    if (patch.referenceImageIndex != null) {
+      current.referenceImageIndex = patch.referenceImageIndex;
+    }
+
+    if (patch.pendingSweeps != null) {
+      current.pendingSweeps = patch.pendingSweeps;
+    }
+
+    if (patch.startedSweeps != null) {
+      current.startedSweeps = patch.startedSweeps;
+    }
+
+    if (patch.completedSweeps != null) {
+      // completions can be reported before the sweeps are recorded as started, so they are only added
+      if (current.completedSweeps == null) {
+        current.completedSweeps = new HashSet<>();
+      }
+      current.completedSweeps.addAll(patch.completedSweeps);
+    }
   }
 
   /**
@@ -270,6 +422,16 @@ public class ImageCleanerService extends StatefulService {
     return ((HostClientProvider) getHost()).getHostClient();
   }
 
+  /**
+   * Retrieves the CloudStoreHelper from the host.
+   *
+   * @return
+   */
+  @VisibleForTesting
+  protected CloudStoreHelper getCloudStoreHelper() {
+    return ((HousekeeperDcpServiceHost) getHost()).getCloudStoreHelper();
+  }
+
   /**
    * Does the processing necessary to perform the started stage.
    *
@@ -327,19 +489,111 @@ public class ImageCleanerService extends StatefulService {
       patch.host = host.getAddress().getHost();
       patch.dataStore = imageDatastore.getId();
 
-      sendSelfPatch(patch);
+      sendTriggerDeletesPatch(current, patch);
     } catch (Exception e) {
       failTask(e);
     }
   }
 
   /**
-   * Retrieves the list of datastores in the system and triggers an ImageDatastoreSweeperService
-   * instance for each.
+   * Builds the reference image index shared by the ImageDatastoreSweeperService instances from the ids of the
+   * images in cloud store and sends it with the patch moving to the TRIGGER_DELETES sub-stage. If the image ids
+   * cannot be retrieved the patch is sent without an index and the sweepers look up every inactive image.
+   *
+   * @param current
+   * @param patch
+   */
+  private void sendTriggerDeletesPatch(final State current, final State patch) {
+    Operation.CompletionHandler handler = (completedOp, failure) -> {
+      if (failure != null) {
+        ServiceUtils.logWarning(this, "Failed to retrieve the reference images: %s", failure.toString());
+        sendSelfPatch(patch);
+        return;
+      }
+
+      try {
+        Set<String> imageIds = new HashSet<>();
+        for (String documentLink : QueryTaskUtils.getBroadcastQueryResults(
+            completedOp.getBody(NodeGroupBroadcastResponse.class))) {
+          imageIds.add(ServiceUtils.getIDFromDocumentSelfLink(documentLink));
+        }
+
+        patch.referenceImageIndex = ReferenceImageIndex.create(current.imageWatermarkTime, imageIds);
+        ServiceUtils.logInfo(this, "Built reference image index of %s images", imageIds.size());
+      } catch (Throwable e) {
+        ServiceUtils.logWarning(this, "Failed to build the reference image index: %s", e.toString());
+      }
+
+      sendSelfPatch(patch);
+    };
+
+    try {
+      // only the document links are needed, so the content is not expanded
+      QueryTask.QuerySpecification spec = QueryTaskUtils.buildQuerySpec(
+          ImageService.State.class, ImmutableMap.of());
+
+      sendRequest(getCloudStoreHelper()
+          .createBroadcastPost(ServiceUriPaths.CORE_LOCAL_QUERY_TASKS, ServiceUriPaths.DEFAULT_NODE_SELECTOR)
+          .setBody(QueryTask.create(spec).setDirect(true))
+          .setCompletion(handler));
+    } catch (Throwable e) {
+      handler.handle(null, e);
+    }
+  }
+
+  /**
+   * Retrieves the previous sweeps of the datastores to estimate the images each sweep can delete, then schedules
+   * the ImageDatastoreSweeperService instances. If the previous sweeps cannot be retrieved the datastores are
+   * swept without estimates.
    *
    * @param current
    */
   private void processTriggerDeletes(final State current) {
+    Operation.CompletionHandler handler = (completedOp, failure) -> {
+      Map<String, Long> estimates = new HashMap<>();
+      if (failure != null) {
+        ServiceUtils.logWarning(this, "Failed to retrieve the previous datastore sweeps: %s", failure.toString());
+        scheduleSweeps(current, estimates);
+        return;
+      }
+
+      try {
+        List<ImageDatastoreSweeperService.State> previousSweeps = new ArrayList<>();
+        QueryTask rsp = completedOp.getBody(QueryTask.class);
+        if (rsp.results.documents != null) {
+          for (Object document : rsp.results.documents.values()) {
+            previousSweeps.add(Utils.fromJson(document, ImageDatastoreSweeperService.State.class));
+          }
+        }
+
+        estimates = ImageSweepScheduler.estimateReclaimableImages(previousSweeps);
+      } catch (Throwable e) {
+        ServiceUtils.logWarning(this, "Failed to estimate the reclaimable images: %s", e.toString());
+      }
+
+      scheduleSweeps(current, estimates);
+    };
+
+    try {
+      QueryTask.QuerySpecification spec = QueryTaskUtils.buildTaskStatusQuerySpec(
+          ImageDatastoreSweeperService.State.class, TaskState.TaskStage.FINISHED);
+      spec.options = EnumSet.of(QueryTask.QuerySpecification.QueryOption.EXPAND_CONTENT);
+
+      this.sendQuery(spec, handler);
+    } catch (Throwable e) {
+      handler.handle(null, e);
+    }
+  }
+
+  /**
+   * Retrieves the list of datastores in the system, orders their sweeps and triggers the
+   * ImageDatastoreSweeperService instances the scheduler allows to start. The other sweeps are started
+   * as the running ones complete.
+   *
+   * @param current
+   * @param estimates
+   */
+  private void scheduleSweeps(final State current, final Map<String, Long> estimates) {
     try {
       Set<Datastore> imageDatastores = getZookeeperHostMonitor().getImageDatastores();
       ServiceUtils.logInfo(this,
@@ -349,23 +603,40 @@ public class ImageCleanerService extends StatefulService {
       ServiceUtils.logInfo(this,
           "getAllDatastores returned %s. [count=%s]", Utils.toJson(allDatastores), allDatastores.size());
 
-      // create the ImageDatastoreSweeperService instances
-      int dataStoreSweeperCount = 0;
+      List<ImageSweepScheduler.Sweep> sweeps = new ArrayList<>();
       for (Datastore datastore : allDatastores) {
         boolean isImageDatastore =
             imageDatastores.stream().anyMatch(d -> StringUtils.equals(d.getId(), datastore.getId()));
 
-        triggerImageDatastoreSweeperService(current, datastore, isImageDatastore);
-        dataStoreSweeperCount++;
+        Set<String> hosts = new TreeSet<>();
+        for (HostConfig host : getZookeeperHostMonitor().getHostsForDatastore(datastore.getId())) {
+          if (host.getAddress() != null) {
+            hosts.add(host.getAddress().getHost());
+          }
+        }
+
+        Long estimate = estimates.get(datastore.getId());
+        sweeps.add(new ImageSweepScheduler.Sweep(datastore.getId(), isImageDatastore,
+            ImageSweepScheduler.getStorageBackend(datastore), new ArrayList<>(hosts), estimate == null ? 0 : estimate));
       }
 
+      List<ImageSweepScheduler.Sweep> pendingSweeps = ImageSweepScheduler.order(sweeps);
+      List<ImageSweepScheduler.Sweep> startedSweeps =
+          getScheduler(current).select(pendingSweeps, Collections.emptyList());
+      pendingSweeps.removeAll(startedSweeps);
+
+      // create the first ImageDatastoreSweeperService instances
+      triggerImageDatastoreSweeperServices(current, startedSweeps);
+
       if (current.isSelfProgressionDisabled) {
         return;
       }
 
       // move to next stage
       State patch = buildPatch(TaskState.TaskStage.STARTED, TaskState.SubStage.AWAIT_COMPLETION, null);
-      patch.dataStoreCount = dataStoreSweeperCount;
+      patch.dataStoreCount = sweeps.size();
+      patch.pendingSweeps = pendingSweeps;
+      patch.startedSweeps = startedSweeps;
 
       sendSelfPatch(patch);
     } catch (Exception e) {
@@ -374,14 +645,72 @@ public class ImageCleanerService extends StatefulService {
   }
 
   /**
-   * Triggers an ImageDatastoreSweeperService instance for the image in the state and the datastore passed
+   * Selects the pending sweeps that can start now and moves them to the started sweeps of the state. The
+   * selected sweeps need to be triggered once the state is saved.
+   *
+   * @param current
+   * @return
+   */
+  private List<ImageSweepScheduler.Sweep> startPendingSweeps(final State current) {
+    if (current.taskInfo.stage != TaskState.TaskStage.STARTED
+        || current.taskInfo.subStage != TaskState.SubStage.AWAIT_COMPLETION
+        || current.pendingSweeps == null
+        || current.pendingSweeps.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    if (current.startedSweeps == null) {
+      current.startedSweeps = new ArrayList<>();
+    }
+
+    List<ImageSweepScheduler.Sweep> runningSweeps = new ArrayList<>();
+    for (ImageSweepScheduler.Sweep sweep : current.startedSweeps) {
+      if (current.completedSweeps == null || !current.completedSweeps.contains(getSweeperLink(sweep.datastore))) {
+        runningSweeps.add(sweep);
+      }
+    }
+
+    List<ImageSweepScheduler.Sweep> sweeps = getScheduler(current).select(current.pendingSweeps, runningSweeps);
+    current.pendingSweeps.removeAll(sweeps);
+    current.startedSweeps.addAll(sweeps);
+    return sweeps;
+  }
+
+  private static ImageSweepScheduler getScheduler(final State current) {
+    return new ImageSweepScheduler(
+        current.maxConcurrentSweeps, current.maxSweepsPerHost, current.maxSweepsPerStorageBackend);
+  }
+
+  /**
+   * Returns the self link of the ImageDatastoreSweeperService instance sweeping a datastore for this service.
+   *
+   * @param datastore
+   * @return
+   */
+  private String getSweeperLink(String datastore) {
+    return UriUtils.buildUriPath(ImageDatastoreSweeperServiceFactory.SELF_LINK, getSweeperId(datastore));
+  }
+
+  private String getSweeperId(String datastore) {
+    return ServiceUtils.getIDFromDocumentSelfLink(getSelfLink()) + "-" + datastore;
+  }
+
+  private void triggerImageDatastoreSweeperServices(final State current,
+                                                    final List<ImageSweepScheduler.Sweep> sweeps) {
+    for (ImageSweepScheduler.Sweep sweep : sweeps) {
+      ServiceUtils.logInfo(this, "Starting sweep of datastore %s on host %s", sweep.datastore, sweep.host);
+      triggerImageDatastoreSweeperService(current, sweep);
+    }
+  }
+
+  /**
+   * Triggers an ImageDatastoreSweeperService instance for the image in the state and the datastore sweep passed
    * as a parameter.
    *
-   * @param dataStore
+   * @param sweep
    */
   private void triggerImageDatastoreSweeperService(final State current,
-                                                   final Datastore dataStore,
-                                                   final boolean isImageDatastore) {
+                                                   final ImageSweepScheduler.Sweep sweep) {
     // build completion handler
     Operation.CompletionHandler handler = (acknowledgeOp, failure) -> {
       if (failure != null) {
@@ -395,13 +724,18 @@ public class ImageCleanerService extends StatefulService {
 
     // build start state
     ImageDatastoreSweeperService.State request = new ImageDatastoreSweeperService.State();
-    request.datastore = dataStore.getId();
+    request.documentSelfLink = getSweeperId(sweep.datastore);
+    request.datastore = sweep.datastore;
+    request.host = sweep.host;
     request.parentLink = this.getSelfLink();
     request.imageCreateWatermarkTime = current.imageWatermarkTime;
     request.imageDeleteWatermarkTime = current.imageDeleteWatermarkTime;
     request.hostPollInterval = current.queryPollDelay;
-    request.isImageDatastore = isImageDatastore;
+    request.isImageDatastore = sweep.isImageDatastore;
     request.documentExpirationTimeMicros = current.documentExpirationTimeMicros;
+    if (current.referenceImageIndex != null) {
+      request.referenceImagesCount = current.referenceImageIndex.imageCount;
+    }
 
     // start service
     Operation operation = Operation
@@ -418,23 +752,37 @@ public class ImageCleanerService extends StatefulService {
    * @param patch
    */
   private void processAwaitCompletion(final State current, final State patch) {
-    if (current.finishedDeletes != null
-        && current.dataStoreCount.equals(current.finishedDeletes)) {
+    // A count that has not been retrieved yet is treated as 0: the deletes of both counts add up to at most
+    // dataStoreCount, so the checks below cannot complete the task early.
+    int finishedDeletes = getCount(current.finishedDeletes);
+    int failedOrCanceledDeletes = getCount(current.failedOrCanceledDeletes);
+
+    if (current.dataStoreCount == finishedDeletes) {
       // all copies have completed successfully
-      this.sendSelfPatch(buildPatch(TaskState.TaskStage.FINISHED, null, null));
+      State s = buildPatch(TaskState.TaskStage.FINISHED, null, null);
+      s.finishedDeletes = finishedDeletes;
+      s.failedOrCanceledDeletes = failedOrCanceledDeletes;
+      this.sendSelfPatch(s);
       return;
     }
 
-    if (current.finishedDeletes != null
-        && current.failedOrCanceledDeletes != null
-        && current.dataStoreCount.equals(current.finishedDeletes + current.failedOrCanceledDeletes)) {
+    if (current.dataStoreCount == finishedDeletes + failedOrCanceledDeletes) {
       // all copies have completed, but some of them have failed
       RuntimeException e = new RuntimeException(
           String.format("Removal failed: %s deletes succeeded, %s deletes failed",
-              current.finishedDeletes,
-              current.failedOrCanceledDeletes)
+              finishedDeletes,
+              failedOrCanceledDeletes)
       );
-      this.failTask(e);
+      ServiceUtils.logSevere(this, e);
+      State s = buildPatch(TaskState.TaskStage.FAILED, null, e);
+      s.finishedDeletes = finishedDeletes;
+      s.failedOrCanceledDeletes = failedOrCanceledDeletes;
+      this.sendSelfPatch(s);
+      return;
+    }
+
+    if (!current.isPollingChildCompletion) {
+      // the counts are updated by the notifications of the ImageDatastoreSweeperService instances
       return;
     }
 
@@ -458,6 +806,40 @@ public class ImageCleanerService extends StatefulService {
     }
   }
 
+  /**
+   * Schedules the fallback query for the ImageDatastoreSweeperService instances which completed without their
+   * notification being received. The query is repeated while the service awaits the completion of the
+   * instances and counts them from their notifications.
+   *
+   * @param current
+   */
+  private void scheduleMissedCompletionQuery(final State current) {
+    getHost().schedule(() -> sendRequest(Operation
+        .createGet(UriUtils.buildUri(getHost(), getSelfLink()))
+        .setCompletion((getOperation, failure) -> {
+          if (failure != null) {
+            ServiceUtils.logWarning(this, "Failed to get the state of %s: %s", getSelfLink(), failure.toString());
+            return;
+          }
+
+          State state = getOperation.getBody(State.class);
+          if (state.taskInfo.stage != TaskState.TaskStage.STARTED
+              || state.taskInfo.subStage != TaskState.SubStage.AWAIT_COMPLETION
+              || state.isPollingChildCompletion) {
+            return;
+          }
+
+          ChildTaskCompletionRequest.sendMissed(this, state.completedSweeps, ImageDatastoreSweeperService.State.class);
+          scheduleMissedCompletionQuery(state);
+        })), current.queryPollDelay * MISSED_COMPLETION_QUERY_FACTOR, TimeUnit.MILLISECONDS);
+  }
+
+  private static boolean isEnteringAwaitCompletion(State current, State patch) {
+    return patch.taskInfo != null
+        && patch.taskInfo.subStage == TaskState.SubStage.AWAIT_COMPLETION
+        && current.taskInfo.subStage != TaskState.SubStage.AWAIT_COMPLETION;
+  }
+
   /**
    * Triggers a query to retrieve the "child" ImageDatastoreSweeperService instances in FINISHED state.
    *
@@ -480,6 +862,7 @@ public class ImageCleanerService extends StatefulService {
       ServiceUtils.logInfo(ImageCleanerService.this, "Finished %s", Utils.toJson(rsp.results.documentLinks));
 
       s.finishedDeletes = rsp.results.documentLinks.size();
+      s.completedSweeps = new HashSet<>(rsp.results.documentLinks);
       sendSelfPatch(s);
     };
 
@@ -513,6 +896,7 @@ public class ImageCleanerService extends StatefulService {
           Utils.toJson(rsp.results.documentLinks));
 
       s.failedOrCanceledDeletes = rsp.results.documentLinks.size();
+      s.completedSweeps = new HashSet<>(rsp.results.documentLinks);
       sendSelfPatch(s);
     };
 
@@ -544,6 +928,10 @@ public class ImageCleanerService extends StatefulService {
     sendRequest(queryPost);
   }
 
+  private static int getCount(Integer count) {
+    return count == null ? 0 : count;
+  }
+
   /**
    * Moves the service into the FAILED state.
    *
@@ -666,6 +1054,12 @@ public class ImageCleanerService extends StatefulService {
      */
     public Long imageDeleteWatermarkTime;
 
+    /**
+     * Index of the images in cloud store when the run started, shared by the ImageDatastoreSweeperService
+     * instances.
+     */
+    public ReferenceImageIndex referenceImageIndex;
+
     /**
      * Count of datastores in the system. One ImageDatastoreSweeperService instance
      * is created per datastore to perform the image delete.
@@ -681,5 +1075,40 @@ public class ImageCleanerService extends StatefulService {
      * Count of individual copies in FAILED or CANCELED state.
      */
     public Integer failedOrCanceledDeletes;
+
+    /**
+     * Flag indicating that the deletes are counted by querying for them instead of from their notifications.
+     */
+    public boolean isPollingChildCompletion;
+
+    /**
+     * Maximum number of ImageDatastoreSweeperService instances running at the same time.
+     */
+    public Integer maxConcurrentSweeps;
+
+    /**
+     * Maximum number of ImageDatastoreSweeperService instances performed by a host at the same time.
+     */
+    public Integer maxSweepsPerHost;
+
+    /**
+     * Maximum number of ImageDatastoreSweeperService instances running on a storage backend at the same time.
+     */
+    public Integer maxSweepsPerStorageBackend;
+
+    /**
+     * The datastore sweeps not started yet, in the order they run.
+     */
+    public List<ImageSweepScheduler.Sweep> pendingSweeps;
+
+    /**
+     * The datastore sweeps started so far.
+     */
+    public List<ImageSweepScheduler.Sweep> startedSweeps;
+
+    /**
+     * Links of the ImageDatastoreSweeperService instances that reached a final stage.
+     */
+    public Set<String> completedSweeps;
   }
 }
@@ -124,6 +124,8 @@ public class ImageCopyService extends StatefulService {
         case FAILED:
         case FINISHED:
         case CANCELLED:
+          ChildTaskCompletionRequest.send(this, currentState.parentLink, currentState.taskInfo.stage,
+              currentState.bytesTransferred);
           break;
         default:
           throw new IllegalStateException(
@@ -179,6 +181,7 @@ public class ImageCopyService extends StatefulService {
     checkArgument(patch.image == null, "Image cannot be changed.");
     checkArgument(patch.sourceImageDataStoreName == null, "Source datastore cannot be changed.");
     checkArgument(patch.destinationDataStoreId == null, "Destination datastore cannot be changed.");
+    checkArgument(patch.imageSize == null, "Image size cannot be changed.");
   }
 
   /**
@@ -236,6 +239,18 @@ public class ImageCopyService extends StatefulService {
     if (patchState.destinationDataStoreId != null) {
       currentState.destinationDataStoreId = patchState.destinationDataStoreId;
     }
+
+    if (patchState.bytesTransferred != null) {
+      currentState.bytesTransferred = patchState.bytesTransferred;
+    }
+
+    if (patchState.copyDurationMillis != null) {
+      currentState.copyDurationMillis = patchState.copyDurationMillis;
+    }
+
+    if (patchState.throughputMBps != null) {
+      currentState.throughputMBps = patchState.throughputMBps;
+    }
   }
 
   /**
@@ -269,6 +284,7 @@ public class ImageCopyService extends StatefulService {
       return;
     }
 
+    final long startTimeMicros = Utils.getNowMicrosUtc();
     AsyncMethodCallback callback = new AsyncMethodCallback() {
       @Override
       public void onComplete(Object o) {
@@ -277,7 +293,8 @@ public class ImageCopyService extends StatefulService {
           ServiceUtils.logInfo(ImageCopyService.this, "CopyImageResponse %s", r);
           switch (r.getResult()) {
             case OK:
-              sendPatchToIncrementImageReplicatedCount(current);
+              sendPatchToIncrementImageReplicatedCount(current,
+                  buildFinishedPatch(current, current.sourceImageDataStoreName, startTimeMicros));
               break;
             case DESTINATION_ALREADY_EXIST:
               sendStageProgressPatch(current, TaskState.TaskStage.FINISHED, null);
@@ -314,7 +331,7 @@ public class ImageCopyService extends StatefulService {
    *
    * @param current
    */
-  private void sendPatchToIncrementImageReplicatedCount(final State current) {
+  private void sendPatchToIncrementImageReplicatedCount(final State current, final State finishedPatch) {
     try {
       ImageService.DatastoreCountRequest requestBody = constructDatastoreCountRequest(1);
       sendRequest(
@@ -327,7 +344,9 @@ public class ImageCopyService extends StatefulService {
                       ServiceUtils.logWarning(this, "Could not increment replicatedDatastore for image %s by %s: %s",
                           current.image, requestBody.amount, t);
                     }
-                    sendStageProgressPatch(current, TaskState.TaskStage.FINISHED, null);
+                    if (!current.isSelfProgressionDisabled) {
+                      sendSelfPatch(finishedPatch);
+                    }
                   }
               ));
     } catch (Exception e) {
@@ -336,6 +355,29 @@ public class ImageCopyService extends StatefulService {
     }
   }
 
+  /**
+   * Builds the FINISHED patch of a completed transfer and records the transfer metrics.
+   *
+   * @param current
+   * @param sourceDatastore
+   * @param startTimeMicros
+   * @return
+   */
+  private State buildFinishedPatch(final State current, String sourceDatastore, long startTimeMicros) {
+    State patch = buildPatch(TaskState.TaskStage.FINISHED, null, null);
+    patch.copyDurationMillis = ImageTransferMetrics.getDurationMillis(startTimeMicros, Utils.getNowMicrosUtc());
+    if (current.imageSize != null) {
+      patch.bytesTransferred = current.imageSize;
+      patch.throughputMBps = ImageTransferMetrics.getThroughputMBps(current.imageSize, patch.copyDurationMillis);
+    }
+
+    ImageTransferMetrics.record(sourceDatastore, current.destinationDataStoreId, patch.bytesTransferred,
+        patch.copyDurationMillis);
+    ServiceUtils.logInfo(this, "Copied %s bytes of image %s in %s ms", patch.bytesTransferred, current.image,
+        patch.copyDurationMillis);
+    return patch;
+  }
+
   private ImageService.DatastoreCountRequest constructDatastoreCountRequest(int adjustCount) {
     ImageService.DatastoreCountRequest requestBody = new ImageService.DatastoreCountRequest();
     requestBody.kind = ImageService.DatastoreCountRequest.Kind.ADJUST_REPLICATION_COUNT;
@@ -344,24 +386,29 @@ public class ImageCopyService extends StatefulService {
   }
 
   /**
-   * Retrieve a host that connects to the given datastore.
+   * Retrieve a host that connects to the given datastore, unless the host was selected by the creator of the copy.
    *
    * @param current
    */
   private void getHostFromDataStore(final State current) {
     try {
-      Set<HostConfig> hostConfigSet = getZookeeperHostMonitor().getHostsForDatastore(current.destinationDataStoreId);
-      checkState(
-          hostConfigSet.size() > 0, "No hosts found for reference datastore. [%s].", current.destinationDataStoreId);
-
-      HostConfig hostConfig = ServiceUtils.selectRandomItem(hostConfigSet);
+      String host = current.host;
+      if (host == null) {
+        Set<HostConfig> hostConfigSet =
+            getZookeeperHostMonitor().getHostsForDatastore(current.destinationDataStoreId);
+        checkState(
+            hostConfigSet.size() > 0, "No hosts found for reference datastore. [%s].", current.destinationDataStoreId);
+
+        HostConfig hostConfig = ServiceUtils.selectRandomItem(hostConfigSet);
+        host = hostConfig.getAddress().getHost();
+      }
 
       // Patch self with the host and data store information.
       if (!current.isSelfProgressionDisabled) {
         ImageCopyService.State patch = buildPatch(com.vmware.xenon.common
                 .TaskState.TaskStage.STARTED,
             TaskState.SubStage.COPY_IMAGE, null);
-        patch.host = hostConfig.getAddress().getHost();
+        patch.host = host;
         this.sendSelfPatch(patch);
       }
     } catch (Exception e) {
@@ -483,7 +530,28 @@ public class ImageCopyService extends StatefulService {
     public String destinationDataStoreId;
 
     /**
-     * Host with access to both source and destination stores.
+     * Size of the image in bytes, when known by the creator of the copy.
+     */
+    public Long imageSize;
+
+    /**
+     * Number of bytes transferred by the copy, set when the copy finishes and the image size is known.
+     */
+    public Long bytesTransferred;
+
+    /**
+     * Duration of the copy call in milliseconds, set when the copy finishes.
+     */
+    public Long copyDurationMillis;
+
+    /**
+     * Throughput of the copy in MB/s, set when the copy finishes and the image size is known.
+     */
+    public Double throughputMBps;
+
+    /**
+     * Host with access to both source and destination stores. When provided at creation the host is used for the
+     * copy instead of a random host of the destination datastore.
      */
     public String host;
 
@@ -17,6 +17,7 @@ package com.vmware.photon.controller.housekeeper.dcp;
 import com.vmware.photon.controller.api.ImageReplicationType;
 import com.vmware.photon.controller.api.ImageState;
 import com.vmware.photon.controller.cloudstore.dcp.entity.ImageService;
+import com.vmware.photon.controller.cloudstore.dcp.entity.ImageServiceFactory;
 import com.vmware.photon.controller.common.clients.HostClient;
 import com.vmware.photon.controller.common.clients.HostClientProvider;
 import com.vmware.photon.controller.common.clients.exceptions.OperationInProgressException;
@@ -44,6 +45,7 @@ import com.vmware.photon.controller.host.gen.StartImageSweepResponse;
 import com.vmware.photon.controller.housekeeper.zookeeper.ZookeeperHostMonitorProvider;
 import com.vmware.photon.controller.resource.gen.InactiveImageDescriptor;
 import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.OperationJoin;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.StatefulService;
 import com.vmware.xenon.common.UriUtils;
@@ -52,18 +54,20 @@ import com.vmware.xenon.services.common.NodeGroupBroadcastResponse;
 import com.vmware.xenon.services.common.QueryTask;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.thrift.async.AsyncMethodCallback;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -77,6 +81,11 @@ public class ImageDatastoreSweeperService extends StatefulService {
   @VisibleForTesting
   protected static final int DEFAULT_HOST_POLL_INTERVAL = 30 * 1000;
 
+  /**
+   * Maximum number of images looked up by a single query.
+   */
+  private static final int REFERENCE_IMAGE_QUERY_BATCH_SIZE = 256;
+
   /**
    * Default constructor.
    */
@@ -254,6 +263,7 @@ public class ImageDatastoreSweeperService extends StatefulService {
         case FAILED:
         case FINISHED:
         case CANCELLED:
+          ChildTaskCompletionRequest.send(this, current.parentLink, current.taskState.stage);
           break;
 
         default:
@@ -318,7 +328,8 @@ public class ImageDatastoreSweeperService extends StatefulService {
     }
 
     State patch = this.buildPatch(TaskState.TaskStage.STARTED, TaskState.SubStage.TRIGGER_SCAN, null);
-    patch.host = ServiceUtils.selectRandomItem(hostSet).getAddress().getHost();
+    // keep the host selected by the parent task, if any
+    patch.host = current.host != null ? current.host : ServiceUtils.selectRandomItem(hostSet).getAddress().getHost();
     this.sendSelfPatch(patch);
   }
 
@@ -438,7 +449,8 @@ public class ImageDatastoreSweeperService extends StatefulService {
               }
 
               if (null == current.parentLink ||
-                  null == current.referenceImagesCount) {
+                  null == current.referenceImagesCount ||
+                  0 == current.referenceImagesCount) {
                 // no reference images - we can go straight to deleting inactive images
                 startImageDelete(current, response.getImage_descs(), new HashMap<>());
                 return;
@@ -526,44 +538,133 @@ public class ImageDatastoreSweeperService extends StatefulService {
   }
 
   /**
-   * Retrieves the list of reference images on the image datastore.
+   * Retrieves the reference images matching the inactive images. The reference image index of the parent
+   * ImageCleanerService is used to skip the inactive images which are not reference images, if the index cannot
+   * be retrieved or was built for a different run every inactive image is looked up.
    *
    * @param current
    * @param inactiveImages
    */
   private void fetchReferenceImages(final State current, final List<InactiveImageDescriptor> inactiveImages) {
+    Operation getParent = Operation
+        .createGet(UriUtils.buildUri(getHost(), current.parentLink))
+        .addPragmaDirective(Operation.PRAGMA_DIRECTIVE_NO_QUEUING)
+        .setCompletion(
+            (completedOp, failure) -> {
+              ReferenceImageIndex index = null;
+              if (failure != null) {
+                ServiceUtils.logWarning(this, "Failed to retrieve reference image index from %s: %s",
+                    current.parentLink, failure.toString());
+              } else {
+                index = completedOp.getBody(ImageCleanerService.State.class).referenceImageIndex;
+              }
 
-    final ImmutableMap.Builder<String, String> termsBuilder = new ImmutableMap.Builder<>();
-    QueryTask.QuerySpecification spec = QueryTaskUtils.buildQuerySpec(
-        ImageService.State.class, termsBuilder.build());
-    spec.options = EnumSet.of(QueryTask.QuerySpecification.QueryOption.EXPAND_CONTENT);
+              if (index != null && !current.imageCreateWatermarkTime.equals(index.version)) {
+                ServiceUtils.logWarning(this, "Ignoring reference image index of version %s", index.version);
+                index = null;
+              }
 
-    sendRequest(
-        ((HousekeeperDcpServiceHost) getHost()).getCloudStoreHelper()
-            .createBroadcastPost(ServiceUriPaths.CORE_LOCAL_QUERY_TASKS, ServiceUriPaths.DEFAULT_NODE_SELECTOR)
-            .setBody(QueryTask.create(spec).setDirect(true))
-            .setCompletion(
-                (completedOp, failure) -> {
-                  if (failure != null) {
-                    failTask(failure);
-                    return;
-                  }
-                  NodeGroupBroadcastResponse queryResponse = completedOp.getBody(NodeGroupBroadcastResponse.class);
-                  List<ImageService.State> documents = QueryTaskUtils.getBroadcastQueryDocuments(
-                      ImageService.State.class, queryResponse);
-                  Map<String, ImageService.State> imageMap = new HashMap<>();
+              fetchReferenceImages(current, inactiveImages, index);
+            }
+        );
 
-                  for (ImageService.State image : documents) {
-                    imageMap.put(ServiceUtils.getIDFromDocumentSelfLink(image.documentSelfLink), image);
-                  }
+    sendRequest(getParent);
+  }
+
+  /**
+   * Looks up the inactive images which may be reference images in batches.
+   *
+   * @param current
+   * @param inactiveImages
+   * @param index
+   */
+  private void fetchReferenceImages(final State current,
+                                    final List<InactiveImageDescriptor> inactiveImages,
+                                    final ReferenceImageIndex index) {
+    Set<String> imageLinks = new TreeSet<>();
+    for (InactiveImageDescriptor image : inactiveImages) {
+      if (index == null || index.mightContain(image.getImage_id())) {
+        imageLinks.add(ImageServiceFactory.SELF_LINK + "/" + image.getImage_id());
+      }
+    }
 
-                  try {
-                    startImageDelete(current, inactiveImages, imageMap);
-                  } catch (Exception e) {
-                    failTask(e);
+    ServiceUtils.logInfo(this, "Looking up %s of %s inactive images", imageLinks.size(), inactiveImages.size());
+    if (imageLinks.isEmpty()) {
+      try {
+        startImageDelete(current, inactiveImages, new HashMap<>());
+      } catch (Exception e) {
+        failTask(e);
+      }
+      return;
+    }
+
+    List<Operation> queries = new ArrayList<>();
+    for (List<String> batch : Iterables.partition(imageLinks, REFERENCE_IMAGE_QUERY_BATCH_SIZE)) {
+      QueryTask.QuerySpecification spec = buildReferenceImageQuerySpec(batch);
+      queries.add(((HousekeeperDcpServiceHost) getHost()).getCloudStoreHelper()
+          .createBroadcastPost(ServiceUriPaths.CORE_LOCAL_QUERY_TASKS, ServiceUriPaths.DEFAULT_NODE_SELECTOR)
+          .setBody(QueryTask.create(spec).setDirect(true)));
+    }
+
+    OperationJoin
+        .create(queries)
+        .setCompletion(
+            (ops, failures) -> {
+              if (failures != null && !failures.isEmpty()) {
+                failTask(failures.values().iterator().next());
+                return;
+              }
+
+              try {
+                Map<String, ImageService.State> imageMap = new HashMap<>();
+                for (Operation op : ops.values()) {
+                  NodeGroupBroadcastResponse queryResponse = op.getBody(NodeGroupBroadcastResponse.class);
+                  for (ImageService.State image : QueryTaskUtils.getBroadcastQueryDocuments(
+                      ImageService.State.class, queryResponse)) {
+                    imageMap.put(ServiceUtils.getIDFromDocumentSelfLink(image.documentSelfLink), image);
                   }
                 }
-            ));
+
+                startImageDelete(current, inactiveImages, imageMap);
+              } catch (Exception e) {
+                failTask(e);
+              }
+            }
+        )
+        .sendWith(this);
+  }
+
+  /**
+   * Builds the query for the image documents with the given links.
+   *
+   * @param imageLinks
+   * @return
+   */
+  private QueryTask.QuerySpecification buildReferenceImageQuerySpec(List<String> imageLinks) {
+    QueryTask.QuerySpecification spec = new QueryTask.QuerySpecification();
+    spec.query.addBooleanClause(new QueryTask.Query()
+        .setTermPropertyName(ServiceDocument.FIELD_NAME_KIND)
+        .setTermMatchValue(Utils.buildKind(ImageService.State.class)));
+
+    if (imageLinks.size() == 1) {
+      spec.query.addBooleanClause(new QueryTask.Query()
+          .setTermPropertyName(ServiceDocument.FIELD_NAME_SELF_LINK)
+          .setTermMatchValue(imageLinks.get(0)));
+    } else {
+      QueryTask.Query linkClause = new QueryTask.Query();
+      for (String imageLink : imageLinks) {
+        QueryTask.Query clause = new QueryTask.Query()
+            .setTermPropertyName(ServiceDocument.FIELD_NAME_SELF_LINK)
+            .setTermMatchValue(imageLink);
+        clause.occurance = QueryTask.Query.Occurance.SHOULD_OCCUR;
+        linkClause.addBooleanClause(clause);
+      }
+
+      spec.query.addBooleanClause(linkClause);
+    }
+
+    spec.options = EnumSet.of(QueryTask.QuerySpecification.QueryOption.EXPAND_CONTENT);
+    return spec;
   }
 
   /**
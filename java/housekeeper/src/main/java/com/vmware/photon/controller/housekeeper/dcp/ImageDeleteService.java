@@ -132,6 +132,7 @@ public class ImageDeleteService extends StatefulService {
         case FAILED:
         case FINISHED:
         case CANCELLED:
+          ChildTaskCompletionRequest.send(this, currentState.parentLink, currentState.taskInfo.stage);
           break;
         default:
           throw new IllegalStateException(
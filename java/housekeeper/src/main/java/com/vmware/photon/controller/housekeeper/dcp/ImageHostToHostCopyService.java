@@ -13,10 +13,18 @@
 
 package com.vmware.photon.controller.housekeeper.dcp;
 
+import com.vmware.photon.controller.cloudstore.dcp.entity.ImageService;
+import com.vmware.photon.controller.cloudstore.dcp.entity.ImageServiceFactory;
+import com.vmware.photon.controller.common.clients.HostClient;
+import com.vmware.photon.controller.common.clients.HostClientProvider;
+import com.vmware.photon.controller.common.clients.exceptions.SystemErrorException;
 import com.vmware.photon.controller.common.dcp.OperationUtils;
 import com.vmware.photon.controller.common.dcp.ServiceUtils;
 import com.vmware.photon.controller.common.dcp.scheduler.TaskSchedulerServiceFactory;
 import com.vmware.photon.controller.common.zookeeper.ZookeeperHostMonitor;
+import com.vmware.photon.controller.host.gen.Host;
+import com.vmware.photon.controller.host.gen.HostConfig;
+import com.vmware.photon.controller.host.gen.TransferImageResponse;
 import com.vmware.photon.controller.housekeeper.zookeeper.ZookeeperHostMonitorProvider;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceDocument;
@@ -26,11 +34,14 @@ import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
 
 import com.google.common.annotations.VisibleForTesting;
+import org.apache.thrift.async.AsyncMethodCallback;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import java.io.IOException;
 import java.net.URI;
+import java.util.Set;
 
 /**
  * Class implementing service to copy an image from a source image data store to a target image data store using
@@ -112,6 +123,8 @@ public class ImageHostToHostCopyService extends StatefulService {
         case FAILED:
         case FINISHED:
         case CANCELLED:
+          ChildTaskCompletionRequest.send(this, currentState.parentLink, currentState.taskInfo.stage,
+              currentState.bytesTransferred);
           break;
         default:
           throw new IllegalStateException(
@@ -130,6 +143,13 @@ public class ImageHostToHostCopyService extends StatefulService {
     return ((ZookeeperHostMonitorProvider) getHost()).getZookeeperHostMonitor();
   }
 
+  @VisibleForTesting
+  protected HostClient getHostClient(String host) throws IOException {
+    HostClient client = ((HostClientProvider) getHost()).getHostClient();
+    client.setHostIp(host);
+    return client;
+  }
+
   /**
    * Validate patch correctness.
    *
@@ -149,9 +169,11 @@ public class ImageHostToHostCopyService extends StatefulService {
           "Can not revert to %s from %s", patch.taskInfo.stage, current.taskInfo.stage);
     }
 
+    checkArgument(patch.parentLink == null, "ParentLink cannot be changed.");
     checkArgument(patch.image == null, "Image cannot be changed.");
     checkArgument(patch.sourceDataStore == null, "Source datastore cannot be changed.");
     checkArgument(patch.destinationDataStore == null, "Destination datastore cannot be changed.");
+    checkArgument(patch.imageSize == null, "Image size cannot be changed.");
   }
 
   /**
@@ -182,6 +204,18 @@ public class ImageHostToHostCopyService extends StatefulService {
     if (patchState.destinationDataStore != null) {
       currentState.destinationDataStore = patchState.destinationDataStore;
     }
+
+    if (patchState.bytesTransferred != null) {
+      currentState.bytesTransferred = patchState.bytesTransferred;
+    }
+
+    if (patchState.copyDurationMillis != null) {
+      currentState.copyDurationMillis = patchState.copyDurationMillis;
+    }
+
+    if (patchState.throughputMBps != null) {
+      currentState.throughputMBps = patchState.throughputMBps;
+    }
   }
 
   /**
@@ -194,13 +228,132 @@ public class ImageHostToHostCopyService extends StatefulService {
   }
 
   /**
-   * Calls agents to copy an image from a source image datastore to a destination image datastore.
+   * Calls the agent of a host attached to the source datastore to transfer an image to a host attached to the
+   * destination datastore.
    *
    * @param current
    */
   private void copyImage(final State current) {
-    ServiceUtils.logInfo(this, "Copying image from host to host hasn't been implemented yet");
-    sendStageProgressPatch(current, TaskState.TaskStage.FINISHED);
+    if (current.sourceDataStore.equals(current.destinationDataStore)) {
+      ServiceUtils.logInfo(this, "Skip copying image to source itself");
+      sendStageProgressPatch(current, TaskState.TaskStage.FINISHED);
+      return;
+    }
+
+    final long startTimeMicros = Utils.getNowMicrosUtc();
+    AsyncMethodCallback callback = new AsyncMethodCallback() {
+      @Override
+      public void onComplete(Object o) {
+        try {
+          TransferImageResponse r = ((Host.AsyncClient.transfer_image_call) o).getResult();
+          ServiceUtils.logInfo(ImageHostToHostCopyService.this, "TransferImageResponse %s", r);
+          switch (r.getResult()) {
+            case OK:
+              sendPatchToIncrementImageReplicatedCount(current, buildFinishedPatch(current, startTimeMicros));
+              break;
+            case SYSTEM_ERROR:
+            case TRANSFER_IN_PROGRESS:
+              throw new SystemErrorException(r.getError());
+            default:
+              throw new UnknownError(
+                  String.format("Unknown result code %s", r.getResult()));
+          }
+        } catch (Exception e) {
+          onError(e);
+        }
+      }
+
+      @Override
+      public void onError(Exception e) {
+        failTask(e);
+      }
+    };
+
+    try {
+      String sourceHost = current.sourceHost;
+      if (sourceHost == null) {
+        sourceHost = selectHost(current.sourceDataStore, null).getAddress().getHost();
+      }
+
+      HostConfig destinationHost = selectHost(current.destinationDataStore, current.destinationHost);
+      getHostClient(sourceHost).transferImage(current.image, current.sourceDataStore,
+          current.destinationDataStore, destinationHost.getAddress(), callback);
+    } catch (Exception e) {
+      failTask(e);
+    }
+  }
+
+  /**
+   * Selects the host attached to a datastore with the given address, or a random one if there is none.
+   *
+   * @param datastore
+   * @param address
+   * @return
+   */
+  private HostConfig selectHost(String datastore, String address) {
+    Set<HostConfig> hostConfigSet = getZookeeperHostMonitor().getHostsForDatastore(datastore);
+    checkState(hostConfigSet.size() > 0, "No hosts found for datastore. [%s].", datastore);
+
+    for (HostConfig hostConfig : hostConfigSet) {
+      if (hostConfig.getAddress().getHost().equals(address)) {
+        return hostConfig;
+      }
+    }
+
+    return ServiceUtils.selectRandomItem(hostConfigSet);
+  }
+
+  /**
+   * Sends patch to update replicatedDatastore in image cloud store entity.
+   *
+   * @param current
+   */
+  private void sendPatchToIncrementImageReplicatedCount(final State current, final State finishedPatch) {
+    try {
+      ImageService.DatastoreCountRequest requestBody = new ImageService.DatastoreCountRequest();
+      requestBody.kind = ImageService.DatastoreCountRequest.Kind.ADJUST_REPLICATION_COUNT;
+      requestBody.amount = 1;
+      sendRequest(
+          ((HousekeeperDcpServiceHost) getHost()).getCloudStoreHelper()
+              .createPatch(ImageServiceFactory.SELF_LINK + "/" + current.image)
+              .setBody(requestBody)
+              .setCompletion(
+                  (op, t) -> {
+                    if (t != null) {
+                      ServiceUtils.logWarning(this, "Could not increment replicatedDatastore for image %s by %s: %s",
+                          current.image, requestBody.amount, t);
+                    }
+                    if (!current.isSelfProgressionDisabled) {
+                      sendSelfPatch(finishedPatch);
+                    }
+                  }
+              ));
+    } catch (Exception e) {
+      ServiceUtils.logSevere(this, "Exception thrown while sending patch to image service to increment count: %s",
+          e);
+    }
+  }
+
+  /**
+   * Builds the FINISHED patch of a completed transfer and records the transfer metrics.
+   *
+   * @param current
+   * @param startTimeMicros
+   * @return
+   */
+  private State buildFinishedPatch(final State current, long startTimeMicros) {
+    State patch = buildPatch(TaskState.TaskStage.FINISHED, null);
+    patch.copyDurationMillis = ImageTransferMetrics.getDurationMillis(startTimeMicros, Utils.getNowMicrosUtc());
+    if (current.imageSize != null) {
+      patch.bytesTransferred = current.imageSize;
+      patch.throughputMBps = ImageTransferMetrics.getThroughputMBps(current.imageSize, patch.copyDurationMillis);
+    }
+
+    ImageTransferMetrics.record(current.sourceDataStore, current.destinationDataStore, patch.bytesTransferred,
+        patch.copyDurationMillis);
+    ServiceUtils.logInfo(this, "Transferred %s bytes of image %s in %s ms", patch.bytesTransferred, current.image,
+        patch.copyDurationMillis);
+    return patch;
   }
 
   /**
@@ -268,6 +421,11 @@ public class ImageHostToHostCopyService extends StatefulService {
      */
     public TaskState taskInfo;
 
+    /**
+     * URI of the sender of the copy, if not null notify of copy end.
+     */
+    public String parentLink;
+
     /**
      * Image to be copied.
      */
@@ -283,6 +441,37 @@ public class ImageHostToHostCopyService extends StatefulService {
      */
     public String destinationDataStore;
 
+    /**
+     * Host attached to the source store that sends the image. A random host of the store is used if not provided.
+     */
+    public String sourceHost;
+
+    /**
+     * Host attached to the destination store that receives the image. A random host of the store is used if not
+     * provided or no longer attached to the store.
+     */
+    public String destinationHost;
+
+    /**
+     * Size of the image in bytes, when known by the creator of the copy.
+     */
+    public Long imageSize;
+
+    /**
+     * Number of bytes transferred by the copy, set when the copy finishes and the image size is known.
+     */
+    public Long bytesTransferred;
+
+    /**
+     * Duration of the transfer call in milliseconds, set when the copy finishes.
+     */
+    public Long copyDurationMillis;
+
+    /**
+     * Throughput of the transfer in MB/s, set when the copy finishes and the image size is known.
+     */
+    public Double throughputMBps;
+
     /**
      * When isSelfProgressionDisabled is true, the service does not automatically update its stages.
      */
@@ -20,6 +20,8 @@ import com.vmware.photon.controller.common.zookeeper.ZookeeperHostMonitor;
 import com.vmware.photon.controller.housekeeper.zookeeper.ZookeeperHostMonitorProvider;
 import com.vmware.photon.controller.resource.gen.Datastore;
 import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.OperationProcessingChain;
+import com.vmware.xenon.common.RequestRouter;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.StatefulService;
 import com.vmware.xenon.common.UriUtils;
@@ -32,12 +34,15 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Class implements a service that deletes an image from all
- * datastores.
+ * datastores. The ImageDeleteService instances notify the service when they complete,
+ * they are counted with queries after a restart and queried for now and then to pick up
+ * lost notifications.
  */
 public class ImageRemoverService extends StatefulService {
   /**
@@ -45,6 +50,11 @@ public class ImageRemoverService extends StatefulService {
    */
   private static final int DEFAULT_QUERY_POLL_DELAY = 10000;
 
+  /**
+   * Multiple of queryPollDelay after which the fallback query for children with lost notifications is repeated.
+   */
+  private static final int MISSED_COMPLETION_QUERY_FACTOR = 6;
+
   /**
    * Default constructor.
    */
@@ -56,6 +66,27 @@ public class ImageRemoverService extends StatefulService {
     super.toggleOption(ServiceOption.INSTRUMENTATION, true);
   }
 
+  @Override
+  public OperationProcessingChain getOperationProcessingChain() {
+    if (super.getOperationProcessingChain() != null) {
+      return super.getOperationProcessingChain();
+    }
+
+    RequestRouter myRouter = new RequestRouter();
+    myRouter.register(
+        Action.PATCH,
+        new RequestRouter.RequestBodyMatcher<ChildTaskCompletionRequest>(
+            ChildTaskCompletionRequest.class, "kind",
+            ChildTaskCompletionRequest.Kind.CHILD_TASK_COMPLETED),
+        this::handlePatchChildTaskCompleted, "ChildTaskCompleted");
+
+    OperationProcessingChain opProcessingChain = new OperationProcessingChain(this);
+    opProcessingChain.add(myRouter);
+
+    setOperationProcessingChain(opProcessingChain);
+    return opProcessingChain;
+  }
+
   @Override
   public void handleStart(Operation start) {
     try {
@@ -70,11 +101,13 @@ public class ImageRemoverService extends StatefulService {
       }
 
       // If the service got restarted in AWAIT_COMPLETION substage, clean finishedCount
-      // and failedOrCancelledCount to avoid getting stuck
+      // and failedOrCancelledCount to avoid getting stuck and query for the child services,
+      // since their completion notifications may have been lost
       if (s.taskInfo.stage == TaskState.TaskStage.STARTED
           && s.taskInfo.subStage == TaskState.SubStage.AWAIT_COMPLETION) {
         s.failedOrCanceledDeletes = null;
         s.finishedDeletes = null;
+        s.isPollingChildCompletion = true;
       }
 
       if (s.queryPollDelay == null) {
@@ -104,11 +137,16 @@ public class ImageRemoverService extends StatefulService {
       State patchState = patch.getBody(State.class);
 
       this.validatePatch(currentState, patchState);
+      boolean isEnteringAwaitCompletion = isEnteringAwaitCompletion(currentState, patchState);
       this.applyPatch(currentState, patchState);
 
       this.validateState(currentState);
       patch.complete();
 
+      if (isEnteringAwaitCompletion && !currentState.isPollingChildCompletion) {
+        this.scheduleMissedCompletionQuery(currentState);
+      }
+
       switch (currentState.taskInfo.stage) {
         case STARTED:
           this.processStartedStage(currentState, patchState);
@@ -130,6 +168,53 @@ public class ImageRemoverService extends StatefulService {
     }
   }
 
+  /**
+   * Handles the notification of a ImageDeleteService instance that reached a final stage.
+   *
+   * @param patch
+   */
+  private void handlePatchChildTaskCompleted(Operation patch) {
+    try {
+      State currentState = getState(patch);
+      ChildTaskCompletionRequest request = patch.getBody(ChildTaskCompletionRequest.class);
+
+      if (currentState.taskInfo.stage != TaskState.TaskStage.STARTED || currentState.isPollingChildCompletion) {
+        // the deletes are counted by the queries
+        patch.complete();
+        return;
+      }
+
+      if (currentState.completedDeletes == null) {
+        currentState.completedDeletes = new HashSet<>();
+      }
+
+      if (!currentState.completedDeletes.add(request.childLink)) {
+        ServiceUtils.logInfo(this, "Ignoring repeated completion of delete %s", request.childLink);
+        patch.complete();
+        return;
+      }
+
+      ServiceUtils.logInfo(this, "Delete %s completed in stage %s", request.childLink, request.stage);
+      if (request.stage == TaskState.TaskStage.FINISHED) {
+        currentState.finishedDeletes = getCount(currentState.finishedDeletes) + 1;
+      } else {
+        currentState.failedOrCanceledDeletes = getCount(currentState.failedOrCanceledDeletes) + 1;
+      }
+
+      setState(patch, currentState);
+      patch.complete();
+
+      if (currentState.taskInfo.subStage == TaskState.SubStage.AWAIT_COMPLETION) {
+        this.processAwaitCompletion(currentState, new State());
+      }
+    } catch (Throwable e) {
+      ServiceUtils.logSevere(this, e);
+      if (!OperationUtils.isCompleted(patch)) {
+        patch.fail(e);
+      }
+    }
+  }
+
   /**
    * Validate the service state for coherence.
    *
@@ -338,23 +423,37 @@ public class ImageRemoverService extends StatefulService {
    * @param patch
    */
   private void processAwaitCompletion(final State current, final State patch) {
-    if (current.finishedDeletes != null
-        && current.dataStoreCount.equals(current.finishedDeletes)) {
+    // A count that has not been retrieved yet is treated as 0: the deletes of both counts add up to at most
+    // dataStoreCount, so the checks below cannot complete the task early.
+    int finishedDeletes = getCount(current.finishedDeletes);
+    int failedOrCanceledDeletes = getCount(current.failedOrCanceledDeletes);
+
+    if (current.dataStoreCount == finishedDeletes) {
       // all copies have completed successfully
-      this.sendSelfPatch(buildPatch(TaskState.TaskStage.FINISHED, null, null));
+      State s = buildPatch(TaskState.TaskStage.FINISHED, null, null);
+      s.finishedDeletes = finishedDeletes;
+      s.failedOrCanceledDeletes = failedOrCanceledDeletes;
+      this.sendSelfPatch(s);
       return;
     }
 
-    if (current.finishedDeletes != null
-        && current.failedOrCanceledDeletes != null
-        && current.dataStoreCount.equals(current.finishedDeletes + current.failedOrCanceledDeletes)) {
+    if (current.dataStoreCount == finishedDeletes + failedOrCanceledDeletes) {
       // all copies have completed, but some of them have failed
       RuntimeException e = new RuntimeException(
           String.format("Removal failed: %s deletes succeeded, %s deletes failed",
-              current.finishedDeletes,
-              current.failedOrCanceledDeletes)
+              finishedDeletes,
+              failedOrCanceledDeletes)
       );
-      this.failTask(e);
+      ServiceUtils.logSevere(this, e);
+      State s = buildPatch(TaskState.TaskStage.FAILED, null, e);
+      s.finishedDeletes = finishedDeletes;
+      s.failedOrCanceledDeletes = failedOrCanceledDeletes;
+      this.sendSelfPatch(s);
+      return;
+    }
+
+    if (!current.isPollingChildCompletion) {
+      // the counts are updated by the notifications of the ImageDeleteService instances
       return;
     }
 
@@ -388,6 +487,40 @@ public class ImageRemoverService extends StatefulService {
     }
   }
 
+  /**
+   * Schedules the fallback query for the ImageDeleteService instances which completed without their
+   * notification being received. The query is repeated while the service awaits the completion of the
+   * instances and counts them from their notifications.
+   *
+   * @param current
+   */
+  private void scheduleMissedCompletionQuery(final State current) {
+    getHost().schedule(() -> sendRequest(Operation
+        .createGet(UriUtils.buildUri(getHost(), getSelfLink()))
+        .setCompletion((getOperation, failure) -> {
+          if (failure != null) {
+            ServiceUtils.logWarning(this, "Failed to get the state of %s: %s", getSelfLink(), failure.toString());
+            return;
+          }
+
+          State state = getOperation.getBody(State.class);
+          if (state.taskInfo.stage != TaskState.TaskStage.STARTED
+              || state.taskInfo.subStage != TaskState.SubStage.AWAIT_COMPLETION
+              || state.isPollingChildCompletion) {
+            return;
+          }
+
+          ChildTaskCompletionRequest.sendMissed(this, state.completedDeletes, ImageDeleteService.State.class);
+          scheduleMissedCompletionQuery(state);
+        })), current.queryPollDelay * MISSED_COMPLETION_QUERY_FACTOR, TimeUnit.MILLISECONDS);
+  }
+
+  private static boolean isEnteringAwaitCompletion(State current, State patch) {
+    return patch.taskInfo != null
+        && patch.taskInfo.subStage == TaskState.SubStage.AWAIT_COMPLETION
+        && current.taskInfo.subStage != TaskState.SubStage.AWAIT_COMPLETION;
+  }
+
   /**
    * Triggers a query to retrieve the "child" ImageDeleteService instances in FINISHED state.
    *
@@ -513,6 +646,10 @@ public class ImageRemoverService extends StatefulService {
     sendRequest(queryPost);
   }
 
+  private static int getCount(Integer count) {
+    return count == null ? 0 : count;
+  }
+
   /**
    * Moves the service into the FAILED state.
    *
@@ -641,5 +778,16 @@ public class ImageRemoverService extends StatefulService {
      * Count of individual copies in FAILED or CANCELED state.
      */
     public Integer failedOrCanceledDeletes;
+
+    /**
+     * Flag indicating that the deletes are counted by querying for them instead of from their notifications.
+     */
+    public boolean isPollingChildCompletion;
+
+    /**
+     * Links of the ImageDeleteService instances whose completion was notified, a repeated notification is not
+     * counted.
+     */
+    public Set<String> completedDeletes;
   }
 }
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.housekeeper.dcp;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Class ImageReplicationPlanner computes the copies needed to replicate an image to a set of datastores as a
+ * fan-out tree. The copies are grouped in waves: the datastores that received the image in a wave are used as
+ * sources by the following waves, so the number of replicas grows geometrically instead of every copy reading
+ * from the original datastore.
+ * <p>
+ * Within a wave every source datastore and every host performing copies is limited to maxCopiesPerSource
+ * concurrent copies. Copies performed by a host attached to both the source and the destination datastore are
+ * preferred over host-to-host transfers. The original image datastore is assumed to be reachable from every host,
+ * like the single-wave replication did.
+ * </p>
+ */
+public class ImageReplicationPlanner {
+
+  /**
+   * Default maximum number of copies reading from a source datastore or performed by a host in a wave.
+   */
+  public static final int DEFAULT_MAX_COPIES_PER_SOURCE = 4;
+
+  private final String sourceDatastore;
+
+  private final Map<String, Set<String>> datastoreHosts;
+
+  private final int maxCopiesPerSource;
+
+  /**
+   * Constructor.
+   *
+   * @param sourceDatastore    the datastore the image is located on
+   * @param datastoreHosts     the hosts attached to each datastore, datastores without known hosts are copied
+   *                           from the original datastore in the first wave
+   * @param maxCopiesPerSource
+   */
+  public ImageReplicationPlanner(String sourceDatastore, Map<String, Set<String>> datastoreHosts,
+                                 int maxCopiesPerSource) {
+    checkNotNull(sourceDatastore, "sourceDatastore cannot be null");
+    checkNotNull(datastoreHosts, "datastoreHosts cannot be null");
+    checkArgument(maxCopiesPerSource > 0, "maxCopiesPerSource needs to be greater than 0");
+
+    this.sourceDatastore = sourceDatastore;
+    this.datastoreHosts = datastoreHosts;
+    this.maxCopiesPerSource = maxCopiesPerSource;
+  }
+
+  /**
+   * Returns the number of copies in the given wave.
+   *
+   * @param plan
+   * @param wave
+   * @return
+   */
+  public static int getCopyCount(List<Copy> plan, int wave) {
+    int count = 0;
+    for (Copy copy : plan) {
+      if (copy.wave == wave) {
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Returns the number of waves of a plan.
+   *
+   * @param plan
+   * @return
+   */
+  public static int getWaveCount(List<Copy> plan) {
+    int waves = 0;
+    for (Copy copy : plan) {
+      waves = Math.max(waves, copy.wave + 1);
+    }
+
+    return waves;
+  }
+
+  /**
+   * Plans one copy per destination datastore. A destination equal to the source datastore results in a copy to
+   * itself in the first wave, which the copy service skips.
+   *
+   * @param destinations
+   * @return the copies ordered by wave
+   */
+  public List<Copy> plan(Collection<String> destinations) {
+    List<Copy> plan = new ArrayList<>();
+    Set<String> replicas = new LinkedHashSet<>();
+    replicas.add(sourceDatastore);
+
+    Set<String> pending = new TreeSet<>(destinations);
+    for (int wave = 0; !pending.isEmpty(); wave++) {
+      Map<String, Integer> sourceLoad = new HashMap<>();
+      Map<String, Integer> hostLoad = new HashMap<>();
+      List<String> waveReplicas = new ArrayList<>();
+
+      for (String destination : new ArrayList<>(pending)) {
+        Copy copy = planCopy(destination, replicas, sourceLoad, hostLoad);
+        if (copy == null) {
+          continue;
+        }
+
+        copy.wave = wave;
+        plan.add(copy);
+        pending.remove(destination);
+        waveReplicas.add(destination);
+      }
+
+      // The first destination of a wave can always be copied from the original datastore, so every wave
+      // makes progress.
+      replicas.addAll(waveReplicas);
+    }
+
+    return plan;
+  }
+
+  /**
+   * Selects the source datastore and the hosts of a copy, or returns null when the capacity of the current wave
+   * is exhausted for the destination.
+   *
+   * @param destination
+   * @param replicas
+   * @param sourceLoad
+   * @param hostLoad
+   * @return
+   */
+  private Copy planCopy(String destination, Set<String> replicas, Map<String, Integer> sourceLoad,
+                        Map<String, Integer> hostLoad) {
+    if (destination.equals(sourceDatastore)) {
+      return new Copy(sourceDatastore, destination, null, null);
+    }
+
+    Set<String> destinationHosts = getHosts(destination);
+    if (destinationHosts.isEmpty()) {
+      // let the copy service look up a host, as before
+      increment(sourceLoad, sourceDatastore);
+      return new Copy(sourceDatastore, destination, null, null);
+    }
+
+    // Prefer a host attached to both datastores, using the least loaded source and host. Newer replicas are
+    // considered first so the load moves away from the original datastore.
+    List<String> sources = new ArrayList<>(replicas);
+    Collections.reverse(sources);
+
+    String bestSource = null;
+    String bestHost = null;
+    int bestLoad = Integer.MAX_VALUE;
+    for (String source : sources) {
+      if (getLoad(sourceLoad, source) >= maxCopiesPerSource) {
+        continue;
+      }
+
+      for (String host : new TreeSet<>(destinationHosts)) {
+        if (getLoad(hostLoad, host) >= maxCopiesPerSource
+            || (!source.equals(sourceDatastore) && !getHosts(source).contains(host))) {
+          continue;
+        }
+
+        int load = getLoad(sourceLoad, source) + getLoad(hostLoad, host);
+        if (load < bestLoad) {
+          bestSource = source;
+          bestHost = host;
+          bestLoad = load;
+        }
+      }
+    }
+
+    if (bestSource != null) {
+      increment(sourceLoad, bestSource);
+      increment(hostLoad, bestHost);
+      return new Copy(bestSource, destination, bestHost, null);
+    }
+
+    // Otherwise transfer the image from a host attached to a replica to a host attached to the destination.
+    for (String source : sources) {
+      if (source.equals(sourceDatastore) || getLoad(sourceLoad, source) >= maxCopiesPerSource) {
+        continue;
+      }
+
+      for (String host : new TreeSet<>(getHosts(source))) {
+        if (getLoad(hostLoad, host) < maxCopiesPerSource) {
+          increment(sourceLoad, source);
+          increment(hostLoad, host);
+          return new Copy(source, destination, host, new TreeSet<>(destinationHosts).first());
+        }
+      }
+    }
+
+    return null;
+  }
+
+  private Set<String> getHosts(String datastore) {
+    Set<String> hosts = datastoreHosts.get(datastore);
+    return hosts == null ? Collections.emptySet() : hosts;
+  }
+
+  private static int getLoad(Map<String, Integer> load, String key) {
+    Integer value = load.get(key);
+    return value == null ? 0 : value;
+  }
+
+  private static void increment(Map<String, Integer> load, String key) {
+    load.put(key, getLoad(load, key) + 1);
+  }
+
+  /**
+   * Class encapsulating a planned copy.
+   */
+  public static class Copy {
+
+    /**
+     * Wave of the copy, starting at 0.
+     */
+    public int wave;
+
+    /**
+     * The datastore the image is copied from.
+     */
+    public String sourceDatastore;
+
+    /**
+     * The datastore the image is copied to.
+     */
+    public String destinationDatastore;
+
+    /**
+     * Host performing the copy, or the sending host of a host-to-host transfer. Null lets the copy service
+     * select a host.
+     */
+    public String host;
+
+    /**
+     * Receiving host of a host-to-host transfer, null for copies performed by a single host.
+     */
+    public String destinationHost;
+
+    public Copy() {
+    }
+
+    public Copy(String sourceDatastore, String destinationDatastore, String host, String destinationHost) {
+      this.sourceDatastore = sourceDatastore;
+      this.destinationDatastore = destinationDatastore;
+      this.host = host;
+      this.destinationHost = destinationHost;
+    }
+
+    public boolean isHostToHost() {
+      return destinationHost != null;
+    }
+  }
+}
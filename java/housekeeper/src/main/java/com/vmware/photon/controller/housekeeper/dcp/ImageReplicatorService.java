@@ -20,10 +20,13 @@ import com.vmware.photon.controller.common.dcp.OperationUtils;
 import com.vmware.photon.controller.common.dcp.QueryTaskUtils;
 import com.vmware.photon.controller.common.dcp.ServiceUtils;
 import com.vmware.photon.controller.common.zookeeper.ZookeeperHostMonitor;
+import com.vmware.photon.controller.host.gen.HostConfig;
 import com.vmware.photon.controller.housekeeper.zookeeper.ZookeeperHostMonitorProvider;
 import com.vmware.photon.controller.resource.gen.Datastore;
 import com.vmware.xenon.common.Operation;
-import com.vmware.xenon.common.OperationSequence;
+import com.vmware.xenon.common.OperationJoin;
+import com.vmware.xenon.common.OperationProcessingChain;
+import com.vmware.xenon.common.RequestRouter;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.StatefulService;
 import com.vmware.xenon.common.UriUtils;
@@ -36,15 +39,35 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
 
 /**
  * Class ImageReplicatorService implements a service to propagate an image available on a single data store to all
  * data stores. The copy is performed by create ImageCopyService, TaskSchedulerService will move those to STARTED
  * stage, and wait for the copy to finish. Client will poll until task state is FINISH or FAIL. CANCELLED is not
  * supported.
+ * <p>
+ * The copies are planned by {@link ImageReplicationPlanner} and triggered in waves: the datastores that received
+ * the image in a wave are the sources of the copies of the next wave, either with an ImageCopyService when a host
+ * is attached to both datastores or with an ImageHostToHostCopyService otherwise.
+ * </p>
+ * <p>
+ * The copy services notify the replicator when they complete and retry failed notifications. The replicator counts
+ * its completed copy services with queries when it is restarted while awaiting them, since notifications may have
+ * been lost in the meantime. Otherwise it only queries for completed copy services now and then, to pick up the
+ * copies whose notifications were lost for good.
+ * </p>
+ * <p>
+ * The copy services report the bytes they transferred in their notifications. The replicator rolls them up into
+ * the progress, throughput and estimated remaining time of the replication.
+ * </p>
  */
 public class ImageReplicatorService extends StatefulService {
   /**
@@ -52,6 +75,11 @@ public class ImageReplicatorService extends StatefulService {
    */
   private static final int DEFAULT_QUERY_POLL_DELAY = 10000;
 
+  /**
+   * Multiple of queryPollDelay after which the fallback query for children with lost notifications is repeated.
+   */
+  private static final int MISSED_COMPLETION_QUERY_FACTOR = 6;
+
   /**
    * Default constructor.
    */
@@ -63,6 +91,27 @@ public class ImageReplicatorService extends StatefulService {
     super.toggleOption(ServiceOption.INSTRUMENTATION, true);
   }
 
+  @Override
+  public OperationProcessingChain getOperationProcessingChain() {
+    if (super.getOperationProcessingChain() != null) {
+      return super.getOperationProcessingChain();
+    }
+
+    RequestRouter myRouter = new RequestRouter();
+    myRouter.register(
+        Action.PATCH,
+        new RequestRouter.RequestBodyMatcher<ChildTaskCompletionRequest>(
+            ChildTaskCompletionRequest.class, "kind",
+            ChildTaskCompletionRequest.Kind.CHILD_TASK_COMPLETED),
+        this::handlePatchChildTaskCompleted, "ChildTaskCompleted");
+
+    OperationProcessingChain opProcessingChain = new OperationProcessingChain(this);
+    opProcessingChain.add(myRouter);
+
+    setOperationProcessingChain(opProcessingChain);
+    return opProcessingChain;
+  }
+
   @Override
   public void handleStart(Operation start) {
     ServiceUtils.logInfo(this, "Starting service %s", getSelfLink());
@@ -77,6 +126,16 @@ public class ImageReplicatorService extends StatefulService {
         s.taskInfo.subStage = TaskState.SubStage.UPDATE_DATASTORE_COUNTS;
       }
 
+      // If the service got restarted in AWAIT_COMPLETION substage, completion notifications from the copy
+      // services may have been lost. Clean finishedCopies and failedOrCanceledCopies and query for the
+      // copy services instead.
+      if (s.taskInfo.stage == TaskState.TaskStage.STARTED &&
+          s.taskInfo.subStage == TaskState.SubStage.AWAIT_COMPLETION) {
+        s.failedOrCanceledCopies = null;
+        s.finishedCopies = null;
+        s.isPollingChildCompletion = true;
+      }
+
       if (s.documentExpirationTimeMicros <= 0) {
         s.documentExpirationTimeMicros = ServiceUtils.computeExpirationTime(ServiceUtils.DEFAULT_DOC_EXPIRATION_TIME);
       }
@@ -85,6 +144,10 @@ public class ImageReplicatorService extends StatefulService {
         s.queryPollDelay = DEFAULT_QUERY_POLL_DELAY;
       }
 
+      if (s.maxCopiesPerSource == null) {
+        s.maxCopiesPerSource = ImageReplicationPlanner.DEFAULT_MAX_COPIES_PER_SOURCE;
+      }
+
       validateState(s);
       start.setBody(s).complete();
 
@@ -109,11 +172,18 @@ public class ImageReplicatorService extends StatefulService {
 
     try {
       validatePatch(currentState, patchState);
+      boolean isEnteringAwaitCompletion = isEnteringAwaitCompletion(currentState, patchState);
       applyPatch(currentState, patchState);
 
       validateState(currentState);
+      List<Integer> waves = advanceWaves(currentState);
       patch.complete();
 
+      if (isEnteringAwaitCompletion && !currentState.isPollingChildCompletion) {
+        scheduleMissedCompletionQuery(currentState);
+      }
+
+      triggerWaves(currentState, waves);
       switch (currentState.taskInfo.stage) {
         case STARTED:
           handleStartedStage(currentState, patchState);
@@ -134,6 +204,60 @@ public class ImageReplicatorService extends StatefulService {
     }
   }
 
+  /**
+   * Handles the notification of a copy service that reached a final stage.
+   *
+   * @param patch
+   */
+  private void handlePatchChildTaskCompleted(Operation patch) {
+    try {
+      State currentState = getState(patch);
+      ChildTaskCompletionRequest request = patch.getBody(ChildTaskCompletionRequest.class);
+
+      if (currentState.taskInfo.stage != TaskState.TaskStage.STARTED || currentState.isPollingChildCompletion) {
+        // the copies are counted by the queries
+        patch.complete();
+        return;
+      }
+
+      if (currentState.completedCopies == null) {
+        currentState.completedCopies = new HashSet<>();
+      }
+
+      if (!currentState.completedCopies.add(request.childLink)) {
+        ServiceUtils.logInfo(this, "Ignoring repeated completion of copy %s", request.childLink);
+        patch.complete();
+        return;
+      }
+
+      ServiceUtils.logInfo(this, "Copy %s completed in stage %s", request.childLink, request.stage);
+      if (request.stage == TaskState.TaskStage.FINISHED) {
+        currentState.finishedCopies = getCount(currentState.finishedCopies) + 1;
+      } else {
+        currentState.failedOrCanceledCopies = getCount(currentState.failedOrCanceledCopies) + 1;
+      }
+
+      if (request.bytesTransferred != null) {
+        currentState.bytesTransferred = getBytes(currentState.bytesTransferred) + request.bytesTransferred;
+      }
+
+      updateTransferProgress(currentState);
+      List<Integer> waves = advanceWaves(currentState);
+      setState(patch, currentState);
+      patch.complete();
+
+      triggerWaves(currentState, waves);
+      if (currentState.taskInfo.subStage == TaskState.SubStage.AWAIT_COMPLETION) {
+        processAwaitCompletion(currentState, new State());
+      }
+    } catch (Throwable e) {
+      ServiceUtils.logSevere(this, e);
+      if (!OperationUtils.isCompleted(patch)) {
+        patch.fail(e);
+      }
+    }
+  }
+
   /**
    * Validate service state coherence.
    *
@@ -146,6 +270,9 @@ public class ImageReplicatorService extends StatefulService {
     checkNotNull(current.queryPollDelay, "queryPollDelay cannot be null");
     checkState(current.queryPollDelay > 0, "queryPollDelay needs to be >= 0");
 
+    checkNotNull(current.maxCopiesPerSource, "maxCopiesPerSource cannot be null");
+    checkState(current.maxCopiesPerSource > 0, "maxCopiesPerSource needs to be > 0");
+
     checkState(current.documentExpirationTimeMicros > 0, "documentExpirationTimeMicros needs to be greater than 0");
 
     if (current.finishedCopies != null) {
@@ -160,6 +287,10 @@ public class ImageReplicatorService extends StatefulService {
       checkState(current.dataStoreCount >= 0, "dataStoreCount needs to be >= 0");
     }
 
+    if (current.currentWave != null) {
+      checkState(current.currentWave >= 0, "currentWave needs to be >= 0");
+    }
+
     switch (current.taskInfo.stage) {
       case STARTED:
         checkState(current.taskInfo.subStage != null, "subStage cannot be null");
@@ -209,6 +340,7 @@ public class ImageReplicatorService extends StatefulService {
 
     checkArgument(patch.image == null, "image field cannot be updated in a patch");
     checkArgument(patch.datastore == null, "datastore field cannot be updated in a patch");
+    checkArgument(patch.maxCopiesPerSource == null, "maxCopiesPerSource field cannot be updated in a patch");
   }
 
   /**
@@ -244,6 +376,21 @@ public class ImageReplicatorService extends StatefulService {
       currentState.failedOrCanceledCopies = patchState.failedOrCanceledCopies;
     }
 
+    if (patchState.copyPlan != null) {
+      currentState.copyPlan = patchState.copyPlan;
+    }
+
+    if (patchState.currentWave != null) {
+      currentState.currentWave = patchState.currentWave;
+    }
+
+    if (patchState.imageSize != null) {
+      currentState.imageSize = patchState.imageSize;
+    }
+
+    if (patchState.copyStartTimeMicros != null) {
+      currentState.copyStartTimeMicros = patchState.copyStartTimeMicros;
+    }
   }
 
   /**
@@ -282,36 +429,51 @@ public class ImageReplicatorService extends StatefulService {
       imageServiceState.totalDatastore = getZookeeperHostMonitor().getAllDatastores().size();
       Operation imagePatch = getCloudStoreHelper()
           .createPatch(ImageServiceFactory.SELF_LINK + "/" + current.image)
-          .setBody(imageServiceState);
-
-      // create operation sequence
-      OperationSequence sequence = OperationSequence
-          .create(imagePatch)
-          .setCompletion(
-              (Map<Long, Operation> ops, Map<Long, Throwable> failures) -> {
-                if (failures != null && failures.size() > 0) {
-                  failTask(failures.values().iterator().next());
-                  return;
-                }
-              });
-
-      if (!current.isSelfProgressionDisabled) {
-        // move to next stage
-        Operation progress = this.buildSelfPatchOperation(
-            this.buildPatch(TaskState.TaskStage.STARTED, TaskState.SubStage.TRIGGER_COPIES, null));
-
-        sequence.next(progress);
-      }
-
-      sequence.sendWith(this);
+          .setBody(imageServiceState)
+          .setCompletion((op, t) -> {
+            if (t != null) {
+              failTask(t);
+              return;
+            }
+
+            if (!current.isSelfProgressionDisabled) {
+              // move to next stage
+              getImageSize(current);
+            }
+          });
+
+      sendRequest(imagePatch);
     } catch (Exception e) {
       failTask(e);
     }
   }
 
   /**
-   * This method queries the list of data stores available in this ESX cloud instance and, on query completion,
-   * creates a set of ImageCopyService instances and transitions the current service instance to the
+   * Retrieves the size of the image to replicate and moves to the TRIGGER_COPIES sub-stage. The replication
+   * proceeds without the size when the image cannot be retrieved.
+   *
+   * @param current
+   */
+  private void getImageSize(final State current) {
+    State patch = buildPatch(TaskState.TaskStage.STARTED, TaskState.SubStage.TRIGGER_COPIES, null);
+    Operation imageGet = getCloudStoreHelper()
+        .createGet(ImageServiceFactory.SELF_LINK + "/" + current.image)
+        .setCompletion((op, t) -> {
+          if (t != null) {
+            ServiceUtils.logWarning(this, "Failed to get image %s: %s", current.image, t.toString());
+          } else {
+            patch.imageSize = op.getBody(ImageService.State.class).size;
+          }
+
+          sendSelfPatch(patch);
+        });
+
+    sendRequest(imageGet);
+  }
+
+  /**
+   * This method queries the list of data stores available in this ESX cloud instance, plans the copies to them,
+   * creates the ImageCopyService instances of the first wave and transitions the current service instance to the
    * AWAIT_COMPLETION sub-state.
    *
    * @param current
@@ -320,13 +482,19 @@ public class ImageReplicatorService extends StatefulService {
     try {
       Set<Datastore> datastoreSet = getZookeeperHostMonitor().getAllDatastores();
       ServiceUtils.logInfo(this, "All target datastores: %s", Utils.toJson(datastoreSet));
-      triggerCopyServices(datastoreSet, current);
+      List<ImageReplicationPlanner.Copy> copyPlan = buildCopyPlan(datastoreSet, current);
+      ServiceUtils.logInfo(this, "Replication plan with %d waves: %s",
+          ImageReplicationPlanner.getWaveCount(copyPlan), Utils.toJson(copyPlan));
+      triggerCopyServices(copyPlan, 0, current);
 
       // move to next stage
       if (!current.isSelfProgressionDisabled) {
         State patch = ImageReplicatorService.this.buildPatch(
             TaskState.TaskStage.STARTED, TaskState.SubStage.AWAIT_COMPLETION, null);
         patch.dataStoreCount = datastoreSet.size();
+        patch.copyPlan = copyPlan;
+        patch.currentWave = 0;
+        patch.copyStartTimeMicros = Utils.getNowMicrosUtc();
 
         sendSelfPatch(patch);
       }
@@ -341,23 +509,37 @@ public class ImageReplicatorService extends StatefulService {
    * @param current
    */
   protected void processAwaitCompletion(final State current, final State patch) {
-    if (current.finishedCopies != null
-        && current.dataStoreCount.equals(current.finishedCopies)) {
+    // A count that has not been retrieved yet is treated as 0: the copies of both counts add up to at most
+    // dataStoreCount, so the checks below cannot complete the task early.
+    int finishedCopies = getCount(current.finishedCopies);
+    int failedOrCanceledCopies = getCount(current.failedOrCanceledCopies);
+
+    if (current.dataStoreCount == finishedCopies) {
       // all copies have completed successfully
-      this.sendSelfPatch(buildPatch(TaskState.TaskStage.FINISHED, null, null));
+      State s = buildPatch(TaskState.TaskStage.FINISHED, null, null);
+      s.finishedCopies = finishedCopies;
+      s.failedOrCanceledCopies = failedOrCanceledCopies;
+      this.sendSelfPatch(s);
       return;
     }
 
-    if (current.finishedCopies != null
-        && current.failedOrCanceledCopies != null
-        && current.dataStoreCount.equals(current.finishedCopies + current.failedOrCanceledCopies)) {
+    if (current.dataStoreCount == finishedCopies + failedOrCanceledCopies) {
       // all copies have completed, but some of them have failed
       RuntimeException e = new RuntimeException(
           String.format("Copy image failed: %s copies succeeded, %s copies failed",
-              current.finishedCopies,
-              current.failedOrCanceledCopies)
+              finishedCopies,
+              failedOrCanceledCopies)
       );
-      this.failTask(e);
+      ServiceUtils.logSevere(this, e);
+      State s = buildPatch(TaskState.TaskStage.FAILED, null, e);
+      s.finishedCopies = finishedCopies;
+      s.failedOrCanceledCopies = failedOrCanceledCopies;
+      this.sendSelfPatch(s);
+      return;
+    }
+
+    if (!current.isPollingChildCompletion) {
+      // the counts are updated by the notifications of the copy services
       return;
     }
 
@@ -366,10 +548,10 @@ public class ImageReplicatorService extends StatefulService {
     boolean isFirstCheck = current.finishedCopies == null
         && current.failedOrCanceledCopies == null;
 
-    if (isFirstCheck || patch.finishedCopies != null) {
+    if (isFirstCheck || patch.finishedCopies != null || patch.currentWave != null) {
       // issue the query to get the count of finished ImageCopyService instances,
-      // because we either have not yet run the query yet or we have just processed the patch
-      // from the previous query on children in FINISHED stage
+      // because we either have not yet run the query yet, we have just processed the patch
+      // from the previous query on children in FINISHED stage or we have just triggered the first wave
       getHost().schedule(new Runnable() {
         @Override
         public void run() {
@@ -400,36 +582,158 @@ public class ImageReplicatorService extends StatefulService {
   }
 
   /**
-   * This function creates a set of ImageCopyService instances parented to the current service instance.
+   * Plans the copies to the target datastores using the hosts attached to each datastore. Datastores whose hosts
+   * cannot be retrieved are copied from the source datastore in the first wave.
    *
    * @param targetDataStoreSet
    * @param current
-   * @return The number of batches created.
+   * @return
    */
-  private void triggerCopyServices(Set<Datastore> targetDataStoreSet, State current) {
-    if (targetDataStoreSet.isEmpty()) {
-      ServiceUtils.logInfo(this, "No copies to trigger!");
+  private List<ImageReplicationPlanner.Copy> buildCopyPlan(Set<Datastore> targetDataStoreSet, State current) {
+    Map<String, Set<String>> datastoreHosts = new HashMap<>();
+    List<String> destinations = new ArrayList<>();
+    for (Datastore targetDataStore : targetDataStoreSet) {
+      destinations.add(targetDataStore.getId());
+      try {
+        Set<String> hosts = new HashSet<>();
+        for (HostConfig hostConfig : getZookeeperHostMonitor().getHostsForDatastore(targetDataStore.getId())) {
+          hosts.add(hostConfig.getAddress().getHost());
+        }
+
+        datastoreHosts.put(targetDataStore.getId(), hosts);
+      } catch (Exception e) {
+        ServiceUtils.logWarning(this, "Could not retrieve hosts of datastore %s: %s", targetDataStore.getId(), e);
+      }
+    }
+
+    return new ImageReplicationPlanner(current.datastore, datastoreHosts, current.maxCopiesPerSource)
+        .plan(destinations);
+  }
+
+  /**
+   * Returns true if there are waves left to trigger and all the copies of the triggered waves have completed.
+   *
+   * @param current
+   * @return
+   */
+  private boolean isCurrentWaveCompleted(final State current) {
+    if (current.copyPlan == null || current.currentWave == null
+        || current.currentWave + 1 >= ImageReplicationPlanner.getWaveCount(current.copyPlan)) {
+      return false;
+    }
+
+    int triggeredCopies = 0;
+    for (int wave = 0; wave <= current.currentWave; wave++) {
+      triggeredCopies += ImageReplicationPlanner.getCopyCount(current.copyPlan, wave);
+    }
+
+    return getCount(current.finishedCopies) + getCount(current.failedOrCanceledCopies) == triggeredCopies;
+  }
+
+  private static int getCount(Integer count) {
+    return count == null ? 0 : count;
+  }
+
+  private static long getBytes(Long bytes) {
+    return bytes == null ? 0 : bytes;
+  }
+
+  /**
+   * Updates the transfer progress of the replication from the copies completed so far. The remaining time is
+   * extrapolated from the time the completed copies took.
+   *
+   * @param current
+   */
+  private void updateTransferProgress(State current) {
+    if (current.copyStartTimeMicros == null) {
       return;
     }
 
-    for (Datastore targetDataStore : targetDataStoreSet) {
-      triggerCopyService(current, targetDataStore.getId());
+    long elapsedMillis = ImageTransferMetrics.getDurationMillis(current.copyStartTimeMicros, Utils.getNowMicrosUtc());
+    current.throughputMBps = ImageTransferMetrics.getThroughputMBps(getBytes(current.bytesTransferred), elapsedMillis);
+
+    int completedCopies = getCount(current.finishedCopies) + getCount(current.failedOrCanceledCopies);
+    if (current.dataStoreCount != null && current.dataStoreCount > 0 && completedCopies > 0) {
+      current.progressPercent = Math.min(100, completedCopies * 100 / current.dataStoreCount);
+      current.estimatedRemainingMillis =
+          Math.max(0, elapsedMillis * (current.dataStoreCount - completedCopies) / completedCopies);
     }
   }
 
   /**
-   * Triggers an ImageCopyService for the datastore passed as a parameter.
+   * Advances the current wave past the waves whose copies have all completed, the replicas they created are the
+   * sources of the next wave. The caller stores the advanced state before it triggers the copies of the returned
+   * waves, so a concurrent update cannot trigger them again.
    *
    * @param current
-   * @param datastore
+   * @return the waves to trigger
    */
-  protected void triggerCopyService(final State current, String datastore) {
-    // build completion handler
-    Operation.CompletionHandler handler = new Operation.CompletionHandler() {
+  private List<Integer> advanceWaves(final State current) {
+    List<Integer> waves = new ArrayList<>();
+    if (current.taskInfo.stage != TaskState.TaskStage.STARTED
+        || current.taskInfo.subStage != TaskState.SubStage.AWAIT_COMPLETION) {
+      return waves;
+    }
+
+    while (isCurrentWaveCompleted(current)) {
+      current.currentWave = current.currentWave + 1;
+      waves.add(current.currentWave);
+    }
+
+    return waves;
+  }
+
+  /**
+   * Triggers the copies of the waves. The copies of a wave whose source copy failed fail as well, which fails the
+   * replication as before.
+   *
+   * @param current
+   * @param waves
+   */
+  private void triggerWaves(final State current, List<Integer> waves) {
+    for (int wave : waves) {
+      ServiceUtils.logInfo(this, "Triggering copy wave %d", wave);
+      triggerCopyServices(current.copyPlan, wave, current);
+    }
+  }
+
+  /**
+   * This function creates the copy service instances of a wave parented to the current service instance.
+   *
+   * @param copyPlan
+   * @param wave
+   * @param current
+   */
+  private void triggerCopyServices(List<ImageReplicationPlanner.Copy> copyPlan, int wave, State current) {
+    if (copyPlan.isEmpty()) {
+      ServiceUtils.logInfo(this, "No copies to trigger!");
+      return;
+    }
+
+    for (ImageReplicationPlanner.Copy copy : copyPlan) {
+      if (copy.wave != wave) {
+        continue;
+      }
+
+      if (copy.isHostToHost()) {
+        triggerHostToHostCopyService(current, copy);
+      } else {
+        triggerCopyService(current, copy);
+      }
+    }
+  }
+
+  /**
+   * Builds the completion handler of the requests creating the copy services.
+   *
+   * @return
+   */
+  private Operation.CompletionHandler buildCopyRequestHandler() {
+    return new Operation.CompletionHandler() {
       @Override
       public void handle(Operation acknowledgeOp, Throwable failure) {
         if (failure != null) {
-          // we could not start an ImageCopyService task. Something went horribly wrong. Fail
+          // we could not start a copy task. Something went horribly wrong. Fail
           // the current task and stop processing.
           RuntimeException e = new RuntimeException(
               String.format("Failed to send copy request %s", failure));
@@ -437,110 +741,177 @@ public class ImageReplicatorService extends StatefulService {
         }
       }
     };
+  }
 
+  /**
+   * Triggers an ImageHostToHostCopyService for the planned copy passed as a parameter.
+   *
+   * @param current
+   * @param copy
+   */
+  protected void triggerHostToHostCopyService(final State current, ImageReplicationPlanner.Copy copy) {
     // build start state
-    ImageCopyService.State copyState = new ImageCopyService.State();
+    ImageHostToHostCopyService.State copyState = new ImageHostToHostCopyService.State();
     copyState.image = current.image;
-    copyState.sourceImageDataStoreName = current.datastore;
-    copyState.destinationDataStoreId = datastore;
+    copyState.sourceDataStore = copy.sourceDatastore;
+    copyState.destinationDataStore = copy.destinationDatastore;
+    copyState.sourceHost = copy.host;
+    copyState.destinationHost = copy.destinationHost;
+    copyState.imageSize = current.imageSize;
     copyState.parentLink = getSelfLink();
     copyState.documentExpirationTimeMicros = current.documentExpirationTimeMicros;
 
     // start service
     Operation copyOperation = Operation
-        .createPost(UriUtils.buildUri(getHost(), ImageCopyServiceFactory.SELF_LINK))
+        .createPost(UriUtils.buildUri(getHost(), ImageHostToHostCopyServiceFactory.SELF_LINK))
         .setBody(copyState)
-        .setCompletion(handler);
+        .setCompletion(buildCopyRequestHandler());
     this.sendRequest(copyOperation);
   }
 
   /**
-   * Triggers a query to retrieve the "child" ImageDeleteService instances in FINISHED state.
+   * Triggers an ImageCopyService for the planned copy passed as a parameter.
    *
    * @param current
+   * @param copy
    */
-  private void checkFinishedCount(final State current) {
-    Operation.CompletionHandler handler = new Operation.CompletionHandler() {
-      @Override
-      public void handle(Operation completedOp, Throwable failure) {
-        if (failure != null) {
-          // The query failed to execute. This most likely means that the
-          // host is in a bad state and if we re-issue the query it is likely
-          // to fail again. Terminate and fail the task early and delegate any
-          // retry logic to the caller.
-          failTask(failure);
-          return;
-        }
-
-        QueryTask rsp = completedOp.getBody(QueryTask.class);
+  protected void triggerCopyService(final State current, ImageReplicationPlanner.Copy copy) {
+    // build start state
+    ImageCopyService.State copyState = new ImageCopyService.State();
+    copyState.image = current.image;
+    copyState.sourceImageDataStoreName = copy.sourceDatastore;
+    copyState.destinationDataStoreId = copy.destinationDatastore;
+    copyState.host = copy.host;
+    copyState.imageSize = current.imageSize;
+    copyState.parentLink = getSelfLink();
+    copyState.documentExpirationTimeMicros = current.documentExpirationTimeMicros;
 
-        State s = buildPatch(current.taskInfo.stage, current.taskInfo.subStage, null);
-        ServiceUtils.logInfo(ImageReplicatorService.this, "Finished %s", Utils.toJson(rsp.results.documentLinks));
-        s.finishedCopies = rsp.results.documentLinks.size();
+    // start service
+    Operation copyOperation = Operation
+        .createPost(UriUtils.buildUri(getHost(), ImageCopyServiceFactory.SELF_LINK))
+        .setBody(copyState)
+        .setCompletion(buildCopyRequestHandler());
+    this.sendRequest(copyOperation);
+  }
 
-        sendSelfPatch(s);
-      }
-    };
+  /**
+   * Schedules the fallback query for the copy services which completed without their notification being received. The
+   * query is repeated while the service awaits the completion of the copy services and counts them from their
+   * notifications.
+   *
+   * @param current
+   */
+  private void scheduleMissedCompletionQuery(final State current) {
+    getHost().schedule(() -> sendRequest(Operation
+        .createGet(UriUtils.buildUri(getHost(), getSelfLink()))
+        .setCompletion((getOperation, failure) -> {
+          if (failure != null) {
+            ServiceUtils.logWarning(this, "Failed to get the state of %s: %s", getSelfLink(), failure.toString());
+            return;
+          }
+
+          State state = getOperation.getBody(State.class);
+          if (state.taskInfo.stage != TaskState.TaskStage.STARTED
+              || state.taskInfo.subStage != TaskState.SubStage.AWAIT_COMPLETION
+              || state.isPollingChildCompletion) {
+            return;
+          }
+
+          ChildTaskCompletionRequest.sendMissed(this, state.completedCopies, ImageCopyService.State.class,
+              ImageHostToHostCopyService.State.class);
+          scheduleMissedCompletionQuery(state);
+        })), current.queryPollDelay * MISSED_COMPLETION_QUERY_FACTOR, TimeUnit.MILLISECONDS);
+  }
 
-    QueryTask.QuerySpecification spec =
-        QueryTaskUtils.buildChildServiceTaskStatusQuerySpec(
-            this.getSelfLink(), ImageCopyService.State.class, TaskState.TaskStage.FINISHED);
+  private static boolean isEnteringAwaitCompletion(State current, State patch) {
+    return patch.taskInfo != null
+        && patch.taskInfo.subStage == TaskState.SubStage.AWAIT_COMPLETION
+        && current.taskInfo.subStage != TaskState.SubStage.AWAIT_COMPLETION;
+  }
 
-    this.sendQuery(spec, handler);
+  /**
+   * Triggers a query to retrieve the "child" copy service instances in FINISHED state.
+   *
+   * @param current
+   */
+  private void checkFinishedCount(final State current) {
+    countChildCopies(
+        (count) -> {
+          State s = buildPatch(current.taskInfo.stage, current.taskInfo.subStage, null);
+          ServiceUtils.logInfo(ImageReplicatorService.this, "Finished %d copies", count);
+          s.finishedCopies = count;
+
+          sendSelfPatch(s);
+        },
+        TaskState.TaskStage.FINISHED);
   }
 
   /**
-   * Triggers a query to retrieve the "child" ImageCopyService instances in FAILED or CANCELLED state.
+   * Triggers a query to retrieve the "child" copy service instances in FAILED or CANCELLED state.
    *
    * @param current
    */
   private void checkFailedOrCancelledCount(final State current) {
-    Operation.CompletionHandler handler = new Operation.CompletionHandler() {
-      @Override
-      public void handle(Operation completedOp, Throwable failure) {
-        if (failure != null) {
-          // The query failed to execute. This most likely means that the
-          // host is in a bad state and if we re-issue the query it is likely
-          // to fail again. Terminate and fail the task early and delegate any
-          // retry logic to the caller.
-          failTask(failure);
-          return;
-        }
-
-        QueryTask rsp = completedOp.getBody(QueryTask.class);
+    countChildCopies(
+        (count) -> {
+          State s = buildPatch(current.taskInfo.stage, current.taskInfo.subStage, null);
+          ServiceUtils.logInfo(ImageReplicatorService.this, "Failed %d copies", count);
+          s.failedOrCanceledCopies = count;
+
+          sendSelfPatch(s);
+        },
+        TaskState.TaskStage.FAILED,
+        TaskState.TaskStage.CANCELLED);
+  }
 
-        State s = buildPatch(current.taskInfo.stage, current.taskInfo.subStage, null);
-        ServiceUtils.logInfo(ImageReplicatorService.this, "Failed %s", Utils.toJson(rsp.results.documentLinks));
-        s.failedOrCanceledCopies = rsp.results.documentLinks.size();
+  /**
+   * Counts the ImageCopyService and ImageHostToHostCopyService instances parented to the current service instance
+   * in one of the given stages.
+   *
+   * @param handler
+   * @param stages
+   */
+  private void countChildCopies(final IntConsumer handler, TaskState.TaskStage... stages) {
+    OperationJoin.JoinedCompletionHandler joinHandler = (ops, failures) -> {
+      if (failures != null && !failures.isEmpty()) {
+        // The query failed to execute. This most likely means that the
+        // host is in a bad state and if we re-issue the query it is likely
+        // to fail again. Terminate and fail the task early and delegate any
+        // retry logic to the caller.
+        failTask(failures.values().iterator().next());
+        return;
+      }
 
-        sendSelfPatch(s);
+      int count = 0;
+      for (Operation op : ops.values()) {
+        count += op.getBody(QueryTask.class).results.documentLinks.size();
       }
-    };
 
-    QueryTask.QuerySpecification spec =
-        QueryTaskUtils.buildChildServiceTaskStatusQuerySpec(
-            this.getSelfLink(),
-            ImageCopyService.State.class,
-            TaskState.TaskStage.FAILED,
-            TaskState.TaskStage.CANCELLED);
+      handler.accept(count);
+    };
 
-    this.sendQuery(spec, handler);
+    OperationJoin join = OperationJoin.create(
+        buildQuery(QueryTaskUtils.buildChildServiceTaskStatusQuerySpec(
+            this.getSelfLink(), ImageCopyService.State.class, stages)),
+        buildQuery(QueryTaskUtils.buildChildServiceTaskStatusQuerySpec(
+            this.getSelfLink(), ImageHostToHostCopyService.State.class, stages)));
+    join.setCompletion(joinHandler);
+    join.sendWith(this);
   }
 
   /**
-   * Triggers a query task with the spec passed as parameters.
+   * Builds a query task operation with the spec passed as parameters.
    *
    * @param spec
+   * @return
    */
-  private void sendQuery(QueryTask.QuerySpecification spec, Operation.CompletionHandler handler) {
+  private Operation buildQuery(QueryTask.QuerySpecification spec) {
     QueryTask task = QueryTask.create(spec)
         .setDirect(true);
 
-    Operation queryPost = Operation
+    return Operation
         .createPost(UriUtils.buildUri(getHost(), LuceneQueryTaskFactoryService.SELF_LINK))
-        .setBody(task)
-        .setCompletion(handler);
-    sendRequest(queryPost);
+        .setBody(task);
   }
 
   /**
@@ -664,6 +1035,21 @@ public class ImageReplicatorService extends StatefulService {
      */
     public Integer dataStoreCount;
 
+    /**
+     * Maximum number of copies reading from a datastore or performed by a host in a wave.
+     */
+    public Integer maxCopiesPerSource;
+
+    /**
+     * Planned copies, one per datastore.
+     */
+    public List<ImageReplicationPlanner.Copy> copyPlan;
+
+    /**
+     * Wave of the copy plan whose copies were triggered last.
+     */
+    public Integer currentWave;
+
     /**
      * Count of individual copies in FINISHED state.
      */
@@ -673,5 +1059,45 @@ public class ImageReplicatorService extends StatefulService {
      * Count of individual copies in FAILED or CANCELED state.
      */
     public Integer failedOrCanceledCopies;
+
+    /**
+     * Flag indicating that the copies are counted by querying for them instead of from their notifications.
+     */
+    public boolean isPollingChildCompletion;
+
+    /**
+     * Links of the copy service instances whose completion was notified, a repeated notification is not counted.
+     */
+    public Set<String> completedCopies;
+
+    /**
+     * Size of the image in bytes.
+     */
+    public Long imageSize;
+
+    /**
+     * Time at which the first copies were triggered.
+     */
+    public Long copyStartTimeMicros;
+
+    /**
+     * Bytes transferred by the finished copies, as notified by the copy services.
+     */
+    public Long bytesTransferred;
+
+    /**
+     * Percentage of the copies that have completed.
+     */
+    public Integer progressPercent;
+
+    /**
+     * Throughput of the replication in MB/s since the first copies were triggered.
+     */
+    public Double throughputMBps;
+
+    /**
+     * Estimated time in milliseconds until all the copies complete.
+     */
+    public Long estimatedRemainingMillis;
   }
 }
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.housekeeper.dcp;
+
+import com.vmware.photon.controller.resource.gen.Datastore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Class ImageSweepScheduler decides in which order and how many ImageDatastoreSweeperService instances the
+ * ImageCleanerService runs at a time. The datastores with the most reclaimable images are swept first, and the
+ * running sweeps are limited globally, per host performing the sweep and per storage backend.
+ * <p>
+ * The storage backend of a datastore is read from a tag prefixed with {@link #STORAGE_BACKEND_TAG_PREFIX}, a
+ * datastore without such a tag is its own backend.
+ * </p>
+ */
+public class ImageSweepScheduler {
+
+  /**
+   * Default maximum number of sweeps running at the same time.
+   */
+  public static final int DEFAULT_MAX_CONCURRENT_SWEEPS = 16;
+
+  /**
+   * Default maximum number of sweeps performed by a host at the same time.
+   */
+  public static final int DEFAULT_MAX_SWEEPS_PER_HOST = 2;
+
+  /**
+   * Default maximum number of sweeps running on a storage backend at the same time.
+   */
+  public static final int DEFAULT_MAX_SWEEPS_PER_STORAGE_BACKEND = 2;
+
+  /**
+   * Prefix of the datastore tag naming the storage backend of the datastore.
+   */
+  public static final String STORAGE_BACKEND_TAG_PREFIX = "storage_backend:";
+
+  private final int maxConcurrentSweeps;
+
+  private final int maxSweepsPerHost;
+
+  private final int maxSweepsPerStorageBackend;
+
+  /**
+   * Constructor.
+   *
+   * @param maxConcurrentSweeps
+   * @param maxSweepsPerHost
+   * @param maxSweepsPerStorageBackend
+   */
+  public ImageSweepScheduler(int maxConcurrentSweeps, int maxSweepsPerHost, int maxSweepsPerStorageBackend) {
+    checkArgument(maxConcurrentSweeps > 0, "maxConcurrentSweeps needs to be greater than 0");
+    checkArgument(maxSweepsPerHost > 0, "maxSweepsPerHost needs to be greater than 0");
+    checkArgument(maxSweepsPerStorageBackend > 0, "maxSweepsPerStorageBackend needs to be greater than 0");
+
+    this.maxConcurrentSweeps = maxConcurrentSweeps;
+    this.maxSweepsPerHost = maxSweepsPerHost;
+    this.maxSweepsPerStorageBackend = maxSweepsPerStorageBackend;
+  }
+
+  /**
+   * Returns the storage backend of a datastore.
+   *
+   * @param datastore
+   * @return
+   */
+  public static String getStorageBackend(Datastore datastore) {
+    if (datastore.getTags() != null) {
+      for (String tag : new TreeSet<>(datastore.getTags())) {
+        if (tag.startsWith(STORAGE_BACKEND_TAG_PREFIX) && tag.length() > STORAGE_BACKEND_TAG_PREFIX.length()) {
+          return tag.substring(STORAGE_BACKEND_TAG_PREFIX.length());
+        }
+      }
+    }
+
+    return datastore.getId();
+  }
+
+  /**
+   * Estimates the images each datastore sweep can delete from the previous finished sweeps of the datastores: the
+   * inactive images the latest sweep of a datastore could not delete yet because they had not been unused for long
+   * enough. Datastores without a previous sweep are not part of the result.
+   *
+   * @param previousSweeps
+   * @return
+   */
+  public static Map<String, Long> estimateReclaimableImages(
+      Collection<ImageDatastoreSweeperService.State> previousSweeps) {
+    Map<String, ImageDatastoreSweeperService.State> latestSweeps = new HashMap<>();
+    for (ImageDatastoreSweeperService.State sweep : previousSweeps) {
+      ImageDatastoreSweeperService.State latest = latestSweeps.get(sweep.datastore);
+      if (latest == null || latest.documentUpdateTimeMicros < sweep.documentUpdateTimeMicros) {
+        latestSweeps.put(sweep.datastore, sweep);
+      }
+    }
+
+    Map<String, Long> estimates = new HashMap<>();
+    for (ImageDatastoreSweeperService.State sweep : latestSweeps.values()) {
+      long inactiveImages = sweep.inactiveImagesCount == null ? 0 : sweep.inactiveImagesCount;
+      long deletedImages = sweep.deletedImagesCount == null ? 0 : sweep.deletedImagesCount;
+      estimates.put(sweep.datastore, Math.max(0, inactiveImages - deletedImages));
+    }
+
+    return estimates;
+  }
+
+  /**
+   * Orders the sweeps to run: most reclaimable images first, then image datastores, then by datastore id.
+   *
+   * @param sweeps
+   * @return
+   */
+  public static List<Sweep> order(Collection<Sweep> sweeps) {
+    List<Sweep> ordered = new ArrayList<>(sweeps);
+    ordered.sort(Comparator
+        .comparingLong((Sweep sweep) -> -sweep.reclaimableImages)
+        .thenComparing(sweep -> !sweep.isImageDatastore)
+        .thenComparing(sweep -> sweep.datastore));
+
+    return ordered;
+  }
+
+  /**
+   * Selects the pending sweeps that can start next without exceeding the limits, in the order of the pending
+   * list. A sweep waiting for its host or storage backend does not block the sweeps after it. The host
+   * performing each selected sweep is set to its least loaded host.
+   *
+   * @param pending the sweeps not started yet, in the order they should run
+   * @param running the sweeps started and not completed yet
+   * @return
+   */
+  public List<Sweep> select(List<Sweep> pending, Collection<Sweep> running) {
+    checkNotNull(pending, "pending cannot be null");
+    checkNotNull(running, "running cannot be null");
+
+    Map<String, Integer> hostLoad = new HashMap<>();
+    Map<String, Integer> backendLoad = new HashMap<>();
+    for (Sweep sweep : running) {
+      if (sweep.host != null) {
+        increment(hostLoad, sweep.host);
+      }
+      increment(backendLoad, sweep.storageBackend);
+    }
+
+    List<Sweep> selected = new ArrayList<>();
+    for (Sweep sweep : pending) {
+      if (running.size() + selected.size() >= maxConcurrentSweeps) {
+        break;
+      }
+
+      if (getLoad(backendLoad, sweep.storageBackend) >= maxSweepsPerStorageBackend) {
+        continue;
+      }
+
+      String host = null;
+      if (sweep.hosts != null && !sweep.hosts.isEmpty()) {
+        for (String candidate : new TreeSet<>(sweep.hosts)) {
+          if (getLoad(hostLoad, candidate) < maxSweepsPerHost
+              && (host == null || getLoad(hostLoad, candidate) < getLoad(hostLoad, host))) {
+            host = candidate;
+          }
+        }
+
+        if (host == null) {
+          continue;
+        }
+
+        increment(hostLoad, host);
+      }
+
+      increment(backendLoad, sweep.storageBackend);
+      sweep.host = host;
+      selected.add(sweep);
+    }
+
+    return selected;
+  }
+
+  private static int getLoad(Map<String, Integer> load, String key) {
+    Integer value = load.get(key);
+    return value == null ? 0 : value;
+  }
+
+  private static void increment(Map<String, Integer> load, String key) {
+    load.put(key, getLoad(load, key) + 1);
+  }
+
+  /**
+   * Class encapsulating the sweep of a datastore.
+   */
+  public static class Sweep {
+
+    /**
+     * The datastore to sweep.
+     */
+    public String datastore;
+
+    /**
+     * Flag indicating if the datastore is an image datastore.
+     */
+    public boolean isImageDatastore;
+
+    /**
+     * The storage backend of the datastore.
+     */
+    public String storageBackend;
+
+    /**
+     * The hosts attached to the datastore.
+     */
+    public List<String> hosts;
+
+    /**
+     * Estimated number of images the sweep deletes.
+     */
+    public long reclaimableImages;
+
+    /**
+     * Host performing the sweep, set when the sweep is selected to start. Null lets the sweeper select a host.
+     */
+    public String host;
+
+    public Sweep() {
+    }
+
+    public Sweep(String datastore, boolean isImageDatastore, String storageBackend, List<String> hosts,
+                 long reclaimableImages) {
+      this.datastore = datastore;
+      this.isImageDatastore = isImageDatastore;
+      this.storageBackend = storageBackend;
+      this.hosts = hosts;
+      this.reclaimableImages = reclaimableImages;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.housekeeper.dcp;
+
+import com.vmware.photon.controller.common.metrics.DefaultMetricRegistry;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the image transfers performed by the copy services. The agent does not report the progress of a copy, so
+ * a transfer is measured client-side from the start of the copy call to its completion.
+ * <p>
+ * The throughput and duration of the transfers are kept in {@link DefaultMetricRegistry} histograms per source and
+ * destination datastore.
+ * </p>
+ */
+public class ImageTransferMetrics {
+
+  /**
+   * Histogram of the transfer throughput in KB/s.
+   */
+  public static final String THROUGHPUT_METRIC = "throughput-kbps";
+
+  /**
+   * Histogram of the transfer duration in milliseconds.
+   */
+  public static final String DURATION_METRIC = "duration-ms";
+
+  private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+  /**
+   * Returns the name of the histogram of a metric for the transfers between two datastores.
+   *
+   * @param metric
+   * @param sourceDatastore
+   * @param destinationDatastore
+   * @return
+   */
+  public static String getMetricName(String metric, String sourceDatastore, String destinationDatastore) {
+    return name(ImageTransferMetrics.class, sourceDatastore, destinationDatastore, metric);
+  }
+
+  /**
+   * Returns the throughput in MB/s of a transfer, 0 if the transfer took no measurable time.
+   *
+   * @param bytes
+   * @param durationMillis
+   * @return
+   */
+  public static double getThroughputMBps(long bytes, long durationMillis) {
+    if (durationMillis <= 0) {
+      return 0;
+    }
+
+    return bytes / BYTES_PER_MB / (durationMillis / 1000.0);
+  }
+
+  /**
+   * Returns the time elapsed in milliseconds since the given start time.
+   *
+   * @param startTimeMicros
+   * @param nowMicros
+   * @return
+   */
+  public static long getDurationMillis(long startTimeMicros, long nowMicros) {
+    return Math.max(0, TimeUnit.MICROSECONDS.toMillis(nowMicros - startTimeMicros));
+  }
+
+  /**
+   * Records a completed transfer between two datastores. The throughput is only recorded when the number of
+   * transferred bytes is known.
+   *
+   * @param sourceDatastore
+   * @param destinationDatastore
+   * @param bytes
+   * @param durationMillis
+   */
+  public static void record(String sourceDatastore, String destinationDatastore, Long bytes, long durationMillis) {
+    DefaultMetricRegistry.REGISTRY
+        .histogram(getMetricName(DURATION_METRIC, sourceDatastore, destinationDatastore))
+        .update(durationMillis);
+
+    if (bytes != null && durationMillis > 0) {
+      DefaultMetricRegistry.REGISTRY
+          .histogram(getMetricName(THROUGHPUT_METRIC, sourceDatastore, destinationDatastore))
+          .update(bytes * 1000 / 1024 / durationMillis);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.housekeeper.dcp;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Class ReferenceImageIndex is a Bloom filter over the ids of the images in cloud store. The ImageCleanerService
+ * builds it once per run and the ImageDatastoreSweeperService instances use it to look up only the inactive
+ * images that may be reference images. A negative answer is exact, a positive answer needs an exact lookup.
+ * <p>
+ * The index is part of the ImageCleanerService document, so it only uses fields that serialize to JSON.
+ * </p>
+ */
+public class ReferenceImageIndex {
+
+  /**
+   * Expected rate of false positives of the index.
+   */
+  public static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+  /**
+   * Version of the index, the time at which the images were retrieved.
+   */
+  public long version;
+
+  /**
+   * Number of images in the index.
+   */
+  public int imageCount;
+
+  /**
+   * Number of bits set per image.
+   */
+  public int hashCount;
+
+  /**
+   * The bits of the filter.
+   */
+  public long[] bits;
+
+  /**
+   * Builds an index containing the given image ids.
+   *
+   * @param version
+   * @param imageIds
+   * @return
+   */
+  public static ReferenceImageIndex create(long version, Collection<String> imageIds) {
+    checkNotNull(imageIds, "imageIds cannot be null");
+
+    int n = Math.max(1, imageIds.size());
+    long bitCount = (long) Math.ceil(-n * Math.log(FALSE_POSITIVE_PROBABILITY) / (Math.log(2) * Math.log(2)));
+
+    ReferenceImageIndex index = new ReferenceImageIndex();
+    index.version = version;
+    index.imageCount = imageIds.size();
+    index.bits = new long[(int) Math.max(1, (bitCount + Long.SIZE - 1) / Long.SIZE)];
+    index.hashCount = (int) Math.max(1, Math.round((double) index.getBitCount() / n * Math.log(2)));
+
+    for (String imageId : imageIds) {
+      index.add(imageId);
+    }
+
+    return index;
+  }
+
+  /**
+   * Returns false if the image is not in the index, true if it may be.
+   *
+   * @param imageId
+   * @return
+   */
+  public boolean mightContain(String imageId) {
+    long[] hashes = hash(imageId);
+    for (int i = 0; i < hashCount; i++) {
+      long bit = getBit(hashes, i);
+      if ((bits[(int) (bit / Long.SIZE)] & (1L << (bit % Long.SIZE))) == 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private void add(String imageId) {
+    long[] hashes = hash(imageId);
+    for (int i = 0; i < hashCount; i++) {
+      long bit = getBit(hashes, i);
+      bits[(int) (bit / Long.SIZE)] |= 1L << (bit % Long.SIZE);
+    }
+  }
+
+  private long getBitCount() {
+    return (long) bits.length * Long.SIZE;
+  }
+
+  /**
+   * Derives the i-th bit from two independent hashes of the image id.
+   */
+  private long getBit(long[] hashes, int i) {
+    long combined = hashes[0] + i * hashes[1];
+    return (combined & Long.MAX_VALUE) % getBitCount();
+  }
+
+  private static long[] hash(String imageId) {
+    HashCode hashCode = Hashing.murmur3_128().hashString(imageId, StandardCharsets.UTF_8);
+    byte[] bytes = hashCode.asBytes();
+    long first = 0;
+    long second = 0;
+    for (int i = 0; i < Long.BYTES; i++) {
+      first |= (bytes[i] & 0xFFL) << (i * Byte.SIZE);
+      second |= (bytes[i + Long.BYTES] & 0xFFL) << (i * Byte.SIZE);
+    }
+
+    return new long[]{first, second};
+  }
+}
@@ -63,6 +63,7 @@ public class HousekeeperDcpServiceHostTest {
   private String[] serviceSelfLinks = new String[]{
       ImageReplicatorServiceFactory.SELF_LINK,
       ImageCopyServiceFactory.SELF_LINK,
+      ImageHostToHostCopyServiceFactory.SELF_LINK,
       ImageRemoverServiceFactory.SELF_LINK,
       ImageDatastoreSweeperServiceFactory.SELF_LINK,
       ImageCleanerServiceFactory.SELF_LINK,
@@ -72,6 +73,7 @@ public class HousekeeperDcpServiceHostTest {
       TaskSchedulerServiceFactory.SELF_LINK,
       HousekeeperDcpServiceHost.getTriggerCleanerServiceUri(),
       HousekeeperDcpServiceHost.IMAGE_COPY_SCHEDULER_SERVICE,
+      HousekeeperDcpServiceHost.IMAGE_HOST_TO_HOST_COPY_SCHEDULER_SERVICE,
       HousekeeperDcpServiceHost.IMAGE_DELETE_SCHEDULER_SERVICE
   };
 
@@ -47,6 +47,7 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
@@ -62,6 +63,7 @@ import static org.testng.Assert.fail;
 import java.lang.reflect.Field;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
@@ -411,6 +413,10 @@ public class ImageCleanerServiceTest {
 
           {"imageDeleteWatermarkTime", 0L},
           {"imageDeleteWatermarkTime", -10L},
+
+          {"maxConcurrentSweeps", 0},
+          {"maxSweepsPerHost", -1},
+          {"maxSweepsPerStorageBackend", 0},
       };
     }
   }
@@ -1019,6 +1025,8 @@ public class ImageCleanerServiceTest {
       ImageCleanerService.State startState = buildValidStartupState(
           ImageCleanerService.TaskState.TaskStage.STARTED, ImageCleanerService.TaskState.SubStage.TRIGGER_DELETES);
       updateFieldsNeededForSubStage(ImageCleanerService.TaskState.SubStage.TRIGGER_DELETES, startState);
+      // all the datastores of the mock share their hosts
+      startState.maxSweepsPerHost = dataStoreCount;
 
       host.startServiceSynchronously(service, startState);
       host.startFactoryServiceSynchronously(
@@ -1065,6 +1073,125 @@ public class ImageCleanerServiceTest {
       assertThat(hadIsImageDatastoreFlag, is(imageDataStoreCount));
     }
 
+    /**
+     * This function starts a new service in the TRIGGER_DELETES state and verifies that only the
+     * ImageDatastoreSweeperService instances allowed by the per host limit are started, image datastores first.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testImageDatastoreSweeperServicesLimitedPerHost() throws Throwable {
+      doReturn(new ZookeeperHostMonitorSuccessMock(1,
+          ZookeeperHostMonitorSuccessMock.HOST_COUNT_DEFAULT, 4)).when(service).getZookeeperHostMonitor();
+
+      ImageCleanerService.State startState = buildValidStartupState(
+          ImageCleanerService.TaskState.TaskStage.STARTED, ImageCleanerService.TaskState.SubStage.TRIGGER_DELETES);
+      updateFieldsNeededForSubStage(ImageCleanerService.TaskState.SubStage.TRIGGER_DELETES, startState);
+      startState.maxSweepsPerHost = 1;
+
+      host.startServiceSynchronously(service, startState);
+      host.startFactoryServiceSynchronously(
+          new ImageDatastoreSweeperServiceFactory(), ImageDatastoreSweeperServiceFactory.SELF_LINK);
+
+      ImageCleanerService.State patchState = new ImageCleanerService.State();
+      patchState.taskInfo = new ImageCleanerService.TaskState();
+      patchState.taskInfo.stage = ImageCleanerService.TaskState.TaskStage.STARTED;
+      patchState.taskInfo.subStage = ImageCleanerService.TaskState.SubStage.TRIGGER_DELETES;
+
+      host.sendRequestAndWait(Operation
+          .createPatch(UriUtils.buildUri(host, TestHost.SERVICE_URI, null))
+          .setBody(patchState));
+
+      QueryTask.QuerySpecification spec = QueryTaskUtils.buildChildServiceQuerySpec(
+          service.getSelfLink(),
+          ImageDatastoreSweeperService.State.class);
+      spec.options = EnumSet.of(QueryTask.QuerySpecification.QueryOption.EXPAND_CONTENT);
+
+      QueryTask response = host.waitForQuery(QueryTask.create(spec).setDirect(true),
+          queryTask -> queryTask.results.documentLinks.size() >= 1
+      );
+      assertThat(response.results.documentLinks.size(), is(1));
+
+      ImageDatastoreSweeperService.State docState = Utils.fromJson(
+          response.results.documents.values().iterator().next(), ImageDatastoreSweeperService.State.class);
+      assertThat(docState.isImageDatastore, is(true));
+      assertThat(docState.host, is("192.168.0.1"));
+    }
+
+    /**
+     * Tests that a repeated notification of a completed sweep is counted once.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testRepeatedChildTaskCompleted() throws Throwable {
+      host.startServiceSynchronously(service, buildValidStartupState());
+
+      ChildTaskCompletionRequest request = new ChildTaskCompletionRequest();
+      request.kind = ChildTaskCompletionRequest.Kind.CHILD_TASK_COMPLETED;
+      request.childLink = UriUtils.buildUriPath(ImageDatastoreSweeperServiceFactory.SELF_LINK,
+          ServiceUtils.getIDFromDocumentSelfLink(TestHost.SERVICE_URI) + "-datastore1");
+      request.stage = TaskState.TaskStage.FINISHED;
+
+      for (int i = 0; i < 2; i++) {
+        host.sendRequestAndWait(Operation
+            .createPatch(UriUtils.buildUri(host, TestHost.SERVICE_URI, null))
+            .setBody(request));
+      }
+
+      ImageCleanerService.State savedState = host.getServiceState(ImageCleanerService.State.class);
+      assertThat(savedState.finishedDeletes, is(1));
+      assertThat(savedState.completedSweeps, containsInAnyOrder(request.childLink));
+    }
+
+    /**
+     * Tests that the notification of a completed sweep starts the next pending sweep of a service restarted in
+     * the AWAIT_COMPLETION sub-stage, without starting the sweeps it had already started.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testChildTaskCompletedStartsPendingSweep() throws Throwable {
+      ImageCleanerService.State startState = buildValidStartupState(
+          ImageCleanerService.TaskState.TaskStage.STARTED, ImageCleanerService.TaskState.SubStage.AWAIT_COMPLETION);
+      updateFieldsNeededForSubStage(ImageCleanerService.TaskState.SubStage.AWAIT_COMPLETION, startState);
+      startState.dataStoreCount = 2;
+      startState.maxConcurrentSweeps = 1;
+      startState.startedSweeps = new ArrayList<>(Arrays.asList(
+          new ImageSweepScheduler.Sweep("datastore1", true, "datastore1", Arrays.asList("host1"), 0)));
+      startState.pendingSweeps = new ArrayList<>(Arrays.asList(
+          new ImageSweepScheduler.Sweep("datastore2", false, "datastore2", Arrays.asList("host1"), 0)));
+
+      host.startServiceSynchronously(service, startState);
+      host.startFactoryServiceSynchronously(
+          new ImageDatastoreSweeperServiceFactory(), ImageDatastoreSweeperServiceFactory.SELF_LINK);
+
+      ChildTaskCompletionRequest request = new ChildTaskCompletionRequest();
+      request.kind = ChildTaskCompletionRequest.Kind.CHILD_TASK_COMPLETED;
+      request.childLink = UriUtils.buildUriPath(ImageDatastoreSweeperServiceFactory.SELF_LINK,
+          ServiceUtils.getIDFromDocumentSelfLink(TestHost.SERVICE_URI) + "-datastore1");
+      request.stage = TaskState.TaskStage.FINISHED;
+
+      host.sendRequestAndWait(Operation
+          .createPatch(UriUtils.buildUri(host, TestHost.SERVICE_URI, null))
+          .setBody(request));
+
+      ImageCleanerService.State savedState = host.getServiceState(ImageCleanerService.State.class);
+      assertThat(savedState.isPollingChildCompletion, is(true));
+      assertThat(savedState.pendingSweeps.size(), is(0));
+      assertThat(savedState.startedSweeps.size(), is(2));
+      assertThat(savedState.completedSweeps, containsInAnyOrder(request.childLink));
+
+      QueryTask response = host.waitForQuery(
+          QueryTask.create(QueryTaskUtils.buildChildServiceQuerySpec(
+              service.getSelfLink(), ImageDatastoreSweeperService.State.class)).setDirect(true),
+          queryTask -> queryTask.results.documentLinks.size() >= 1
+      );
+      assertThat(response.results.documentLinks, containsInAnyOrder(UriUtils.buildUriPath(
+          ImageDatastoreSweeperServiceFactory.SELF_LINK,
+          ServiceUtils.getIDFromDocumentSelfLink(TestHost.SERVICE_URI) + "-datastore2")));
+    }
+
     /**
      * This function tests that the service goes into the FINISHED state if all batch
      * copy tasks finish successfully.
@@ -740,6 +740,7 @@ public class
       ImageService.State createdImageState = createNewImageEntity();
       int initialReplicatedDatastoreCount = createdImageState.replicatedDatastore;
       copyTask.image = ServiceUtils.getIDFromDocumentSelfLink(createdImageState.documentSelfLink);
+      copyTask.imageSize = 1024L;
 
       // Call Service.
       ImageCopyService.State response = machine.callServiceAndWaitForState(
@@ -748,12 +749,16 @@ public class
           ImageCopyService.State.class,
           (state) -> state.taskInfo.stage == TaskState.TaskStage.FINISHED);
 
-      //Check Image Service replicatedDatastore counts
+      //Check Image Service replicatedDatastore counts and transfer metrics
       createdImageState = machine.getServiceState(createdImageState.documentSelfLink, ImageService.State.class);
       if (code.equals(CopyImageResultCode.OK)) {
         assertThat(createdImageState.replicatedDatastore, is(initialReplicatedDatastoreCount + 1));
+        assertThat(response.bytesTransferred, is(1024L));
+        assertThat(response.copyDurationMillis, notNullValue());
+        assertThat(response.throughputMBps, notNullValue());
       } else {
         assertThat(createdImageState.replicatedDatastore, is(initialReplicatedDatastoreCount));
+        assertThat(response.bytesTransferred, nullValue());
       }
 
       // Check response.
@@ -13,26 +13,34 @@
 
 package com.vmware.photon.controller.housekeeper.dcp;
 
+import com.vmware.photon.controller.api.ImageReplicationType;
+import com.vmware.photon.controller.api.ImageState;
+import com.vmware.photon.controller.cloudstore.dcp.entity.ImageService;
+import com.vmware.photon.controller.cloudstore.dcp.entity.ImageServiceFactory;
 import com.vmware.photon.controller.common.clients.HostClient;
 import com.vmware.photon.controller.common.clients.HostClientFactory;
 import com.vmware.photon.controller.common.dcp.CloudStoreHelper;
+import com.vmware.photon.controller.common.dcp.ServiceHostUtils;
 import com.vmware.photon.controller.common.dcp.ServiceUtils;
 import com.vmware.photon.controller.common.dcp.exceptions.BadRequestException;
 import com.vmware.photon.controller.common.dcp.exceptions.DcpRuntimeException;
+import com.vmware.photon.controller.common.thrift.StaticServerSet;
 import com.vmware.photon.controller.common.zookeeper.ZookeeperHostMonitor;
-import com.vmware.photon.controller.host.gen.CopyImageResultCode;
+import com.vmware.photon.controller.host.gen.TransferImageResultCode;
 import com.vmware.photon.controller.housekeeper.dcp.mock.HostClientMock;
 import com.vmware.photon.controller.housekeeper.dcp.mock.ZookeeperHostMonitorSuccessMock;
 import com.vmware.photon.controller.housekeeper.helpers.dcp.TestEnvironment;
 import com.vmware.photon.controller.housekeeper.helpers.dcp.TestHost;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceHost;
 import com.vmware.xenon.common.ServiceStats;
 import com.vmware.xenon.common.TaskState;
 import com.vmware.xenon.common.UriUtils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.DataProvider;
@@ -50,9 +58,9 @@ import static org.mockito.Mockito.spy;
 import static org.testng.Assert.fail;
 
 import java.math.BigDecimal;
+import java.net.InetSocketAddress;
 import java.util.EnumSet;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Predicate;
 
 /**
  * Tests {@link com.vmware.photon.controller.housekeeper.dcp.ImageHostToHostCopyService}.
@@ -479,11 +487,10 @@ public class ImageHostToHostCopyServiceTest {
     /**
      * Tests copy success scenarios.
      *
-     * @param code Result code return from HostClient.
      * @throws Throwable
      */
-    @Test(dataProvider = "copyImageSuccessCode")
-    public void testSuccess(int hostCount, CopyImageResultCode code) throws Throwable {
+    @Test(dataProvider = "hostCount")
+    public void testSuccess(int hostCount) throws Throwable {
       HostClientMock hostClient = new HostClientMock();
 
       zookeeperHostMonitor = new ZookeeperHostMonitorSuccessMock(
@@ -491,22 +498,24 @@ public class ImageHostToHostCopyServiceTest {
           hostCount,
           ZookeeperHostMonitorSuccessMock.DATASTORE_COUNT_DEFAULT);
 
-      hostClient.setCopyImageResultCode(code);
       doReturn(hostClient).when(hostClientFactory).create();
-
+      cloudStoreHelper = new CloudStoreHelper();
       machine = TestEnvironment.create(cloudStoreHelper, hostClientFactory, zookeeperHostMonitor, hostCount);
 
+      ImageService.State createdImageState = createNewImageEntity();
+      int initialReplicatedDatastoreCount = createdImageState.replicatedDatastore;
+      copyTask.image = ServiceUtils.getIDFromDocumentSelfLink(createdImageState.documentSelfLink);
+
       // Call Service.
       ImageHostToHostCopyService.State response = machine.callServiceAndWaitForState(
           ImageHostToHostCopyServiceFactory.SELF_LINK,
           copyTask,
           ImageHostToHostCopyService.State.class,
-          new Predicate<ImageHostToHostCopyService.State>() {
-            @Override
-            public boolean test(ImageHostToHostCopyService.State state) {
-              return state.taskInfo.stage == TaskState.TaskStage.FINISHED;
-            }
-          });
+          (state) -> state.taskInfo.stage == TaskState.TaskStage.FINISHED);
+
+      // Check Image Service replicatedDatastore counts
+      createdImageState = machine.getServiceState(createdImageState.documentSelfLink, ImageService.State.class);
+      assertThat(createdImageState.replicatedDatastore, is(initialReplicatedDatastoreCount + 1));
 
       // Check response.
       assertThat(response.image, is(copyTask.image));
@@ -518,11 +527,74 @@ public class ImageHostToHostCopyServiceTest {
       assertThat(
           stats.entries.get(Service.Action.PATCH + Service.STAT_NAME_REQUEST_COUNT).latestValue,
           greaterThanOrEqualTo(
-              1.0 + // Create Patch
-                  1.0 + // Scheduler start patch
-                  1.0 + // Host and dest data store retrieved
+              1.0 + // Scheduler start patch
                   1.0   // FINISHED
           ));
     }
+
+    /**
+     * Tests copy failure scenarios.
+     *
+     * @param code Result code return from HostClient.
+     * @throws Throwable
+     */
+    @Test(dataProvider = "transferImageFailureCode")
+    public void testFailure(int hostCount, TransferImageResultCode code) throws Throwable {
+      HostClientMock hostClient = new HostClientMock();
+      hostClient.setTransferImageResultCode(code);
+      doReturn(hostClient).when(hostClientFactory).create();
+
+      zookeeperHostMonitor = new ZookeeperHostMonitorSuccessMock(
+          ZookeeperHostMonitorSuccessMock.IMAGE_DATASTORE_COUNT_DEFAULT,
+          hostCount,
+          ZookeeperHostMonitorSuccessMock.DATASTORE_COUNT_DEFAULT);
+
+      machine = TestEnvironment.create(cloudStoreHelper, hostClientFactory, zookeeperHostMonitor, hostCount);
+
+      // Call Service.
+      ImageHostToHostCopyService.State response = machine.callServiceAndWaitForState(
+          ImageHostToHostCopyServiceFactory.SELF_LINK,
+          copyTask,
+          ImageHostToHostCopyService.State.class,
+          (state) -> state.taskInfo.stage == TaskState.TaskStage.FAILED);
+
+      // Check response.
+      assertThat(response.image, is(copyTask.image));
+      assertThat(response.taskInfo.failure, notNullValue());
+    }
+
+    @DataProvider(name = "transferImageFailureCode")
+    public Object[][] getTransferImageFailureCode() {
+      return new Object[][]{
+          {1, TransferImageResultCode.SYSTEM_ERROR},
+          {TestEnvironment.DEFAULT_MULTI_HOST_COUNT, TransferImageResultCode.TRANSFER_IN_PROGRESS}
+      };
+    }
+
+    private ImageService.State createNewImageEntity() throws Throwable {
+      ServiceHost host = machine.getHosts()[0];
+      StaticServerSet serverSet = new StaticServerSet(
+          new InetSocketAddress(host.getPreferredAddress(), host.getPort()));
+      cloudStoreHelper.setServerSet(serverSet);
+
+      machine.startFactoryServiceSynchronously(ImageServiceFactory.class, ImageServiceFactory.SELF_LINK);
+
+      ImageService.State state = new ImageService.State();
+      state.name = "image-1";
+      state.replicationType = ImageReplicationType.EAGER;
+      state.state = ImageState.READY;
+      state.totalDatastore = 1;
+
+      Operation op = cloudStoreHelper
+          .createPost(ImageServiceFactory.SELF_LINK)
+          .setBody(state)
+          .setCompletion((operation, throwable) -> {
+            if (null != throwable) {
+              Assert.fail("Failed to create a image in cloud store.");
+            }
+          });
+      Operation result = ServiceHostUtils.sendRequestAndWait(host, op, "test-host");
+      return result.getBody(ImageService.State.class);
+    }
   }
 }
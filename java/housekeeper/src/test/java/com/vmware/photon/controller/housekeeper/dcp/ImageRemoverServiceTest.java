@@ -771,6 +771,94 @@ public class ImageRemoverServiceTest {
       }
     }
 
+    /**
+     * Test that the completion notifications of the ImageDeleteService instances update the counts.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testChildTaskCompletedPatch() throws Throwable {
+      host.startServiceSynchronously(service, buildValidStartupState());
+
+      for (ImageRemoverService.TaskState.TaskStage stage : new ImageRemoverService.TaskState.TaskStage[]{
+          ImageRemoverService.TaskState.TaskStage.FINISHED,
+          ImageRemoverService.TaskState.TaskStage.FAILED,
+          ImageRemoverService.TaskState.TaskStage.FINISHED}) {
+        ChildTaskCompletionRequest request = new ChildTaskCompletionRequest();
+        request.kind = ChildTaskCompletionRequest.Kind.CHILD_TASK_COMPLETED;
+        request.childLink = "/image-deletes/" + UUID.randomUUID().toString();
+        request.stage = stage;
+
+        Operation patch = Operation
+            .createPatch(UriUtils.buildUri(host, TestHost.SERVICE_URI, null))
+            .setBody(request);
+
+        Operation resultOp = host.sendRequestAndWait(patch);
+        assertThat(resultOp.getStatusCode(), is(200));
+      }
+
+      ImageRemoverService.State savedState = host.getServiceState(ImageRemoverService.State.class);
+      assertThat(savedState.finishedDeletes, is(2));
+      assertThat(savedState.failedOrCanceledDeletes, is(1));
+    }
+
+    /**
+     * Test that a repeated completion notification of an ImageDeleteService instance is counted once.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testRepeatedChildTaskCompletedPatch() throws Throwable {
+      host.startServiceSynchronously(service, buildValidStartupState());
+
+      ChildTaskCompletionRequest request = new ChildTaskCompletionRequest();
+      request.kind = ChildTaskCompletionRequest.Kind.CHILD_TASK_COMPLETED;
+      request.childLink = "/image-deletes/" + UUID.randomUUID().toString();
+      request.stage = ImageRemoverService.TaskState.TaskStage.FAILED;
+
+      for (int i = 0; i < 2; i++) {
+        Operation resultOp = host.sendRequestAndWait(Operation
+            .createPatch(UriUtils.buildUri(host, TestHost.SERVICE_URI, null))
+            .setBody(request));
+        assertThat(resultOp.getStatusCode(), is(200));
+      }
+
+      ImageRemoverService.State savedState = host.getServiceState(ImageRemoverService.State.class);
+      assertThat(savedState.finishedDeletes, nullValue());
+      assertThat(savedState.failedOrCanceledDeletes, is(1));
+    }
+
+    /**
+     * Test that ImageDeleteService instances whose completion notification was lost are found by the fallback
+     * query.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testMissedChildTaskCompletion() throws Throwable {
+      ImageRemoverService.State startState = buildValidStartupState(
+          ImageRemoverService.TaskState.TaskStage.STARTED, ImageRemoverService.TaskState.SubStage.TRIGGER_DELETES);
+      host.startServiceSynchronously(service, startState);
+
+      // the delete services are started in their final stage, so they do not notify the service.
+      buildImageDeleteService(ImageRemoverService.TaskState.TaskStage.FINISHED);
+      buildImageDeleteService(ImageRemoverService.TaskState.TaskStage.FINISHED);
+
+      ImageRemoverService.State patchState = new ImageRemoverService.State();
+      patchState.taskInfo = new ImageRemoverService.TaskState();
+      patchState.taskInfo.stage = ImageRemoverService.TaskState.TaskStage.STARTED;
+      patchState.taskInfo.subStage = ImageRemoverService.TaskState.SubStage.AWAIT_COMPLETION;
+      patchState.dataStoreCount = 2;
+      host.sendRequestAndWait(Operation
+          .createPatch(UriUtils.buildUri(host, TestHost.SERVICE_URI, null))
+          .setBody(patchState));
+
+      ImageRemoverService.State savedState = host.waitForState(ImageRemoverService.State.class,
+          state -> state.taskInfo.stage == ImageRemoverService.TaskState.TaskStage.FINISHED);
+      assertThat(savedState.finishedDeletes, is(2));
+      assertThat(savedState.isPollingChildCompletion, is(false));
+    }
+
     /**
      * This function starts a new service in the TRIGGER_DELETES state and verifies
      * that the appropriate number of new ImageDeleteService instances are started.
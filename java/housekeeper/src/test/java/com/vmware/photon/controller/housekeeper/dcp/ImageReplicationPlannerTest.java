@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.housekeeper.dcp;
+
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests {@link ImageReplicationPlanner}.
+ */
+public class ImageReplicationPlannerTest {
+
+  private static final String SOURCE = "image-datastore";
+
+  /**
+   * Dummy test case to make Intellij recognize this as a test class.
+   */
+  @Test(enabled = false)
+  private void dummy() {
+  }
+
+  private static Map<String, Set<String>> buildDedicatedHosts(List<String> datastores) {
+    Map<String, Set<String>> datastoreHosts = new HashMap<>();
+    for (String datastore : datastores) {
+      datastoreHosts.put(datastore, ImmutableSet.of("host-" + datastore));
+    }
+
+    return datastoreHosts;
+  }
+
+  private static List<String> buildDatastores(int count) {
+    List<String> datastores = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      datastores.add("datastore-" + i);
+    }
+
+    return datastores;
+  }
+
+  /**
+   * Tests that every destination is copied once and the wave limits are respected.
+   */
+  @Test
+  public void testSharedHost() {
+    List<String> datastores = buildDatastores(7);
+    Map<String, Set<String>> datastoreHosts = new HashMap<>();
+    for (String datastore : datastores) {
+      datastoreHosts.put(datastore, ImmutableSet.of("host"));
+    }
+
+    List<ImageReplicationPlanner.Copy> plan = new ImageReplicationPlanner(SOURCE, datastoreHosts, 2).plan(datastores);
+
+    assertThat(plan.size(), is(datastores.size()));
+    assertThat(ImageReplicationPlanner.getWaveCount(plan), is(4));
+    Set<String> destinations = new HashSet<>();
+    for (ImageReplicationPlanner.Copy copy : plan) {
+      destinations.add(copy.destinationDatastore);
+      assertThat(copy.isHostToHost(), is(false));
+      assertThat(copy.host, is("host"));
+    }
+
+    assertThat(destinations.size(), is(datastores.size()));
+    for (int wave = 0; wave < ImageReplicationPlanner.getWaveCount(plan); wave++) {
+      assertThat(ImageReplicationPlanner.getCopyCount(plan, wave), lessThanOrEqualTo(2));
+    }
+  }
+
+  /**
+   * Tests that the replicas are used as sources, so the number of waves grows logarithmically.
+   */
+  @Test
+  public void testFanOut() {
+    List<String> datastores = buildDatastores(7);
+    List<ImageReplicationPlanner.Copy> plan =
+        new ImageReplicationPlanner(SOURCE, buildDedicatedHosts(datastores), 1).plan(datastores);
+
+    assertThat(plan.size(), is(datastores.size()));
+    assertThat(ImageReplicationPlanner.getWaveCount(plan), is(3));
+    assertThat(ImageReplicationPlanner.getCopyCount(plan, 0), is(1));
+    assertThat(ImageReplicationPlanner.getCopyCount(plan, 1), is(2));
+    assertThat(ImageReplicationPlanner.getCopyCount(plan, 2), is(4));
+
+    Set<String> replicas = new HashSet<>(Arrays.asList(SOURCE));
+    for (int wave = 0; wave < ImageReplicationPlanner.getWaveCount(plan); wave++) {
+      Set<String> sources = new HashSet<>();
+      for (ImageReplicationPlanner.Copy copy : plan) {
+        if (copy.wave != wave) {
+          continue;
+        }
+
+        // every source holds a replica from a previous wave and is used once per wave
+        assertThat(replicas.contains(copy.sourceDatastore), is(true));
+        assertThat(sources.add(copy.sourceDatastore), is(true));
+        assertThat(copy.isHostToHost(), is(!copy.sourceDatastore.equals(SOURCE)));
+      }
+
+      for (ImageReplicationPlanner.Copy copy : plan) {
+        if (copy.wave == wave) {
+          replicas.add(copy.destinationDatastore);
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests that a replica attached to the same host as the destination is preferred to a host-to-host transfer.
+   */
+  @Test
+  public void testLocalReplicaPreferred() {
+    Map<String, Set<String>> datastoreHosts = new HashMap<>();
+    datastoreHosts.put("datastore-0", ImmutableSet.of("host-0"));
+    datastoreHosts.put("datastore-1", ImmutableSet.of("host-0"));
+
+    List<ImageReplicationPlanner.Copy> plan = new ImageReplicationPlanner(SOURCE, datastoreHosts, 1)
+        .plan(Arrays.asList("datastore-0", "datastore-1"));
+
+    assertThat(plan.size(), is(2));
+    assertThat(plan.get(1).wave, is(1));
+    assertThat(plan.get(1).sourceDatastore, is("datastore-0"));
+    assertThat(plan.get(1).host, is("host-0"));
+    assertThat(plan.get(1).isHostToHost(), is(false));
+  }
+
+  /**
+   * Tests that the source datastore and datastores without known hosts are copied in the first wave.
+   */
+  @Test
+  public void testSourceAndUnknownDatastores() {
+    List<String> datastores = buildDatastores(3);
+    datastores.add(SOURCE);
+
+    List<ImageReplicationPlanner.Copy> plan =
+        new ImageReplicationPlanner(SOURCE, new HashMap<>(), 1).plan(datastores);
+
+    assertThat(plan.size(), is(4));
+    assertThat(ImageReplicationPlanner.getWaveCount(plan), is(1));
+    for (ImageReplicationPlanner.Copy copy : plan) {
+      assertThat(copy.sourceDatastore, is(SOURCE));
+      assertThat(copy.host, nullValue());
+    }
+  }
+}
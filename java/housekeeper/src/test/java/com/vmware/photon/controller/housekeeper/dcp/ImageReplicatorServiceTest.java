@@ -51,6 +51,7 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
@@ -65,6 +66,7 @@ import static org.testng.Assert.fail;
 
 import java.math.BigDecimal;
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.Map;
 import java.util.UUID;
@@ -721,6 +723,152 @@ public class ImageReplicatorServiceTest {
       }
     }
 
+    private void sendChildTaskCompletedPatch(TaskState.TaskStage stage) throws Throwable {
+      sendChildTaskCompletedPatch(stage, null);
+    }
+
+    private void sendChildTaskCompletedPatch(TaskState.TaskStage stage, Long bytesTransferred) throws Throwable {
+      sendChildTaskCompletedPatch(stage, bytesTransferred, "/image-copy/" + UUID.randomUUID().toString());
+    }
+
+    private void sendChildTaskCompletedPatch(TaskState.TaskStage stage, Long bytesTransferred, String childLink)
+        throws Throwable {
+      ChildTaskCompletionRequest request = new ChildTaskCompletionRequest();
+      request.kind = ChildTaskCompletionRequest.Kind.CHILD_TASK_COMPLETED;
+      request.childLink = childLink;
+      request.stage = stage;
+      request.bytesTransferred = bytesTransferred;
+
+      Operation patch = Operation
+          .createPatch(UriUtils.buildUri(host, TestHost.SERVICE_URI, null))
+          .setBody(request);
+
+      Operation resultOp = host.sendRequestAndWait(patch);
+      assertThat(resultOp.getStatusCode(), is(200));
+    }
+
+    /**
+     * Test that the completion notifications of the copy services update the counts.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testChildTaskCompletedPatch() throws Throwable {
+      host.startServiceSynchronously(service, buildValidStartupState());
+
+      sendChildTaskCompletedPatch(TaskState.TaskStage.FINISHED);
+      sendChildTaskCompletedPatch(TaskState.TaskStage.FAILED);
+      sendChildTaskCompletedPatch(TaskState.TaskStage.FINISHED);
+      sendChildTaskCompletedPatch(TaskState.TaskStage.CANCELLED);
+      sendChildTaskCompletedPatch(TaskState.TaskStage.FINISHED);
+
+      ImageReplicatorService.State savedState = host.getServiceState(ImageReplicatorService.State.class);
+      assertThat(savedState.finishedCopies, is(3));
+      assertThat(savedState.failedOrCanceledCopies, is(2));
+      assertThat(savedState.isPollingChildCompletion, is(false));
+    }
+
+    /**
+     * Test that a repeated completion notification of a copy service is counted once.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testRepeatedChildTaskCompletedPatch() throws Throwable {
+      host.startServiceSynchronously(service, buildValidStartupState());
+
+      String childLink = "/image-copy/" + UUID.randomUUID().toString();
+      sendChildTaskCompletedPatch(TaskState.TaskStage.FINISHED, 1024L, childLink);
+      sendChildTaskCompletedPatch(TaskState.TaskStage.FINISHED, 1024L, childLink);
+
+      ImageReplicatorService.State savedState = host.getServiceState(ImageReplicatorService.State.class);
+      assertThat(savedState.finishedCopies, is(1));
+      assertThat(savedState.bytesTransferred, is(1024L));
+      assertThat(savedState.completedCopies, containsInAnyOrder(childLink));
+    }
+
+    /**
+     * Test that the bytes transferred by the copy services are rolled up into the progress of the replication.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testChildTaskCompletedPatchTransferProgress() throws Throwable {
+      ImageReplicatorService.State startState = buildValidStartupState();
+      startState.dataStoreCount = 4;
+      startState.copyStartTimeMicros = Utils.getNowMicrosUtc() - TimeUnit.SECONDS.toMicros(2);
+      host.startServiceSynchronously(service, startState);
+
+      sendChildTaskCompletedPatch(TaskState.TaskStage.FINISHED, 1024L * 1024L);
+      sendChildTaskCompletedPatch(TaskState.TaskStage.FINISHED, 1024L * 1024L);
+
+      ImageReplicatorService.State savedState = host.getServiceState(ImageReplicatorService.State.class);
+      assertThat(savedState.bytesTransferred, is(2L * 1024L * 1024L));
+      assertThat(savedState.progressPercent, is(50));
+      assertThat(savedState.throughputMBps, closeTo(1.0, 0.5));
+      assertThat(savedState.estimatedRemainingMillis, greaterThanOrEqualTo(TimeUnit.SECONDS.toMillis(2)));
+    }
+
+    /**
+     * Test that the notification completing a wave advances the current wave in the same update.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testChildTaskCompletedPatchAdvancesWave() throws Throwable {
+      ImageReplicationPlanner.Copy firstCopy =
+          new ImageReplicationPlanner.Copy("datastore", "datastore1", "host1", null);
+      ImageReplicationPlanner.Copy secondCopy =
+          new ImageReplicationPlanner.Copy("datastore1", "datastore2", "host1", null);
+      secondCopy.wave = 1;
+
+      ImageReplicatorService.State startState = buildValidStartupState(
+          ImageReplicatorService.TaskState.TaskStage.STARTED, ImageReplicatorService.TaskState.SubStage.TRIGGER_COPIES);
+      startState.dataStoreCount = 2;
+      startState.copyPlan = Arrays.asList(firstCopy, secondCopy);
+      startState.currentWave = 0;
+      host.startServiceSynchronously(service, startState);
+      host.startServiceSynchronously(
+          new ImageCopyServiceFactory(), null, ImageCopyServiceFactory.SELF_LINK);
+
+      ImageReplicatorService.State patchState = new ImageReplicatorService.State();
+      patchState.taskInfo = new ImageReplicatorService.TaskState();
+      patchState.taskInfo.stage = ImageReplicatorService.TaskState.TaskStage.STARTED;
+      patchState.taskInfo.subStage = ImageReplicatorService.TaskState.SubStage.AWAIT_COMPLETION;
+      host.sendRequestAndWait(Operation
+          .createPatch(UriUtils.buildUri(host, TestHost.SERVICE_URI, null))
+          .setBody(patchState));
+
+      sendChildTaskCompletedPatch(TaskState.TaskStage.FINISHED);
+
+      ImageReplicatorService.State savedState = host.getServiceState(ImageReplicatorService.State.class);
+      assertThat(savedState.currentWave, is(1));
+      assertThat(savedState.finishedCopies, is(1));
+    }
+
+    /**
+     * Test that the completion notifications are ignored when the service is restarted while awaiting the copies,
+     * since it queries for them.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testChildTaskCompletedPatchIgnoredAfterRestart() throws Throwable {
+      ImageReplicatorService.State startState = buildValidStartupState(
+          ImageReplicatorService.TaskState.TaskStage.STARTED,
+          ImageReplicatorService.TaskState.SubStage.AWAIT_COMPLETION);
+      startState.dataStoreCount = 2;
+      startState.finishedCopies = 1;
+      host.startServiceSynchronously(service, startState);
+
+      sendChildTaskCompletedPatch(TaskState.TaskStage.FINISHED);
+
+      ImageReplicatorService.State savedState = host.getServiceState(ImageReplicatorService.State.class);
+      assertThat(savedState.finishedCopies, nullValue());
+      assertThat(savedState.failedOrCanceledCopies, nullValue());
+      assertThat(savedState.isPollingChildCompletion, is(true));
+    }
+
     /**
      * This function starts a new service in the TRIGGER_COPIES state and verifies
      * that the appropriate number of new ImageCopyService instances are started.
@@ -778,6 +926,52 @@ public class ImageReplicatorServiceTest {
       }
     }
 
+    /**
+     * This function starts a new service in the TRIGGER_COPIES state and verifies
+     * that only the ImageCopyService instances of the first wave are started.
+     *
+     * @throws Throwable
+     */
+    @Test
+    public void testFirstWaveCreated() throws Throwable {
+      final int dataStoreCount = 3;
+      doReturn(new ZookeeperHostMonitorSuccessMock(1, 1, dataStoreCount)).when(service).getZookeeperHostMonitor();
+
+      ImageReplicatorService.State startState = buildValidStartupState(
+          ImageReplicatorService.TaskState.TaskStage.STARTED, ImageReplicatorService.TaskState.SubStage.TRIGGER_COPIES);
+      startState.maxCopiesPerSource = 1;
+
+      host.startServiceSynchronously(service, startState);
+      host.startServiceSynchronously(
+          new ImageCopyServiceFactory(), null, ImageCopyServiceFactory.SELF_LINK);
+
+      // trigger the stage execution
+      ImageReplicatorService.State patchState = new ImageReplicatorService.State();
+      patchState.taskInfo = new ImageReplicatorService.TaskState();
+      patchState.taskInfo.stage = ImageReplicatorService.TaskState.TaskStage.STARTED;
+      patchState.taskInfo.subStage = ImageReplicatorService.TaskState.SubStage.TRIGGER_COPIES;
+
+      host.sendRequestAndWait(Operation
+          .createPatch(UriUtils.buildUri(host, TestHost.SERVICE_URI, null))
+          .setBody(patchState));
+
+      // check that only the copy of the first wave was created
+      QueryTask.QuerySpecification spec =
+          QueryTaskUtils.buildChildServiceTaskStatusQuerySpec(
+              service.getSelfLink(), ImageCopyService.State.class, ImageReplicatorService.TaskState.TaskStage.CREATED);
+      spec.options = EnumSet.of(QueryTask.QuerySpecification.QueryOption.EXPAND_CONTENT);
+
+      QueryTask response = host.waitForQuery(QueryTask.create(spec).setDirect(true),
+          (queryTask) -> queryTask.results.documentLinks.size() >= 1);
+      assertThat(response.results.documentLinks.size(), is(1));
+
+      for (Map.Entry<String, Object> document : response.results.documents.entrySet()) {
+        ImageCopyService.State docState = Utils.fromJson(document.getValue(), ImageCopyService.State.class);
+        assertThat(docState.sourceImageDataStoreName, is(startState.datastore));
+        assertThat(docState.host, is("192.168.0.1"));
+      }
+    }
+
     /**
      * This test verifies that legal stage transitions succeed.
      *
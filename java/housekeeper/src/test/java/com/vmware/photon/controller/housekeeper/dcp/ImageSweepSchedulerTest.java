@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.housekeeper.dcp;
+
+import com.vmware.photon.controller.resource.gen.Datastore;
+
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests {@link ImageSweepScheduler}.
+ */
+public class ImageSweepSchedulerTest {
+
+  /**
+   * Dummy test case to make Intellij recognize this as a test class.
+   */
+  @Test(enabled = false)
+  private void dummy() {
+  }
+
+  private static ImageSweepScheduler.Sweep buildSweep(String datastore, String storageBackend, String... hosts) {
+    return new ImageSweepScheduler.Sweep(datastore, false, storageBackend, Arrays.asList(hosts), 0);
+  }
+
+  private static List<String> getDatastores(List<ImageSweepScheduler.Sweep> sweeps) {
+    List<String> datastores = new ArrayList<>();
+    for (ImageSweepScheduler.Sweep sweep : sweeps) {
+      datastores.add(sweep.datastore);
+    }
+
+    return datastores;
+  }
+
+  /**
+   * Tests that the sweeps with the most reclaimable images come first, then the image datastores.
+   */
+  @Test
+  public void testOrder() {
+    ImageSweepScheduler.Sweep small = new ImageSweepScheduler.Sweep("small", false, "small", null, 1);
+    ImageSweepScheduler.Sweep large = new ImageSweepScheduler.Sweep("large", false, "large", null, 10);
+    ImageSweepScheduler.Sweep image = new ImageSweepScheduler.Sweep("z-image", true, "z-image", null, 1);
+    ImageSweepScheduler.Sweep unknown = new ImageSweepScheduler.Sweep("unknown", false, "unknown", null, 0);
+
+    List<ImageSweepScheduler.Sweep> ordered = ImageSweepScheduler.order(Arrays.asList(small, unknown, image, large));
+
+    assertThat(getDatastores(ordered), contains("large", "z-image", "small", "unknown"));
+  }
+
+  /**
+   * Tests that the global, per host and per storage backend limits are respected, and that a sweep waiting for
+   * its host does not block the following sweeps.
+   */
+  @Test
+  public void testSelect() {
+    ImageSweepScheduler scheduler = new ImageSweepScheduler(3, 1, 1);
+    List<ImageSweepScheduler.Sweep> pending = Arrays.asList(
+        buildSweep("ds1", "array1", "host1"),
+        buildSweep("ds2", "array1", "host2"),
+        buildSweep("ds3", "ds3", "host1"),
+        buildSweep("ds4", "ds4", "host1", "host3"),
+        buildSweep("ds5", "ds5", "host4"),
+        buildSweep("ds6", "ds6", "host5"));
+
+    List<ImageSweepScheduler.Sweep> selected = scheduler.select(pending, Collections.emptyList());
+
+    assertThat(getDatastores(selected), contains("ds1", "ds4", "ds5"));
+    assertThat(selected.get(0).host, is("host1"));
+    assertThat(selected.get(1).host, is("host3"));
+    assertThat(selected.get(2).host, is("host4"));
+  }
+
+  /**
+   * Tests that the running sweeps count against the limits.
+   */
+  @Test
+  public void testSelectWithRunningSweeps() {
+    ImageSweepScheduler scheduler = new ImageSweepScheduler(2, 1, 1);
+    ImageSweepScheduler.Sweep running = buildSweep("ds1", "array1", "host1");
+    running.host = "host1";
+    List<ImageSweepScheduler.Sweep> pending = Arrays.asList(
+        buildSweep("ds2", "array1", "host2"),
+        buildSweep("ds3", "ds3", "host1"),
+        buildSweep("ds4", "ds4", "host2"),
+        buildSweep("ds5", "ds5"));
+
+    List<ImageSweepScheduler.Sweep> selected = scheduler.select(pending, Arrays.asList(running));
+
+    assertThat(getDatastores(selected), contains("ds4"));
+  }
+
+  /**
+   * Tests that a sweep of a datastore without known hosts is selected without a host.
+   */
+  @Test
+  public void testSelectWithoutHosts() {
+    ImageSweepScheduler scheduler = new ImageSweepScheduler(1, 1, 1);
+
+    List<ImageSweepScheduler.Sweep> selected = scheduler.select(
+        Arrays.asList(buildSweep("ds1", "ds1")), Collections.emptyList());
+
+    assertThat(getDatastores(selected), contains("ds1"));
+    assertThat(selected.get(0).host, nullValue());
+  }
+
+  /**
+   * Tests that the storage backend is read from the datastore tags.
+   */
+  @Test
+  public void testGetStorageBackend() {
+    Datastore datastore = new Datastore("ds1");
+    assertThat(ImageSweepScheduler.getStorageBackend(datastore), is("ds1"));
+
+    datastore.setTags(ImmutableSet.of("tag1", ImageSweepScheduler.STORAGE_BACKEND_TAG_PREFIX + "array1"));
+    assertThat(ImageSweepScheduler.getStorageBackend(datastore), is("array1"));
+  }
+
+  /**
+   * Tests that the estimates come from the latest sweep of each datastore.
+   */
+  @Test
+  public void testEstimateReclaimableImages() {
+    ImageDatastoreSweeperService.State older = new ImageDatastoreSweeperService.State();
+    older.datastore = "ds1";
+    older.documentUpdateTimeMicros = 1;
+    older.inactiveImagesCount = 10;
+    older.deletedImagesCount = 0;
+
+    ImageDatastoreSweeperService.State latest = new ImageDatastoreSweeperService.State();
+    latest.datastore = "ds1";
+    latest.documentUpdateTimeMicros = 2;
+    latest.inactiveImagesCount = 5;
+    latest.deletedImagesCount = 2;
+
+    ImageDatastoreSweeperService.State other = new ImageDatastoreSweeperService.State();
+    other.datastore = "ds2";
+    other.documentUpdateTimeMicros = 1;
+
+    Map<String, Long> estimates = ImageSweepScheduler.estimateReclaimableImages(Arrays.asList(older, latest, other));
+
+    assertThat(estimates.size(), is(2));
+    assertThat(estimates.get("ds1"), is(3L));
+    assertThat(estimates.get("ds2"), is(0L));
+  }
+}
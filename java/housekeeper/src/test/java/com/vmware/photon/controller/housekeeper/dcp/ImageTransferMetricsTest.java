@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.housekeeper.dcp;
+
+import com.vmware.photon.controller.common.metrics.DefaultMetricRegistry;
+
+import com.codahale.metrics.Histogram;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests {@link ImageTransferMetrics}.
+ */
+public class ImageTransferMetricsTest {
+
+  /**
+   * Dummy test case to make Intellij recognize this as a test class.
+   */
+  @Test(enabled = false)
+  private void dummy() {
+  }
+
+  @Test
+  public void testGetThroughputMBps() {
+    assertThat(ImageTransferMetrics.getThroughputMBps(10L * 1024 * 1024, 2000), closeTo(5.0, 0.001));
+    assertThat(ImageTransferMetrics.getThroughputMBps(10L * 1024 * 1024, 0), is(0.0));
+  }
+
+  @Test
+  public void testGetDurationMillis() {
+    assertThat(ImageTransferMetrics.getDurationMillis(0, TimeUnit.SECONDS.toMicros(3)), is(3000L));
+    assertThat(ImageTransferMetrics.getDurationMillis(TimeUnit.SECONDS.toMicros(3), 0), is(0L));
+  }
+
+  /**
+   * Tests that the transfers are recorded in histograms per source and destination datastore.
+   */
+  @Test
+  public void testRecord() {
+    String source = UUID.randomUUID().toString();
+    String destination = UUID.randomUUID().toString();
+
+    ImageTransferMetrics.record(source, destination, 2L * 1024 * 1024, 1000);
+    ImageTransferMetrics.record(source, destination, null, 3000);
+
+    Histogram duration = DefaultMetricRegistry.REGISTRY.histogram(
+        ImageTransferMetrics.getMetricName(ImageTransferMetrics.DURATION_METRIC, source, destination));
+    assertThat(duration.getCount(), is(2L));
+    assertThat(duration.getSnapshot().getMax(), is(3000L));
+
+    Histogram throughput = DefaultMetricRegistry.REGISTRY.histogram(
+        ImageTransferMetrics.getMetricName(ImageTransferMetrics.THROUGHPUT_METRIC, source, destination));
+    assertThat(throughput.getCount(), is(1L));
+    assertThat(throughput.getSnapshot().getMax(), is(2048L));
+
+    Histogram otherDestination = DefaultMetricRegistry.REGISTRY.histogram(
+        ImageTransferMetrics.getMetricName(ImageTransferMetrics.DURATION_METRIC, source, source));
+    assertThat(otherDestination.getCount(), is(0L));
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.photon.controller.housekeeper.dcp;
+
+import com.vmware.xenon.common.Utils;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Tests {@link ReferenceImageIndex}.
+ */
+public class ReferenceImageIndexTest {
+
+  /**
+   * Dummy test case to make Intellij recognize this as a test class.
+   */
+  @Test(enabled = false)
+  private void dummy() {
+  }
+
+  private static List<String> buildImageIds(int count) {
+    List<String> imageIds = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      imageIds.add(UUID.randomUUID().toString());
+    }
+
+    return imageIds;
+  }
+
+  /**
+   * Tests that every image of the index is found and that few other images are.
+   *
+   * @param imageCount
+   */
+  @Test(dataProvider = "ImageCount")
+  public void testMightContain(int imageCount) {
+    List<String> imageIds = buildImageIds(imageCount);
+    ReferenceImageIndex index = ReferenceImageIndex.create(1L, imageIds);
+
+    assertThat(index.version, is(1L));
+    assertThat(index.imageCount, is(imageCount));
+    for (String imageId : imageIds) {
+      assertThat(index.mightContain(imageId), is(true));
+    }
+
+    int falsePositives = 0;
+    for (String imageId : buildImageIds(10000)) {
+      if (index.mightContain(imageId)) {
+        falsePositives++;
+      }
+    }
+
+    assertThat(falsePositives, lessThan(500));
+  }
+
+  @DataProvider(name = "ImageCount")
+  public Object[][] getImageCount() {
+    return new Object[][]{
+        {1},
+        {100},
+        {10000},
+    };
+  }
+
+  /**
+   * Tests that an empty index contains no image.
+   */
+  @Test
+  public void testEmpty() {
+    ReferenceImageIndex index = ReferenceImageIndex.create(1L, Collections.emptyList());
+
+    assertThat(index.imageCount, is(0));
+    assertThat(index.mightContain("image-id"), is(false));
+  }
+
+  /**
+   * Tests that the index survives the serialization of the ImageCleanerService document.
+   */
+  @Test
+  public void testSerialization() {
+    List<String> imageIds = buildImageIds(100);
+    ImageCleanerService.State state = new ImageCleanerService.State();
+    state.referenceImageIndex = ReferenceImageIndex.create(2L, imageIds);
+
+    ReferenceImageIndex index = Utils.fromJson(Utils.toJson(state), ImageCleanerService.State.class)
+        .referenceImageIndex;
+
+    assertThat(index.version, is(2L));
+    assertThat(index.bits, is(state.referenceImageIndex.bits));
+    for (String imageId : imageIds) {
+      assertThat(index.mightContain(imageId), is(true));
+    }
+  }
+}
@@ -13,6 +13,7 @@
 
 package com.vmware.transfer.nfc;
 
+import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,12 +26,20 @@ import java.util.Map;
  * DiskWriter writes a disk to an NFC server using PUT_FILE. This implementation
  * is lifted from the C# VI client, and could do with a little refactoring. It
  * performs well in tests, though.
+ * <p>
+ * File data is buffered in a direct buffer and sent with its FILE_DATA message in one write. Contiguous non-zero
+ * sectors are sent as a single RLE run, by growing the count of the run while its header is still buffered.
+ * </p>
  */
 public class DiskWriter implements AutoCloseable {
   private static final Logger logger = LoggerFactory.getLogger(DiskWriter.class);
 
   private final NfcClient nfcClient;
+  private final ByteBuffer fileDataMsg;
   private ByteBuffer fileData;
+  // Position of the count of the buffered data run, or -1 if the last section buffered is not a data run
+  private int dataRunPosition = -1;
+  private int dataRunSectors = 0;
   private long zeroSectors = 0;
   private long nextLba = 0;
   private boolean isDirty = false;
@@ -39,7 +48,8 @@ public class DiskWriter implements AutoCloseable {
   public DiskWriter(NfcClient nfcClient, long capacity) {
     this.nfcClient = nfcClient;
     this.capacity = capacity;
-    fileData = ByteBuffer.allocate(NfcClient.MAX_PAYLOAD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    fileDataMsg = nfcClient.newNfcMsg(NfcClient.NFC_FILE_DATA);
+    fileData = ByteBuffer.allocateDirect(NfcClient.MAX_PAYLOAD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
     resetFileData();
   }
 
@@ -63,17 +73,27 @@ public class DiskWriter implements AutoCloseable {
    * Write a data grain. Will be buffered until we have a full message of grains.
    */
   public void writeGrain(long lba, byte[] data, int offset) throws IOException {
-    assert data.length - offset >= NfcClient.SECTOR_SIZE;
+    writeGrain(lba, data, offset, NfcClient.SECTOR_SIZE);
+  }
+
+  /**
+   * Write contiguous data sectors, starting at lba. Will be buffered until we have a full message of grains.
+   */
+  public void writeGrain(long lba, byte[] data, int offset, int length) throws IOException {
+    assert length % NfcClient.SECTOR_SIZE == 0;
+    assert data.length - offset >= length;
     if (lba < nextLba) {
       throw new RuntimeException("Sectors are out of order");
     }
 
     zeroSectors += lba - nextLba;
-    nextLba = lba + 1;
-    if (isZero(data, offset, NfcClient.SECTOR_SIZE)) {
-      zeroSectors++;
-    } else {
-      outputDataSector(data, offset);
+    nextLba = lba + length / NfcClient.SECTOR_SIZE;
+    for (int end = offset + length; offset < end; offset += NfcClient.SECTOR_SIZE) {
+      if (isZero(data, offset, NfcClient.SECTOR_SIZE)) {
+        zeroSectors++;
+      } else {
+        outputDataSector(data, offset);
+      }
     }
   }
 
@@ -113,7 +133,15 @@ public class DiskWriter implements AutoCloseable {
 
   private void outputDataSector(byte[] data, int offset) throws IOException {
     outputBufferedZeroSectors();
-    writeNfcFileDskRLEHdr(1, false);
+    if (dataRunPosition >= 0 && dataRunSectors < NfcClient.RLE_MAX_COUNT) {
+      // Extend the buffered data run, the sector directly follows it
+      dataRunSectors++;
+      fileData.putInt(dataRunPosition, dataRunSectors | NfcClient.RLE_NON_ZERO_FLAG);
+    } else {
+      writeNfcFileDskRLEHdr(1, false);
+      dataRunPosition = fileData.position() - 4;
+      dataRunSectors = 1;
+    }
     fileData.put(data, offset, NfcClient.SECTOR_SIZE);
     flushIfAtLimit();
   }
@@ -137,11 +165,18 @@ public class DiskWriter implements AutoCloseable {
     fileData.putInt(NfcClient.FILE_DATA_HDR_MAGIC);
     fileData.putInt(0); // Will be overwritten with correct size later
     isDirty = false;
+    dataRunPosition = -1;
   }
 
-  private boolean isZero(byte[] data, int offset, int length) {
-    for (int i = offset; i < offset + length; ++i) {
-      if (data[i] != 0) {
+  /**
+   * Check a word of 8 bytes at a time, with a single branch per word. The length is a multiple of 8.
+   */
+  @VisibleForTesting
+  static boolean isZero(byte[] data, int offset, int length) {
+    assert length % 8 == 0;
+    for (int i = offset; i < offset + length; i += 8) {
+      if ((data[i] | data[i + 1] | data[i + 2] | data[i + 3]
+          | data[i + 4] | data[i + 5] | data[i + 6] | data[i + 7]) != 0) {
         return false;
       }
     }
@@ -161,6 +196,7 @@ public class DiskWriter implements AutoCloseable {
     if (!isDirty) {
       writeNfcFileDskHdr(false);
     }
+    dataRunPosition = -1;
     fileData.putInt(NfcClient.FILE_DSK_RLE_HDR_MAGIC);
     assert sectors <= NfcClient.RLE_MAX_COUNT;
     // MSB: 1 = data, 0 = RLE
@@ -171,12 +207,10 @@ public class DiskWriter implements AutoCloseable {
   }
 
   private void writeFileData() throws IOException {
-    ByteBuffer msg = this.nfcClient.newNfcMsg(NfcClient.NFC_FILE_DATA);
-    this.nfcClient.sendNfcMsg(msg);
     // Patch in size of file data
     fileData.putInt(4, fileData.position() - 2 * 4);
     fileData.flip();
-    this.nfcClient.writeFully(fileData);
+    this.nfcClient.sendNfcMsg(fileDataMsg, fileData);
   }
 
   public void finalizeWrite() throws IOException {
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.transfer.nfc;
+
+import com.vmware.transfer.streamVmdk.Grain;
+import com.vmware.transfer.streamVmdk.StreamVmdkReader;
+import com.vmware.transfer.streamVmdk.VmdkFormatException;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * GrainPipeline uploads the grains of a stream-optimized disk in three stages: a reader thread reads the compressed
+ * grains from the source stream (demultiplexing the tar archive of an OVA on the way), a pool of threads inflates
+ * them, and the calling thread writes the inflated grains to the NFC session in disk order. This keeps the NFC
+ * connection busy while the grains are inflated instead of inflating and writing one grain at a time.
+ * <p>
+ * The stages are connected by a bounded queue and the grain buffers are reused, so at most queueDepth grains are in
+ * memory. A reader blocked on the source stream only exits once the stream is closed.
+ * </p>
+ */
+public class GrainPipeline {
+  /**
+   * Default number of threads inflating grains.
+   */
+  public static final int DEFAULT_INFLATE_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+  /**
+   * Default number of grains read ahead of the writer.
+   */
+  public static final int DEFAULT_QUEUE_DEPTH = 32;
+
+  private static final Logger logger = LoggerFactory.getLogger(GrainPipeline.class);
+
+  private static final Grain END_OF_STREAM = new Grain(0);
+
+  private final int inflateThreads;
+
+  private final int queueDepth;
+
+  public GrainPipeline(int inflateThreads, int queueDepth) {
+    checkArgument(inflateThreads > 0, "inflateThreads needs to be greater than 0");
+    checkArgument(queueDepth > 0, "queueDepth needs to be greater than 0");
+    this.inflateThreads = inflateThreads;
+    this.queueDepth = queueDepth;
+  }
+
+  /**
+   * Write all grains of a disk.
+   *
+   * @param disk   reader of the disk, only used by the reader thread
+   * @param writer NFC session to write to, only used by the calling thread
+   * @return number of grains written
+   */
+  public int run(final StreamVmdkReader disk, final DiskWriter writer) throws IOException, VmdkFormatException {
+    final BlockingQueue<Grain> freeGrains = new ArrayBlockingQueue<>(queueDepth);
+    int grainSizeBytes = disk.getGrainSize() * SparseUtil.DISKLIB_SECTOR_SIZE;
+    for (int i = 0; i < queueDepth; i++) {
+      freeGrains.add(new Grain(grainSizeBytes));
+    }
+
+    // One more slot than grains, so the reader can always queue the end of the stream or its failure
+    final BlockingQueue<Future<Grain>> grains = new ArrayBlockingQueue<>(queueDepth + 1);
+    final ExecutorService inflatePool = Executors.newFixedThreadPool(inflateThreads, newThreadFactory("inflate"));
+    ExecutorService readerPool = Executors.newSingleThreadExecutor(newThreadFactory("reader"));
+    try {
+      readerPool.submit(() -> read(disk, freeGrains, grains, inflatePool));
+
+      int grainCount = 0;
+      for (Grain grain = take(grains); grain != END_OF_STREAM; grain = take(grains)) {
+        writer.writeGrain(grain.lba, grain.data, 0, grain.size);
+        freeGrains.add(grain);
+
+        grainCount++;
+        if (0 == (grainCount % 1000)) {
+          logger.debug("GrainPipeline wrote grain count {}", grainCount);
+        }
+      }
+      return grainCount;
+    } finally {
+      readerPool.shutdownNow();
+      inflatePool.shutdownNow();
+    }
+  }
+
+  /**
+   * Read the grains and queue their inflation in disk order. Runs on the reader thread.
+   */
+  private void read(StreamVmdkReader disk, BlockingQueue<Grain> freeGrains, BlockingQueue<Future<Grain>> grains,
+                    ExecutorService inflatePool) {
+    try {
+      while (true) {
+        Grain grain = freeGrains.take();
+        if (!disk.readNextGrain(grain)) {
+          grains.put(CompletableFuture.completedFuture(END_OF_STREAM));
+          return;
+        }
+        if (grain.compressedSize == 0) {
+          // Progress marker, nothing to write
+          freeGrains.add(grain);
+          continue;
+        }
+        grains.put(CompletableFuture.supplyAsync(() -> inflate(grain), inflatePool));
+      }
+    } catch (InterruptedException e) {
+      // The writer stopped
+      Thread.currentThread().interrupt();
+    } catch (Throwable t) {
+      CompletableFuture<Grain> failure = new CompletableFuture<>();
+      failure.completeExceptionally(t);
+      grains.offer(failure);
+    }
+  }
+
+  private static Grain inflate(Grain grain) {
+    try {
+      StreamVmdkReader.inflate(grain);
+      return grain;
+    } catch (VmdkFormatException e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  /**
+   * Take the next grain in disk order, rethrowing the failure of the reader or of the inflation.
+   */
+  private static Grain take(BlockingQueue<Future<Grain>> grains) throws IOException, VmdkFormatException {
+    try {
+      return grains.take().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the next grain");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CompletionException && cause.getCause() != null) {
+        cause = cause.getCause();
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof VmdkFormatException) {
+        throw (VmdkFormatException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException("Failed to read grain", cause);
+    }
+  }
+
+  private static ThreadFactory newThreadFactory(String stage) {
+    return new ThreadFactoryBuilder()
+        .setNameFormat("nfc-" + stage + "-%d")
+        .setDaemon(true)
+        .build();
+  }
+}
@@ -22,6 +22,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import static com.google.common.base.Preconditions.checkArgument;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Socket;
@@ -29,11 +30,16 @@ import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 
 /**
  * NFC Client. Used for transferring files and disks to/from datastores using NFC.
+ * <p>
+ * Messages are written to the socket channel opened by {@link Authd}, with a gathering write of the message and its
+ * payload so both go out in a single system call. Payloads in direct buffers are written without an extra copy.
+ * </p>
  */
 @SuppressWarnings("unused") // Not all messages are implemented yet
 public class NfcClient implements AutoCloseable {
@@ -110,18 +116,27 @@ public class NfcClient implements AutoCloseable {
   private Socket socket;
   private ReadableByteChannel input;
   private WritableByteChannel output;
+  private GrainPipeline grainPipeline =
+      new GrainPipeline(GrainPipeline.DEFAULT_INFLATE_THREADS, GrainPipeline.DEFAULT_QUEUE_DEPTH);
 
   @VisibleForTesting
   protected NfcClient() {
   }
 
+  @VisibleForTesting
+  NfcClient(ReadableByteChannel input, WritableByteChannel output) {
+    this.input = input;
+    this.output = output;
+  }
+
   public NfcClient(HostServiceTicket ticket, int timeoutMs) throws IOException {
     checkArgument(ticket != null, "Null ticket passed to NfcClient().");
     logger.debug("Connecting to {} on {}:{}", ticket.getService(), ticket.getHost(),
         ticket.getPort());
     socket = Authd.connect(ticket, timeoutMs);
+    // Reads go through the socket stream, which honors the read timeout unlike a blocking channel
     input = Channels.newChannel(socket.getInputStream());
-    output = Channels.newChannel(socket.getOutputStream());
+    output = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(socket.getOutputStream());
     // TODO(jandersen): Use SSL if session ~= s/ssl/ ("vpxa-nfcssl", for example)
   }
 
@@ -150,8 +165,7 @@ public class NfcClient implements AutoCloseable {
     msg.putInt(dsPathBytes.remaining());
     msg.putLong(fileSize); // file size
     msg.putLong(fileSize); // space required
-    sendNfcMsg(msg);
-    writeFully(dsPathBytes);
+    sendNfcMsg(msg, dsPathBytes);
     return new NfcFileOutputStream(this, autoClose);
   }
 
@@ -172,15 +186,15 @@ public class NfcClient implements AutoCloseable {
     msg.putInt(dsPathBytes.remaining());
     msg.putLong(capacity * SECTOR_SIZE); // capacity
     msg.putLong(capacity * SECTOR_SIZE); // space required
-    sendNfcMsg(msg);
-    writeFully(dsPathBytes);
+    sendNfcMsg(msg, dsPathBytes);
     return new DiskWriter(this, capacity);
   }
 
   /**
    * Upload image to remote datastore as a disk. If the image name exists in
    * the datastore, it will be overwritten. The only disk type than can be correctly
-   * uploaded in this mode is streamOptimized.
+   * uploaded in this mode is streamOptimized. The grains are read, inflated and written by a
+   * {@link GrainPipeline}.
    * <p/>
    * adapted from: https://opengrok.eng.vmware.com/source/xref/vdc-2015.perforce-shark.1700
    * /vdc-2015/src/transfer-svc/ts-main/src/main/java/com/vmware/transfer/impl/NfcEndpointImpl.java
@@ -199,27 +213,9 @@ public class NfcClient implements AutoCloseable {
     try {
       writer = putDisk(filePath, disk.getAdapterType(), disk.getCapacityInSectors());
       writer.writeDdb(disk.getDdb());
-      byte[] grain = new byte[disk.getGrainSize() * SparseUtil.DISKLIB_SECTOR_SIZE];
-      int grainSize = disk.getNextGrain(grain);
-      int grainCount = 0;
-      while (grainSize >= 0) {
-        grainCount++;
-        if (0 == (grainCount % 1000)) {
-          logger.debug("NfcClient putStreamOptimizedDisk for file {} preparing to write grain count/size {}/{}",
-              filePath,
-              grainCount,
-              grainSize);
-        }
-        if (grainSize > 0) {
-          long lba = disk.getCurrentLba();
-          for (int offset = 0; offset < grainSize; offset += SparseUtil.DISKLIB_SECTOR_SIZE) {
-            writer.writeGrain(lba++, grain, offset);
-          }
-        }
-        grainSize = disk.getNextGrain(grain);
-      }
-      logger.debug("NfcClient putStreamOptimizedDisk for file {} write complete on grain count/size {}/{}", filePath,
-          grainCount, grainSize);
+      int grainCount = grainPipeline.run(disk, writer);
+      logger.debug("NfcClient putStreamOptimizedDisk for file {} write complete on grain count {}", filePath,
+          grainCount);
       writer.finalizeWrite();
       close();
       return disk.getCapacityInSectors() * SparseUtil.DISKLIB_SECTOR_SIZE;
@@ -243,8 +239,7 @@ public class NfcClient implements AutoCloseable {
     msg.putInt(NFC_RAW);
     msg.putInt(dsPathBytes.remaining());
     msg.putInt(0); // conversion flags
-    sendNfcMsg(msg);
-    writeFully(dsPathBytes);
+    sendNfcMsg(msg, dsPathBytes);
     NfcFileInputStream result = new NfcFileInputStream(this);
     result.init(); // read and parse NFC_FILE_PUT response message
     return result;
@@ -259,8 +254,7 @@ public class NfcClient implements AutoCloseable {
     msg.putInt(NFC_DISK);
     msg.putInt(dsPathBytes.remaining());
     msg.putInt(0); // conversion flags
-    sendNfcMsg(msg);
-    writeFully(dsPathBytes);
+    sendNfcMsg(msg, dsPathBytes);
     DiskReader result = new DiskReader(this);
     result.init(); // read and parse NFC_FILE_PUT response message
     return result;
@@ -272,8 +266,7 @@ public class NfcClient implements AutoCloseable {
     msg.putInt(dsPathBytes.remaining());
     msg.putInt(NFC_FILE_CREATEDIRHIER);
     msg.putShort((short) 1);
-    sendNfcMsg(msg);
-    writeFully(dsPathBytes);
+    sendNfcMsg(msg, dsPathBytes);
     ByteBuffer reply = readNfcResponse();
     validateReplyCode(reply, NFC_FILEOP_STATUS);
     int errsize = reply.getInt();
@@ -288,8 +281,7 @@ public class NfcClient implements AutoCloseable {
     msg.putInt(dsPathBytes.remaining());
     msg.putInt(NFC_FILE_CREATEDIRHIER);
     msg.putShort((short) 1);
-    sendNfcMsg(msg);
-    writeFully(dsPathBytes);
+    sendNfcMsg(msg, dsPathBytes);
     ByteBuffer reply = readNfcResponse();
     validateReplyCode(reply, NFC_FILEOP_STATUS);
     int errsize = reply.getInt();
@@ -324,16 +316,31 @@ public class NfcClient implements AutoCloseable {
    */
   void readFully(ByteBuffer data) throws IOException {
     while (data.hasRemaining()) {
-      input.read(data);
+      if (input.read(data) < 0) {
+        throw new EOFException("NFC connection closed by remote host");
+      }
     }
   }
 
   /**
-   * Write entire data buffer to channel.
+   * Write entire data buffers to channel, in a single gathering write when the channel supports it.
    */
-  void writeFully(ByteBuffer data) throws IOException {
-    while (data.hasRemaining()) {
-      output.write(data);
+  void writeFully(ByteBuffer... data) throws IOException {
+    long remaining = 0;
+    for (ByteBuffer buffer : data) {
+      remaining += buffer.remaining();
+    }
+    if (output instanceof GatheringByteChannel) {
+      GatheringByteChannel channel = (GatheringByteChannel) output;
+      while (remaining > 0) {
+        remaining -= channel.write(data);
+      }
+      return;
+    }
+    for (ByteBuffer buffer : data) {
+      while (buffer.hasRemaining()) {
+        output.write(buffer);
+      }
     }
   }
 
@@ -344,11 +351,16 @@ public class NfcClient implements AutoCloseable {
     return msg;
   }
 
-  void sendNfcMsg(ByteBuffer msg) throws IOException {
-    byte[] b = msg.array();
-    assert b.length == NFC_MESSAGE_SIZE;
+  /**
+   * Send a message followed by its payload.
+   */
+  void sendNfcMsg(ByteBuffer msg, ByteBuffer... payload) throws IOException {
+    assert msg.capacity() == NFC_MESSAGE_SIZE;
     msg.rewind();
-    writeFully(msg);
+    ByteBuffer[] buffers = new ByteBuffer[payload.length + 1];
+    buffers[0] = msg;
+    System.arraycopy(payload, 0, buffers, 1, payload.length);
+    writeFully(buffers);
   }
 
   void readNfcResponse(ByteBuffer reply) throws IOException {
@@ -430,8 +442,7 @@ public class NfcClient implements AutoCloseable {
     msg.putInt(dsPathBytes.remaining());
     msg.putInt(0x0A); // openFlags (=OPEN_PARENT | OPEN_LOCK)
     msg.put((byte) 0); // rawFile? (=FALSE)
-    sendNfcMsg(msg);
-    writeFully(dsPathBytes);
+    sendNfcMsg(msg, dsPathBytes);
 
     ByteBuffer reply = readNfcResponse();
     validateReplyCode(reply, NFC_FSSRVR_DISKGEO);
@@ -439,15 +450,14 @@ public class NfcClient implements AutoCloseable {
   }
 
   public void fssrvrWriteDisk(long lba, byte[] data, int length) throws IOException {
-    assert lba % 512 == 0;
+    assert lba >= 0;
     assert length % 512 == 0;
     assert length <= data.length;
     ByteBuffer msg = newNfcMsg(NFC_FSSRVR_IO);
     msg.putInt(1); // write
     msg.putLong(lba);
     msg.putInt(length);
-    sendNfcMsg(msg);
-    writeFully(ByteBuffer.wrap(data, 0, length));
+    sendNfcMsg(msg, ByteBuffer.wrap(data, 0, length));
 
     ByteBuffer reply = readNfcResponse();
     validateReplyCode(reply, NFC_FSSRVR_IO);
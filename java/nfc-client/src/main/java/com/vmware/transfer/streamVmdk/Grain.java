@@ -0,0 +1,50 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.transfer.streamVmdk;
+
+/**
+ * A grain of a stream-optimized VMDK, read compressed by {@link StreamVmdkReader} and inflated separately so the
+ * two steps can run on different threads. The buffers are reused from one grain to the next.
+ */
+public class Grain {
+  /**
+   * First sector of the grain.
+   */
+  public long lba;
+
+  /**
+   * Compressed grain data.
+   */
+  public byte[] compressed;
+
+  /**
+   * Number of valid bytes in compressed, 0 for a progress marker without data.
+   */
+  public int compressedSize;
+
+  /**
+   * Inflated grain data.
+   */
+  public byte[] data;
+
+  /**
+   * Number of valid bytes in data.
+   */
+  public int size;
+
+  public Grain(int grainSizeBytes) {
+    this.compressed = new byte[grainSizeBytes];
+    this.data = new byte[grainSizeBytes];
+  }
+}
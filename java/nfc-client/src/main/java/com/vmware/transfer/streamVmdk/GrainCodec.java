@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.transfer.streamVmdk;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * GrainCodec compresses and decompresses grains with pooled Inflater and Deflater instances. A zlib stream holds
+ * native memory that is only released by end() or finalization, so creating one per grain of a multi-GB disk
+ * means millions of native allocations. Pooled instances are reset between grains, and ended when the pool is full
+ * or closed. The codec is thread-safe.
+ */
+public class GrainCodec implements AutoCloseable {
+  /**
+   * Default number of pooled instances of each kind.
+   */
+  public static final int DEFAULT_POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+
+  private static final GrainCodec SHARED = new GrainCodec(DEFAULT_POOL_SIZE);
+
+  private final BlockingQueue<Inflater> inflaters;
+
+  private final BlockingQueue<Deflater> deflaters;
+
+  private volatile boolean closed;
+
+  public GrainCodec(int poolSize) {
+    checkArgument(poolSize > 0, "poolSize needs to be greater than 0");
+    this.inflaters = new ArrayBlockingQueue<>(poolSize);
+    this.deflaters = new ArrayBlockingQueue<>(poolSize);
+  }
+
+  /**
+   * Codec shared by the readers and writers of the process.
+   */
+  public static GrainCodec getShared() {
+    return SHARED;
+  }
+
+  /**
+   * Maximum size of the compressed data. zlib expands incompressible data by at most .1% + 12 bytes, approximated
+   * conservatively as 2**-9 == .195% + 13.
+   *
+   * @param length size of the uncompressed data
+   * @return
+   */
+  public static int getMaxDeflatedSize(int length) {
+    return length + (length >> 9) + 13;
+  }
+
+  /**
+   * Inflate compressed grain data.
+   *
+   * @return size of the inflated data
+   */
+  public int inflate(byte[] input, int offset, int length, byte[] output) throws VmdkFormatException {
+    Inflater inflater = inflaters.poll();
+    if (inflater == null) {
+      inflater = new Inflater();
+    }
+    try {
+      inflater.setInput(input, offset, length);
+      return inflater.inflate(output);
+    } catch (DataFormatException e) {
+      throw new VmdkFormatException("Zlib error: " + e.getMessage(), e);
+    } finally {
+      inflater.reset();
+      if (closed || !inflaters.offer(inflater)) {
+        inflater.end();
+      }
+    }
+  }
+
+  /**
+   * Deflate grain data. The output holds at least {@link #getMaxDeflatedSize(int)} bytes.
+   *
+   * @return size of the compressed data
+   */
+  public int deflate(byte[] input, int offset, int length, byte[] output) {
+    checkArgument(output.length >= getMaxDeflatedSize(length), "output buffer is too small");
+    Deflater deflater = deflaters.poll();
+    if (deflater == null) {
+      deflater = new Deflater();
+    }
+    try {
+      deflater.setInput(input, offset, length);
+      deflater.finish();
+      return deflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH);
+    } finally {
+      deflater.reset();
+      if (closed || !deflaters.offer(deflater)) {
+        deflater.end();
+      }
+    }
+  }
+
+  /**
+   * Inflate the compressed data of a grain into its data buffer.
+   *
+   * @return size of the inflated data
+   */
+  public int inflate(Grain grain) throws VmdkFormatException {
+    grain.size = inflate(grain.compressed, 0, grain.compressedSize, grain.data);
+    return grain.size;
+  }
+
+  /**
+   * Deflate the data of a grain into its compressed buffer, growing the buffer as needed.
+   *
+   * @return size of the compressed data
+   */
+  public int deflate(Grain grain) {
+    int maxSize = getMaxDeflatedSize(grain.size);
+    if (grain.compressed == null || grain.compressed.length < maxSize) {
+      grain.compressed = new byte[maxSize];
+    }
+    grain.compressedSize = deflate(grain.data, 0, grain.size, grain.compressed);
+    return grain.compressedSize;
+  }
+
+  /**
+   * Number of pooled inflaters.
+   */
+  public int getPooledInflaterCount() {
+    return inflaters.size();
+  }
+
+  /**
+   * Number of pooled deflaters.
+   */
+  public int getPooledDeflaterCount() {
+    return deflaters.size();
+  }
+
+  /**
+   * End the pooled instances. Instances in use are ended when they are released.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    for (Inflater inflater = inflaters.poll(); inflater != null; inflater = inflaters.poll()) {
+      inflater.end();
+    }
+    for (Deflater deflater = deflaters.poll(); deflater != null; deflater = deflaters.poll()) {
+      deflater.end();
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.transfer.streamVmdk;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ParallelGrainCodec compresses or decompresses grains on a pool of threads and returns them in the order they
+ * were submitted. The caller takes the oldest grain before submitting more than maxPending grains, which bounds
+ * the memory used. Grains are submitted and taken by a single thread.
+ */
+public class ParallelGrainCodec implements AutoCloseable {
+
+  private final GrainCodec codec;
+
+  private final int maxPending;
+
+  private final ExecutorService executor;
+
+  private final Queue<Future<Grain>> pending = new ArrayDeque<>();
+
+  public ParallelGrainCodec(GrainCodec codec, int threads, int maxPending) {
+    checkNotNull(codec, "codec cannot be null");
+    checkArgument(threads > 0, "threads needs to be greater than 0");
+    checkArgument(maxPending > 0, "maxPending needs to be greater than 0");
+    this.codec = codec;
+    this.maxPending = maxPending;
+    this.executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+        .setNameFormat("grain-codec-%d")
+        .setDaemon(true)
+        .build());
+  }
+
+  /**
+   * Queue the inflation of the compressed data of a grain into its data buffer.
+   */
+  public void submitInflate(final Grain grain) {
+    checkState(!isFull(), "too many pending grains");
+    pending.add(executor.submit(() -> {
+      codec.inflate(grain);
+      return grain;
+    }));
+  }
+
+  /**
+   * Queue the deflation of the data of a grain into its compressed buffer.
+   */
+  public void submitDeflate(final Grain grain) {
+    checkState(!isFull(), "too many pending grains");
+    pending.add(executor.submit(() -> {
+      codec.deflate(grain);
+      return grain;
+    }));
+  }
+
+  /**
+   * Number of grains submitted and not taken yet.
+   */
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Whether the oldest grain needs to be taken before submitting another one.
+   */
+  public boolean isFull() {
+    return pending.size() >= maxPending;
+  }
+
+  /**
+   * Take the oldest grain, waiting for it to be processed.
+   *
+   * @return the grain, or null if no grain is pending
+   */
+  public Grain take() throws IOException, VmdkFormatException {
+    Future<Grain> next = pending.poll();
+    if (next == null) {
+      return null;
+    }
+    try {
+      return next.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for grain");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof VmdkFormatException) {
+        throw (VmdkFormatException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException("Failed to process grain", cause);
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+}
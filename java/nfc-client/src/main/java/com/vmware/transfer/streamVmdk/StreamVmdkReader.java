@@ -25,8 +25,6 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
 
 /**
  * StreamVmdkReader reads stream-optimized VMDKs. Used for converting disks
@@ -40,6 +38,9 @@ public class StreamVmdkReader {
   private long currentLba;
   private String adapterType;
   private Map<String, String> ddb;
+  private Grain nextGrain;
+  private final byte[] headerBytes = new byte[12];
+  private final ByteBuffer grainHeader = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
 
   public StreamVmdkReader(InputStream input) throws VmdkFormatException, IOException {
     this.input = new DataInputStream(input);
@@ -157,15 +158,34 @@ public class StreamVmdkReader {
   }
 
   public int getNextGrain(byte[] grain) throws VmdkFormatException, IOException {
-    byte[] headerBytes = new byte[12];
+    if (nextGrain == null) {
+      nextGrain = new Grain(grain.length);
+    }
+    nextGrain.data = grain;
+    if (!readNextGrain(nextGrain)) {
+      return -1; // End of stream
+    }
+    if (nextGrain.compressedSize == 0) {
+      return 0; // Progress marker
+    }
+    return inflate(nextGrain);
+  }
+
+  /**
+   * Read the next grain without inflating it. A progress marker is returned as a grain without compressed data.
+   *
+   * @param grain grain to read into, its compressed buffer grows as needed
+   * @return false at the end of the stream
+   */
+  public boolean readNextGrain(Grain grain) throws VmdkFormatException, IOException {
     readFully(headerBytes);
-    ByteBuffer header = ByteBuffer.wrap(headerBytes);
-    header.order(ByteOrder.LITTLE_ENDIAN);
+    ByteBuffer header = grainHeader;
+    header.clear();
     long sector = header.getLong();
     int cmpSize = header.getInt();
 
     // Sanity check
-    if (cmpSize > grain.length * 3) {
+    if (cmpSize > getGrainSize() * SparseUtil.DISKLIB_SECTOR_SIZE * 3) {
       throw new VmdkFormatException("Disk format error: Invalid grain size");
     }
 
@@ -179,12 +199,14 @@ public class StreamVmdkReader {
       long value = metadata.getLong();
       if (type == SparseUtil.GRAIN_MARKER_EOS) {
         input.close();
-        return -1; // End of stream
+        return false; // End of stream
       }
       if (type == SparseUtil.GRAIN_MARKER_PROGRESS) {
         // Update current LBA, and let the caller know something's happening.
         currentLba = value;
-        return 0;
+        grain.lba = value;
+        grain.compressedSize = 0;
+        return true;
       }
       // Some other metadata grain (GT/GD). Skip to next grain and retry from there.
       long toSkip = sector * 512;
@@ -192,23 +214,17 @@ public class StreamVmdkReader {
         toSkip -= input.skip(toSkip);
       }
       readFully(headerBytes);
-      header = ByteBuffer.wrap(headerBytes);
-      header.order(ByteOrder.LITTLE_ENDIAN);
+      header.clear();
       sector = header.getLong();
       cmpSize = header.getInt();
     }
     assert cmpSize > 0;
-    byte[] cmpBytes = new byte[cmpSize];
-    readFully(cmpBytes);
-    Inflater inf = new Inflater();
-    inf.setInput(cmpBytes);
-    int grainSize = -1;
-    try {
-      grainSize = inf.inflate(grain);
-    } catch (DataFormatException e) {
-      throw new VmdkFormatException("Zlib error: " + e.getMessage(), e);
+    if (grain.compressed == null || grain.compressed.length < cmpSize) {
+      grain.compressed = new byte[cmpSize];
     }
-    inf.end();
+    readFully(grain.compressed, cmpSize);
+    grain.compressedSize = cmpSize;
+    grain.lba = sector;
 
     long totalGrainSize = 12 + cmpSize;
     long paddingSize = ((totalGrainSize + 512 - 1) / 512) * 512 - totalGrainSize;
@@ -216,12 +232,27 @@ public class StreamVmdkReader {
       paddingSize -= input.skip(paddingSize);
     }
     currentLba = sector;
-    return grainSize;
+    return true;
+  }
+
+  /**
+   * Inflate the compressed data of a grain into its data buffer with the shared {@link GrainCodec}. Does not use
+   * the reader state, so grains can be inflated on other threads than the one reading them.
+   *
+   * @param grain
+   * @return size of the inflated data
+   */
+  public static int inflate(Grain grain) throws VmdkFormatException {
+    return GrainCodec.getShared().inflate(grain);
   }
 
   private void readFully(byte[] buffer) throws IOException, VmdkFormatException {
+    readFully(buffer, buffer.length);
+  }
+
+  private void readFully(byte[] buffer, int length) throws IOException, VmdkFormatException {
     try {
-      input.readFully(buffer);
+      input.readFully(buffer, 0, length);
     } catch (EOFException e) {
       throw new VmdkFormatException("Unexpected end of file", e);
     }
@@ -26,12 +26,18 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayDeque;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.Deflater;
 
 /**
  * StreamVmdkWriter writes stream-optimized VMDKs.
+ * <p>
+ * Grains are compressed with the shared {@link GrainCodec}, on the calling thread by default. With a
+ * {@link ParallelGrainCodec} they are compressed on its threads and written in the order they were passed in, so
+ * the output is identical.
+ * </p>
  */
 public class StreamVmdkWriter {
   private static final Logger logger = LoggerFactory.getLogger(StreamVmdkWriter.class);
@@ -53,8 +59,19 @@ public class StreamVmdkWriter {
   private ByteBuffer currentGrainTable;
   private ByteBuffer grainDirectory;
   private ByteBuffer grainHeader;
+  private final byte[] compressed = new byte[GrainCodec.getMaxDeflatedSize(SparseUtil.DEFAULT_GRAIN_SIZE_BYTES)];
+  private final ParallelGrainCodec parallelCodec;
+  private final Queue<Grain> freeGrains = new ArrayDeque<>();
 
   public StreamVmdkWriter(final OutputStream output, long capacitySectors) {
+    this(output, capacitySectors, null);
+  }
+
+  /**
+   * Writer compressing grains in parallel. The codec is used by this writer only, and is closed by the caller.
+   */
+  public StreamVmdkWriter(final OutputStream output, long capacitySectors, ParallelGrainCodec parallelCodec) {
+    this.parallelCodec = parallelCodec;
     this.output = new DataOutputStream(output);
     this.capacitySectors = capacitySectors;
     currentOffset = 0;
@@ -86,6 +103,9 @@ public class StreamVmdkWriter {
   /**
    * Write data grain to output stream.
    *
+   * The grain buffer can be reused once the call returns. In parallel mode the grain is copied and written later,
+   * so the returned size lags behind.
+   *
    * @param sector LBA of the grain
    * @param grain  Grain data
    * @return Size of stream written so far
@@ -95,31 +115,25 @@ public class StreamVmdkWriter {
     assert grain.length == SparseUtil.DEFAULT_GRAIN_SIZE_BYTES;
     assert sector % SparseUtil.DEFAULT_GRAIN_SIZE == 0;
     assert sector >= nextSector;
+    nextSector = sector + SparseUtil.DEFAULT_GRAIN_SIZE;
 
-    addToGrainTable(sector);
-
-        /*
-         * Maximum .1% + 12 bytes expansion according to zlib manual. It seems
-         * silly to do expensive multiplication and division for this, so we
-         * approximate it conservatively as 2**-9 == .195% + 13.
-         */
-    int maxSize = grain.length + (grain.length >> 9) + 13;
-    byte[] compressed = new byte[maxSize];
-
-    Deflater deflater = new Deflater();
-    deflater.setInput(grain);
-    deflater.finish();
-    int cmpSize = deflater.deflate(compressed, 0, maxSize, Deflater.SYNC_FLUSH);
-    grainHeader.clear();
-    grainHeader.putLong(sector);
-    grainHeader.putInt(cmpSize);
-    write(grainHeader.array(), 0, SparseUtil.STREAMED_GRAIN_HEADER_SIZE);
-    write(compressed, 0, cmpSize);
-    padTo(SparseUtil.DISKLIB_SECTOR_SIZE);
-    nextSector += SparseUtil.DEFAULT_GRAIN_SIZE;
+    if (parallelCodec == null) {
+      int cmpSize = GrainCodec.getShared().deflate(grain, 0, grain.length, compressed);
+      writeCompressedGrain(sector, compressed, cmpSize);
+      return currentOffset;
+    }
 
-    updateLastWriteTime(sector);
-    unflushedDataGrains = true;
+    while (parallelCodec.isFull()) {
+      writeNextDeflatedGrain();
+    }
+    Grain pending = freeGrains.poll();
+    if (pending == null) {
+      pending = new Grain(SparseUtil.DEFAULT_GRAIN_SIZE_BYTES);
+    }
+    System.arraycopy(grain, 0, pending.data, 0, grain.length);
+    pending.lba = sector;
+    pending.size = grain.length;
+    parallelCodec.submitDeflate(pending);
     return currentOffset;
   }
 
@@ -134,6 +148,7 @@ public class StreamVmdkWriter {
     assert sector % SparseUtil.DEFAULT_GRAIN_SIZE == 0;
     assert sector >= nextSector;
 
+    writePendingGrains();
     if (unflushedDataGrains) {
             /*
              * First empty grain after a series of data grains. Flush the
@@ -152,6 +167,8 @@ public class StreamVmdkWriter {
   }
 
   public void writeTrailer() throws IOException {
+    writePendingGrains();
+
     // write remaining grain table, if any
     if (currentGrainTable != null) {
       flushCurrentGrainTable();
@@ -176,6 +193,51 @@ public class StreamVmdkWriter {
     output.close();
   }
 
+  private void writeCompressedGrain(long sector, byte[] data, int size) throws IOException {
+    addToGrainTable(sector);
+    grainHeader.clear();
+    grainHeader.putLong(sector);
+    grainHeader.putInt(size);
+    write(grainHeader.array(), 0, SparseUtil.STREAMED_GRAIN_HEADER_SIZE);
+    write(data, 0, size);
+    padTo(SparseUtil.DISKLIB_SECTOR_SIZE);
+
+    updateLastWriteTime(sector);
+    unflushedDataGrains = true;
+  }
+
+  /**
+   * Write the oldest grain compressed in parallel mode.
+   *
+   * @return false if no grain is pending
+   */
+  private boolean writeNextDeflatedGrain() throws IOException {
+    Grain grain;
+    try {
+      grain = parallelCodec.take();
+    } catch (VmdkFormatException e) {
+      // Only inflation fails on the grain format
+      throw new IOException(e);
+    }
+    if (grain == null) {
+      return false;
+    }
+    writeCompressedGrain(grain.lba, grain.compressed, grain.compressedSize);
+    freeGrains.add(grain);
+    return true;
+  }
+
+  /**
+   * Write the grains still being compressed in parallel mode.
+   */
+  private void writePendingGrains() throws IOException {
+    if (parallelCodec != null) {
+      while (writeNextDeflatedGrain()) {
+        // Written in submission order
+      }
+    }
+  }
+
   private void write(byte[] data) throws IOException {
     write(data, 0, data.length);
   }
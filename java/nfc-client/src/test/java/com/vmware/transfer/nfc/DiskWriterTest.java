@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.transfer.nfc;
+
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+/**
+ * Tests {@link DiskWriter}.
+ */
+public class DiskWriterTest {
+
+  private static final int SECTOR_SIZE = NfcClient.SECTOR_SIZE;
+
+  private static byte[] buildSectors(int count) {
+    byte[] data = new byte[count * SECTOR_SIZE];
+    Arrays.fill(data, (byte) 1);
+    return data;
+  }
+
+  /**
+   * Tests that contiguous non-zero sectors are sent as one run, and zero sectors as empty runs.
+   */
+  @Test
+  public void testRuns() throws Exception {
+    ByteBuffer reply = ByteBuffer.allocate(NfcClient.NFC_MESSAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    reply.putInt(NfcClient.NFC_PUTFILE_DONE);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    NfcClient nfcClient = new NfcClient(Channels.newChannel(new ByteArrayInputStream(reply.array())),
+        Channels.newChannel(output));
+
+    DiskWriter writer = new DiskWriter(nfcClient, 16);
+    byte[] grain = buildSectors(4);
+    // Last sector of the grain is zero
+    Arrays.fill(grain, 3 * SECTOR_SIZE, 4 * SECTOR_SIZE, (byte) 0);
+    writer.writeGrain(0, grain, 0, grain.length);
+    writer.writeGrain(4, buildSectors(1), 0);
+    writer.writeGrain(5, buildSectors(1), 0);
+    writer.finalizeWrite();
+
+    ByteBuffer sent = ByteBuffer.wrap(output.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    assertThat(sent.getInt(), is(NfcClient.NFC_FILE_DATA));
+    sent.position(NfcClient.NFC_MESSAGE_SIZE);
+    assertThat(sent.getInt(), is(NfcClient.FILE_DATA_HDR_MAGIC));
+    assertThat(sent.getInt(), is(4 * 2 + 4 * 4 * 2 + 5 * SECTOR_SIZE));
+    assertThat(sent.getInt(), is(NfcClient.FILE_DSK_HDR_MAGIC));
+    assertThat(sent.getInt(), is(0));
+    assertRun(sent, 3, true);
+    assertRun(sent, 1, false);
+    assertRun(sent, 2, true);
+    assertRun(sent, 10, false);
+
+    // Empty FILE_DATA marking the end of the stream
+    assertThat(sent.getInt(), is(NfcClient.NFC_FILE_DATA));
+    sent.position(sent.position() + NfcClient.NFC_MESSAGE_SIZE - 4);
+    assertThat(sent.getInt(), is(NfcClient.FILE_DATA_HDR_MAGIC));
+    assertThat(sent.getInt(), is(0));
+    assertThat(sent.hasRemaining(), is(false));
+  }
+
+  private static void assertRun(ByteBuffer sent, int sectors, boolean isData) {
+    assertThat(sent.getInt(), is(NfcClient.FILE_DSK_RLE_HDR_MAGIC));
+    assertThat(sent.getInt(), is(isData ? sectors | NfcClient.RLE_NON_ZERO_FLAG : sectors));
+    if (isData) {
+      for (int i = 0; i < sectors * SECTOR_SIZE; i++) {
+        assertThat(sent.get(), is((byte) 1));
+      }
+    }
+  }
+
+  /**
+   * Tests that a non-zero byte is found at any position of a sector.
+   */
+  @Test
+  public void testIsZero() {
+    byte[] data = new byte[2 * SECTOR_SIZE];
+    assertThat(DiskWriter.isZero(data, 0, SECTOR_SIZE), is(true));
+    for (int i = 0; i < SECTOR_SIZE; i++) {
+      data[SECTOR_SIZE + i] = (byte) 0x80;
+      assertThat(DiskWriter.isZero(data, SECTOR_SIZE, SECTOR_SIZE), is(false));
+      assertThat(DiskWriter.isZero(data, 0, SECTOR_SIZE), is(true));
+      data[SECTOR_SIZE + i] = 0;
+    }
+  }
+}
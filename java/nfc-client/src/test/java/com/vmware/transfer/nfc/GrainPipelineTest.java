@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.transfer.nfc;
+
+import com.vmware.transfer.streamVmdk.Grain;
+import com.vmware.transfer.streamVmdk.StreamVmdkReader;
+import com.vmware.transfer.streamVmdk.VmdkFormatException;
+
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Tests {@link GrainPipeline}.
+ */
+public class GrainPipelineTest {
+
+  private static final int GRAIN_SECTORS = 4;
+
+  private static final int GRAIN_SIZE_BYTES = GRAIN_SECTORS * SparseUtil.DISKLIB_SECTOR_SIZE;
+
+  static byte[] deflate(byte[] data) {
+    Deflater deflater = new Deflater();
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      byte[] buffer = new byte[data.length + 64];
+      int size = deflater.deflate(buffer);
+      return Arrays.copyOf(buffer, size);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Returns a reader serving grainCount grains, each filled with its index, with a progress marker after the
+   * first grain.
+   */
+  private static StreamVmdkReader buildDisk(int grainCount) throws Exception {
+    StreamVmdkReader disk = mock(StreamVmdkReader.class);
+    when(disk.getGrainSize()).thenReturn(GRAIN_SECTORS);
+
+    AtomicInteger next = new AtomicInteger();
+    when(disk.readNextGrain(any(Grain.class))).thenAnswer(invocation -> {
+      Grain grain = (Grain) invocation.getArguments()[0];
+      int index = next.getAndIncrement();
+      if (index == 1) {
+        grain.compressedSize = 0;
+        return true;
+      }
+      int grainIndex = index == 0 ? 0 : index - 1;
+      if (grainIndex >= grainCount) {
+        return false;
+      }
+
+      byte[] data = new byte[GRAIN_SIZE_BYTES];
+      Arrays.fill(data, (byte) (grainIndex + 1));
+      byte[] compressed = deflate(data);
+      System.arraycopy(compressed, 0, grain.compressed, 0, compressed.length);
+      grain.compressedSize = compressed.length;
+      grain.lba = (long) grainIndex * GRAIN_SECTORS;
+      return true;
+    });
+
+    return disk;
+  }
+
+  /**
+   * Tests that the sectors are written in disk order with their content.
+   */
+  @Test
+  public void testRun() throws Exception {
+    int grainCount = 50;
+    StreamVmdkReader disk = buildDisk(grainCount);
+    DiskWriter writer = mock(DiskWriter.class);
+
+    List<Long> lbas = new ArrayList<>();
+    List<Byte> contents = new ArrayList<>();
+    doAnswer(invocation -> {
+      long lba = (Long) invocation.getArguments()[0];
+      byte[] data = (byte[]) invocation.getArguments()[1];
+      int offset = (Integer) invocation.getArguments()[2];
+      int length = (Integer) invocation.getArguments()[3];
+      for (int i = offset; i < offset + length; i += SparseUtil.DISKLIB_SECTOR_SIZE) {
+        lbas.add(lba++);
+        contents.add(data[i]);
+      }
+      return null;
+    }).when(writer).writeGrain(anyLong(), any(byte[].class), anyInt(), anyInt());
+
+    int written = new GrainPipeline(3, 2).run(disk, writer);
+
+    assertThat(written, is(grainCount));
+    assertThat(lbas.size(), is(grainCount * GRAIN_SECTORS));
+    for (int i = 0; i < lbas.size(); i++) {
+      assertThat(lbas.get(i), is((long) i));
+      assertThat(contents.get(i), is((byte) (i / GRAIN_SECTORS + 1)));
+    }
+  }
+
+  /**
+   * Tests that a failure of the reader is thrown to the caller.
+   */
+  @Test(expectedExceptions = VmdkFormatException.class, expectedExceptionsMessageRegExp = "Unexpected end of file")
+  public void testReaderFailure() throws Exception {
+    StreamVmdkReader disk = mock(StreamVmdkReader.class);
+    when(disk.getGrainSize()).thenReturn(GRAIN_SECTORS);
+    when(disk.readNextGrain(any(Grain.class))).thenThrow(new VmdkFormatException("Unexpected end of file"));
+
+    new GrainPipeline(2, 2).run(disk, mock(DiskWriter.class));
+  }
+
+  /**
+   * Tests that a grain that cannot be inflated fails the upload.
+   */
+  @Test(expectedExceptions = VmdkFormatException.class, expectedExceptionsMessageRegExp = "Zlib error: .*")
+  public void testInflateFailure() throws Exception {
+    StreamVmdkReader disk = mock(StreamVmdkReader.class);
+    when(disk.getGrainSize()).thenReturn(GRAIN_SECTORS);
+    when(disk.readNextGrain(any(Grain.class))).thenAnswer(invocation -> {
+      Grain grain = (Grain) invocation.getArguments()[0];
+      Arrays.fill(grain.compressed, (byte) 0xff);
+      grain.compressedSize = 16;
+      return true;
+    });
+
+    new GrainPipeline(2, 2).run(disk, mock(DiskWriter.class));
+  }
+}
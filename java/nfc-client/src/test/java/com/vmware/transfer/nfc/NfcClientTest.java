@@ -13,6 +13,7 @@
 
 package com.vmware.transfer.nfc;
 
+import com.vmware.transfer.streamVmdk.Grain;
 import com.vmware.transfer.streamVmdk.StreamVmdkReader;
 
 import org.mockito.InOrder;
@@ -21,19 +22,21 @@ import org.testng.annotations.Test;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.anyInt;
-import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Tests {@link com.vmware.transfer.nfc.NfcClient}.
@@ -54,19 +57,62 @@ public class NfcClientTest extends PowerMockTestCase {
     when(disk.getDdb()).thenReturn(ddb);
     doReturn(writer).when(nfcClient).putDisk("image destination path", "buslogic", 65536L);
 
-    byte[] grain = new byte[disk.getGrainSize() * SparseUtil.DISKLIB_SECTOR_SIZE];
-    when(disk.getNextGrain(grain)).thenReturn(65536, -1);
-    when(disk.getCurrentLba()).thenReturn(0L);
+    when(disk.getGrainSize()).thenReturn(128);
+    byte[] compressed = GrainPipelineTest.deflate(new byte[65536]);
+    when(disk.readNextGrain(any(Grain.class))).thenAnswer(invocation -> {
+      Grain grain = (Grain) invocation.getArguments()[0];
+      grain.lba = 0;
+      grain.compressed = compressed;
+      grain.compressedSize = compressed.length;
+      return true;
+    }).thenReturn(false);
 
     long bytes = nfcClient.putStreamOptimizedDisk("image destination path", inputStream);
     assertThat(bytes, is(33554432L));
 
     InOrder inOrder = inOrder(writer, nfcClient);
     inOrder.verify(writer).writeDdb(ddb);
-    inOrder.verify(writer, times(128)).writeGrain(anyLong(), any(byte[].class), anyInt());
+    inOrder.verify(writer).writeGrain(eq(0L), any(byte[].class), eq(0), eq(65536));
     inOrder.verify(writer).finalizeWrite();
     inOrder.verify(nfcClient).close();
     inOrder.verify(writer).close();
     inOrder.verify(nfcClient).abort();
   }
+
+  /**
+   * Tests that a message and its payload are sent with gathering writes, until all buffers are written.
+   */
+  @Test
+  public void testSendNfcMsgGathering() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    AtomicInteger writes = new AtomicInteger();
+    GatheringByteChannel channel = mock(GatheringByteChannel.class);
+    when(channel.write(any(ByteBuffer[].class))).thenAnswer(invocation -> {
+      writes.incrementAndGet();
+      // Partial writes of at most 100 bytes
+      int written = 0;
+      for (ByteBuffer buffer : (ByteBuffer[]) invocation.getArguments()[0]) {
+        while (buffer.hasRemaining() && written < 100) {
+          output.write(buffer.get());
+          written++;
+        }
+      }
+      return (long) written;
+    });
+
+    NfcClient nfcClient = new NfcClient(null, channel);
+    ByteBuffer msg = nfcClient.newNfcMsg(NfcClient.NFC_FILE_DATA);
+    ByteBuffer payload = ByteBuffer.allocateDirect(100);
+    while (payload.hasRemaining()) {
+      payload.put((byte) 1);
+    }
+    payload.flip();
+    nfcClient.sendNfcMsg(msg, payload, ByteBuffer.allocate(0));
+
+    byte[] sent = output.toByteArray();
+    assertThat(sent.length, is(NfcClient.NFC_MESSAGE_SIZE + 100));
+    assertThat(sent[0], is((byte) NfcClient.NFC_FILE_DATA));
+    assertThat(sent[sent.length - 1], is((byte) 1));
+    assertThat(writes.get(), is(4));
+  }
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.transfer.streamVmdk;
+
+import com.vmware.transfer.nfc.SparseUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Throughput benchmark of grain compression. The benchmark is not part of the regular test run, it is run with
+ * "gradle :nfc-client:benchmark" and configured with the system properties benchmark.grains (grains per run),
+ * benchmark.threads (thread counts of the parallel runs) and benchmark.iterations (runs per case, the first one
+ * being a warm-up).
+ */
+public class GrainCodecBenchmarkTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(GrainCodecBenchmarkTest.class);
+
+  private static final String PROPERTY_PREFIX = "benchmark.";
+
+  private static final int GRAIN_SIZE_BYTES = SparseUtil.DEFAULT_GRAIN_SIZE_BYTES;
+
+  private final int grainCount = Integer.getInteger(PROPERTY_PREFIX + "grains", 2000);
+
+  private final int iterations = Integer.getInteger(PROPERTY_PREFIX + "iterations", 3);
+
+  /**
+   * Compares a Deflater and an Inflater per grain, as the reader and writer used to do, with the pooled codec.
+   */
+  @Test(groups = "benchmark")
+  public void testSequential() throws Exception {
+    Grain[] grains = buildGrains(grainCount);
+    try (GrainCodec codec = new GrainCodec(1)) {
+      for (int i = 0; i < iterations; i++) {
+        report("unpooled deflate", deflateUnpooled(grains));
+        report("unpooled inflate", inflateUnpooled(grains));
+        report("pooled deflate", time(() -> {
+          for (Grain grain : grains) {
+            codec.deflate(grain);
+          }
+        }));
+        report("pooled inflate", time(() -> {
+          for (Grain grain : grains) {
+            codec.inflate(grain);
+          }
+        }));
+      }
+    }
+  }
+
+  /**
+   * Runs the parallel codec, keeping as many grains in flight as the NFC upload does.
+   */
+  @Test(groups = "benchmark", dataProvider = "Threads")
+  public void testParallel(int threads) throws Exception {
+    Grain[] grains = buildGrains(grainCount);
+    try (GrainCodec codec = new GrainCodec(threads);
+         ParallelGrainCodec parallelCodec = new ParallelGrainCodec(codec, threads, 4 * threads)) {
+      for (int i = 0; i < iterations; i++) {
+        report(threads + " threads deflate", time(() -> {
+          for (Grain grain : grains) {
+            if (parallelCodec.isFull()) {
+              parallelCodec.take();
+            }
+            parallelCodec.submitDeflate(grain);
+          }
+          while (parallelCodec.take() != null) {
+            // Drained in submission order
+          }
+        }));
+        report(threads + " threads inflate", time(() -> {
+          for (Grain grain : grains) {
+            if (parallelCodec.isFull()) {
+              parallelCodec.take();
+            }
+            parallelCodec.submitInflate(grain);
+          }
+          while (parallelCodec.take() != null) {
+            // Drained in submission order
+          }
+        }));
+      }
+    }
+    assertThat(grains[grains.length - 1].size, is(GRAIN_SIZE_BYTES));
+  }
+
+  @DataProvider(name = "Threads")
+  public Object[][] getThreads() {
+    String[] threads = System.getProperty(PROPERTY_PREFIX + "threads", "2,4").split(",");
+    Object[][] data = new Object[threads.length][];
+    for (int i = 0; i < threads.length; i++) {
+      data[i] = new Object[]{Integer.parseInt(threads[i].trim())};
+    }
+
+    return data;
+  }
+
+  /**
+   * Grains half filled with random data, compressing roughly like the used part of a guest disk.
+   */
+  private static Grain[] buildGrains(int count) {
+    Random random = new Random(0);
+    Grain[] grains = new Grain[count];
+    for (int i = 0; i < count; i++) {
+      grains[i] = new Grain(GRAIN_SIZE_BYTES);
+      random.nextBytes(grains[i].data);
+      Arrays.fill(grains[i].data, GRAIN_SIZE_BYTES / 2, GRAIN_SIZE_BYTES, (byte) 0);
+      grains[i].size = GRAIN_SIZE_BYTES;
+    }
+
+    return grains;
+  }
+
+  private static long deflateUnpooled(Grain[] grains) throws Exception {
+    return time(() -> {
+      for (Grain grain : grains) {
+        grain.compressed = new byte[GrainCodec.getMaxDeflatedSize(grain.size)];
+        Deflater deflater = new Deflater();
+        deflater.setInput(grain.data, 0, grain.size);
+        deflater.finish();
+        grain.compressedSize = deflater.deflate(grain.compressed, 0, grain.compressed.length, Deflater.SYNC_FLUSH);
+        deflater.end();
+      }
+    });
+  }
+
+  private static long inflateUnpooled(Grain[] grains) throws Exception {
+    return time(() -> {
+      for (Grain grain : grains) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(grain.compressed, 0, grain.compressedSize);
+        grain.size = inflater.inflate(grain.data);
+        inflater.end();
+      }
+    });
+  }
+
+  private void report(String name, long nanos) {
+    double megabytes = (double) grainCount * GRAIN_SIZE_BYTES / (1024 * 1024);
+    logger.info("{}: {} grains in {} ms, {} MB/s", name, grainCount, TimeUnit.NANOSECONDS.toMillis(nanos),
+        String.format("%.1f", megabytes * TimeUnit.SECONDS.toNanos(1) / nanos));
+  }
+
+  private static long time(Run run) throws Exception {
+    long start = System.nanoTime();
+    run.run();
+    return System.nanoTime() - start;
+  }
+
+  private interface Run {
+    void run() throws Exception;
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.transfer.streamVmdk;
+
+import com.vmware.transfer.nfc.SparseUtil;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests {@link GrainCodec} and {@link ParallelGrainCodec}.
+ */
+public class GrainCodecTest {
+
+  private static final int GRAIN_SIZE_BYTES = SparseUtil.DEFAULT_GRAIN_SIZE_BYTES;
+
+  private GrainCodec codec;
+
+  @BeforeMethod
+  public void setUp() {
+    codec = new GrainCodec(2);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    codec.close();
+  }
+
+  private static Grain buildGrain(int seed) {
+    Grain grain = new Grain(GRAIN_SIZE_BYTES);
+    // Half random, half zeroes so the grain compresses to a distinct size
+    new Random(seed).nextBytes(grain.data);
+    Arrays.fill(grain.data, GRAIN_SIZE_BYTES / 2, GRAIN_SIZE_BYTES, (byte) 0);
+    grain.size = GRAIN_SIZE_BYTES;
+    grain.lba = (long) seed * SparseUtil.DEFAULT_GRAIN_SIZE;
+    return grain;
+  }
+
+  /**
+   * Tests that deflated grains are inflated back to their data.
+   */
+  @Test
+  public void testRoundTrip() throws Exception {
+    Grain grain = buildGrain(1);
+    byte[] expected = Arrays.copyOf(grain.data, GRAIN_SIZE_BYTES);
+
+    int compressedSize = codec.deflate(grain);
+    assertThat(compressedSize, lessThan(GRAIN_SIZE_BYTES));
+    assertThat(grain.compressedSize, is(compressedSize));
+
+    Arrays.fill(grain.data, (byte) 0);
+    assertThat(codec.inflate(grain), is(GRAIN_SIZE_BYTES));
+    assertThat(Arrays.equals(grain.data, expected), is(true));
+  }
+
+  /**
+   * Tests that incompressible data fits the compressed buffer.
+   */
+  @Test
+  public void testIncompressible() throws Exception {
+    Grain grain = new Grain(GRAIN_SIZE_BYTES);
+    new Random(2).nextBytes(grain.data);
+    grain.size = GRAIN_SIZE_BYTES;
+    byte[] expected = Arrays.copyOf(grain.data, GRAIN_SIZE_BYTES);
+
+    codec.deflate(grain);
+    assertThat(grain.compressed.length, is(GrainCodec.getMaxDeflatedSize(GRAIN_SIZE_BYTES)));
+
+    codec.inflate(grain);
+    assertThat(Arrays.equals(grain.data, expected), is(true));
+  }
+
+  /**
+   * Tests that the zlib streams are reused from one grain to the next, up to the pool size.
+   */
+  @Test
+  public void testPooling() throws Exception {
+    Grain grain = buildGrain(3);
+    for (int i = 0; i < 3; i++) {
+      codec.deflate(grain);
+      codec.inflate(grain);
+    }
+    assertThat(codec.getPooledDeflaterCount(), is(1));
+    assertThat(codec.getPooledInflaterCount(), is(1));
+
+    codec.close();
+    assertThat(codec.getPooledDeflaterCount(), is(0));
+    assertThat(codec.getPooledInflaterCount(), is(0));
+
+    // A closed codec still works, without pooling
+    codec.deflate(grain);
+    assertThat(codec.getPooledDeflaterCount(), is(0));
+  }
+
+  /**
+   * Tests that corrupted data fails the inflation and does not poison the pool.
+   */
+  @Test
+  public void testInflateFailure() throws Exception {
+    Grain grain = buildGrain(4);
+    Arrays.fill(grain.compressed, (byte) 0xff);
+    grain.compressedSize = 16;
+    try {
+      codec.inflate(grain);
+      throw new AssertionError("Inflating corrupted data should fail");
+    } catch (VmdkFormatException e) {
+      assertThat(e.getMessage().startsWith("Zlib error: "), is(true));
+    }
+
+    Grain valid = buildGrain(5);
+    byte[] expected = Arrays.copyOf(valid.data, GRAIN_SIZE_BYTES);
+    codec.deflate(valid);
+    Arrays.fill(valid.data, (byte) 0);
+    codec.inflate(valid);
+    assertThat(Arrays.equals(valid.data, expected), is(true));
+  }
+
+  /**
+   * Tests that the parallel codec returns the grains in submission order, with the same output as the sequential
+   * codec.
+   */
+  @Test
+  public void testParallelOrder() throws Exception {
+    int grainCount = 20;
+    try (ParallelGrainCodec parallelCodec = new ParallelGrainCodec(codec, 4, 6)) {
+      int taken = 0;
+      for (int i = 0; i < grainCount; i++) {
+        if (parallelCodec.isFull()) {
+          assertTaken(parallelCodec.take(), taken++);
+        }
+        parallelCodec.submitDeflate(buildGrain(taken + parallelCodec.getPendingCount()));
+      }
+      while (parallelCodec.getPendingCount() > 0) {
+        assertTaken(parallelCodec.take(), taken++);
+      }
+      assertThat(taken, is(grainCount));
+      assertThat(parallelCodec.take(), nullValue());
+    }
+  }
+
+  private void assertTaken(Grain grain, int seed) {
+    Grain expected = buildGrain(seed);
+    codec.deflate(expected);
+    assertThat(grain.lba, is(expected.lba));
+    assertThat(grain.compressedSize, is(expected.compressedSize));
+    assertThat(Arrays.equals(Arrays.copyOf(grain.compressed, grain.compressedSize),
+        Arrays.copyOf(expected.compressed, expected.compressedSize)), is(true));
+  }
+
+  /**
+   * Tests that grains cannot be submitted past the maximum pending count.
+   */
+  @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "too many pending grains")
+  public void testParallelFull() throws Exception {
+    try (ParallelGrainCodec parallelCodec = new ParallelGrainCodec(codec, 1, 1)) {
+      parallelCodec.submitDeflate(buildGrain(6));
+      assertThat(parallelCodec.isFull(), is(true));
+      parallelCodec.submitDeflate(buildGrain(7));
+    }
+  }
+
+  /**
+   * Tests that a failed inflation is thrown by take.
+   */
+  @Test(expectedExceptions = VmdkFormatException.class, expectedExceptionsMessageRegExp = "Zlib error: .*")
+  public void testParallelInflateFailure() throws Exception {
+    try (ParallelGrainCodec parallelCodec = new ParallelGrainCodec(codec, 1, 1)) {
+      Grain grain = buildGrain(8);
+      Arrays.fill(grain.compressed, (byte) 0xff);
+      grain.compressedSize = 16;
+      parallelCodec.submitInflate(grain);
+      parallelCodec.take();
+    }
+  }
+}
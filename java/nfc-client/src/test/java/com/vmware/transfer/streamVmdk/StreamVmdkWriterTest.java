@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.transfer.streamVmdk;
+
+import com.vmware.transfer.nfc.SparseUtil;
+
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Tests {@link StreamVmdkWriter}.
+ */
+public class StreamVmdkWriterTest {
+
+  private static final int GRAIN_COUNT = 40;
+
+  private static final long CAPACITY_SECTORS = (long) GRAIN_COUNT * SparseUtil.DEFAULT_GRAIN_SIZE;
+
+  private static byte[] buildGrain(int index) {
+    byte[] grain = new byte[SparseUtil.DEFAULT_GRAIN_SIZE_BYTES];
+    new Random(index).nextBytes(grain);
+    Arrays.fill(grain, grain.length / 4, grain.length, (byte) index);
+    return grain;
+  }
+
+  /**
+   * Writes the disk with runs of data grains separated by empty grains, reusing the caller's grain buffer.
+   */
+  private static byte[] writeDisk(StreamVmdkWriter writer, ByteArrayOutputStream output) throws Exception {
+    writer.writeHeader(1, Collections.singletonMap("ddb.adapterType", "lsilogic"));
+    byte[] buffer = new byte[SparseUtil.DEFAULT_GRAIN_SIZE_BYTES];
+    for (int i = 0; i < GRAIN_COUNT; i++) {
+      long sector = (long) i * SparseUtil.DEFAULT_GRAIN_SIZE;
+      if (i % 8 != 7) {
+        System.arraycopy(buildGrain(i), 0, buffer, 0, buffer.length);
+        writer.writeDataGrain(sector, buffer);
+      } else {
+        writer.writeProgressGrain(sector);
+      }
+    }
+    writer.writeTrailer();
+    writer.close();
+    return output.toByteArray();
+  }
+
+  /**
+   * Tests that the written disk is read back with its grains.
+   */
+  @Test
+  public void testReadBack() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] disk = writeDisk(new StreamVmdkWriter(output, CAPACITY_SECTORS), output);
+
+    StreamVmdkReader reader = new StreamVmdkReader(new ByteArrayInputStream(disk));
+    assertThat(reader.getCapacityInSectors(), is(CAPACITY_SECTORS));
+    byte[] grain = new byte[SparseUtil.DEFAULT_GRAIN_SIZE_BYTES];
+    int grainCount = 0;
+    for (int size = reader.getNextGrain(grain); size >= 0; size = reader.getNextGrain(grain)) {
+      if (size == 0) {
+        continue;
+      }
+      int index = (int) (reader.getCurrentLba() / SparseUtil.DEFAULT_GRAIN_SIZE);
+      assertThat(Arrays.equals(grain, buildGrain(index)), is(true));
+      grainCount++;
+    }
+    assertThat(grainCount, is(GRAIN_COUNT - GRAIN_COUNT / 8));
+  }
+
+  /**
+   * Tests that compressing the grains in parallel writes the same disk.
+   */
+  @Test
+  public void testParallel() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] expected = writeDisk(new StreamVmdkWriter(output, CAPACITY_SECTORS), output);
+
+    try (ParallelGrainCodec parallelCodec = new ParallelGrainCodec(GrainCodec.getShared(), 3, 4)) {
+      output = new ByteArrayOutputStream();
+      byte[] disk = writeDisk(new StreamVmdkWriter(output, CAPACITY_SECTORS, parallelCodec), output);
+      assertThat(Arrays.equals(disk, expected), is(true));
+    }
+  }
+}